@@ -0,0 +1,198 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Collects job received and job completed notifications per master, so that
+ * they can be sent as a single message. A notification is held back for at
+ * most a short, fixed window, or until enough notifications for the same
+ * master have been collected.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class AcknowledgementAggregator {
+    private final HashMap<IbisIdentifier, PendingAcknowledgements> pending = new HashMap<IbisIdentifier, PendingAcknowledgements>();
+
+    /** The notifications that are waiting for a single master. */
+    private static final class PendingAcknowledgements {
+        private long receivedIds[] = new long[4];
+
+        private double receivedMoments[] = new double[4];
+
+        private int receivedCount = 0;
+
+        private long completedIds[] = new long[4];
+
+        private double completedMoments[] = new double[4];
+
+        private int completedCount = 0;
+
+        /** The moment the oldest notification in this set was registered. */
+        private final double firstMoment;
+
+        private PendingAcknowledgements(final double firstMoment) {
+            this.firstMoment = firstMoment;
+        }
+
+        private void addReceived(final long id, final double moment) {
+            if (receivedCount >= receivedIds.length) {
+                receivedIds = Arrays.copyOf(receivedIds, 2 * receivedCount);
+                receivedMoments = Arrays.copyOf(receivedMoments,
+                        2 * receivedCount);
+            }
+            receivedIds[receivedCount] = id;
+            receivedMoments[receivedCount] = moment;
+            receivedCount++;
+        }
+
+        private void addCompleted(final long id, final double moment) {
+            if (completedCount >= completedIds.length) {
+                completedIds = Arrays.copyOf(completedIds, 2 * completedCount);
+                completedMoments = Arrays.copyOf(completedMoments,
+                        2 * completedCount);
+            }
+            completedIds[completedCount] = id;
+            completedMoments[completedCount] = moment;
+            completedCount++;
+        }
+
+        private int size() {
+            return receivedCount + completedCount;
+        }
+
+        private boolean isDue(final double now) {
+            return size() >= Settings.MAXIMAL_ACKNOWLEDGEMENT_BATCH
+                    || now - firstMoment >= Settings.ACKNOWLEDGEMENT_WINDOW;
+        }
+
+        /**
+         * Builds a message for these notifications. For every notification
+         * the message records how long it was held back, so that the master
+         * can reconstruct the moment it would have arrived on its own.
+         */
+        private JobAcknowledgementsMessage buildMessage(final double now) {
+            final double receivedDelays[] = new double[receivedCount];
+            for (int i = 0; i < receivedCount; i++) {
+                receivedDelays[i] = now - receivedMoments[i];
+            }
+            final double completedDelays[] = new double[completedCount];
+            for (int i = 0; i < completedCount; i++) {
+                completedDelays[i] = now - completedMoments[i];
+            }
+            return new JobAcknowledgementsMessage(Arrays.copyOf(receivedIds,
+                    receivedCount), receivedDelays, Arrays.copyOf(
+                    completedIds, completedCount), completedDelays);
+        }
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private PendingAcknowledgements getPending(final IbisIdentifier master,
+            final double now) {
+        PendingAcknowledgements p = pending.get(master);
+        if (p == null) {
+            p = new PendingAcknowledgements(now);
+            pending.put(master, p);
+        }
+        return p;
+    }
+
+    /**
+     * Registers that the jobs with the given identifiers from the given master
+     * have arrived at the given moment.
+     *
+     * @param master
+     *            The master of the jobs.
+     * @param ids
+     *            The identifiers of the jobs, as handed out by the master.
+     * @param moment
+     *            The moment the jobs arrived.
+     * @return <code>true</code> iff the notifications for this master should
+     *         be sent right away.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized boolean addReceived(final IbisIdentifier master,
+            final long ids[], final double moment) {
+        final PendingAcknowledgements p = getPending(master, moment);
+        for (final long id : ids) {
+            p.addReceived(id, moment);
+        }
+        return p.size() >= Settings.MAXIMAL_ACKNOWLEDGEMENT_BATCH;
+    }
+
+    /**
+     * Registers that the job with the given identifier from the given master
+     * has been completed at the given moment.
+     *
+     * @param master
+     *            The master of the job.
+     * @param id
+     *            The identifier of the job, as handed out by the master.
+     * @param moment
+     *            The moment the job was completed.
+     * @return <code>true</code> iff the notifications for this master should
+     *         be sent right away.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized boolean addCompleted(final IbisIdentifier master,
+            final long id, final double moment) {
+        final PendingAcknowledgements p = getPending(master, moment);
+        p.addCompleted(id, moment);
+        return p.size() >= Settings.MAXIMAL_ACKNOWLEDGEMENT_BATCH;
+    }
+
+    /**
+     * Removes the notifications that should be sent now from the
+     * administration, and returns them as a list of messages.
+     *
+     * @param force
+     *            If set, return all notifications, even if they could wait a
+     *            little longer.
+     * @return The list of messages to send.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized ArrayList<QueuedMessage> getDueMessages(final boolean force) {
+        final ArrayList<QueuedMessage> res = new ArrayList<QueuedMessage>();
+        if (pending.isEmpty()) {
+            return res;
+        }
+        final double now = Utils.getPreciseTime();
+        final Iterator<Map.Entry<IbisIdentifier, PendingAcknowledgements>> it = pending
+                .entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<IbisIdentifier, PendingAcknowledgements> entry = it
+                    .next();
+            final PendingAcknowledgements p = entry.getValue();
+            if (force || p.isDue(now)) {
+                res.add(new QueuedMessage(entry.getKey(), p.buildMessage(now)));
+                it.remove();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the time in ms until the next set of notifications is due, or
+     * <code>Long.MAX_VALUE</code> if there are no notifications.
+     *
+     * @return The time until the next notifications are due.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized long getWaitTimeInMilliseconds() {
+        double first = Double.POSITIVE_INFINITY;
+        for (final PendingAcknowledgements p : pending.values()) {
+            first = Math.min(first, p.firstMoment);
+        }
+        if (first == Double.POSITIVE_INFINITY) {
+            return Long.MAX_VALUE;
+        }
+        final double wait = first + Settings.ACKNOWLEDGEMENT_WINDOW
+                - Utils.getPreciseTime();
+        return Math.max(1L, (long) Math.ceil(wait / Utils.MILLISECOND));
+    }
+}
@@ -21,6 +21,9 @@ class ActiveJob {
     /** The moment this job should be completed. */
     final double rescheduleDeadline;
 
+    /** True iff this job was stolen from the worker we sent it to. */
+    final boolean stolen;
+
     ActiveJob(JobInstance jobInstance, long id, double startTime,
             NodeJobInfo nodeJobInfo, double allowanceDeadline,
             double rescheduleDeadline) {
@@ -30,6 +33,26 @@ class ActiveJob {
         this.startTime = startTime;
         this.allowanceDeadline = allowanceDeadline;
         this.rescheduleDeadline = rescheduleDeadline;
+        this.stolen = false;
+    }
+
+    /**
+     * Given a job that was stolen from its worker, constructs the entry for
+     * the worker that stole it.
+     * 
+     * @param original
+     *            The entry of the job on the original worker.
+     * @param nodeJobInfo
+     *            The info of the new worker for the type of the job.
+     */
+    ActiveJob(ActiveJob original, NodeJobInfo nodeJobInfo) {
+        this.jobInstance = original.jobInstance;
+        this.id = original.id;
+        this.nodeJobInfo = nodeJobInfo;
+        this.startTime = original.startTime;
+        this.allowanceDeadline = original.allowanceDeadline;
+        this.rescheduleDeadline = original.rescheduleDeadline;
+        this.stolen = true;
     }
 
     /**
@@ -0,0 +1,14 @@
+package ibis.maestro;
+
+/**
+ * The interface of an atomic job that spends most of its time waiting, for
+ * example for a file, a database, or a remote service. Such jobs are run on a
+ * separate pool of threads, so that they don't keep the processors of the
+ * node from running other jobs while they wait.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+public interface BlockingJob extends AtomicJob {
+    // Just a marker interface.
+}
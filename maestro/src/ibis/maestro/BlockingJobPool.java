@@ -0,0 +1,126 @@
+package ibis.maestro;
+
+import java.io.PrintStream;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The threads that run the jobs that implement {@link BlockingJob}. Since such
+ * a job mostly waits, it is handed to this pool instead of occupying one of
+ * the work threads of the node. The number of threads, and therefore the
+ * number of blocking jobs that run at the same time, is bounded by
+ * {@link Settings#BLOCKING_JOBS_PER_PROCESSOR} per processor. The threads are
+ * only started when the first blocking job arrives.
+ *
+ * A blocking job stays in the worker queue of the node until one of the
+ * threads of this pool is free and takes it out, so that it can still be
+ * stolen or cancelled, and is counted in the queue length the node gossips.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class BlockingJobPool {
+    private final Node node;
+
+    private final Thread threads[];
+
+    /** A permit for every blocking job in the worker queue. */
+    private final Semaphore queuedJobs = new Semaphore(0);
+
+    private boolean started = false;
+
+    /** The number of jobs that are running. */
+    private int activeJobs = 0;
+
+    private int maximalActiveJobs = 0;
+
+    private long handledJobs = 0;
+
+    private final class BlockingJobThread extends Thread {
+        BlockingJobThread() {
+            super("Blocking job thread");
+            setDaemon(true);
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void run() {
+            while (true) {
+                queuedJobs.acquireUninterruptibly();
+                final RunJobMessage message = node.takeBlockingJob();
+                if (message == null) {
+                    // Taken by somebody else after all.
+                    continue;
+                }
+                jobStarted();
+                try {
+                    node.runBlockingJob(message);
+                } catch (final Throwable x) {
+                    Globals.log.reportError("Uncaught exception in blocking job thread: "
+                            + x.getLocalizedMessage());
+                    x.printStackTrace(Globals.log.getPrintStream());
+                } finally {
+                    jobFinished();
+                }
+            }
+        }
+    }
+
+    BlockingJobPool(final Node node, final int threadCount) {
+        this.node = node;
+        threads = new Thread[threadCount];
+    }
+
+    /**
+     * Registers that the given number of blocking jobs were added to the
+     * worker queue. A free thread of the pool will take each of them.
+     *
+     * @param n
+     *            The number of jobs.
+     */
+    void registerQueuedJobs(final int n) {
+        synchronized (this) {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < threads.length; i++) {
+                    threads[i] = new BlockingJobThread();
+                    threads[i].start();
+                }
+            }
+        }
+        queuedJobs.release(n);
+    }
+
+    /**
+     * Registers that a blocking job left the worker queue without being
+     * executed by us.
+     */
+    void registerUnqueuedJob() {
+        queuedJobs.tryAcquire();
+    }
+
+    private synchronized void jobStarted() {
+        activeJobs++;
+        if (activeJobs > maximalActiveJobs) {
+            maximalActiveJobs = activeJobs;
+        }
+        handledJobs++;
+    }
+
+    private synchronized void jobFinished() {
+        activeJobs--;
+    }
+
+    /**
+     * Returns true iff there are no jobs running in this pool.
+     *
+     * @return True iff this pool is idle.
+     */
+    synchronized boolean isIdle() {
+        return activeJobs == 0;
+    }
+
+    synchronized void printStatistics(final PrintStream s) {
+        s.println("blocking jobs: " + handledJobs + " run on "
+                + threads.length + " threads; at most " + maximalActiveJobs
+                + " at the same time");
+    }
+}
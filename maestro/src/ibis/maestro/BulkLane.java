@@ -0,0 +1,230 @@
+package ibis.maestro;
+
+import ibis.ipl.PortType;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * The bulk lane: messages with a large job input or result are serialized to
+ * a byte array, and sent in chunks over a separate connection. That way they
+ * never delay the control and gossip messages on the normal connection, and
+ * chunks of different bulk messages to the same node can be interleaved.
+ *
+ * Every chunk is a separate ipl message that starts with the transfer id,
+ * the total length of the serialized message, and the offset and length of
+ * the chunk.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class BulkLane {
+    static final PortType portType = new PortType(
+            PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_DATA,
+            PortType.CONNECTION_MANY_TO_ONE, PortType.CONNECTION_UPCALLS,
+            PortType.RECEIVE_AUTO_UPCALLS);
+
+    private BulkLane() {
+        // Only static methods.
+    }
+
+    private static long getInputSize(final RunJobMessage m,
+            final long threshold) {
+        final long sz = m.jobInstance.getInputSize();
+        if (sz >= 0) {
+            return sz;
+        }
+        return PayloadSizeEstimator.estimate(m.jobInstance.input, threshold);
+    }
+
+    /**
+     * Returns true iff the given message carries so much data that it should
+     * be sent over the bulk lane.
+     *
+     * @param message
+     *            The message to examine.
+     * @return True iff the message should be sent over the bulk lane.
+     */
+    static boolean isBulkMessage(final Message message) {
+        final long threshold = Settings.BULK_MESSAGE_THRESHOLD;
+        if (message instanceof RunJobMessage) {
+            return getInputSize((RunJobMessage) message, threshold) >= threshold;
+        }
+        if (message instanceof RunJobBatchMessage) {
+            long sz = 0;
+            for (final RunJobMessage m : ((RunJobBatchMessage) message).messages) {
+                sz += getInputSize(m, threshold - sz);
+                if (sz >= threshold) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (message instanceof DataReplyMessage) {
+            return ((DataReplyMessage) message).size >= threshold;
+        }
+        if (message instanceof JobResultMessage) {
+            return PayloadSizeEstimator.estimate(
+                    ((JobResultMessage) message).result, threshold) >= threshold;
+        }
+        return false;
+    }
+
+    /**
+     * Since the bulk lane serializes an entire message at once, the input
+     * size of the individual jobs is not measured. Derive it from the size of
+     * the serialized message instead.
+     */
+    private static void registerInputSizes(final Message message,
+            final long size) {
+        if (message instanceof RunJobMessage) {
+            ((RunJobMessage) message).jobInstance.setInputSize(size);
+        } else if (message instanceof RunJobBatchMessage) {
+            final RunJobMessage l[] = ((RunJobBatchMessage) message).messages;
+            for (final RunJobMessage m : l) {
+                m.jobInstance.setInputSize(size / l.length);
+            }
+        }
+    }
+
+    /**
+     * Serializes the given message to a byte array.
+     *
+     * @param message
+     *            The message to serialize.
+     * @return The serialized message.
+     * @throws IOException
+     *             Thrown if the message could not be serialized.
+     */
+    static byte[] serialize(final Message message) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.close();
+        final byte res[] = bytes.toByteArray();
+        registerInputSizes(message, res.length);
+        return res;
+    }
+
+    /**
+     * Deserializes a message from the given byte array.
+     *
+     * @param data
+     *            The serialized message.
+     * @return The message.
+     * @throws IOException
+     *             Thrown if the message could not be deserialized.
+     * @throws ClassNotFoundException
+     *             Thrown if a class in the message is unknown.
+     */
+    static Message deserialize(final byte data[]) throws IOException,
+            ClassNotFoundException {
+        final ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(data));
+        try {
+            return (Message) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the given serialized message in chunks to the given port. The
+     * port is not held between chunks, so other threads can send their chunks
+     * in between.
+     *
+     * @param port
+     *            The port to write to.
+     * @param transferId
+     *            The identifier of this transfer.
+     * @param data
+     *            The serialized message.
+     * @return The number of bytes written.
+     * @throws IOException
+     *             Thrown if a chunk could not be written.
+     */
+    static long writeChunks(final SendPort port, final long transferId,
+            final byte data[]) throws IOException {
+        long len = 0;
+        int offset = 0;
+        do {
+            final int n = Math.min(Settings.BULK_CHUNK_SIZE, data.length
+                    - offset);
+            final WriteMessage msg = port.newMessage();
+            msg.writeLong(transferId);
+            msg.writeInt(data.length);
+            msg.writeInt(offset);
+            msg.writeInt(n);
+            msg.writeArray(data, offset, n);
+            len += msg.finish();
+            offset += n;
+        } while (offset < data.length);
+        return len;
+    }
+
+    /** A chunk as read from a port. */
+    static final class Chunk {
+        final long transferId;
+
+        final int totalLength;
+
+        final int offset;
+
+        final int length;
+
+        private Chunk(final long transferId, final int totalLength,
+                final int offset, final int length) {
+            this.transferId = transferId;
+            this.totalLength = totalLength;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads the header of a chunk from the given message. The data of the
+     * chunk must be read with {@link #readChunkData(ReadMessage, Chunk, byte[])}.
+     *
+     * @param msg
+     *            The message to read from.
+     * @return The chunk header.
+     * @throws IOException
+     *             Thrown if the header could not be read.
+     */
+    @SuppressWarnings("synthetic-access")
+    static Chunk readChunkHeader(final ReadMessage msg) throws IOException {
+        final long transferId = msg.readLong();
+        final int totalLength = msg.readInt();
+        final int offset = msg.readInt();
+        final int length = msg.readInt();
+        // Written as a subtraction, since offset + length may overflow.
+        if (totalLength < 0 || offset < 0 || length < 0
+                || length > totalLength - offset) {
+            throw new IOException("Malformed bulk chunk: totalLength="
+                    + totalLength + " offset=" + offset + " length=" + length);
+        }
+        return new Chunk(transferId, totalLength, offset, length);
+    }
+
+    /**
+     * Reads the data of the given chunk into the given buffer.
+     *
+     * @param msg
+     *            The message to read from.
+     * @param chunk
+     *            The header of the chunk.
+     * @param buffer
+     *            The buffer of the entire transfer.
+     * @throws IOException
+     *             Thrown if the data could not be read.
+     */
+    static void readChunkData(final ReadMessage msg, final Chunk chunk,
+            final byte buffer[]) throws IOException {
+        msg.readArray(buffer, chunk.offset, chunk.length);
+    }
+}
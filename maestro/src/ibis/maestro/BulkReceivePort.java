@@ -0,0 +1,113 @@
+package ibis.maestro;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.MessageUpcall;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.ReceivePortConnectUpcall;
+import ibis.ipl.SendPortIdentifier;
+
+import java.io.IOException;
+
+/**
+ * The receive port of the bulk lane. Collects the chunks of each transfer,
+ * and hands the message to the listener once all chunks have arrived.
+ *
+ * @author Kees van Reeuwijk
+ */
+class BulkReceivePort implements MessageUpcall, ReceivePortConnectUpcall {
+    private final ReceivePort port;
+
+    private final PacketReceiveListener listener;
+
+    /** The transfers that have not been completely received yet. */
+    private final BulkTransfers transfers = new BulkTransfers();
+
+    /**
+     * Constructs a new bulk receive port.
+     *
+     * @param ibis
+     *            The Ibis the port will belong to.
+     * @param name
+     *            The name of the port.
+     * @param listener
+     *            The listener to hand the received messages to.
+     * @throws IOException
+     *             Thrown if the port could not be created.
+     */
+    BulkReceivePort(final Ibis ibis, final String name,
+            final PacketReceiveListener listener) throws IOException {
+        this.listener = listener;
+        port = ibis.createReceivePort(BulkLane.portType, name, this, this,
+                null);
+    }
+
+    /**
+     * Handle the upcall of the ipl port. Only public because the interface
+     * requires it.
+     *
+     * @param msg
+     *            The message to handle.
+     * @throws IOException
+     *             Thrown if for some reason the given message could not be
+     *             read.
+     */
+    @Override
+    public void upcall(final ReadMessage msg) throws IOException {
+        final SendPortIdentifier origin = msg.origin();
+        final byte bytes[] = transfers.readChunk(origin, msg);
+        if (bytes == null) {
+            return;
+        }
+        Message data;
+        try {
+            data = BulkLane.deserialize(bytes);
+        } catch (final ClassNotFoundException e) {
+            Globals.log
+                    .reportInternalError("Cannot read bulk message in upcall: class not found: "
+                            + e.getLocalizedMessage());
+            return;
+        }
+        data.source = origin.ibisIdentifier();
+        data.arrivalMoment = Utils.getPreciseTime();
+        listener.messageReceived(data);
+    }
+
+    /**
+     * Accept a new connection. Only public because the interface requires it.
+     *
+     * @param receivePort
+     *            The port that is connected to.
+     * @param origin
+     *            The port that connects.
+     * @return Always <code>true</code>.
+     */
+    @Override
+    public boolean gotConnection(final ReceivePort receivePort,
+            final SendPortIdentifier origin) {
+        return true;
+    }
+
+    /**
+     * Forget the incomplete transfers of a connection that was closed. Only
+     * public because the interface requires it.
+     *
+     * @param receivePort
+     *            The port that was connected to.
+     * @param origin
+     *            The port that was connected.
+     * @param cause
+     *            The reason the connection was lost, if any.
+     */
+    @Override
+    public void lostConnection(final ReceivePort receivePort,
+            final SendPortIdentifier origin, final Throwable cause) {
+        transfers.removeConnection(origin);
+    }
+
+    /** Enable this port. */
+    protected void enable() {
+        port.enableMessageUpcalls();
+        port.enableConnections();
+    }
+}
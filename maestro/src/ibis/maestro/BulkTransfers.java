@@ -0,0 +1,105 @@
+package ibis.maestro;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.SendPortIdentifier;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * The transfers of the bulk lane that have not been completely received yet.
+ * Chunks of different transfers, and from different connections, may arrive
+ * interleaved and in any order; the data of a transfer is returned once all
+ * its chunks have arrived.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class BulkTransfers {
+    /** A transfer that has not been completely received yet. */
+    private static final class Transfer {
+        private final byte data[];
+
+        private int received = 0;
+
+        private Transfer(final int length) {
+            data = new byte[length];
+        }
+    }
+
+    /** For each connection, the incomplete transfers over it. */
+    private final HashMap<SendPortIdentifier, HashMap<Long, Transfer>> transfers = new HashMap<SendPortIdentifier, HashMap<Long, Transfer>>();
+
+    @SuppressWarnings("synthetic-access")
+    private synchronized Transfer getTransfer(final SendPortIdentifier origin,
+            final BulkLane.Chunk chunk) throws IOException {
+        HashMap<Long, Transfer> l = transfers.get(origin);
+        if (l == null) {
+            l = new HashMap<Long, Transfer>();
+            transfers.put(origin, l);
+        }
+        Transfer t = l.get(chunk.transferId);
+        if (t == null) {
+            t = new Transfer(chunk.totalLength);
+            l.put(chunk.transferId, t);
+        } else if (t.data.length != chunk.totalLength) {
+            throw new IOException("Bulk chunk of transfer "
+                    + chunk.transferId + " has total length "
+                    + chunk.totalLength + " instead of " + t.data.length);
+        }
+        return t;
+    }
+
+    /**
+     * Registers the given chunk of the given transfer, and returns true iff
+     * the transfer is now complete.
+     */
+    @SuppressWarnings("synthetic-access")
+    private synchronized boolean registerChunk(
+            final SendPortIdentifier origin, final BulkLane.Chunk chunk,
+            final Transfer t) {
+        t.received += chunk.length;
+        if (t.received < t.data.length) {
+            return false;
+        }
+        final HashMap<Long, Transfer> l = transfers.get(origin);
+        if (l != null) {
+            l.remove(chunk.transferId);
+        }
+        return true;
+    }
+
+    /**
+     * Reads a chunk from the given message, and returns the data of its
+     * transfer if that is now complete.
+     *
+     * @param origin
+     *            The connection the chunk arrived over.
+     * @param msg
+     *            The message with the chunk.
+     * @return The data of the transfer, or <code>null</code> if not all of
+     *         its chunks have arrived yet.
+     * @throws IOException
+     *             Thrown if the chunk could not be read.
+     */
+    @SuppressWarnings("synthetic-access")
+    byte[] readChunk(final SendPortIdentifier origin, final ReadMessage msg)
+            throws IOException {
+        final BulkLane.Chunk chunk = BulkLane.readChunkHeader(msg);
+        final Transfer t = getTransfer(origin, chunk);
+        BulkLane.readChunkData(msg, chunk, t.data);
+        if (!registerChunk(origin, chunk, t)) {
+            return null;
+        }
+        return t.data;
+    }
+
+    /**
+     * Forgets the incomplete transfers of the given connection.
+     *
+     * @param origin
+     *            The connection that was closed.
+     */
+    synchronized void removeConnection(final SendPortIdentifier origin) {
+        transfers.remove(origin);
+    }
+}
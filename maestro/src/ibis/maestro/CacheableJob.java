@@ -0,0 +1,14 @@
+package ibis.maestro;
+
+/**
+ * The interface of an atomic job whose result only depends on its input.
+ * Maestro may answer such a job with a result it has computed earlier for an
+ * equal input, instead of running the job again. Two inputs are considered
+ * equal if their serialized forms are equal.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+public interface CacheableJob extends AtomicJob {
+    // Just a marker interface.
+}
@@ -0,0 +1,36 @@
+package ibis.maestro;
+
+/**
+ * A message from a master telling a worker that it no longer needs the result
+ * of the given job, because a speculative copy of the job on another worker
+ * has completed first.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class CancelJobMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job, as handed out by the master. */
+    final long jobId;
+
+    /**
+     * Constructs a new cancel message.
+     * 
+     * @param jobId
+     *            The identifier of the job to cancel.
+     */
+    CancelJobMessage(final long jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "cancel job message for job " + jobId;
+    }
+}
@@ -0,0 +1,21 @@
+package ibis.maestro;
+
+/**
+ * A job completion listener that also wants to know when the result of a
+ * job will never be delivered, because the node was stopped before the job
+ * was completed.
+ * 
+ * @author Kees van Reeuwijk
+ */
+interface CancellableCompletionListener extends JobCompletionListener {
+    /**
+     * Registers that the given job will never be completed.
+     * 
+     * @param node
+     *            The node we're running on.
+     * @param id
+     *            The identifier of the job, as provided by the user program
+     *            at the moment the job instance was submitted.
+     */
+    void jobCancelled(Node node, Object id);
+}
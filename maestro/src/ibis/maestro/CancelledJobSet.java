@@ -0,0 +1,79 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The jobs that were cancelled by their master while they were running, or
+ * before they arrived. Only the most recent cancellations are remembered,
+ * since a cancellation for a job that has already been completed is never
+ * removed.
+ * 
+ * @author Kees van Reeuwijk
+ */
+final class CancelledJobSet {
+    /** The maximal number of cancellations we remember. */
+    private static final int MAXIMAL_SIZE = 1000;
+
+    private static final class Key {
+        private final IbisIdentifier master;
+
+        private final long jobId;
+
+        private Key(final IbisIdentifier master, final long jobId) {
+            this.master = master;
+            this.jobId = jobId;
+        }
+
+        @Override
+        public int hashCode() {
+            return master.hashCode() ^ (int) (jobId ^ (jobId >>> 32));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return jobId == other.jobId && master.equals(other.master);
+        }
+    }
+
+    private final LinkedHashMap<Key, Key> cancelled = new LinkedHashMap<Key, Key>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Key> eldest) {
+            return size() > MAXIMAL_SIZE;
+        }
+    };
+
+    @SuppressWarnings("synthetic-access")
+    synchronized void add(final IbisIdentifier master, final long jobId) {
+        final Key k = new Key(master, jobId);
+        cancelled.put(k, k);
+    }
+
+    /**
+     * Removes the given job from the set.
+     * 
+     * @param master
+     *            The master of the job.
+     * @param jobId
+     *            The identifier of the job, as handed out by the master.
+     * @return True iff the job was cancelled.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized boolean remove(final IbisIdentifier master, final long jobId) {
+        if (cancelled.isEmpty()) {
+            return false;
+        }
+        return cancelled.remove(new Key(master, jobId)) != null;
+    }
+}
@@ -20,6 +20,19 @@ class ConnectionCache {
             Settings.CONNECTION_CACHE_SIZE,
             Settings.CONNECTION_CACHE_MAXIMAL_UNUSED_COUNT);
 
+    /** The connections of the bulk lane. */
+    private final SendPortCache bulkCache = new SendPortCache(
+            Settings.CONNECTION_CACHE_SIZE,
+            Settings.CONNECTION_CACHE_MAXIMAL_UNUSED_COUNT, BulkLane.portType,
+            Globals.bulkReceivePortName);
+
+    /** The identifier of the next transfer over the bulk lane. */
+    private long nextTransferId = 0;
+
+    private int bulkMessageCount = 0;
+
+    private long bulkBytes = 0;
+
     ConnectionCache(Node node) {
         this.node = node;
     }
@@ -27,7 +40,9 @@ class ConnectionCache {
     private long cachedSendMessage(IbisIdentifier ibis, Message message) {
         long len = -1;
         try {
-            final SendPort port = cache.getSendPort(ibis);
+            final SendPortCacheConnectionInfo connection = cache
+                    .getConnection(ibis);
+            final SendPort port = connection.getSendPort();
             if (port == null) {
                 // We could not create a connection to this ibis.
                 Globals.log
@@ -38,7 +53,7 @@ class ConnectionCache {
                 return -1;
             }
             final WriteMessage msg = port.newMessage();
-            msg.writeObject(message);
+            connection.writeMessage(msg, message);
             len = msg.finish();
         } catch (final IOException x) {
             Globals.log.reportInternalError("Could not get send port for ibis "
@@ -52,6 +67,53 @@ class ConnectionCache {
         return len;
     }
 
+    private synchronized long getNextTransferId() {
+        return nextTransferId++;
+    }
+
+    private synchronized void registerBulkMessage(long len) {
+        bulkMessageCount++;
+        bulkBytes += len;
+    }
+
+    /**
+     * Sends the given message in chunks over the bulk lane to the given
+     * ibis.
+     * 
+     * @param ibis
+     *            The ibis to send to.
+     * @param message
+     *            The message to send.
+     * @return The number of bytes sent, or <code>-1</code> if the message
+     *         could not be sent.
+     */
+    private long bulkSendMessage(IbisIdentifier ibis, Message message) {
+        long len = -1;
+        try {
+            final byte data[] = BulkLane.serialize(message);
+            final SendPortCacheConnectionInfo connection = bulkCache
+                    .getConnection(ibis);
+            final SendPort port = connection.getSendPort();
+            if (port == null) {
+                Globals.log
+                        .reportInternalError("Could not get bulk send port for ibis "
+                                + ibis);
+                node.setSuspect(ibis);
+                bulkCache.closeSendPort(ibis);
+                return -1;
+            }
+            len = BulkLane.writeChunks(port, getNextTransferId(), data);
+            registerBulkMessage(len);
+        } catch (final IOException x) {
+            Globals.log.reportInternalError("Could not send bulk message to ibis "
+                    + ibis + ": " + x.getLocalizedMessage());
+            node.setSuspect(ibis);
+            bulkCache.closeSendPort(ibis);
+            len = -1;
+        }
+        return len;
+    }
+
     /**
      * Given an ibis, returns a WriteMessage to use.
      * 
@@ -70,7 +132,7 @@ class ConnectionCache {
             WriteMessage msg = null;
             try {
                 msg = port.newMessage();
-                msg.writeObject(message);
+                MessageCodec.writeMessage(msg, message);
             } finally {
                 if (msg != null) {
                     len = msg.finish();
@@ -109,7 +171,7 @@ class ConnectionCache {
             WriteMessage msg = null;
             try {
                 msg = port.newMessage();
-                msg.writeObject(message);
+                MessageCodec.writeMessage(msg, message);
             } finally {
                 if (msg != null) {
                     len = msg.finish();
@@ -142,7 +204,13 @@ class ConnectionCache {
         long sz;
 
         if (Settings.CACHE_CONNECTIONS) {
-            sz = cachedSendMessage(ibis, message);
+            // Without connection caching every message has its own
+            // connection anyway, so the bulk lane is only used with caching.
+            if (Settings.BULK_LANE && BulkLane.isBulkMessage(message)) {
+                sz = bulkSendMessage(ibis, message);
+            } else {
+                sz = cachedSendMessage(ibis, message);
+            }
         } else {
             sz = uncachedSendMessage(ibis, message);
         }
@@ -151,19 +219,32 @@ class ConnectionCache {
 
     void printStatistics(PrintStream s) {
         cache.printStatistics(s);
+        if (Settings.BULK_LANE) {
+            bulkCache.printStatistics(s);
+            synchronized (this) {
+                s.println("bulk lane: sent " + Utils.formatByteCount(bulkBytes)
+                        + " in " + bulkMessageCount + " messages");
+            }
+        }
     }
 
     long sendNonEssentialMessage(IbisIdentifier ibis, Message message) {
         long len = -1;
         if (Settings.CACHE_CONNECTIONS) {
             try {
-                final SendPort port = cache.getExistingSendPort(ibis);
+                final SendPortCacheConnectionInfo connection = cache
+                        .getExistingConnection(ibis);
+                if (connection == null) {
+                    // No port in cache, don't try to send the message.
+                    return -1;
+                }
+                final SendPort port = connection.getSendPort();
                 if (port == null) {
                     // No port in cache, don't try to send the message.
                     return -1;
                 }
                 final WriteMessage msg = port.newMessage();
-                msg.writeObject(message);
+                connection.writeMessage(msg, message);
                 len = msg.finish();
             } catch (final IOException x) {
                 node.setSuspect(ibis);
@@ -12,6 +12,10 @@ class Counter {
         value++;
     }
 
+    synchronized void add(int n) {
+        value += n;
+    }
+
     synchronized int get() {
         return value;
     }
@@ -0,0 +1,58 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.Serializable;
+
+/**
+ * A reference to an object in the object store of a node. It is used as the
+ * input of a job instead of the object itself.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class DataHandle implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The node that holds the object. */
+    final IbisIdentifier holder;
+
+    /** The identifier of the object in the store of the holder. */
+    final long id;
+
+    /** The estimated size in bytes of the object. */
+    final long size;
+
+    DataHandle(final IbisIdentifier holder, final long id, final long size) {
+        this.holder = holder;
+        this.id = id;
+        this.size = size;
+    }
+
+    @Override
+    public int hashCode() {
+        return holder.hashCode() ^ (int) (id ^ (id >>> 32));
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DataHandle)) {
+            return false;
+        }
+        final DataHandle other = (DataHandle) obj;
+        return id == other.id && holder.equals(other.holder);
+    }
+
+    /**
+     * Returns a string representation of this handle.
+     *
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "(data " + id + "@" + holder + " "
+                + Utils.formatByteCount(size) + ")";
+    }
+}
@@ -0,0 +1,362 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The data plane of a node. Large intermediate results of series jobs are
+ * kept in the object store of the node that produced them, and the next stage
+ * only gets a handle to it. The node that executes that stage fetches the
+ * object from the holder, starting as soon as the job arrives, so that the
+ * transfer overlaps with the time the job waits in the queue. A job that is
+ * executed on the holder itself uses the stored object directly. A job that
+ * reaches the head of the queue before its input has arrived is parked, and
+ * put back in the queue once the fetch completes, so that no work thread
+ * waits for a transfer.
+ *
+ * Fetch requests are served by a separate thread, so that sending a large
+ * object never blocks the handling of other messages. The same thread
+ * expires fetches that take longer than {@link Settings#DATA_FETCH_TIMEOUT}.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class DataPlane extends Thread {
+    /** The time in ms between checks for expired fetches. */
+    private static final long EXPIRATION_CHECK_INTERVAL = 1000L;
+
+    private final Node node;
+
+    private final PacketSendPort sendPort;
+
+    private final IbisIdentifier localIbis;
+
+    private final ObjectStore store = new ObjectStore(
+            Settings.DATA_PLANE_STORE_BUDGET);
+
+    /** The fetch requests we still have to serve. */
+    private final LinkedBlockingQueue<FetchDataMessage> requests = new LinkedBlockingQueue<FetchDataMessage>();
+
+    /** The objects we are fetching, or have fetched but not used yet. */
+    private final HashMap<DataHandle, Fetch> fetches = new HashMap<DataHandle, Fetch>();
+
+    private final Counter fetchCount = new Counter();
+
+    private final Counter failedFetchCount = new Counter();
+
+    private final Counter servedCount = new Counter();
+
+    /** The state of an object we are fetching. */
+    private static final class Fetch {
+        /** The moment in ms the fetch was started. */
+        private final long startMoment;
+
+        private boolean done = false;
+
+        private Serializable value = null;
+
+        /** The number of queued jobs that use this object. */
+        private int users = 1;
+
+        /** The jobs that wait for this object. */
+        private final ArrayList<RunJobMessage> parked = new ArrayList<RunJobMessage>();
+
+        private Fetch(final long startMoment) {
+            this.startMoment = startMoment;
+        }
+    }
+
+    DataPlane(final Node node, final PacketSendPort sendPort,
+            final IbisIdentifier localIbis) {
+        super("Maestro data plane thread");
+        this.node = node;
+        this.sendPort = sendPort;
+        this.localIbis = localIbis;
+        setDaemon(true);
+    }
+
+    /**
+     * Given an intermediate result, returns the value to use as input of the
+     * next stage: either a handle to the stored result, or the result itself
+     * if it is small or there is no room to store it.
+     *
+     * @param result
+     *            The intermediate result.
+     * @return The input for the next stage.
+     */
+    Serializable store(final Serializable result) {
+        // Only walk as much of the result as we need to decide; the size
+        // of a stored result is therefore a lower bound.
+        final long size = PayloadSizeEstimator.estimate(result,
+                Settings.DATA_PLANE_THRESHOLD);
+        if (size < Settings.DATA_PLANE_THRESHOLD) {
+            return result;
+        }
+        final long id = store.put(result, size);
+        if (id < 0) {
+            return result;
+        }
+        return new DataHandle(localIbis, id, size);
+    }
+
+    /**
+     * Releases the object used by the given job, since the job has been
+     * completed.
+     *
+     * @param job
+     *            The completed job.
+     */
+    void release(final JobInstance job) {
+        if (job.input instanceof DataHandle) {
+            final DataHandle h = (DataHandle) job.input;
+            if (h.holder.equals(localIbis)) {
+                store.release(h.id);
+            }
+        }
+    }
+
+    /**
+     * Starts fetching the input of the given job if it is an object held by
+     * another node.
+     *
+     * @param job
+     *            The job that has arrived.
+     */
+    @SuppressWarnings("synthetic-access")
+    void prefetch(final JobInstance job) {
+        if (!(job.input instanceof DataHandle)) {
+            return;
+        }
+        final DataHandle h = (DataHandle) job.input;
+        if (h.holder.equals(localIbis)) {
+            return;
+        }
+        synchronized (this) {
+            final Fetch f = fetches.get(h);
+            if (f != null) {
+                f.users++;
+                return;
+            }
+            fetches.put(h, new Fetch(System.currentTimeMillis()));
+        }
+        startFetch(h);
+    }
+
+    private void startFetch(final DataHandle h) {
+        fetchCount.add();
+        if (!sendPort.send(h.holder, new FetchDataMessage(h))) {
+            registerValue(h, null);
+        }
+    }
+
+    /**
+     * Forgets that the given job uses its input, since the job has left the
+     * worker queue without being executed: it was cancelled or stolen.
+     *
+     * @param job
+     *            The job that left the queue.
+     */
+    @SuppressWarnings("synthetic-access")
+    void discard(final JobInstance job) {
+        if (!(job.input instanceof DataHandle)) {
+            return;
+        }
+        final DataHandle h = (DataHandle) job.input;
+        synchronized (this) {
+            final Fetch f = fetches.get(h);
+            if (f != null) {
+                f.users--;
+                if (f.users <= 0) {
+                    fetches.remove(h);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parks the job in the given message if its input is still being
+     * fetched. Once the fetch has completed, or has failed, the job is put
+     * back in the worker queue of the node.
+     *
+     * @param msg
+     *            The message with the job that is about to be executed.
+     * @return True iff the job was parked.
+     */
+    @SuppressWarnings("synthetic-access")
+    boolean park(final RunJobMessage msg) {
+        if (!(msg.jobInstance.input instanceof DataHandle)) {
+            return false;
+        }
+        final DataHandle h = (DataHandle) msg.jobInstance.input;
+        if (h.holder.equals(localIbis)) {
+            return false;
+        }
+        synchronized (this) {
+            Fetch f = fetches.get(h);
+            if (f != null) {
+                if (f.done) {
+                    return false;
+                }
+                f.parked.add(msg);
+                return true;
+            }
+            // Not prefetched; shouldn't happen, but be robust.
+            f = new Fetch(System.currentTimeMillis());
+            f.parked.add(msg);
+            fetches.put(h, f);
+        }
+        startFetch(h);
+        return true;
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private void registerValue(final DataHandle h, final Serializable value) {
+        final RunJobMessage parked[];
+        synchronized (this) {
+            final Fetch f = fetches.get(h);
+            if (f == null || f.done) {
+                // Nobody is waiting for it (any more), or it has expired.
+                return;
+            }
+            f.done = true;
+            f.value = value;
+            if (value == null) {
+                failedFetchCount.add();
+            }
+            parked = f.parked.toArray(new RunJobMessage[f.parked.size()]);
+            f.parked.clear();
+        }
+        if (parked.length > 0) {
+            node.requeueFetchedJobs(parked);
+        }
+    }
+
+    /**
+     * Gives up on the fetches that have taken too long.
+     *
+     * @param now
+     *            The current time in ms.
+     */
+    @SuppressWarnings("synthetic-access")
+    private void expireFetches(final long now) {
+        final ArrayList<DataHandle> expired = new ArrayList<DataHandle>();
+        synchronized (this) {
+            for (final Map.Entry<DataHandle, Fetch> e : fetches.entrySet()) {
+                final Fetch f = e.getValue();
+                if (!f.done
+                        && now - f.startMoment >= Settings.DATA_FETCH_TIMEOUT) {
+                    expired.add(e.getKey());
+                }
+            }
+        }
+        for (final DataHandle h : expired) {
+            registerValue(h, null);
+        }
+    }
+
+    /**
+     * Returns true iff the input of the given job can still be used. Only
+     * the holder of an object can know this for sure.
+     *
+     * @param job
+     *            The job to check.
+     * @return True iff the input of the job is still available.
+     */
+    boolean isAvailable(final JobInstance job) {
+        if (!(job.input instanceof DataHandle)) {
+            return true;
+        }
+        final DataHandle h = (DataHandle) job.input;
+        return h.holder.equals(localIbis) && store.get(h.id) != null;
+    }
+
+    /**
+     * Returns the actual input of the given job. If the input is held by
+     * another node, it must have been fetched already; see
+     * {@link #park(RunJobMessage)}.
+     *
+     * @param job
+     *            The job to get the input for.
+     * @return The input, or <code>null</code> if it is no longer available.
+     *         This only happens if the holder has died, or if the job has
+     *         already been completed elsewhere and the object was evicted.
+     */
+    @SuppressWarnings("synthetic-access")
+    Serializable resolve(final JobInstance job) {
+        if (!(job.input instanceof DataHandle)) {
+            return job.input;
+        }
+        final DataHandle h = (DataHandle) job.input;
+        if (h.holder.equals(localIbis)) {
+            return store.get(h.id);
+        }
+        synchronized (this) {
+            final Fetch f = fetches.get(h);
+            if (f == null || !f.done) {
+                // Not parked until the fetch completed; shouldn't happen.
+                return null;
+            }
+            f.users--;
+            if (f.users <= 0) {
+                fetches.remove(h);
+            }
+            return f.value;
+        }
+    }
+
+    /**
+     * Handles a reply to one of our fetch requests.
+     *
+     * @param msg
+     *            The reply.
+     */
+    void handleReply(final DataReplyMessage msg) {
+        registerValue(new DataHandle(msg.source, msg.id, msg.size), msg.value);
+    }
+
+    /**
+     * Handles a fetch request from another node. The request is served by the
+     * data plane thread.
+     *
+     * @param msg
+     *            The request.
+     */
+    void handleFetchRequest(final FetchDataMessage msg) {
+        requests.add(msg);
+    }
+
+    /** Serves the fetch requests, and expires the fetches of this node. */
+    @Override
+    public void run() {
+        while (true) {
+            FetchDataMessage msg;
+            try {
+                msg = requests.poll(EXPIRATION_CHECK_INTERVAL,
+                        TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                continue;
+            }
+            expireFetches(System.currentTimeMillis());
+            if (msg == null) {
+                continue;
+            }
+            final Serializable value = store.get(msg.id);
+            sendPort.send(msg.source, new DataReplyMessage(msg.id, value,
+                    msg.size));
+            servedCount.add();
+        }
+    }
+
+    void printStatistics(final PrintStream s) {
+        store.printStatistics(s);
+        s.println("data plane: fetched " + fetchCount + " objects, "
+                + failedFetchCount + " failed; served " + servedCount
+                + " fetch requests");
+    }
+}
@@ -0,0 +1,50 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+
+/**
+ * A message from the holder of an object in the data plane, containing the
+ * requested object.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class DataReplyMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the object in the store of the holder. */
+    final long id;
+
+    /** The object, or <code>null</code> if the holder no longer has it. */
+    final Serializable value;
+
+    /** The estimated size in bytes of the object. */
+    final long size;
+
+    /**
+     * Constructs a new data reply message.
+     * 
+     * @param id
+     *            The identifier of the object.
+     * @param value
+     *            The object, or <code>null</code> if it is not available.
+     * @param size
+     *            The estimated size of the object.
+     */
+    DataReplyMessage(final long id, final Serializable value, final long size) {
+        this.id = id;
+        this.value = value;
+        this.size = size;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "data reply message for object " + id
+                + (value == null ? " (missing)" : "");
+    }
+}
@@ -0,0 +1,347 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Weighted fair sharing of a queue among its tenants. A tenant is the
+ * combination of the node that submitted a job, the type of the job, and its
+ * priority class.
+ *
+ * Every tenant has a virtual clock that advances by
+ * {@link Settings#FAIR_SHARE_QUANTUM} divided by the weight of the tenant for
+ * every job it adds, and that never lags behind the real clock. Every job
+ * that is added gives its tenant a delay slot: the time the clock of the
+ * tenant is ahead of the real clock. The queued jobs of a tenant are paired
+ * with its slots in deadline order, so the most urgent job gets the shortest
+ * delay, and the queue key of a job is its scheduling deadline, postponed by
+ * the delay of its slot. A tenant that adds a burst of jobs therefore has its
+ * jobs interleaved with those of the other tenants, instead of monopolizing
+ * the workers, while its own jobs stay in deadline order. Since the priority
+ * class is part of the tenant, a backlog of bulk jobs never postpones the
+ * interactive jobs of the same submitter.
+ *
+ * When a job is added with an earlier deadline than some queued jobs of its
+ * tenant, these jobs move to a later slot, and the queue is asked to give
+ * them their new key.
+ *
+ * @param <E>
+ *            The type of the queue entries.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class FairShare<E> {
+    /** The name of the queue we share, for the statistics. */
+    private final String queueName;
+
+    /** The queue to inform of entries that get a new key. */
+    private final Rekeyer<E> rekeyer;
+
+    private final HashMap<TenantKey, Tenant<E>> tenants = new HashMap<TenantKey, Tenant<E>>();
+
+    /**
+     * The queue that is shared.
+     *
+     * @param <E>
+     *            The type of the queue entries.
+     */
+    interface Rekeyer<E> {
+        /**
+         * Gives the given queued entry a new key, and moves it to its new
+         * place in the queue.
+         *
+         * @param entry
+         *            The entry.
+         * @param type
+         *            The stage type of the job of the entry.
+         * @param key
+         *            The new key of the entry.
+         */
+        void rekey(E entry, JobType type, long key);
+    }
+
+    /** A queued job of a tenant. */
+    private static final class Queued<E> {
+        private final E entry;
+
+        private final long deadline;
+
+        /** The current queue key of the entry. */
+        private long key;
+
+        private Queued(final E entry, final long deadline) {
+            this.entry = entry;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final class TenantKey {
+        private final IbisIdentifier submitter;
+
+        private final int typeIndex;
+
+        private final int priority;
+
+        private TenantKey(final IbisIdentifier submitter, final int typeIndex,
+                final int priority) {
+            this.submitter = submitter;
+            this.typeIndex = typeIndex;
+            this.priority = priority;
+        }
+
+        @Override
+        public int hashCode() {
+            final int h = submitter == null ? 0 : submitter.hashCode();
+            return (31 * h + typeIndex) * 31 + priority;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TenantKey)) {
+                return false;
+            }
+            final TenantKey other = (TenantKey) obj;
+            if (typeIndex != other.typeIndex || priority != other.priority) {
+                return false;
+            }
+            if (submitter == null) {
+                return other.submitter == null;
+            }
+            return submitter.equals(other.submitter);
+        }
+    }
+
+    private static final class Tenant<E> {
+        private final IbisIdentifier submitter;
+
+        private final JobType type;
+
+        private final int priority;
+
+        private double weight = 1.0;
+
+        /** The virtual clock of this tenant, in ms. */
+        private long clock = 0;
+
+        private long addedJobs = 0;
+
+        private long removedJobs = 0;
+
+        /** The total time in seconds the removed jobs spent in the queue. */
+        private double totalWaitTime = 0.0;
+
+        /** The queued jobs of this tenant, in deadline order. */
+        private final ArrayList<Queued<E>> queued = new ArrayList<Queued<E>>();
+
+        /**
+         * The delay slots in ms of the queued jobs, in increasing order. The
+         * i-th job in {@link #queued} has the i-th slot.
+         */
+        private final ArrayList<Long> delays = new ArrayList<Long>();
+
+        private Tenant(final IbisIdentifier submitter, final JobType type,
+                final int priority) {
+            this.submitter = submitter;
+            this.type = type;
+            this.priority = priority;
+        }
+    }
+
+    FairShare(final String queueName, final Rekeyer<E> rekeyer) {
+        this.queueName = queueName;
+        this.rekeyer = rekeyer;
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private Tenant<E> getTenant(final JobInstance job, final JobType type) {
+        final IbisIdentifier submitter = job.jobInstance.resultNode;
+        final TenantKey key = new TenantKey(submitter, type.index,
+                job.priority);
+        Tenant<E> t = tenants.get(key);
+        if (t == null) {
+            t = new Tenant<E>(submitter, type, job.priority);
+            tenants.put(key, t);
+        }
+        return t;
+    }
+
+    private static long addDelay(final long deadline, final long delay) {
+        if (deadline > Long.MAX_VALUE - delay) {
+            return Long.MAX_VALUE;
+        }
+        return deadline + delay;
+    }
+
+    /**
+     * Returns the index of the first queued job of the given tenant with a
+     * deadline after the given one.
+     */
+    @SuppressWarnings("synthetic-access")
+    private static <E> int findQueuedPosition(final Tenant<E> t,
+            final long deadline) {
+        int start = 0;
+        int end = t.queued.size();
+        while (start < end) {
+            final int mid = (start + end) >>> 1;
+            if (t.queued.get(mid).deadline <= deadline) {
+                start = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Returns the index of the first delay slot of the given tenant that is
+     * longer than the given one.
+     */
+    @SuppressWarnings("synthetic-access")
+    private static <E> int findDelayPosition(final Tenant<E> t,
+            final long delay) {
+        int start = 0;
+        int end = t.delays.size();
+        while (start < end) {
+            final int mid = (start + end) >>> 1;
+            if (t.delays.get(mid) <= delay) {
+                start = mid + 1;
+            } else {
+                end = mid;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Given a job that is added to the queue, returns its queue key. Queued
+     * jobs of the same tenant with a later deadline may get a new key.
+     *
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param job
+     *            The job that is added.
+     * @param type
+     *            The stage type of the job.
+     * @param entry
+     *            The queue entry of the job.
+     * @return The queue key of the job.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized long computeKey(final JobList jobs, final JobInstance job,
+            final JobType type, final E entry) {
+        final Tenant<E> t = getTenant(job, type);
+        t.weight = job.jobInstance.share * jobs.getWeight(type);
+        if (job.overallType != type) {
+            // Don't count the weight of a single-stage job twice.
+            t.weight *= jobs.getWeight(job.overallType);
+        }
+        final long now = System.currentTimeMillis();
+        final long start = Math.max(now, t.clock);
+        t.clock = start
+                + Math.max(1L, Math.round(Settings.FAIR_SHARE_QUANTUM
+                        / t.weight));
+        t.addedJobs++;
+        final long delay = start - now;
+        final int pos = findQueuedPosition(t, job.deadline);
+        final int slot = findDelayPosition(t, delay);
+        final Queued<E> q = new Queued<E>(entry, job.deadline);
+        t.queued.add(pos, q);
+        t.delays.add(slot, delay);
+        // Only the jobs between the new job and the new slot are paired
+        // with another slot now.
+        for (int i = Math.min(pos, slot); i <= Math.max(pos, slot); i++) {
+            final Queued<E> e = t.queued.get(i);
+            final long key = addDelay(e.deadline, t.delays.get(i));
+            if (e != q && e.key != key) {
+                rekeyer.rekey(e.entry, type, key);
+            }
+            e.key = key;
+        }
+        return q.key;
+    }
+
+    /**
+     * Forgets the given queued entry of the given tenant, together with the
+     * slot it was paired with. The other queued jobs keep their slots.
+     */
+    @SuppressWarnings("synthetic-access")
+    private void removeQueued(final JobInstance job, final JobType type,
+            final E entry) {
+        final Tenant<E> t = getTenant(job, type);
+        for (int i = findQueuedPosition(t, job.deadline) - 1; i >= 0
+                && t.queued.get(i).deadline == job.deadline; i--) {
+            if (t.queued.get(i).entry == entry) {
+                t.queued.remove(i);
+                t.delays.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers that the given job was handed out.
+     *
+     * @param job
+     *            The job that was removed from the queue.
+     * @param type
+     *            The stage type of the job.
+     * @param entry
+     *            The queue entry of the job.
+     * @param waitTime
+     *            The time in seconds the job spent in the queue.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void registerRemove(final JobInstance job,
+            final JobType type, final E entry, final double waitTime) {
+        removeQueued(job, type, entry);
+        final Tenant<E> t = getTenant(job, type);
+        t.removedJobs++;
+        t.totalWaitTime += waitTime;
+    }
+
+    /**
+     * Registers that the given job was dropped from the queue without being
+     * handed out.
+     *
+     * @param job
+     *            The job that was dropped.
+     * @param type
+     *            The stage type of the job.
+     * @param entry
+     *            The queue entry of the job.
+     */
+    synchronized void registerDiscard(final JobInstance job,
+            final JobType type, final E entry) {
+        removeQueued(job, type, entry);
+    }
+
+    /**
+     * Registers that the queue was cleared.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void clear() {
+        for (final Tenant<E> t : tenants.values()) {
+            t.queued.clear();
+            t.delays.clear();
+        }
+    }
+
+    @SuppressWarnings("synthetic-access")
+    synchronized void printStatistics(final PrintStream s) {
+        for (final Tenant<E> t : tenants.values()) {            final double averageWait = t.removedJobs == 0 ? 0.0
+                    : t.totalWaitTime / t.removedJobs;
+            s.println(queueName + " share of " + t.submitter + " for "
+                    + t.type + " priority " + t.priority + ": weight "
+                    + t.weight + "; " + t.addedJobs + " jobs added, "
+                    + t.removedJobs
+                    + " handed out; average wait "
+                    + Utils.formatSeconds(averageWait));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ibis.maestro;
+
+/**
+ * A message asking the holder of an object in the data plane to send it.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class FetchDataMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the object in the store of the holder. */
+    final long id;
+
+    /** The estimated size in bytes of the object. */
+    final long size;
+
+    /**
+     * Constructs a new fetch message.
+     * 
+     * @param handle
+     *            The handle of the object to fetch.
+     */
+    FetchDataMessage(final DataHandle handle) {
+        this.id = handle.id;
+        this.size = handle.size;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "fetch data message for object " + id;
+    }
+}
@@ -37,6 +37,27 @@ class Flag {
         return res;
     }
 
+    /**
+     * Waits until the flag is set, or until the given time has elapsed, and
+     * resets the flag.
+     * 
+     * @param timeout
+     *            The maximal time in ms to wait.
+     * @return The value of the flag before it was reset.
+     */
+    synchronized boolean waitAndReset(long timeout) {
+        if (!flag) {
+            try {
+                this.wait(timeout);
+            } catch (final InterruptedException e) {
+                // Ignore.
+            }
+        }
+        final boolean res = flag;
+        flag = false;
+        return res;
+    }
+
     void waitUntilSet() {
         while (true) {
             synchronized (this) {
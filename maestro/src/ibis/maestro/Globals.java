@@ -14,6 +14,9 @@ class Globals {
     /** The name of the receive port of a node. */
     static final String receivePortName = "receivePort";
 
+    /** The name of the receive port for bulk messages of a node. */
+    static final String bulkReceivePortName = "bulkReceivePort";
+
     /** The logger. */
     final static Logger log = new Logger();
 
@@ -9,6 +9,7 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 /**
  * Gossip information.
@@ -20,6 +21,75 @@ class Gossip {
 
     private final NodePerformanceInfo localPerformanceInfo;
 
+    /**
+     * A copy of the gossip list that is shared by all readers, or
+     * <code>null</code> if the gossip has changed since it was made.
+     */
+    private NodePerformanceInfo snapshot[] = null;
+
+    /** The most recent copy of the gossip list, even if it is outdated. */
+    private NodePerformanceInfo previousSnapshot[] = new NodePerformanceInfo[0];
+
+    /**
+     * In hierarchical gossip, the summary of our own cluster we send to other
+     * clusters, or <code>null</code> if we haven't built one yet.
+     */
+    private NodePerformanceInfo clusterSummary = null;
+
+    /** The entries the cluster summary was built from. */
+    private NodePerformanceInfo summarizedEntries[] = null;
+
+    /** For each node we gossip with, what we know it has seen. */
+    private final HashMap<IbisIdentifier, PeerInfo> peers = new HashMap<IbisIdentifier, PeerInfo>();
+
+    /**
+     * For each node, the completion times through that node that were
+     * computed in the previous invocation of
+     * {@link #recomputeCompletionTimes(Estimate[], JobList, HashMap)}.
+     */
+    private final HashMap<IbisIdentifier, NodeRow> rows = new HashMap<IbisIdentifier, NodeRow>();
+
+    /**
+     * The completion times through a node, and the information they were
+     * computed from. As long as that information doesn't change, the
+     * completion times don't have to be computed again.
+     */
+    private static final class NodeRow {
+        /** The gossip entry the row was computed from. */
+        private NodePerformanceInfo info = null;
+
+        /** The time stamp of the gossip entry when the row was computed. */
+        private long timeStamp = 0;
+
+        /** The local info the row was computed from. */
+        private LocalNodeInfoList localInfo = null;
+
+        /**
+         * For each job type, for each stage, the completion time after the
+         * master queue if the stage is executed on this node, or
+         * <code>null</code> if it is not known.
+         */
+        private final Estimate completionTimes[][];
+
+        private NodeRow(final JobList jobs) {
+            final JobType types[] = jobs.getAllTypes();
+            completionTimes = new Estimate[types.length][];
+            for (int i = 0; i < types.length; i++) {
+                final int stages = jobs.getTodoList(types[i]).length;
+                completionTimes[i] = new Estimate[stages];
+            }
+        }
+    }
+
+    /** The gossip a peer has seen, as far as we know. */
+    private static final class PeerInfo {
+        /** For each node, the most recent time stamp the peer has seen. */
+        private final HashMap<IbisIdentifier, Long> seenTimeStamps = new HashMap<IbisIdentifier, Long>();
+
+        /** The number of messages sent since the last full message. */
+        private int messagesSinceRefresh = 0;
+    }
+
     Gossip(final JobList jobs, final IbisIdentifier localIbis) {
         final int numberOfProcessors = Runtime.getRuntime()
                 .availableProcessors();
@@ -38,10 +108,173 @@ class Gossip {
 
     GossipMessage constructMessage(final IbisIdentifier target,
             final boolean needsReply) {
-        final NodePerformanceInfo content[] = getCopy();
+        final NodePerformanceInfo content[];
+        if (Settings.HIERARCHICAL_GOSSIP
+                && !Utils.areInSameCluster(localPerformanceInfo.source, target)) {
+            content = getSummaryCopy(target);
+        } else if (Settings.DELTA_GOSSIP) {
+            content = getDeltaCopy(target, gossipList);
+        } else {
+            content = getCopy();
+        }
         return new GossipMessage(target, content, needsReply);
     }
 
+    private PeerInfo getPeerInfo(final IbisIdentifier peer) {
+        PeerInfo res = peers.get(peer);
+        if (res == null) {
+            res = new PeerInfo();
+            peers.put(peer, res);
+        }
+        return res;
+    }
+
+    /**
+     * Returns a copy of the given gossip entries that are newer than what the
+     * given node has seen, and registers that the node has now seen them.
+     * Every <code>GOSSIP_FULL_REFRESH_COUNT</code> messages all entries are
+     * returned.
+     * 
+     * @param target
+     *            The node the gossip is for.
+     * @param entries
+     *            The entries to choose from.
+     * @return The entries to send.
+     */
+    @SuppressWarnings("synthetic-access")
+    private synchronized NodePerformanceInfo[] getDeltaCopy(
+            final IbisIdentifier target,
+            final List<NodePerformanceInfo> entries) {
+        final PeerInfo peer = getPeerInfo(target);
+        final boolean fullRefresh = peer.messagesSinceRefresh >= Settings.GOSSIP_FULL_REFRESH_COUNT;
+        if (fullRefresh) {
+            peer.messagesSinceRefresh = 0;
+        } else {
+            peer.messagesSinceRefresh++;
+        }
+        final ArrayList<NodePerformanceInfo> res = new ArrayList<NodePerformanceInfo>();
+        for (final NodePerformanceInfo info : entries) {
+            if (info.source.equals(target)) {
+                // The target knows more about itself than we do.
+                continue;
+            }
+            final Long seen = peer.seenTimeStamps.get(info.source);
+            if (fullRefresh || seen == null || seen < info.timeStamp) {
+                res.add(info.getDeepCopy());
+                peer.seenTimeStamps.put(info.source, info.timeStamp);
+            }
+        }
+        return res.toArray(new NodePerformanceInfo[res.size()]);
+    }
+
+    /**
+     * Returns the gossip for a node in another cluster: the summary of our
+     * own cluster, and the summaries of the clusters other than that of the
+     * target.
+     * 
+     * @param target
+     *            The node the gossip is for.
+     * @return The entries to send.
+     */
+    private synchronized NodePerformanceInfo[] getSummaryCopy(
+            final IbisIdentifier target) {
+        final ArrayList<NodePerformanceInfo> entries = new ArrayList<NodePerformanceInfo>();
+        entries.add(getClusterSummary());
+        for (final NodePerformanceInfo info : gossipList) {
+            if (info.isClusterSummary()
+                    && !Utils.areInSameCluster(info.source, target)) {
+                entries.add(info);
+            }
+        }
+        if (Settings.DELTA_GOSSIP) {
+            return getDeltaCopy(target, entries);
+        }
+        final NodePerformanceInfo res[] = new NodePerformanceInfo[entries
+                .size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = entries.get(i).getDeepCopy();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the summary of our own cluster. As long as none of the entries
+     * of our cluster changes, the same summary is returned, so that delta
+     * gossip doesn't send it again.
+     * 
+     * @return The summary of our cluster.
+     */
+    private NodePerformanceInfo getClusterSummary() {
+        final ArrayList<NodePerformanceInfo> members = new ArrayList<NodePerformanceInfo>();
+        for (final NodePerformanceInfo info : getCopy()) {
+            if (!info.isClusterSummary()) {
+                members.add(info);
+            }
+        }
+        final NodePerformanceInfo l[] = members
+                .toArray(new NodePerformanceInfo[members.size()]);
+        // The copy shares the entries that didn't change, so comparing
+        // references is enough.
+        if (clusterSummary == null || !Arrays.equals(l, summarizedEntries)) {
+            clusterSummary = NodePerformanceInfo.buildClusterSummary(
+                    localPerformanceInfo.source, l, System.nanoTime());
+            summarizedEntries = l;
+        }
+        return clusterSummary;
+    }
+
+    /**
+     * Registers that the given node has sent us the given gossip entry, and
+     * therefore has seen it.
+     * 
+     * @param peer
+     *            The node that sent the gossip.
+     * @param info
+     *            The gossip entry it sent.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void registerPeerKnowledge(final IbisIdentifier peer,
+            final NodePerformanceInfo info) {
+        // Even if the peer has older information than we thought, this is
+        // the best knowledge we have: it means some of our gossip to it was
+        // lost, and we should send it again.
+        getPeerInfo(peer).seenTimeStamps.put(info.source, info.timeStamp);
+    }
+
+    /**
+     * Returns the age of the newest version of our own entry the given node
+     * has seen. Only our own entry is used, since the time stamps of the
+     * other entries come from the clocks of other nodes.
+     * 
+     * @param peer
+     *            The node.
+     * @return The age in ms, or <code>-1</code> if we don't know what the
+     *         node has seen.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized long getPeerStaleness(final IbisIdentifier peer) {
+        final PeerInfo info = peers.get(peer);
+        if (info == null) {
+            return -1;
+        }
+        final Long seen = info.seenTimeStamps.get(localPerformanceInfo.source);
+        if (seen == null) {
+            return -1;
+        }
+        return (System.nanoTime() - seen) / 1000000L;
+    }
+
+    /**
+     * Forget what we know about the gossip the given node has seen, for
+     * example because a message to it may have been lost.
+     * 
+     * @param peer
+     *            The node to forget.
+     */
+    synchronized void forgetPeerKnowledge(final IbisIdentifier peer) {
+        peers.remove(peer);
+    }
+
     private Estimate[][] buildCompletionInfo(final JobList jobs) {
         final JobType types[] = jobs.getAllTypes();
         final Estimate res[][] = new Estimate[types.length][];
@@ -63,6 +296,12 @@ class Gossip {
      * moment it enters its master queue to the moment its entire job is
      * completed.
      * 
+     * The completion times through a node are only recomputed if its gossip
+     * or local info changed since the previous invocation, but a new likely
+     * value is drawn from each of them on every invocation. The completion
+     * times through the local node depend on the completion times of the
+     * later stages we compute here, so they are always recomputed.
+     * 
      * @param masterQueueIntervals
      *            The time in seconds for each job it is estimated to dwell in
      *            the master queue.
@@ -71,11 +310,34 @@ class Gossip {
      * @param localNodeInfoMap
      *            The local knowledge about the nodes in the system.
      */
+    @SuppressWarnings("synthetic-access")
     synchronized void recomputeCompletionTimes(
             final Estimate masterQueueIntervals[], final JobList jobs,
             final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap) {
         final JobType types[] = jobs.getAllTypes();
-
+        final int nodeCount = gossipList.size();
+        final NodeRow nodeRows[] = new NodeRow[nodeCount];
+        final LocalNodeInfoList localInfos[] = new LocalNodeInfoList[nodeCount];
+        final boolean changed[] = new boolean[nodeCount];
+
+        for (int n = 0; n < nodeCount; n++) {
+            final NodePerformanceInfo node = gossipList.get(n);
+            NodeRow row = rows.get(node.source);
+            if (row == null) {
+                row = new NodeRow(jobs);
+                rows.put(node.source, row);
+            }
+            final LocalNodeInfoList info = localNodeInfoMap.get(node.source);
+            if (info == null) {
+                Globals.log.reportProgress("No LocalNodeInfoList for "
+                        + node.source);
+            }
+            nodeRows[n] = row;
+            localInfos[n] = info;
+            changed[n] = node == localPerformanceInfo || row.info != node
+                    || row.timeStamp != node.timeStamp
+                    || row.localInfo != info;
+        }
         for (int tix = 0; tix < types.length; tix++) {
             final JobType todoList[] = jobs.getTodoList(types[tix]);
 
@@ -88,7 +350,7 @@ class Gossip {
                 final Estimate masterQueueInterval = masterQueueIntervals == null ? ConstantEstimate.ZERO
                         : masterQueueIntervals[ix];
                 final Estimate bestCompletionTimeAfterMasterQueue = getBestCompletionTimeAfterMasterQueue(
-                        tix, ix, nextIndex, localNodeInfoMap);
+                        tix, ix, nextIndex, nodeRows, localInfos, changed);
                 final Estimate t = masterQueueInterval
                         .addIndependent(bestCompletionTimeAfterMasterQueue);
                 if (Settings.traceStochasticComputations) {
@@ -102,19 +364,48 @@ class Gossip {
             }
         }
         localPerformanceInfo.timeStamp = System.nanoTime();
+        snapshot = null;
+        for (int n = 0; n < nodeCount; n++) {
+            final NodePerformanceInfo node = gossipList.get(n);
+            final NodeRow row = nodeRows[n];
+            row.info = node;
+            row.timeStamp = node.timeStamp;
+            row.localInfo = localInfos[n];
+        }
     }
 
     synchronized boolean isEmpty() {
         return gossipList.isEmpty();
     }
 
+    /**
+     * Returns a copy of the current gossip. The copy is shared with other
+     * callers, and must not be modified. As long as the gossip doesn't
+     * change, the same copy is returned. Entries that haven't changed since
+     * the previous copy are shared with that copy, so that users can detect
+     * changed entries by reference.
+     * 
+     * @return The copy of the gossip.
+     */
     synchronized NodePerformanceInfo[] getCopy() {
-        final int size = gossipList.size();
-        final NodePerformanceInfo content[] = new NodePerformanceInfo[size];
-        for (int i = 0; i < content.length; i++) {
-            content[i] = gossipList.get(i).getDeepCopy();
+        if (snapshot == null) {
+            final int size = gossipList.size();
+            final NodePerformanceInfo content[] = new NodePerformanceInfo[size];
+            for (int i = 0; i < content.length; i++) {
+                final NodePerformanceInfo info = gossipList.get(i);
+                final NodePerformanceInfo old = i < previousSnapshot.length ? previousSnapshot[i]
+                        : null;
+                if (old != null && old.source.equals(info.source)
+                        && old.timeStamp == info.timeStamp) {
+                    content[i] = old;
+                } else {
+                    content[i] = info.getDeepCopy();
+                }
+            }
+            snapshot = content;
+            previousSnapshot = content;
         }
-        return content;
+        return snapshot;
     }
 
     private int searchInfo(final IbisIdentifier ibis) {
@@ -131,7 +422,9 @@ class Gossip {
     /**
      * Returns the best average completion time for this job after it has been
      * sent by the master. We compute this by taking the minimum over all our
-     * workers.
+     * workers. The completion time through a worker is only recomputed if
+     * its information has changed, but a new likely value is drawn from it
+     * every time.
      * 
      * @param todoIx
      *            The index in the todo list.
@@ -140,44 +433,53 @@ class Gossip {
      * @param nextIx
      *            The index of the type after the current one, or
      *            <code>-1</code> if there isn't one.
-     * @param localNodeInfoMap
-     *            A table with locally collected performance info for all worker
-     *            nodes.
+     * @param nodeRows
+     *            For each node in the gossip list, its completion times.
+     * @param localInfos
+     *            For each node in the gossip list, the locally collected
+     *            performance info, or <code>null</code> if there is none.
+     * @param changed
+     *            For each node in the gossip list, whether its completion
+     *            times must be recomputed.
      * @return The best average completion time of our workers.
      */
+    @SuppressWarnings("synthetic-access")
     private Estimate getBestCompletionTimeAfterMasterQueue(final int todoIx,
-            final int ix, final int nextIx,
-            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap) {
+            final int ix, final int nextIx, final NodeRow nodeRows[],
+            final LocalNodeInfoList localInfos[], final boolean changed[]) {
         Estimate res = InfiniteEstimate.INFINITE;
         double minTime = Double.POSITIVE_INFINITY;
 
-        for (final NodePerformanceInfo node : gossipList) {
-            final LocalNodeInfoList info = localNodeInfoMap.get(node.source);
+        for (int n = 0; n < nodeRows.length; n++) {
+            final NodeRow row = nodeRows[n];
+            final LocalNodeInfoList info = localInfos[n];
 
             if (info == null) {
-                Globals.log.reportProgress("No LocalNodeInfoList for "
-                        + node.source);
-            } else {
+                row.completionTimes[todoIx][ix] = null;
+                continue;
+            }
+            if (changed[n] || row.completionTimes[todoIx][ix] == null) {
+                final NodePerformanceInfo node = gossipList.get(n);
                 final Estimate xmitTime = info.getTransmissionTime(ix);
                 final Estimate completionOnWorker = node.getCompletionOnWorker(
                         todoIx, ix, nextIx);
                 final Estimate val = xmitTime
                         .addIndependent(completionOnWorker);
-
-                // Draw a random likely value from the estimate, and
-                // use that as a representative value for the performance
-                // of this node.
-                final double t = val.getLikelyValue();
-                if (t < minTime) {
-                    res = val;
-                    minTime = t;
-                }
+                row.completionTimes[todoIx][ix] = val;
                 if (Settings.traceStochasticComputations) {
                     Globals.log.reportProgress("xmitTime=" + xmitTime
                             + " completionOnWorker=" + completionOnWorker
-                            + " val=" + val + " t=" + t + " res=" + res);
+                            + " val=" + val);
                 }
             }
+            // Draw a random likely value from the estimate, and
+            // use that as a representative value for the performance
+            // of this node.
+            final double t = row.completionTimes[todoIx][ix].getLikelyValue();
+            if (t < minTime) {
+                res = row.completionTimes[todoIx][ix];
+                minTime = t;
+            }
         }
         return res;
     }
@@ -190,6 +492,14 @@ class Gossip {
      * @return True iff we learned something new.
      */
     synchronized boolean register(final NodePerformanceInfo update) {
+        if (Settings.HIERARCHICAL_GOSSIP) {
+            if (!isKeptInHierarchy(localPerformanceInfo.source, update)) {
+                return false;
+            }
+            if (update.isClusterSummary()) {
+                removeOtherSummaries(update.source);
+            }
+        }
         final int ix = searchInfo(update.source);
         if (ix >= 0) {
             // This is an update for existing performance info.
@@ -202,6 +512,7 @@ class Gossip {
                             + update.source + ": " + update.toString());
                 }
                 gossipList.set(ix, update);
+                snapshot = null;
                 return true;
             }
             // At this point we know the update is at least as old as
@@ -214,16 +525,58 @@ class Gossip {
         }
         // If we reach this point, we didn't have info about this node yet.
         gossipList.add(update);
+        snapshot = null;
         notifyAll(); // Wake any waiters for ready nodes
         return true;
     }
 
+    /**
+     * Returns true iff a node in hierarchical gossip should keep the given
+     * information: details about its own cluster, and summaries of the other
+     * clusters.
+     * 
+     * @param localIbis
+     *            The node that receives the information.
+     * @param update
+     *            The information.
+     * @return True iff the information should be kept.
+     */
+    static boolean isKeptInHierarchy(final IbisIdentifier localIbis,
+            final NodePerformanceInfo update) {
+        final boolean sameCluster = Utils.areInSameCluster(localIbis,
+                update.source);
+        return sameCluster != update.isClusterSummary();
+    }
+
+    /**
+     * Removes the summaries of the cluster of the given representative that
+     * were sent by another representative. They are outdated, since the
+     * cluster has elected a new representative.
+     * 
+     * @param representative
+     *            The representative of the cluster.
+     */
+    synchronized void removeOtherSummaries(final IbisIdentifier representative) {
+        for (int ix = gossipList.size() - 1; ix >= 0; ix--) {
+            final NodePerformanceInfo info = gossipList.get(ix);
+            if (info.isClusterSummary() && !info.source.equals(representative)
+                    && Utils.areInSameCluster(info.source, representative)) {
+                gossipList.remove(ix);
+                rows.remove(info.source);
+                snapshot = null;
+            }
+        }
+    }
+
     synchronized void removeNode(final IbisIdentifier ibis) {
         final int ix = searchInfo(ibis);
 
         if (ix >= 0) {
             gossipList.remove(ix);
+            snapshot = null;
         }
+        peers.remove(ibis);
+        rows.remove(ibis);
     }
 
     synchronized NodePerformanceInfo getLocalUpdate() {
@@ -237,8 +590,18 @@ class Gossip {
         }
     }
 
+    /**
+     * Returns the number of nodes we have gossip about, including the nodes
+     * that are only known through the summary of their cluster.
+     * 
+     * @return The number of nodes.
+     */
     private synchronized int size() {
-        return gossipList.size();
+        int res = 0;
+        for (final NodePerformanceInfo info : gossipList) {
+            res += info.getNodeCount();
+        }
+        return res;
     }
 
     /**
@@ -278,22 +641,106 @@ class Gossip {
         return localPerformanceInfo.timeStamp;
     }
 
-    void localNodeFailJob(final JobType type) {
+    synchronized void localNodeFailJob(final JobType type) {
         localPerformanceInfo.failJob(type);
+        snapshot = null;
     }
 
-    void setLocalComputeTime(final JobType type, final Estimate t) {
+    /**
+     * Returns true iff the change from the given old value to the given new
+     * value is a sharp change.
+     * 
+     * @param oldValue
+     *            The old value.
+     * @param newValue
+     *            The new value.
+     * @return True iff this is a sharp change.
+     */
+    static boolean isSharpChange(final double oldValue, final double newValue) {
+        if (Double.isInfinite(oldValue) || Double.isInfinite(newValue)) {
+            return oldValue != newValue;
+        }
+        return Math.abs(newValue - oldValue) > Settings.GOSSIP_SHARP_CHANGE
+                * Math.max(Math.abs(oldValue), Math.abs(newValue));
+    }
+
+    /**
+     * Returns true iff the change of a queue length from the given old length
+     * to the given new length is a sharp change. An empty queue is counted
+     * as one job, so that a single job in an empty queue is not a sharp
+     * change.
+     */
+    private static boolean isSharpQueueChange(final int oldLength,
+            final int newLength) {
+        return isSharpChange(oldLength + 1, newLength + 1);
+    }
+
+    /**
+     * Sets the compute time of the given type on the local node.
+     * 
+     * @param type
+     *            The type of job.
+     * @param t
+     *            The new compute time.
+     * @return True iff this is a sharp change of the compute time.
+     */
+    synchronized boolean setLocalComputeTime(final JobType type,
+            final Estimate t) {
+        final Estimate old = localPerformanceInfo.getExecutionTime(type);
         localPerformanceInfo.setComputeTime(type, t);
+        snapshot = null;
+        return old != null
+                && isSharpChange(old.getHighEstimate(), t.getHighEstimate());
     }
 
-    void setWorkerQueueTimePerJob(final JobType type,
+    /**
+     * Sets the queue time per job and the queue length of the given type on
+     * the local node.
+     * 
+     * @param type
+     *            The type of job.
+     * @param queueTimePerJob
+     *            The new queue time per job.
+     * @param queueLength
+     *            The new queue length.
+     * @return True iff this is a sharp change of the queue length.
+     */
+    synchronized boolean setWorkerQueueTimePerJob(final JobType type,
             final Estimate queueTimePerJob, final int queueLength) {
+        final int oldLength = localPerformanceInfo.getQueueLength(type);
         localPerformanceInfo.setWorkerQueueTimePerJob(type, queueTimePerJob,
                 queueLength);
+        snapshot = null;
+        return isSharpQueueChange(oldLength, queueLength);
+    }
+
+    synchronized void setCachedResults(final long summary[]) {
+        localPerformanceInfo.setCachedResults(summary);
+        snapshot = null;
+    }
+
+    /**
+     * Returns true iff setting the local queue length of the given type to
+     * the given length would be a sharp change.
+     * 
+     * @param type
+     *            The type of job.
+     * @param queueLength
+     *            The new queue length.
+     * @return True iff this would be a sharp change.
+     */
+    synchronized boolean isSharpQueueLengthChange(final JobType type,
+            final int queueLength) {
+        return isSharpQueueChange(localPerformanceInfo.getQueueLength(type),
+                queueLength);
     }
 
-    boolean setWorkerQueueLength(final JobType type, final int queueLength) {
-        return localPerformanceInfo.setWorkerQueueLength(type, queueLength);
+    synchronized boolean setWorkerQueueLength(final JobType type,
+            final int queueLength) {
+        final boolean changed = localPerformanceInfo.setWorkerQueueLength(
+                type, queueLength);
+        snapshot = null;
+        return changed;
     }
 
 }
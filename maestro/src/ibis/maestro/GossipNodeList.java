@@ -2,44 +2,79 @@ package ibis.maestro;
 
 import ibis.ipl.IbisIdentifier;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.TreeMap;
 
 /**
  * Maintains a list of nodes to gossip with, and the moment we should try to get
  * an update.
  * 
+ * In adaptive gossip the interval of each node follows the volatility of our
+ * state: it is halved on every sharp change, reset to its normal value on
+ * other changes, and doubled every time we gossip to the node while nothing
+ * has changed since the previous time, all within the bounds given in
+ * {@link Settings}. Only changes of our own state count; new gossip about
+ * other nodes reaches our peers through their own exchanges.
+ * 
  * @author Kees van Reeuwijk.
  */
 class GossipNodeList {
-    @SuppressWarnings("synthetic-access")
-    private final PriorityQueue<GossipNode> nodes = new PriorityQueue<GossipNode>(4,
-            new GossipNodeComparator());
+    private final IbisIdentifier localIbis;
+
+    private final PriorityQueue<GossipNode> nodes;
 
     private static final class GossipNode {
         final IbisIdentifier ibis;
 
         long nextUpdateMoment; // The moment in time in ms for the next update.
 
-        final long updateInterval; // Time interval in ms for each new update.
+        final long normalInterval; // The update interval in ms without adaptation.
+
+        long updateInterval; // Time interval in ms for each new update.
 
-        private static long computeUpdateInterval(IbisIdentifier ibis) {
-            final boolean sameCluster = Utils.areInSameCluster(
-                    Globals.localIbis.identifier(), ibis);
+        long lastContactMoment; // The moment in ms of our last exchange.
+
+        long sentVersion = -1; // The state version we last sent to this node.
+
+        long sentInterval = 0; // The interval in ms of the last update.
+
+        private static long computeUpdateInterval(IbisIdentifier localIbis,
+                IbisIdentifier ibis) {
+            final boolean sameCluster = Utils.areInSameCluster(localIbis, ibis);
             return sameCluster ? Settings.GOSSIP_EXPIRATION_IN_CLUSTER
                     : Settings.GOSSIP_EXPIRATION_BETWEEN_CLUSTERS;
         }
 
-        GossipNode(IbisIdentifier ibis) {
+        GossipNode(IbisIdentifier localIbis, IbisIdentifier ibis) {
             this.ibis = ibis;
             this.nextUpdateMoment = 0L;
-            this.updateInterval = computeUpdateInterval(ibis);
+            this.normalInterval = computeUpdateInterval(localIbis, ibis);
+            this.updateInterval = normalInterval;
+            this.lastContactMoment = System.currentTimeMillis();
+        }
+
+        long getMinimalInterval() {
+            return Math.max(1L, normalInterval
+                    / Settings.GOSSIP_INTERVAL_SPEEDUP_LIMIT);
+        }
+
+        long getMaximalInterval() {
+            return normalInterval * Settings.GOSSIP_INTERVAL_BACKOFF_LIMIT;
         }
 
     }
 
     private static final class GossipNodeComparator implements
             Comparator<GossipNode> {
+        private final IbisIdentifier localIbis;
+
+        GossipNodeComparator(IbisIdentifier localIbis) {
+            this.localIbis = localIbis;
+        }
 
         /**
          * Compares two gossip nodes, and ranks them according to priority.
@@ -60,16 +95,100 @@ class GossipNodeList {
                 return 1;
             }
             // Tie breaker: the one with the shortest distance wins.
-            return Utils.rankIbisIdentifiers(Globals.localIbis.identifier(),
-                    arg0.ibis, arg1.ibis);
+            return Utils.rankIbisIdentifiers(localIbis, arg0.ibis, arg1.ibis);
         }
 
     }
 
+    /**
+     * @param localIbis
+     *            The identifier of the local node.
+     */
+    GossipNodeList(IbisIdentifier localIbis) {
+        this.localIbis = localIbis;
+        nodes = new PriorityQueue<GossipNode>(4, new GossipNodeComparator(
+                localIbis));
+    }
+
+    /** The version of our state; incremented on every change. */
+    private long stateVersion = 0;
+
+    /** For each gossip interval, the statistics of the messages sent. */
+    private final TreeMap<Long, IntervalStatistics> intervalStatistics = new TreeMap<Long, IntervalStatistics>();
+
+    private static final class IntervalStatistics {
+        long messages = 0;
+
+        /** The number of messages for which we know the staleness. */
+        long measuredMessages = 0;
+
+        long totalStaleness = 0;
+
+        long maximalStaleness = 0;
+    }
+
+    /**
+     * Registers a message to the given node in the statistics, under the
+     * interval after which it was sent.
+     * 
+     * @param ibis
+     *            The node the message was sent to.
+     * @param staleness
+     *            The age in ms of the newest information of ours the node had
+     *            seen before this message, or <code>-1</code> if we don't
+     *            know.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void registerMessage(IbisIdentifier ibis, long staleness) {
+        long interval = -1;
+        for (final GossipNode m : nodes) {
+            if (ibis.equals(m.ibis)) {
+                interval = m.sentInterval;
+                break;
+            }
+        }
+        if (interval < 0) {
+            return; // Not in our administration any more.
+        }
+        IntervalStatistics s = intervalStatistics.get(interval);
+        if (s == null) {
+            s = new IntervalStatistics();
+            intervalStatistics.put(interval, s);
+        }
+        s.messages++;
+        if (staleness >= 0) {
+            s.measuredMessages++;
+            s.totalStaleness += staleness;
+            s.maximalStaleness = Math.max(s.maximalStaleness, staleness);
+        }
+    }
+
+    /**
+     * Returns the node whose gossip interval has expired, and schedules its
+     * next update. In adaptive gossip the interval of the node is doubled if
+     * our state hasn't changed since the previous update.
+     * 
+     * @param now
+     *            The current time in ms.
+     * @return The node to gossip with, or <code>null</code> if there is none.
+     */
     synchronized IbisIdentifier getStaleNode(long now) {
         GossipNode node = nodes.peek();
         if (node != null && node.nextUpdateMoment <= now) {
             node = nodes.poll();
+            node.sentInterval = node.updateInterval;
+            if (Settings.ADAPTIVE_GOSSIP) {
+                if (node.sentVersion == stateVersion) {
+                    // Nothing changed since the previous update; back off.
+                    node.updateInterval = Math.min(node.getMaximalInterval(),
+                            2 * node.updateInterval);
+                } else {
+                    node.updateInterval = Math.min(node.normalInterval,
+                            node.updateInterval);
+                }
+                node.sentVersion = stateVersion;
+            }
+            node.lastContactMoment = now;
             node.nextUpdateMoment = now + node.updateInterval;
             nodes.add(node);
             return node.ibis;
@@ -77,6 +196,65 @@ class GossipNodeList {
         return null;
     }
 
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Registers that our state has changed. On a sharp change the gossip
+     * interval of every node is halved, and the next update to each node is
+     * moved forward accordingly.
+     * 
+     * @param sharp
+     *            True iff this is a sharp change.
+     */
+    synchronized void registerStateChange(boolean sharp) {
+        stateVersion++;
+        if (!Settings.ADAPTIVE_GOSSIP || !sharp) {
+            return;
+        }
+        final ArrayList<GossipNode> l = new ArrayList<GossipNode>(nodes);
+        nodes.clear();
+        for (final GossipNode node : l) {
+            node.updateInterval = Math.max(node.getMinimalInterval(),
+                    node.updateInterval / 2);
+            node.nextUpdateMoment = Math.min(node.nextUpdateMoment,
+                    node.lastContactMoment + node.updateInterval);
+            nodes.add(node);
+        }
+        if (Settings.traceGossip) {
+            Globals.log
+                    .reportProgress("Gossiper: sharp change; halved gossip intervals");
+        }
+    }
+
+    /**
+     * Prints, for each gossip interval, the number of messages sent with
+     * that interval and the staleness of the information of the receiver.
+     * The staleness is the age of the newest information of ours the
+     * receiver had seen when we sent the message.
+     * 
+     * @param s
+     *            The stream to print to.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void printStatistics(PrintStream s) {
+        for (final Map.Entry<Long, IntervalStatistics> e : intervalStatistics
+                .entrySet()) {
+            final IntervalStatistics st = e.getValue();
+            if (st.measuredMessages == 0) {
+                s.println("gossip interval " + e.getKey() + " ms: "
+                        + st.messages + " messages; staleness unknown");
+            } else {
+                s.println("gossip interval " + e.getKey() + " ms: "
+                        + st.messages + " messages; average staleness "
+                        + (st.totalStaleness / st.measuredMessages)
+                        + " ms, maximal staleness " + st.maximalStaleness
+                        + " ms");
+            }
+        }
+    }
+
     long computeWaitTimeInMilliseconds() {
         final GossipNode node = nodes.peek();
         if (node == null) {
@@ -86,7 +264,7 @@ class GossipNodeList {
     }
 
     void add(IbisIdentifier ibis) {
-        if (ibis.equals(Globals.localIbis.identifier())) {
+        if (ibis.equals(localIbis)) {
             if (Settings.traceGossip) {
                 Globals.log.reportProgress("Gossiper: ignored local ibis "
                         + ibis);
@@ -97,7 +275,13 @@ class GossipNodeList {
                 Globals.log.reportProgress("Gossiper: added new ibis " + ibis);
             }
             synchronized (this) {
-                nodes.add(new GossipNode(ibis));
+                for (final GossipNode m : nodes) {
+                    if (ibis.equals(m.ibis)) {
+                        // Already in our administration.
+                        return;
+                    }
+                }
+                nodes.add(new GossipNode(localIbis, ibis));
             }
         }
     }
@@ -109,8 +293,8 @@ class GossipNodeList {
      *            The ibis to remove.
      */
     synchronized void remove(IbisIdentifier ibis) {
-        extractGossipNode(ibis);
-        if (Settings.traceGossip) {
+        final GossipNode node = extractGossipNode(ibis);
+        if (node != null && Settings.traceGossip) {
             Globals.log.reportProgress("Gossiper: removed ibis " + ibis);
         }
     }
@@ -146,8 +330,8 @@ class GossipNodeList {
         if (node == null) {
             return; // Not in our administration; let's keep it like that.
         }
-        node.nextUpdateMoment = System.currentTimeMillis()
-                + node.updateInterval;
+        node.lastContactMoment = System.currentTimeMillis();
+        node.nextUpdateMoment = node.lastContactMoment + node.updateInterval;
         nodes.add(node);
     }
 
@@ -7,18 +7,22 @@ import ibis.steel.Estimate;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * A thread that gossips with the other ibises to exchange performance
  * information. The strategy is to try and keep recent information on all nodes
- * by exchanging information with all other nodes.
+ * by exchanging information with all other nodes. In hierarchical gossip,
+ * nodes only exchange detailed information within their cluster, and the
+ * cluster representatives exchange summaries of their clusters.
  * 
  * @author Kees van Reeuwijk.
  */
 class Gossiper extends Thread {
-    private final GossipNodeList nodes = new GossipNodeList();
+    private final GossipNodeList nodes;
 
     private final IbisSet deadNodes = new IbisSet();
 
@@ -34,6 +38,15 @@ class Gossiper extends Thread {
 
     private final Counter failedGossipMessageCount = new Counter();
 
+    /**
+     * In hierarchical gossip, all nodes we know about, including the ones we
+     * don't gossip with.
+     */
+    private final ArrayList<IbisIdentifier> knownNodes = new ArrayList<IbisIdentifier>();
+
+    /** In hierarchical gossip, do we represent our cluster? */
+    private boolean isRepresentative = true;
+
     private final LinkedList<IbisIdentifier> nodesToReplyTo = new LinkedList<IbisIdentifier>();
 
     private final PacketSendPort sendPort;
@@ -52,6 +65,7 @@ class Gossiper extends Thread {
         setDaemon(true);
         setPriority(Thread.MAX_PRIORITY);
         gossip = new Gossip(jobs, localIbis);
+        nodes = new GossipNodeList(localIbis);
     }
 
     NodePerformanceInfo[] getGossipCopy() {
@@ -70,7 +84,10 @@ class Gossiper extends Thread {
             }
         }
         if (!sendPort.sendNonessentialMessage(target, msg)) {
-            retrySendGossipMessage(msg, startTime);
+            if (!retrySendGossipMessage(msg, startTime)) {
+                // The target may not have seen what we think it has.
+                gossip.forgetPeerKnowledge(target);
+            }
         }
         gossipQuotum.down();
         messageCount.add();
@@ -81,8 +98,9 @@ class Gossiper extends Thread {
      *            The gossip message to send.
      * @param startTime
      *            The supposed start time of the transmission.
+     * @return True iff the message was sent.
      */
-    private void retrySendGossipMessage(final GossipMessage msg,
+    private boolean retrySendGossipMessage(final GossipMessage msg,
             final double startTime) {
         SendPort port = null;
         try {
@@ -94,7 +112,7 @@ class Gossiper extends Thread {
             final double setupTime = Utils.getPreciseTime();
             final WriteMessage writeMessage = port.newMessage();
             try {
-                writeMessage.writeObject(msg);
+                MessageCodec.writeMessage(writeMessage, msg);
             } finally {
                 len = writeMessage.finish();
             }
@@ -114,8 +132,10 @@ class Gossiper extends Thread {
                     sentBytes += len;
                 }
             }
+            return true;
         } catch (final IOException e) {
             failedGossipMessageCount.add();
+            return false;
         } finally {
             try {
                 if (port != null) {
@@ -141,6 +161,7 @@ class Gossiper extends Thread {
                 // Nobody to gossip. Stop.
                 break;
             }
+            nodes.registerMessage(target, gossip.getPeerStaleness(target));
             sendGossip(target, true);
         }
     }
@@ -193,7 +214,14 @@ class Gossiper extends Thread {
             // I'm not going to gossip to myself.
             return;
         }
-        nodes.add(ibis);
+        if (Settings.HIERARCHICAL_GOSSIP) {
+            synchronized (knownNodes) {
+                knownNodes.add(ibis);
+                updateGossipTargets();
+            }
+        } else {
+            nodes.add(ibis);
+        }
         gossipQuotum.up(2);
         synchronized (this) {
             this.notifyAll();
@@ -203,12 +231,100 @@ class Gossiper extends Thread {
     void removeNode(final IbisIdentifier ibis) {
         deadNodes.add(ibis);
         nodes.remove(ibis);
+        if (Settings.HIERARCHICAL_GOSSIP) {
+            synchronized (knownNodes) {
+                knownNodes.remove(ibis);
+                updateGossipTargets();
+            }
+        }
         gossip.removeNode(ibis);
         synchronized (this) {
             this.notifyAll();
         }
     }
 
+    /**
+     * Recomputes the nodes we gossip with in hierarchical gossip: all nodes
+     * in our own cluster, and, if we represent our cluster, the
+     * representatives of the other clusters. The representative of a cluster
+     * is the member with the lowest identifier, so every node elects the same
+     * representatives without any communication. Must be called with the
+     * lock on <code>knownNodes</code> held.
+     */
+    private void updateGossipTargets() {
+        final IbisIdentifier me = Globals.localIbis.identifier();
+        final ArrayList<IbisIdentifier> representatives = electRepresentatives(
+                me, knownNodes);
+        final boolean representative = representatives.contains(me);
+        for (final IbisIdentifier ibis : knownNodes) {
+            if (isGossipTarget(me, ibis, representatives)) {
+                nodes.add(ibis);
+            } else {
+                nodes.remove(ibis);
+            }
+        }
+        if (representative != isRepresentative && Settings.traceGossip) {
+            Globals.log.reportProgress("Gossiper: "
+                    + (representative ? "now" : "no longer")
+                    + " representative of our cluster");
+        }
+        isRepresentative = representative;
+    }
+
+    /**
+     * Returns the representative of every cluster: the member with the
+     * lowest identifier.
+     * 
+     * @param me
+     *            The local node.
+     * @param knownNodes
+     *            The other nodes we know about.
+     * @return The representatives.
+     */
+    static ArrayList<IbisIdentifier> electRepresentatives(
+            final IbisIdentifier me, final List<IbisIdentifier> knownNodes) {
+        final ArrayList<IbisIdentifier> representatives = new ArrayList<IbisIdentifier>();
+        representatives.add(me);
+        for (final IbisIdentifier ibis : knownNodes) {
+            boolean found = false;
+            for (int i = 0; i < representatives.size(); i++) {
+                final IbisIdentifier r = representatives.get(i);
+                if (Utils.areInSameCluster(r, ibis)) {
+                    if (ibis.compareTo(r) < 0) {
+                        representatives.set(i, ibis);
+                    }
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                representatives.add(ibis);
+            }
+        }
+        return representatives;
+    }
+
+    /**
+     * Returns true iff in hierarchical gossip we should gossip with the given
+     * node: it is in our own cluster, or both we and it represent our
+     * clusters.
+     * 
+     * @param me
+     *            The local node.
+     * @param ibis
+     *            The node to gossip with or not.
+     * @param representatives
+     *            The representatives of all clusters.
+     * @return True iff we should gossip with the node.
+     */
+    static boolean isGossipTarget(final IbisIdentifier me,
+            final IbisIdentifier ibis,
+            final ArrayList<IbisIdentifier> representatives) {
+        return Utils.areInSameCluster(me, ibis)
+                || (representatives.contains(me) && representatives
+                        .contains(ibis));
+    }
+
     boolean registerGossip(final NodePerformanceInfo update,
             final IbisIdentifier source) {
         if (deadNodes.contains(update.source)) {
@@ -247,7 +363,15 @@ class Gossiper extends Thread {
                 localNodeInfoMap);
     }
 
-    private void addQuotum() {
+    /**
+     * Registers a change of the local state, and wakes the gossiper.
+     * 
+     * @param sharp
+     *            True iff this is a sharp change, so that we should gossip
+     *            more often.
+     */
+    private void addQuotum(final boolean sharp) {
+        nodes.registerStateChange(sharp);
         gossipQuotum.up();
         synchronized (this) {
             notifyAll();
@@ -262,6 +386,16 @@ class Gossiper extends Thread {
         s.println("Sent " + Utils.formatByteCount(sentBytes) + " in "
                 + Utils.formatSeconds(sendTime) + ", administration time "
                 + Utils.formatSeconds(adminTime));
+        if (Settings.HIERARCHICAL_GOSSIP) {
+            synchronized (knownNodes) {
+                s.println("Hierarchical gossip: gossiping with "
+                        + nodes.size() + " of " + knownNodes.size()
+                        + " nodes"
+                        + (isRepresentative ? "; representative of our cluster"
+                                : ""));
+            }
+        }
+        nodes.printStatistics(s);
         gossip.print(s, jobs);
     }
 
@@ -325,23 +459,29 @@ class Gossiper extends Thread {
 
     void failJob(final JobType type) {
         gossip.localNodeFailJob(type);
-        addQuotum();
+        addQuotum(true);
     }
 
     void setComputeTime(final JobType type, final Estimate t) {
-        gossip.setLocalComputeTime(type, t);
-        addQuotum();
+        addQuotum(gossip.setLocalComputeTime(type, t));
     }
 
     void setWorkerQueueTimePerJob(final JobType type,
             final Estimate queueTimePerJob, final int queueLength) {
-        gossip.setWorkerQueueTimePerJob(type, queueTimePerJob, queueLength);
-        addQuotum();
+        addQuotum(gossip.setWorkerQueueTimePerJob(type, queueTimePerJob,
+                queueLength));
+    }
+
+    void setCachedResults(final long summary[]) {
+        gossip.setCachedResults(summary);
+        addQuotum(false);
     }
 
     boolean setWorkerQueueLength(final JobType type, final int queueLength) {
+        final boolean sharp = gossip.isSharpQueueLengthChange(type,
+                queueLength);
         final boolean changed = gossip.setWorkerQueueLength(type, queueLength);
-        addQuotum();
+        addQuotum(sharp);
         return changed;
     }
 
@@ -361,6 +501,9 @@ class Gossiper extends Thread {
         }
         for (final NodePerformanceInfo i : m.gossip) {
             changed |= registerGossip(i, m.source);
+            if (Settings.DELTA_GOSSIP && m.source != null) {
+                gossip.registerPeerKnowledge(m.source, i);
+            }
         }
         if (m.needsReply) {
             if (!m.source.equals(Globals.localIbis.identifier())) {
@@ -0,0 +1,60 @@
+package ibis.maestro;
+
+import java.util.Arrays;
+
+/**
+ * A message from the worker to the master, telling the master that the worker
+ * has received and completed a number of jobs. For each job the message also
+ * contains the time the notification was held back on the worker, so that the
+ * master can compute accurate transmission and round-trip times.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class JobAcknowledgementsMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifiers of the received jobs. */
+    final long receivedIds[];
+
+    /** For each received job, the time in seconds the notification was held. */
+    final double receivedDelays[];
+
+    /** The identifiers of the completed jobs. */
+    final long completedIds[];
+
+    /** For each completed job, the time in seconds the notification was held. */
+    final double completedDelays[];
+
+    /**
+     * Constructs a new acknowledgements message.
+     *
+     * @param receivedIds
+     *            The identifiers of the received jobs.
+     * @param receivedDelays
+     *            The hold times of the received notifications.
+     * @param completedIds
+     *            The identifiers of the completed jobs.
+     * @param completedDelays
+     *            The hold times of the completed notifications.
+     */
+    JobAcknowledgementsMessage(final long receivedIds[],
+            final double receivedDelays[], final long completedIds[],
+            final double completedDelays[]) {
+        this.receivedIds = receivedIds;
+        this.receivedDelays = receivedDelays;
+        this.completedIds = completedIds;
+        this.completedDelays = completedDelays;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     *
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "job acknowledgements message: received="
+                + Arrays.toString(receivedIds) + " completed="
+                + Arrays.toString(completedIds);
+    }
+}
@@ -0,0 +1,186 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The future result of a job that was submitted with
+ * {@link Node#submitAsync(Serializable, Job)}.
+ * 
+ * Cancelling a job future only means that its result will not be delivered;
+ * the job itself is not stopped. If the node is stopped before the job is
+ * completed, the future is cancelled.
+ * 
+ * Instead of waiting for the result, a program can register a
+ * {@link JobCompletionListener} with {@link #addListener(JobCompletionListener)}.
+ * 
+ * @author Kees van Reeuwijk
+ */
+public final class JobFuture implements Future<Serializable> {
+    private boolean done = false;
+
+    private boolean cancelled = false;
+
+    private Serializable result = null;
+
+    /** The node the job was completed on, once it has been completed. */
+    private Node node = null;
+
+    /** The listeners that want to know about the completion. */
+    private ArrayList<JobCompletionListener> listeners = null;
+
+    /** The listener that completes this future. */
+    private final class Completion implements CancellableCompletionListener {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void jobCompleted(final Node n, final Object id,
+                final Serializable res) {
+            complete(n, res);
+        }
+
+        @Override
+        public void jobCancelled(final Node n, final Object id) {
+            cancel(false);
+        }
+    }
+
+    JobFuture() {
+        // Only constructed by the node.
+    }
+
+    JobCompletionListener getListener() {
+        return new Completion();
+    }
+
+    private void complete(final Node n, final Serializable res) {
+        final ArrayList<JobCompletionListener> l;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            result = res;
+            node = n;
+            done = true;
+            notifyAll();
+            l = listeners;
+            listeners = null;
+        }
+        if (l != null) {
+            for (final JobCompletionListener listener : l) {
+                listener.jobCompleted(n, this, res);
+            }
+        }
+    }
+
+    /**
+     * Registers a listener that is invoked with the result of the job once it
+     * has been completed, with this future as identifier. If the job has
+     * already been completed, the listener is invoked immediately, on the
+     * current thread. The listener is never invoked if the future is
+     * cancelled.
+     * 
+     * @param listener
+     *            The listener to register.
+     */
+    public void addListener(final JobCompletionListener listener) {
+        final Serializable res;
+        final Node n;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<JobCompletionListener>();
+                }
+                listeners.add(listener);
+                return;
+            }
+            res = result;
+            n = node;
+        }
+        listener.jobCompleted(n, this, res);
+    }
+
+    /**
+     * Cancels the delivery of the result of this job.
+     * 
+     * @param mayInterruptIfRunning
+     *            Ignored; a running job is never interrupted.
+     * @return True iff the result had not been delivered yet.
+     */
+    @Override
+    public synchronized boolean cancel(final boolean mayInterruptIfRunning) {
+        if (done) {
+            return false;
+        }
+        cancelled = true;
+        done = true;
+        listeners = null;
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits until the job has been completed, and returns its result.
+     * 
+     * @return The result of the job.
+     * @throws InterruptedException
+     *             Thrown if the wait was interrupted.
+     */
+    @Override
+    public synchronized Serializable get() throws InterruptedException {
+        while (!done) {
+            wait();
+        }
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return result;
+    }
+
+    /**
+     * Waits at most the given time until the job has been completed, and
+     * returns its result.
+     * 
+     * @param timeout
+     *            The maximal time to wait.
+     * @param unit
+     *            The unit of the timeout.
+     * @return The result of the job.
+     * @throws InterruptedException
+     *             Thrown if the wait was interrupted.
+     * @throws TimeoutException
+     *             Thrown if the job was not completed in time.
+     */
+    @Override
+    public synchronized Serializable get(final long timeout,
+            final TimeUnit unit) throws InterruptedException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package ibis.maestro;
+
+/**
+ * A message telling the master that a worker could not get the input of the
+ * given job from the data plane. Unlike a {@link JobFailedMessage} this
+ * doesn't say anything about the ability of the worker to execute jobs of
+ * this type; the master may submit the job again if it still has the input.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class JobInputUnavailableMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job, as handed out by the master. */
+    final long id;
+
+    /**
+     * Constructs a new input unavailable message.
+     * 
+     * @param id
+     *            The identifier of the job whose input is unavailable.
+     */
+    JobInputUnavailableMessage(final long id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "input unavailable message for job " + id;
+    }
+}
@@ -1,5 +1,7 @@
 package ibis.maestro;
 
+import ibis.ipl.IbisIdentifier;
+
 import java.io.Serializable;
 
 /**
@@ -21,8 +23,43 @@ class JobInstance implements Serializable {
     /** The index in the todo list of this job type. */
     final int stageNumber;
 
+    /** The priority class of this job. See {@link JobPriority}. */
+    final int priority;
+
+    /**
+     * The scheduling deadline in ms of this job; jobs with an earlier deadline
+     * are handed out first. See {@link JobPriority}.
+     */
+    final long deadline;
+
     private boolean orphan = false;
 
+    /**
+     * The size in bytes of the serialized input, or <code>-1</code> if it
+     * hasn't been measured. Only measured when the job is sent to another
+     * node.
+     */
+    private transient long inputSize = -1;
+
+    /** The result cache key of this job, if it has been computed. */
+    private transient ResultCache.Key cacheKey = null;
+
+    private transient boolean cacheKeyComputed = false;
+
+    /** Set iff there is a speculative copy of this job. */
+    private transient boolean hedged = false;
+
+    /** The worker the speculative copy should not be sent to. */
+    private transient IbisIdentifier avoidedWorker = null;
+
+    /** The key of this job in the master queue, if it has been assigned. */
+    private transient long masterQueueKey;
+
+    private transient boolean masterQueueKeyAssigned = false;
+
+    /** Set iff this job holds a submit credit. */
+    private transient boolean holdsCredit = false;
+
     /**
      * @param jii
      *            The identifier of this job instance.
@@ -34,13 +71,38 @@ class JobInstance implements Serializable {
      *            The overall type of job to execute
      * @param stageNumber
      *            The index in the todo list of the current state of the job
+     * @param priority
+     *            The priority class of the job
+     * @param deadline
+     *            The scheduling deadline of the job
      */
     JobInstance(JobInstanceIdentifier jii, Serializable input, JobType overallType,
-            int stageNumber) {
+            int stageNumber, int priority, long deadline) {
         this.jobInstance = jii;
         this.input = input;
         this.overallType = overallType;
         this.stageNumber = stageNumber;
+        this.priority = priority;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Constructs a job instance of the normal priority class without a
+     * deadline.
+     * 
+     * @param jii
+     *            The identifier of this job instance.
+     * @param input
+     *            The input for this job.
+     * @param overallType
+     *            The overall type of job to execute
+     * @param stageNumber
+     *            The index in the todo list of the current state of the job
+     */
+    JobInstance(JobInstanceIdentifier jii, Serializable input, JobType overallType,
+            int stageNumber) {
+        this(jii, input, overallType, stageNumber, JobPriority.NORMAL,
+                JobPriority.NO_DEADLINE);
     }
 
     String formatJobAndType() {
@@ -71,6 +133,108 @@ class JobInstance implements Serializable {
         return orphan;
     }
 
+    synchronized void setInputSize(long inputSize) {
+        this.inputSize = inputSize;
+    }
+
+    synchronized long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Marks this job as having a speculative copy, unless it already has one.
+     * 
+     * @param slowWorker
+     *            The worker that is late with this job.
+     * @return True iff the job was not marked before.
+     */
+    synchronized boolean startHedge(final IbisIdentifier slowWorker) {
+        if (hedged || orphan) {
+            return false;
+        }
+        hedged = true;
+        avoidedWorker = slowWorker;
+        return true;
+    }
+
+    /**
+     * Clears the speculative copy mark of this job.
+     * 
+     * @return True iff the job was marked.
+     */
+    synchronized boolean resolveHedge() {
+        final boolean res = hedged;
+        hedged = false;
+        avoidedWorker = null;
+        return res;
+    }
+
+    synchronized boolean isHedged() {
+        return hedged;
+    }
+
+    /**
+     * Returns the worker this job should not be sent to, or <code>null</code>.
+     * 
+     * @return The worker to avoid.
+     */
+    synchronized IbisIdentifier getAvoidedWorker() {
+        return avoidedWorker;
+    }
+
+    /**
+     * Sets the key of this job in the master queue. A job that is added to
+     * the master queue again keeps this key, and therefore its place.
+     * 
+     * @param key
+     *            The key.
+     */
+    synchronized void setMasterQueueKey(long key) {
+        masterQueueKey = key;
+        masterQueueKeyAssigned = true;
+    }
+
+    synchronized void setHoldsCredit() {
+        holdsCredit = true;
+    }
+
+    /**
+     * Clears the submit credit mark of this job.
+     * 
+     * @return True iff the job held a submit credit.
+     */
+    synchronized boolean releaseCredit() {
+        final boolean res = holdsCredit;
+        holdsCredit = false;
+        return res;
+    }
+
+    synchronized boolean hasMasterQueueKey() {
+        return masterQueueKeyAssigned;
+    }
+
+    synchronized long getMasterQueueKey() {
+        return masterQueueKey;
+    }
+
+    /**
+     * Returns the result cache key of this job, computing it if necessary.
+     * An input that is a handle to an object in a data plane has no key,
+     * since the handle says nothing about the contents of the object.
+     * 
+     * @param stageType
+     *            The type of the current stage of this job.
+     * @return The key, or <code>null</code> if the input cannot be hashed.
+     */
+    synchronized ResultCache.Key getCacheKey(JobType stageType) {
+        if (!cacheKeyComputed) {
+            cacheKey = input instanceof DataHandle ? null : ResultCache
+                    .computeKey(stageType, input);
+            cacheKeyComputed = true;
+        }
+        return cacheKey;
+    }
+
     JobType getStageType(JobList jobs) {
         return jobs.getStageType(overallType, stageNumber);
     }
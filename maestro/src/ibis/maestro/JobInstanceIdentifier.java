@@ -29,6 +29,9 @@ class JobInstanceIdentifier implements Serializable {
     /** The node to which the final result should be transmitted. */
     final IbisIdentifier resultNode;
 
+    /** The fair-share weight of the submitter of this job. */
+    final double share;
+
     /**
      * Constructs a new identifier.
      * 
@@ -43,6 +46,7 @@ class JobInstanceIdentifier implements Serializable {
         this.ids = new long[]{ id };
         this.userId = userId;
         this.resultNode = resultNode;
+        this.share = 1.0;
     }
     
     private long[] buildIds( long prefix[] )
@@ -63,11 +67,39 @@ class JobInstanceIdentifier implements Serializable {
      *            The user identifier to include.
      * @param resultNode
      *            The node to send the result to.
+     * @param share
+     *            The fair-share weight of the submitter.
      */
-    JobInstanceIdentifier(long prefix[], Serializable userId, IbisIdentifier resultNode) {
+    JobInstanceIdentifier(long prefix[], Serializable userId, IbisIdentifier resultNode, double share) {
     	this.ids = buildIds(prefix);
     	this.userId = userId;
     	this.resultNode = resultNode;
+    	this.share = share;
+    }
+
+    private JobInstanceIdentifier(Serializable userId, IbisIdentifier resultNode, long ids[], double share) {
+        this.ids = ids;
+        this.userId = userId;
+        this.resultNode = resultNode;
+        this.share = share;
+    }
+
+    /**
+     * Constructs an identifier with exactly the given ids, for example
+     * because it was sent by another node.
+     * 
+     * @param ids
+     *            The ids of the identifier.
+     * @param userId
+     *            The user identifier to include.
+     * @param resultNode
+     *            The node to send the result to.
+     * @param share
+     *            The fair-share weight of the submitter.
+     * @return The new identifier.
+     */
+    static JobInstanceIdentifier fromIds(long ids[], Serializable userId, IbisIdentifier resultNode, double share) {
+        return new JobInstanceIdentifier(userId, resultNode, ids, share);
     }
 
     /**
@@ -27,6 +27,9 @@ public final class JobList {
     // For each job type, the list types to do.
     private final ArrayList<JobType[]> todoLists = new ArrayList<JobType[]>();
 
+    /** The fair-share weights of the job types that don't have weight 1. */
+    private final HashMap<JobType, Double> weights = new HashMap<JobType, Double>();
+
     /**
      * Register a new job sequence.
      * 
@@ -42,11 +45,11 @@ public final class JobList {
         JobType t;
         if (job instanceof UnpredictableAtomicJob) {
             final int index = allJobTypes.size();
-            t = new JobType(true, true, index);
+            t = new JobType(true, true, job instanceof BlockingJob, index);
             todoLists.add(new JobType[] { t });
         } else if (job instanceof AtomicJob) {
             final int index = allJobTypes.size();
-            t = new JobType(false, true, index);
+            t = new JobType(false, true, job instanceof BlockingJob, index);
             todoLists.add(new JobType[] { t });
         } else if (job instanceof SeriesJob) {
             final SeriesJob sjob = (SeriesJob) job;
@@ -64,7 +67,7 @@ public final class JobList {
                 }
             }
             final int index = allJobTypes.size();
-            t = new JobType(unpredictable, false, index);
+            t = new JobType(unpredictable, false, false, index);
             final JobType todoArray[] = todoList.toArray(new JobType[todoList
                     .size()]);
             todoLists.add(todoArray);
@@ -74,7 +77,7 @@ public final class JobList {
              */
             final boolean unpredictable = true;
             final int index = allJobTypes.size();
-            t = new JobType(unpredictable, false, index);
+            t = new JobType(unpredictable, false, false, index);
             todoLists.add(new JobType[] { t });
         } else {
             Globals.log.reportError("Don't know how to register job type "
@@ -87,6 +90,45 @@ public final class JobList {
         return t;
     }
 
+    /**
+     * Sets the fair-share weight of the given job. When the queues of a node
+     * are contended, jobs of a type with weight 2 are handed out twice as
+     * often as jobs of a type with weight 1. The weight of a stage of a series
+     * job is the product of the weight of the series job and the weight of
+     * the stage itself. All nodes should use the same weights.
+     * 
+     * @param job
+     *            The job to set the weight of. It must have been registered.
+     * @param weight
+     *            The weight; must be positive.
+     */
+    public synchronized void setWeight(final Job job, final double weight) {
+        final JobType type = jobTypeMap.get(job);
+        if (type == null) {
+            Globals.log.reportError("Cannot set the weight of unregistered job "
+                    + job);
+            return;
+        }
+        if (!(weight > 0)) {
+            Globals.log.reportError("Ignoring non-positive weight " + weight
+                    + " for job " + job);
+            return;
+        }
+        weights.put(type, weight);
+    }
+
+    /**
+     * Returns the fair-share weight of the given type.
+     * 
+     * @param type
+     *            The type.
+     * @return The weight.
+     */
+    synchronized double getWeight(final JobType type) {
+        final Double w = weights.get(type);
+        return w == null ? 1.0 : w;
+    }
+
     JobType getJobType(final Job job) {
         return jobTypeMap.get(job);
     }
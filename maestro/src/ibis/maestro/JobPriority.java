@@ -0,0 +1,50 @@
+package ibis.maestro;
+
+/**
+ * The priority classes of submitted jobs.
+ *
+ * Both the master and the worker queues hand out jobs in order of their
+ * scheduling deadline. A job that is submitted with an explicit deadline uses
+ * that deadline. Otherwise, or if it is later, the scheduling deadline is the
+ * submission moment plus a slack that grows with the priority class. Since
+ * that slack is bounded, a job of a low priority class eventually overtakes
+ * newly submitted jobs of a higher class, and is never starved.
+ *
+ * @author Kees van Reeuwijk
+ *
+ */
+public final class JobPriority {
+    /** The priority class of jobs a user is waiting for. */
+    public static final int INTERACTIVE = 0;
+
+    /** The priority class of jobs that are submitted without a priority. */
+    public static final int NORMAL = 1;
+
+    /** The priority class of background jobs. */
+    public static final int BULK = 2;
+
+    /** The deadline of a job that does not have one. */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private JobPriority() {
+        // Only constants and static methods.
+    }
+
+    /**
+     * Given the priority class and the deadline of a newly submitted job,
+     * returns its scheduling deadline.
+     *
+     * @param priority
+     *            The priority class of the job.
+     * @param deadline
+     *            The moment in ms (as returned by
+     *            <code>System.currentTimeMillis()</code>) the job should be
+     *            completed, or {@link #NO_DEADLINE}.
+     * @return The scheduling deadline in ms.
+     */
+    static long getSchedulingDeadline(final int priority, final long deadline) {
+        final long slack = Math.max(0, priority)
+                * Settings.PRIORITY_AGING_INTERVAL;
+        return Math.min(deadline, System.currentTimeMillis() + slack);
+    }
+}
@@ -1,18 +1,20 @@
 package ibis.maestro;
 
+import java.util.Arrays;
+
 /**
  * A message from the worker to the master, telling the master that the worker
- * has received the given job.
+ * has received the given jobs.
  * 
  * @author Kees van Reeuwijk
  * 
  */
 final class JobReceivedMessage extends Message {
     /** Contractual obligation. */
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    /** The identifier of the job. */
-    final long jobId;
+    /** The identifiers of the received jobs. */
+    final long jobIds[];
 
     /**
      * Constructs a job-received message from the worker to the master of a job.
@@ -21,7 +23,18 @@ final class JobReceivedMessage extends Message {
      *            The identifier of the job, as handed out by the master.
      */
     JobReceivedMessage(final long jobId) {
-        this.jobId = jobId;
+        this(new long[] { jobId });
+    }
+
+    /**
+     * Constructs a job-received message from the worker to the master of a
+     * number of jobs that arrived together.
+     * 
+     * @param jobIds
+     *            The identifiers of the jobs, as handed out by the master.
+     */
+    JobReceivedMessage(final long jobIds[]) {
+        this.jobIds = jobIds;
     }
 
     /**
@@ -31,6 +44,6 @@ final class JobReceivedMessage extends Message {
      */
     @Override
     public String toString() {
-        return "job received message: jobId=" + jobId;
+        return "job received message: jobIds=" + Arrays.toString(jobIds);
     }
 }
@@ -0,0 +1,35 @@
+package ibis.maestro;
+
+/**
+ * A message asking the submitter of a job to submit it again from its first
+ * stage, because the input of a later stage has been lost.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class JobRestartMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The identifier of the job, as handed out by the submitter. */
+    final JobInstanceIdentifier job;
+
+    /**
+     * Constructs a new restart message.
+     * 
+     * @param job
+     *            The identifier of the job to restart.
+     */
+    JobRestartMessage(final JobInstanceIdentifier job) {
+        this.job = job;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "restart message for job " + job;
+    }
+}
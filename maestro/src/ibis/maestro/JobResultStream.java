@@ -0,0 +1,188 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The results of a sequence of jobs that was submitted with
+ * {@link Node#submitAll(Iterator, Job)}.
+ * 
+ * The stream is demand-driven: inputs are only taken from the input iterator
+ * and submitted when the consumer has requested results with
+ * {@link #request(long)}, so a slow consumer never has more than the
+ * requested number of jobs in flight or results waiting. Results become
+ * available in the order in which the jobs complete. If the node is stopped,
+ * the results of the jobs that were still in flight are never delivered, and
+ * the stream finishes.
+ * 
+ * @author Kees van Reeuwijk
+ */
+public final class JobResultStream {
+    private final JobSubmitter submitter;
+
+    private final Iterator<? extends Serializable> inputs;
+
+    private final Job job;
+
+    /** The number of results requested but not yet submitted. */
+    private long demand = 0;
+
+    /** The number of submitted jobs that haven't been completed. */
+    private long outstanding = 0;
+
+    /** The index of the next input. */
+    private long nextIndex = 0;
+
+    private boolean cancelled = false;
+
+    /** True iff the node was stopped before all our jobs were completed. */
+    private boolean stopped = false;
+
+    private final LinkedList<Result> results = new LinkedList<Result>();
+
+    /** A completed job of the stream. */
+    public static final class Result {
+        /** The index of the input of this job in the input sequence. */
+        public final long index;
+
+        /** The result of the job. */
+        public final Serializable result;
+
+        private Result(final long index, final Serializable result) {
+            this.index = index;
+            this.result = result;
+        }
+    }
+
+    /** Registers the completion of the jobs of this stream. */
+    private final class Completion implements CancellableCompletionListener {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void jobCompleted(final Node n, final Object id,
+                final Serializable result) {
+            registerResult((Long) id, result);
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void jobCancelled(final Node n, final Object id) {
+            registerCancelled();
+        }
+    }
+
+    private final Completion completion = new Completion();
+
+    JobResultStream(final JobSubmitter submitter,
+            final Iterator<? extends Serializable> inputs, final Job job) {
+        this.submitter = submitter;
+        this.inputs = inputs;
+        this.job = job;
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private synchronized void registerResult(final long index,
+            final Serializable result) {
+        outstanding--;
+        if (!cancelled) {
+            results.add(new Result(index, result));
+        }
+        notifyAll();
+    }
+
+    /**
+     * The node was stopped before one of our jobs was completed. Since no
+     * further jobs will be completed either, submit no further inputs.
+     */
+    private synchronized void registerCancelled() {
+        outstanding--;
+        demand = 0;
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Requests the given number of additional results. This submits up to
+     * that many further inputs; it never blocks.
+     * 
+     * @param n
+     *            The number of additional results.
+     */
+    public void request(final long n) {
+        synchronized (this) {
+            if (n <= 0 || cancelled || stopped) {
+                return;
+            }
+            demand += n;
+        }
+        while (true) {
+            final Serializable input;
+            final long index;
+            synchronized (this) {
+                if (demand <= 0 || cancelled || stopped || !inputs.hasNext()) {
+                    notifyAll();
+                    return;
+                }
+                input = inputs.next();
+                index = nextIndex++;
+                demand--;
+                outstanding++;
+            }
+            submitter.submitAsync(input, index, completion, job);
+        }
+    }
+
+    /**
+     * Stops the stream: no further inputs are submitted, and the results of
+     * jobs still in flight are discarded.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        results.clear();
+        notifyAll();
+    }
+
+    private boolean isExhausted() {
+        return cancelled
+                || (outstanding == 0 && (stopped || !inputs.hasNext()));
+    }
+
+    /**
+     * Returns true iff all results of this stream have been taken, or the
+     * stream was cancelled.
+     * 
+     * @return True iff there will be no more results.
+     */
+    public synchronized boolean isFinished() {
+        return results.isEmpty() && isExhausted();
+    }
+
+    /**
+     * Returns the next available result, without waiting.
+     * 
+     * @return The result, or <code>null</code> if no result is available.
+     */
+    public synchronized Result poll() {
+        return results.poll();
+    }
+
+    /**
+     * Returns the next result, waiting for it if necessary. Returns
+     * <code>null</code> if there will be no more results, or if there are no
+     * outstanding jobs and no unsatisfied requests, in which case more
+     * results must be requested first.
+     * 
+     * @return The next result, or <code>null</code>.
+     * @throws InterruptedException
+     *             Thrown if the wait was interrupted.
+     */
+    public synchronized Result take() throws InterruptedException {
+        while (results.isEmpty()) {
+            if (cancelled || outstanding == 0) {
+                return null;
+            }
+            wait();
+        }
+        return results.poll();
+    }
+}
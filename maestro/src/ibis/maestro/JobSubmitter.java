@@ -0,0 +1,26 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+
+/**
+ * The interface of something that accepts jobs for asynchronous execution,
+ * normally a node.
+ * 
+ * @author Kees van Reeuwijk
+ */
+interface JobSubmitter {
+    /**
+     * Submits the given input to the given job without blocking.
+     * 
+     * @param input
+     *            The input of the job.
+     * @param userId
+     *            The identifier the listener gets with the result.
+     * @param listener
+     *            The completion listener for this job.
+     * @param job
+     *            The job to execute.
+     */
+    void submitAsync(Serializable input, Serializable userId,
+            JobCompletionListener listener, Job job);
+}
@@ -15,15 +15,20 @@ final class JobType implements Serializable {
     
     final boolean isAtomic;
 
+    /** True iff jobs of this type spend most of their time blocked. */
+    final boolean blocking;
+
     final int index;
 
     /**
      * Constructs a new job type.
      * 
      */
-    JobType(boolean unpredictable, boolean isAtomic, int index) {
+    JobType(boolean unpredictable, boolean isAtomic, boolean blocking,
+            int index) {
         this.unpredictable = unpredictable;
         this.isAtomic = isAtomic;
+        this.blocking = blocking;
         this.index = index;
     }
 
@@ -36,7 +41,8 @@ final class JobType implements Serializable {
     public String toString() {
         String unp = unpredictable ? "U" : "";
         String at = isAtomic ? "A" : "";
-        return "(J" + index + unp + at + ")";
+        String bl = blocking ? "B" : "";
+        return "(J" + index + unp + at + bl + ")";
     }
 
     /**
@@ -0,0 +1,47 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.Arrays;
+
+/**
+ * A message from a worker to a master, telling the master that the worker has
+ * stolen the given jobs of the master from another worker, so that the master
+ * can move them to the administration of the new worker.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class JobsAdoptedMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The worker the jobs were stolen from. */
+    final IbisIdentifier victim;
+
+    /** The identifiers of the jobs, as handed out by the master. */
+    final long jobIds[];
+
+    /**
+     * Constructs a new jobs adopted message.
+     * 
+     * @param victim
+     *            The worker the jobs were stolen from.
+     * @param jobIds
+     *            The identifiers of the jobs.
+     */
+    JobsAdoptedMessage(final IbisIdentifier victim, final long jobIds[]) {
+        this.victim = victim;
+        this.jobIds = jobIds;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "jobs adopted message: jobs " + Arrays.toString(jobIds)
+                + " stolen from " + victim;
+    }
+}
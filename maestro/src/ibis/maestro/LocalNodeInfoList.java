@@ -14,9 +14,21 @@ class LocalNodeInfoList {
 
     private final LocalNodeInfo infoPerType[];
 
+    /**
+     * The transmission model of this node, or <code>null</code> if there is
+     * no usable model.
+     */
+    final TransmissionModel transmissionModel;
+
     LocalNodeInfoList(final boolean suspect, final LocalNodeInfo[] infoPerType) {
+        this(suspect, infoPerType, null);
+    }
+
+    LocalNodeInfoList(final boolean suspect, final LocalNodeInfo[] infoPerType,
+            final TransmissionModel transmissionModel) {
         this.suspect = suspect;
         this.infoPerType = infoPerType;
+        this.transmissionModel = transmissionModel;
     }
 
     /**
@@ -30,10 +42,34 @@ class LocalNodeInfoList {
         return infoPerType[type.index];
     }
 
+    LocalNodeInfo getLocalNodeInfo(final int ix) {
+        return infoPerType[ix];
+    }
+
     Estimate getTransmissionTime(final int ix) {
         return infoPerType[ix].transmissionTime;
     }
 
+    /**
+     * Returns the estimated transmission time of a job of the given type with
+     * an input of the given size. If the size is not known, or there is no
+     * usable transmission model, the measured transmission time of this type
+     * is returned.
+     * 
+     * @param type
+     *            The type of the job.
+     * @param payloadBytes
+     *            The size of the job input in bytes, or <code>-1</code> if
+     *            not known.
+     * @return The estimated transmission time.
+     */
+    Estimate getTransmissionTime(final JobType type, final long payloadBytes) {
+        if (transmissionModel != null && payloadBytes >= 0) {
+            return transmissionModel.estimate(payloadBytes);
+        }
+        return infoPerType[type.index].transmissionTime;
+    }
+
     /**
      * Given a job type, returns a reasonable deadline for execution on the
      * local node.
@@ -0,0 +1,42 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.HashMap;
+
+/**
+ * A snapshot of the local information of all known nodes. A snapshot is
+ * shared, and must not be modified once it is published. Together with the
+ * change log it was published in, it tells which nodes have changed since
+ * an earlier snapshot, so that users don't have to compare every entry.
+ * 
+ * @author Kees van Reeuwijk.
+ */
+final class LocalNodeInfoMap extends HashMap<IbisIdentifier, LocalNodeInfoList> {
+    private static final long serialVersionUID = 1L;
+
+    /** The log this snapshot was published in. */
+    final transient NodeChangeLog log;
+
+    /** The number of changes in the log when this snapshot was published. */
+    final long position;
+
+    /**
+     * Constructs a new snapshot with the contents of the previous one.
+     * 
+     * @param log
+     *            The log the snapshot is published in.
+     * @param position
+     *            The number of changes in the log when this snapshot was
+     *            published.
+     * @param previous
+     *            The previous snapshot, or <code>null</code>.
+     */
+    LocalNodeInfoMap(final NodeChangeLog log, final long position,
+            final LocalNodeInfoMap previous) {
+        super(previous == null ? new HashMap<IbisIdentifier, LocalNodeInfoList>()
+                : previous);
+        this.log = log;
+        this.position = position;
+    }
+}
@@ -6,8 +6,13 @@ import ibis.steel.Estimator;
 import ibis.steel.LogGaussianDecayingEstimator;
 
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 /**
  * A class representing the master work queue.
@@ -16,19 +21,212 @@ import java.util.HashMap;
  * for the different job types, and we want to know which job types are
  * currently present in the queue.
  * 
+ * Internally every job type has its own ordered set of queued job instances,
+ * and a small index orders the job types by the first element of their set.
+ * Adding, removing and finding the first eligible job are therefore all
+ * logarithmic in the number of queued jobs.
+ * 
+ * Several threads can hand out jobs at the same time. A thread claims a job
+ * type, which takes it out of the index of heads so that other threads move
+ * on to other types, and selects a worker for its first job without holding
+ * the lock of the queue. The worker slot is then reserved with the
+ * {@link Scheduler} against the live count of outstanding jobs of the worker,
+ * and if another thread was faster, the selection is repeated with fresh
+ * information.
+ * 
  * @author Kees van Reeuwijk
  * 
  */
 final class MasterQueue {
     private int jobCount = 0;
 
+    /** The total number of job instances currently in the queue. */
+    private int size = 0;
+
+    /**
+     * The serial number of the next queue entry. Used to keep entries with
+     * identical identifiers apart.
+     */
+    private long nextSerial = 0;
+
     /**
      * For each known type, some administration about its presence in the queue.
      */
     private final TypeInfo queueTypes[];
 
-    /** The queue itself. */
-    private final ArrayList<JobInstance> queue = new ArrayList<JobInstance>();
+    /**
+     * The types that currently have elements in the queue, ordered by the
+     * first element of each type.
+     */
+    @SuppressWarnings("synthetic-access")
+    private final TreeSet<TypeInfo> heads = new TreeSet<TypeInfo>(
+            new HeadComparator());
+
+    /**
+     * The index used to select workers, or <code>null</code> if we scan. Every
+     * thread that hands out jobs keeps its own index, so that the selections
+     * of the threads don't wait for each other.
+     */
+    private final ThreadLocal<WorkerSelectionIndex> selectionIndex = Settings.INDEXED_WORKER_SELECTION ? new ThreadLocal<WorkerSelectionIndex>() {
+        @Override
+        protected WorkerSelectionIndex initialValue() {
+            return new WorkerSelectionIndex();
+        }
+    }
+            : null;
+
+    /** The fair sharing among tenants, or <code>null</code> if not used. */
+    @SuppressWarnings("synthetic-access")
+    private final FairShare<QueueEntry> fairShare = Settings.FAIR_SHARE ? new FairShare<QueueEntry>(
+            "master queue", new EntryRekeyer())
+            : null;
+
+    /**
+     * The view of the workers that is used to hand out jobs from the queue.
+     */
+    interface Scheduler {
+        /**
+         * Returns the current gossip about all nodes.
+         * 
+         * @return The gossip.
+         */
+        NodePerformanceInfo[] getTables();
+
+        /**
+         * Returns the current local information about all nodes.
+         * 
+         * @return The local information.
+         */
+        HashMap<IbisIdentifier, LocalNodeInfoList> getLocalNodeInfo();
+
+        /**
+         * Reserves a slot on the worker of the given submission, and registers
+         * the start of the job on it.
+         * 
+         * @param submission
+         *            The submission.
+         * @return True iff the slot was reserved, false if the worker has no
+         *         free slot any more.
+         */
+        boolean reserve(Submission submission);
+
+        /**
+         * Releases the slot of a submission that was reserved, but is not
+         * handed out after all.
+         * 
+         * @param submission
+         *            The submission.
+         */
+        void cancel(Submission submission);
+    }
+
+    /** An entry in the queue of a particular type. */
+    private static final class QueueEntry {
+        private final JobInstance job;
+
+        /** The key of the job; see {@link FairShare}. */
+        private long key;
+
+        private final long serial;
+
+        /** The moment the entry was added to the queue. */
+        private final double addMoment;
+
+        private QueueEntry(final JobInstance job, final long key,
+                final long serial, final double addMoment) {
+            this.job = job;
+            this.key = key;
+            this.serial = serial;
+            this.addMoment = addMoment;
+        }
+    }
+
+    /**
+     * Orders queue entries by their key and job identifier, and entries of the
+     * same job by the order in which they were added.
+     */
+    private static final class EntryComparator implements
+            Comparator<QueueEntry>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public int compare(final QueueEntry a, final QueueEntry b) {
+            if (a.key < b.key) {
+                return -1;
+            }
+            if (a.key > b.key) {
+                return 1;
+            }
+            final int cmp = Utils.compareIds(a.job.jobInstance.ids,
+                    b.job.jobInstance.ids);
+            if (cmp != 0) {
+                return cmp;
+            }
+            if (a.serial < b.serial) {
+                return -1;
+            }
+            if (a.serial > b.serial) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    private static final EntryComparator entryComparator = new EntryComparator();
+
+    /**
+     * Moves the entries of a job that got a new key from the fair sharing.
+     * Only invoked while a job of the same type is added, so with the lock
+     * on the master queue held and the type detached from the heads.
+     */
+    private final class EntryRekeyer implements FairShare.Rekeyer<QueueEntry> {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void rekey(final QueueEntry entry, final JobType type,
+                final long key) {
+            final TypeInfo info = queueTypes[type.index];
+            // Copies of the job have the same key, and must move along.
+            final NavigableSet<QueueEntry> range = info.entries.subSet(
+                    new QueueEntry(entry.job, entry.key, Long.MIN_VALUE, 0),
+                    true, new QueueEntry(entry.job, entry.key,
+                            Long.MAX_VALUE, 0), true);
+            final ArrayList<QueueEntry> moved = new ArrayList<QueueEntry>();
+            final Iterator<QueueEntry> it = range.iterator();
+            while (it.hasNext()) {
+                final QueueEntry e = it.next();
+                if (e.job == entry.job) {
+                    it.remove();
+                    moved.add(e);
+                }
+            }
+            entry.job.setMasterQueueKey(key);
+            for (final QueueEntry e : moved) {
+                e.key = key;
+                info.entries.add(e);
+            }
+        }
+    }
+
+    /**
+     * Orders the types in the queue by their first element. Only types that
+     * have at least one element in the queue may be compared.
+     */
+    private static final class HeadComparator implements Comparator<TypeInfo>,
+            Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public int compare(final TypeInfo a, final TypeInfo b) {
+            final int cmp = entryComparator.compare(a.entries.first(),
+                    b.entries.first());
+            if (cmp != 0) {
+                return cmp;
+            }
+            return a.type.index - b.type.index;
+        }
+    }
 
     /**
      * Statistics per type for the different job types in the queue.
@@ -39,12 +237,27 @@ final class MasterQueue {
         /** The type these statistics are about. */
         private final JobType type;
 
+        /**
+         * The queued jobs of this type, in the order they should be handed
+         * out. Guarded by the lock on the master queue.
+         */
+        @SuppressWarnings("synthetic-access")
+        private final TreeSet<QueueEntry> entries = new TreeSet<QueueEntry>(
+                entryComparator);
+
         /** The total number of jobs of this type that ever entered the queue. */
         private long jobCount = 0;
 
         /** Current number of elements of this type in the queue. */
         private int elements = 0;
 
+        /**
+         * Set while a thread selects a worker for the first element of this
+         * type. A claimed type is not in the index of heads. Guarded by the
+         * lock on the master queue.
+         */
+        private boolean claimed = false;
+
         /** Maximal ever number of elements ever in the queue. */
         private int maxElements = 0;
 
@@ -54,6 +267,12 @@ final class MasterQueue {
         /** The estimated time interval between jobs being dequeued. */
         private final Estimator dequeueInterval;
 
+        /**
+         * The decaying average size in bytes of the serialized input of the
+         * jobs of this type we sent, or <code>-1</code> if we don't know.
+         */
+        private double averageInputSize = -1;
+
         private TypeInfo(final JobType type) {
             this.type = type;
             final double av = Math.log(1 * Utils.MILLISECOND);
@@ -67,6 +286,19 @@ final class MasterQueue {
                     + "; maximal queue size: " + maxElements);
         }
 
+        private synchronized void registerInputSize(final long size) {
+            if (averageInputSize < 0) {
+                averageInputSize = size;
+            } else {
+                final double w = Settings.TRANSMISSION_MODEL_SAMPLE_WEIGHT;
+                averageInputSize = (1 - w) * averageInputSize + w * size;
+            }
+        }
+
+        private synchronized long getTypicalInputSize() {
+            return Math.round(averageInputSize);
+        }
+
         synchronized private int administrateAdd() {
             elements++;
             if (elements > maxElements) {
@@ -100,6 +332,21 @@ final class MasterQueue {
             }
         }
 
+        /**
+         * Registers that the given number of elements were dropped from the
+         * queue without being handed out, so they don't count for the dequeue
+         * interval.
+         * 
+         * @param n
+         *            The number of dropped elements.
+         */
+        private synchronized void administrateDiscard(final int n) {
+            elements -= n;
+            if (elements == 0) {
+                frontChangedTime = 0l;
+            }
+        }
+
         /**
          * Estimate the time a new job will spend in the queue.
          * 
@@ -130,41 +377,56 @@ final class MasterQueue {
         }
     }
 
-    private static int findInsertionPoint(final ArrayList<JobInstance> queue,
-            final JobInstance e) {
-        // Good old binary search.
-        int start = 0;
-        int end = queue.size();
-        if (end == 0) {
-            // The queue is empty. This is the only case where start
-            // points to a non-existent element, so we have to treat
-            // it separately.
-            return 0;
+    /**
+     * Removes the given type from the index of heads. Must be invoked before
+     * the first element of the type changes.
+     */
+    @SuppressWarnings("synthetic-access")
+    private void detachHead(final TypeInfo info) {
+        if (!info.claimed && !info.entries.isEmpty()) {
+            heads.remove(info);
         }
-        final long ids[] = e.jobInstance.ids;
-        while (true) {
-            final int mid = (start + end) / 2;
-            if (mid == start) {
-                break;
-            }
-            final long midIds[] = queue.get(mid).jobInstance.ids;
-            final int cmp = Utils.compareIds(midIds, ids);
-            if (cmp < 0) {
-                // Mid should come before us.
-                start = mid;
-            } else {
-                // Mid should come after us.
-                end = mid;
-            }
+    }
+
+    /**
+     * Puts the given type back in the index of heads, if it still has
+     * elements.
+     */
+    @SuppressWarnings("synthetic-access")
+    private void attachHead(final TypeInfo info) {
+        if (!info.claimed && !info.entries.isEmpty()) {
+            heads.add(info);
         }
-        // This comparison is probably rarely necessary, but corner cases
-        // are a pain, so I'm safe rather than sorry.
-        final long startIds[] = queue.get(start).jobInstance.ids;
-        final int cmp = Utils.compareIds(startIds, ids);
-        if (cmp < 0) {
-            return end;
+    }
+
+    /**
+     * Removes the first element of the given type from the queue.
+     * 
+     * @return The removed job instance.
+     */
+    @SuppressWarnings("synthetic-access")
+    private JobInstance removeFirst(final TypeInfo info) {
+        final QueueEntry e = info.entries.first();
+        removeEntry(info, e);
+        return e.job;
+    }
+
+    /**
+     * Removes the given entry of the given type from the queue, as handed
+     * out to a worker.
+     */
+    @SuppressWarnings("synthetic-access")
+    private void removeEntry(final TypeInfo info, final QueueEntry e) {
+        detachHead(info);
+        info.entries.remove(e);
+        attachHead(info);
+        size--;
+        info.administrateRemove();
+        if (fairShare != null) {
+            fairShare.registerRemove(e.job, info.type, e, Utils
+                    .getPreciseTime()
+                    - e.addMoment);
         }
-        return start;
     }
 
     /**
@@ -173,14 +435,26 @@ final class MasterQueue {
      * @return <code>true</code> iff the entire master queue is empty.
      */
     synchronized boolean isEmpty() {
-        return queue.isEmpty();
+        return size == 0;
+    }
+
+    /**
+     * Returns the number of jobs in the master queue.
+     * 
+     * @return The number of jobs in the master queue.
+     */
+    synchronized int size() {
+        return size;
     }
 
+    @SuppressWarnings("synthetic-access")
     private void dumpQueue(final PrintStream s) {
         s.print("Jobs in master queue: ");
-        for (final JobInstance e : queue) {
-            s.print(e.shortLabel());
-            s.print(' ');
+        for (final TypeInfo info : heads) {
+            for (final QueueEntry e : info.entries) {
+                s.print(e.job.shortLabel());
+                s.print(' ');
+            }
         }
         s.println();
     }
@@ -195,16 +469,25 @@ final class MasterQueue {
     @SuppressWarnings("synthetic-access")
     protected synchronized void add(final JobList jobs, final JobInstance job) {
         jobCount++;
-        final int pos = findInsertionPoint(queue, job);
-        queue.add(pos, job);
-
         final JobType type = job.getStageType(jobs);
         final TypeInfo info = queueTypes[type.index];
+        detachHead(info);
+        final QueueEntry entry = new QueueEntry(job, job.getMasterQueueKey(),
+                nextSerial++, Utils.getPreciseTime());
+        if (!job.hasMasterQueueKey()) {
+            // Fair sharing may move queued jobs of the same type, so the
+            // type must already be detached.
+            entry.key = fairShare == null ? job.deadline : fairShare
+                    .computeKey(jobs, job, type, entry);
+            job.setMasterQueueKey(entry.key);
+        }
+        info.entries.add(entry);
+        attachHead(info);
+        size++;
         final int length = info.administrateAdd();
         if (Settings.traceQueuing) {
             Globals.log.reportProgress("Adding " + job.formatJobAndType()
-                    + " at position " + pos
-                    + " of master queue; length is now " + queue.size() + "; "
+                    + " to master queue; length is now " + size + "; "
                     + length + " of type " + type);
         }
         if (Settings.dumpMasterQueue) {
@@ -235,6 +518,9 @@ final class MasterQueue {
             }
         }
         s.printf("Master: # incoming jobs = %5d\n", jobCount);
+        if (fairShare != null) {
+            fairShare.printStatistics(s);
+        }
     }
 
     /**
@@ -252,24 +538,111 @@ final class MasterQueue {
      *            Information about the different types of jobs we support.
      * @param job
      *            The job instance we want a worker for.
+     * @param typeInfo
+     *            The queue administration of the stage type of the job.
      * 
      * @return The info of the best worker for this job, or <code>null</code> if
      *         there currently aren't any workers for this job type.
      */
-    private Submission selectBestWorker(
+    @SuppressWarnings("synthetic-access")
+    private Submission selectBestWorker(final JobList jobs,
             final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
             final NodePerformanceInfo tables[], final JobInstance job,
-            final JobType stageType) {
+            final TypeInfo typeInfo) {
+        final JobType stageType = typeInfo.type;
+        NodePerformanceInfo best = null;
+        long typicalBytes = -1;
+        long payloadBytes = -1;
+
+        if (Settings.PAYLOAD_AWARE_TRANSMISSION) {
+            // Use the size of the input of this job if we know it, or else
+            // the typical input size of this type.
+            typicalBytes = typeInfo.getTypicalInputSize();
+            payloadBytes = job.getInputSize();
+            if (payloadBytes < 0) {
+                payloadBytes = typicalBytes;
+            }
+        }
+        // A speculative copy should not go to the worker that is late.
+        final IbisIdentifier avoid = job.getAvoidedWorker();
+        if (selectionIndex != null) {
+            best = selectionIndex.get().selectBestWorker(localNodeInfoMap,
+                    tables, job, stageType, typicalBytes, payloadBytes, avoid);
+        } else {
+            best = scanForBestWorker(localNodeInfoMap, tables, job, stageType,
+                    payloadBytes, avoid);
+        }
+        if (Settings.RESULT_CACHE_BUDGET > 0
+                && jobs.getJob(stageType) instanceof CacheableJob) {
+            // Prefer a worker that has probably seen this input before,
+            // unless it is much slower than the best worker.
+            final NodePerformanceInfo caching = selectCachingWorker(
+                    localNodeInfoMap, tables, job, stageType, payloadBytes,
+                    best);
+            if (caching != null) {
+                best = caching;
+            }
+        }
+        if (Settings.traceWorkerSelection) {
+            dumpChoices(localNodeInfoMap, tables, job, stageType, best,
+                    payloadBytes);
+        }
+        if (best == null) {
+            if (Settings.traceMasterQueue) {
+                Globals.log.reportProgress("No workers for job of type "
+                        + stageType);
+            }
+            return null;
+        }
+        if (Settings.traceMasterQueue) {
+            Globals.log.reportProgress("Selected worker " + best.source
+                    + " for job of type " + stageType);
+        }
+        final LocalNodeInfoList localNodeInfo = localNodeInfoMap
+                .get(best.source);
+        final double predictedDuration = localNodeInfo.getDeadline(stageType);
+        final int capacity = Settings.HARD_ALLOWANCES ? best
+                .getCapacity(stageType) : Integer.MAX_VALUE;
+        return new Submission(job, best.source, predictedDuration, capacity);
+    }
+
+    /**
+     * Returns the best worker for the given job by estimating its completion
+     * time on every worker.
+     * 
+     * @param localNodeInfoMap
+     *            Local information about all nodes
+     * @param tables
+     *            Globally known information about all nodes
+     * @param job
+     *            The job instance we want a worker for.
+     * @param stageType
+     *            The type of the current stage of the job.
+     * @param payloadBytes
+     *            The input size of the job, or -1 if not known or not used.
+     * @param avoid
+     *            The worker that should not be selected, or <code>null</code>.
+     * @return The best worker, or <code>null</code> if there is no worker
+     *         that can execute the job now.
+     */
+    static NodePerformanceInfo scanForBestWorker(
+            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
+            final NodePerformanceInfo tables[], final JobInstance job,
+            final JobType stageType, final long payloadBytes,
+            final IbisIdentifier avoid) {
         NodePerformanceInfo best = null;
         double bestInterval = Double.POSITIVE_INFINITY;
 
         for (final NodePerformanceInfo info : tables) {
+            if (info.source.equals(avoid)) {
+                continue;
+            }
             final LocalNodeInfoList localNodeInfo = localNodeInfoMap
                     .get(info.source);
 
             final Estimate est = info.estimateJobCompletion(localNodeInfo,
                     job.overallType, job.stageNumber, stageType,
-                    Settings.HARD_ALLOWANCES);
+                    Settings.HARD_ALLOWANCES, payloadBytes);
             if (est != null) {
                 final double val = est.getLikelyValue();
 
@@ -279,30 +652,81 @@ final class MasterQueue {
                 }
             }
         }
-        if (Settings.traceWorkerSelection) {
-            dumpChoices(localNodeInfoMap, tables, job, stageType, best);
+        return best;
+    }
+
+    /**
+     * Returns the best worker among the workers that may have the result of
+     * the given cacheable job in their result cache, provided that it is not
+     * much slower than the given best worker. The summaries of the caches
+     * may contain false positives, and a worker that has the result still
+     * has to receive the input and wait for its turn.
+     * 
+     * @param localNodeInfoMap
+     *            Local information about all nodes
+     * @param tables
+     *            Globally known information about all nodes
+     * @param job
+     *            The job instance we want a worker for.
+     * @param stageType
+     *            The type of the current stage of the job.
+     * @param payloadBytes
+     *            The input size of the job, or -1 if not known or not used.
+     * @param best
+     *            The best worker regardless of caching, or <code>null</code>
+     *            if there is none.
+     * @return The caching worker to use, or <code>null</code> if there is no
+     *         such worker that can execute the job now, or it is too slow.
+     */
+    private static NodePerformanceInfo selectCachingWorker(
+            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
+            final NodePerformanceInfo tables[], final JobInstance job,
+            final JobType stageType, final long payloadBytes,
+            final NodePerformanceInfo best) {
+        final ResultCache.Key key = job.getCacheKey(stageType);
+        if (key == null) {
+            return null;
         }
-        if (best == null) {
-            if (Settings.traceMasterQueue) {
-                Globals.log.reportProgress("No workers for job of type "
-                        + stageType);
+        final IbisIdentifier avoid = job.getAvoidedWorker();
+        NodePerformanceInfo res = null;
+        double bestInterval = Double.POSITIVE_INFINITY;
+        for (final NodePerformanceInfo info : tables) {
+            if (!ResultCache.mayContain(info.cachedResults, key)
+                    || info.source.equals(avoid)) {
+                continue;
+            }
+            final Estimate est = info.estimateJobCompletion(localNodeInfoMap
+                    .get(info.source), job.overallType, job.stageNumber,
+                    stageType, Settings.HARD_ALLOWANCES, payloadBytes);
+            if (est != null) {
+                final double val = est.getLikelyValue();
+
+                if (val < bestInterval) {
+                    bestInterval = val;
+                    res = info;
+                }
             }
-            return null;
         }
-        if (Settings.traceMasterQueue) {
-            Globals.log.reportProgress("Selected worker " + best.source
-                    + " for job of type " + stageType);
+        if (res == null || best == null || res == best) {
+            return res;
         }
-        final LocalNodeInfoList localNodeInfo = localNodeInfoMap
-                .get(best.source);
-        final double predictedDuration = localNodeInfo.getDeadline(stageType);
-        return new Submission(job, best.source, predictedDuration);
+        final Estimate bestEstimate = best.estimateJobCompletion(
+                localNodeInfoMap.get(best.source), job.overallType,
+                job.stageNumber, stageType, Settings.HARD_ALLOWANCES,
+                payloadBytes);
+        if (bestEstimate != null
+                && bestInterval > Settings.CACHED_RESULT_ADVANTAGE
+                        * bestEstimate.getLikelyValue()) {
+            return null;
+        }
+        return res;
     }
 
     private static void dumpChoices(
             final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
             final NodePerformanceInfo[] tables, final JobInstance job,
-            final JobType stageType, final NodePerformanceInfo bestInterval) {
+            final JobType stageType, final NodePerformanceInfo bestInterval,
+            final long payloadBytes) {
         final PrintStream s = Globals.log.getPrintStream();
         for (final NodePerformanceInfo i : tables) {
             i.print(s);
@@ -312,7 +736,8 @@ final class MasterQueue {
             final LocalNodeInfoList localNodeInfo = localNodeInfoMap
                     .get(info.source);
             final Estimate val = info.estimateJobCompletion(localNodeInfo,
-                    job.overallType, job.stageNumber, stageType, true);
+                    job.overallType, job.stageNumber, stageType, true,
+                    payloadBytes);
             if (info == bestInterval) {
                 s.print('#');
             }
@@ -323,62 +748,159 @@ final class MasterQueue {
     }
 
     /**
-     * Get a job submission from the queue. The entries are tried from front to
-     * back, and the first one for which a worker can be found is returned.
-     * 
-     * @param tables
-     *            Timing tables for the different workers.
-     * @return A job submission, or <code>null</code> if there are no free
-     *         workers for any of the jobs in the queue.
+     * Get a job submission from the queue. The types are tried in the order of
+     * their first entry, and the first entry for which a worker slot can be
+     * reserved is removed from the queue and returned. Types that are claimed
+     * by another thread are skipped.
      * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param scheduler
+     *            The view of the workers, used to reserve a slot.
+     * @return A job submission with a reserved slot, or <code>null</code> if
+     *         there are no free workers for any of the unclaimed jobs in the
+     *         queue.
      */
     @SuppressWarnings("synthetic-access")
-    synchronized Submission getSubmission(final JobList jobs,
-            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
-            final NodePerformanceInfo[] tables) {
-
-        final boolean skip[] = new boolean[queueTypes.length];
-        int ix = 0;
-        while (ix < queue.size()) {
-            final JobInstance job = queue.get(ix);
-            final JobType stageType = job.getStageType(jobs);
-            final int typeIndex = stageType.index;
-            if (!skip[typeIndex]) {
-                final Submission sub = selectBestWorker(localNodeInfoMap,
-                        tables, job, stageType);
-                if (sub != null) {
-                    queue.remove(ix);
-                    final TypeInfo queueTypeInfo = queueTypes[stageType.index];
-                    queueTypeInfo.administrateRemove();
-                    if (Settings.traceMasterQueue || Settings.traceQueuing) {
-                        final int length = queueTypeInfo.elements;
-
-                        Globals.log.reportProgress("Removing "
-                                + job.formatJobAndType()
-                                + " from master queue; length is now "
-                                + queue.size() + "; " + length + " of type "
-                                + stageType);
+    Submission getSubmission(final JobList jobs, final Scheduler scheduler) {
+        // Only the first job of each type is a candidate: if there is no
+        // worker for it, there is no worker for the other jobs of that
+        // type either.
+        final boolean tried[] = new boolean[queueTypes.length];
+        NodePerformanceInfo tables[] = scheduler.getTables();
+        HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap = scheduler
+                .getLocalNodeInfo();
+        while (true) {
+            TypeInfo info = null;
+            final QueueEntry entry;
+            synchronized (this) {
+                for (final TypeInfo t : heads) {
+                    if (!tried[t.type.index]) {
+                        info = t;
+                        break;
                     }
-                    return sub;
                 }
+                if (info == null) {
+                    return null;
+                }
+                heads.remove(info);
+                info.claimed = true;
+                entry = info.entries.first();
             }
-            skip[typeIndex] = true;
-            if (Settings.traceMasterQueue) {
-                Globals.log.reportProgress("No ready worker for job type "
-                        + stageType);
+            Submission sub = null;
+            boolean conflict = false;
+            boolean removed = false;
+            int length = 0;
+            try {
+                sub = selectBestWorker(jobs, localNodeInfoMap, tables,
+                        entry.job, info);
+                if (sub != null && !scheduler.reserve(sub)) {
+                    // Another thread took the last slot of this worker.
+                    sub = null;
+                    conflict = true;
+                }
+            } finally {
+                synchronized (this) {
+                    info.claimed = false;
+                    // The entry may have been removed as a duplicate
+                    // while we were looking for a worker.
+                    if (sub != null && info.entries.contains(entry)) {
+                        removeEntry(info, entry);
+                        removed = true;
+                        length = size;
+                    } else {
+                        attachHead(info);
+                    }
+                }
+            }
+            if (removed) {
+                if (Settings.traceMasterQueue || Settings.traceQueuing) {
+                    Globals.log.reportProgress("Removing "
+                            + entry.job.formatJobAndType()
+                            + " from master queue; length is now " + length);
+                }
+                return sub;
+            }
+            if (sub != null) {
+                scheduler.cancel(sub);
+            } else if (conflict) {
+                // Try this type again with fresh information.
+                tables = scheduler.getTables();
+                localNodeInfoMap = scheduler.getLocalNodeInfo();
+            } else {
+                if (Settings.traceMasterQueue) {
+                    Globals.log.reportProgress("No ready worker for job type "
+                            + info.type);
+                }
+                tried[info.type.index] = true;
             }
-            ix++;
         }
+    }
 
-        return null;
+    /**
+     * Returns a submission for a speculative copy of the given job, which is
+     * already running on another worker and therefore not in the queue.
+     * 
+     * @param jobs
+     *            The list of job types.
+     * @param localNodeInfoMap
+     *            The local information of the workers.
+     * @param tables
+     *            Timing tables for the different workers.
+     * @param job
+     *            The job to select a worker for.
+     * @return A job submission, or <code>null</code> if there is no free
+     *         worker for the job.
+     */
+    @SuppressWarnings("synthetic-access")
+    Submission getHedgeSubmission(final JobList jobs,
+            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
+            final NodePerformanceInfo[] tables, final JobInstance job) {
+        final TypeInfo info = queueTypes[job.getStageType(jobs).index];
+        return selectBestWorker(jobs, localNodeInfoMap, tables, job, info);
     }
 
-    public JobInstance remove() {
-        if (queue.size() < 1) {
+    /**
+     * Removes the first job instance from the queue, regardless of its type.
+     * This includes the types that are claimed by a thread that is looking
+     * for a worker; that thread notices that its job is gone.
+     * 
+     * @return The removed job instance, or <code>null</code> if the queue is
+     *         empty.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized JobInstance remove() {
+        TypeInfo best = heads.isEmpty() ? null : heads.first();
+        // A claimed type is not in the index of heads.
+        for (final TypeInfo info : queueTypes) {
+            if (info.claimed
+                    && !info.entries.isEmpty()
+                    && (best == null || entryComparator.compare(info.entries
+                            .first(), best.entries.first()) < 0)) {
+                best = info;
+            }
+        }
+        if (best == null) {
             return null;
         }
-        final JobInstance res = queue.remove(0);
-        return res;
+        return removeFirst(best);
+    }
+
+    /**
+     * Registers the size of the serialized input of the given job, which was
+     * measured when it was sent to a worker.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param job
+     *            The job that was sent.
+     */
+    @SuppressWarnings("synthetic-access")
+    void registerInputSize(final JobList jobs, final JobInstance job) {
+        final long size = job.getInputSize();
+        if (size >= 0) {
+            queueTypes[job.getStageType(jobs).index].registerInputSize(size);
+        }
     }
 
     @SuppressWarnings("synthetic-access")
@@ -395,24 +917,60 @@ final class MasterQueue {
      * Clear the work queue.
      * 
      */
+    @SuppressWarnings("synthetic-access")
     synchronized void clear() {
-        queue.clear();
+        for (final TypeInfo info : queueTypes) {
+            info.administrateDiscard(info.entries.size());
+            info.entries.clear();
+        }
+        heads.clear();
+        size = 0;
+        if (fairShare != null) {
+            fairShare.clear();
+        }
     }
 
     /**
      * Remove any copies of the given job instance from the master queue;
      * somebody already completed it.
      * 
+     * @param jobs
+     *            Information about the different types of jobs.
      * @param job
      *            The job to remove.
      */
-    synchronized void removeDuplicates(final JobInstance job) {
-        while (queue.remove(job)) {
-            // Nothing, but repeat until all have been removed.
+    @SuppressWarnings("synthetic-access")
+    synchronized void removeDuplicates(final JobList jobs, final JobInstance job) {
+        final JobType type = job.getStageType(jobs);
+        final TypeInfo info = queueTypes[type.index];
+        if (!job.hasMasterQueueKey()) {
+            // It was never in this queue.
+            return;
         }
-    }
-
-    synchronized boolean hasRoom() {
-        return queue.size() < Settings.MAESTRO_MASTER_ROOM;
+        // All copies have the same key and identifier, so they are adjacent
+        // in the set of this type.
+        final long key = job.getMasterQueueKey();
+        final NavigableSet<QueueEntry> range = info.entries.subSet(
+                new QueueEntry(job, key, Long.MIN_VALUE, 0), true,
+                new QueueEntry(job, key, Long.MAX_VALUE, 0), true);
+        if (range.isEmpty()) {
+            return;
+        }
+        detachHead(info);
+        int removed = 0;
+        final Iterator<QueueEntry> it = range.iterator();
+        while (it.hasNext()) {
+            final QueueEntry e = it.next();
+            if (e.job == job) {
+                it.remove();
+                removed++;
+                if (fairShare != null) {
+                    fairShare.registerDiscard(job, type, e);
+                }
+            }
+        }
+        attachHead(info);
+        size -= removed;
+        info.administrateDiscard(removed);
     }
 }
@@ -0,0 +1,461 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
+import ibis.steel.ConstantEstimate;
+import ibis.steel.Estimate;
+import ibis.steel.InfiniteEstimate;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes and reads Maestro messages with an explicit binary layout. Every
+ * message starts with a tag byte that identifies its type, followed by its
+ * fields as primitives and arrays. Node identifiers are interned: the first
+ * time an identifier is sent over a connection it is written in full, after
+ * that only its index in the table of that connection is sent. User data, and
+ * messages without an explicit layout, are written with object serialization.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class MessageCodec {
+    private static final byte OBJECT_MESSAGE = 0;
+
+    private static final byte RUN_JOB_MESSAGE = 1;
+
+    private static final byte RUN_JOB_BATCH_MESSAGE = 2;
+
+    private static final byte JOB_RECEIVED_MESSAGE = 3;
+
+    private static final byte JOB_COMPLETED_MESSAGE = 4;
+
+    private static final byte JOB_ACKNOWLEDGEMENTS_MESSAGE = 5;
+
+    private static final byte JOB_RESULT_MESSAGE = 6;
+
+    private static final byte JOB_FAILED_MESSAGE = 7;
+
+    private static final byte UPDATE_NODE_MESSAGE = 8;
+
+    private static final byte GOSSIP_MESSAGE = 9;
+
+    private static final byte STOP_NODE_MESSAGE = 10;
+
+    private static final byte INFINITE_ESTIMATE = 0;
+
+    private static final byte CONSTANT_ESTIMATE = 1;
+
+    private static final byte OBJECT_ESTIMATE = 2;
+
+    /** Written instead of an index for a <code>null</code> identifier. */
+    private static final int NULL_IDENTIFIER = -1;
+
+    /** Written instead of an index for an identifier that follows in full. */
+    private static final int NEW_IDENTIFIER = -2;
+
+    /**
+     * The identifiers that have been sent over a connection, with their index.
+     * Only valid as long as the connection is; a new connection must start
+     * with a new table.
+     */
+    static final class SendTable {
+        private final HashMap<IbisIdentifier, Integer> indices = new HashMap<IbisIdentifier, Integer>();
+
+        /** True iff the receiver should remember this table across messages. */
+        private final boolean persistent;
+
+        /**
+         * @param persistent
+         *            True iff this table is used for more than one message
+         *            over the same connection.
+         */
+        SendTable(final boolean persistent) {
+            this.persistent = persistent;
+        }
+    }
+
+    /** The identifiers that have been received over a connection. */
+    static final class ReceiveTable {
+        private final ArrayList<IbisIdentifier> identifiers = new ArrayList<IbisIdentifier>();
+    }
+
+    private MessageCodec() {
+        // Only static methods.
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private static void writeIdentifier(final WriteMessage msg,
+            final SendTable table, final IbisIdentifier id) throws IOException {
+        if (id == null) {
+            msg.writeInt(NULL_IDENTIFIER);
+            return;
+        }
+        final Integer ix = table.indices.get(id);
+        if (ix != null) {
+            msg.writeInt(ix);
+            return;
+        }
+        msg.writeInt(NEW_IDENTIFIER);
+        msg.writeObject(id);
+        table.indices.put(id, table.indices.size());
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private static IbisIdentifier readIdentifier(final ReadMessage msg,
+            final ReceiveTable table) throws IOException,
+            ClassNotFoundException {
+        final int ix = msg.readInt();
+        if (ix == NULL_IDENTIFIER) {
+            return null;
+        }
+        if (ix == NEW_IDENTIFIER) {
+            final IbisIdentifier id = (IbisIdentifier) msg.readObject();
+            table.identifiers.add(id);
+            return id;
+        }
+        if (ix < 0 || ix >= table.identifiers.size()) {
+            throw new IOException("Unknown node identifier index " + ix);
+        }
+        return table.identifiers.get(ix);
+    }
+
+    /**
+     * Writes the given estimate to the given message. Infinite and constant
+     * estimates are written as a tag and at most one value; other estimates
+     * are serialized.
+     *
+     * @param msg
+     *            The message to write to.
+     * @param e
+     *            The estimate to write.
+     * @throws IOException
+     *             Thrown if the estimate could not be written.
+     */
+    static void writeEstimate(final WriteMessage msg, final Estimate e)
+            throws IOException {
+        if (e instanceof InfiniteEstimate) {
+            msg.writeByte(INFINITE_ESTIMATE);
+        } else if (e != null && e.getClass() == ConstantEstimate.class) {
+            msg.writeByte(CONSTANT_ESTIMATE);
+            msg.writeDouble(e.getLikelyValue());
+        } else {
+            msg.writeByte(OBJECT_ESTIMATE);
+            msg.writeObject(e);
+        }
+    }
+
+    /**
+     * Reads an estimate that was written with
+     * {@link #writeEstimate(WriteMessage, Estimate)}.
+     *
+     * @param msg
+     *            The message to read from.
+     * @return The estimate.
+     * @throws IOException
+     *             Thrown if the estimate could not be read.
+     * @throws ClassNotFoundException
+     *             Thrown if the estimate has an unknown class.
+     */
+    static Estimate readEstimate(final ReadMessage msg) throws IOException,
+            ClassNotFoundException {
+        final byte tag = msg.readByte();
+        switch (tag) {
+        case INFINITE_ESTIMATE:
+            return InfiniteEstimate.INFINITE;
+
+        case CONSTANT_ESTIMATE: {
+            final double v = msg.readDouble();
+            return v == 0.0 ? ConstantEstimate.ZERO : new ConstantEstimate(v);
+        }
+
+        case OBJECT_ESTIMATE:
+            return (Estimate) msg.readObject();
+
+        default:
+            throw new IOException("Unknown estimate tag " + tag);
+        }
+    }
+
+    private static void writeLongs(final WriteMessage msg, final long l[])
+            throws IOException {
+        msg.writeInt(l.length);
+        msg.writeArray(l);
+    }
+
+    private static long[] readLongs(final ReadMessage msg) throws IOException {
+        final long res[] = new long[msg.readInt()];
+        msg.readArray(res);
+        return res;
+    }
+
+    private static void writeDoubles(final WriteMessage msg, final double l[])
+            throws IOException {
+        msg.writeInt(l.length);
+        msg.writeArray(l);
+    }
+
+    private static double[] readDoubles(final ReadMessage msg)
+            throws IOException {
+        final double res[] = new double[msg.readInt()];
+        msg.readArray(res);
+        return res;
+    }
+
+    private static void writeJobInstanceIdentifier(final WriteMessage msg,
+            final SendTable table, final JobInstanceIdentifier id)
+            throws IOException {
+        writeLongs(msg, id.ids);
+        msg.writeObject(id.userId);
+        writeIdentifier(msg, table, id.resultNode);
+        msg.writeDouble(id.share);
+    }
+
+    private static JobInstanceIdentifier readJobInstanceIdentifier(
+            final ReadMessage msg, final ReceiveTable table)
+            throws IOException, ClassNotFoundException {
+        final long ids[] = readLongs(msg);
+        final Serializable userId = (Serializable) msg.readObject();
+        final IbisIdentifier resultNode = readIdentifier(msg, table);
+        final double share = msg.readDouble();
+        return JobInstanceIdentifier.fromIds(ids, userId, resultNode, share);
+    }
+
+    private static void writeRunJobMessage(final WriteMessage msg,
+            final SendTable table, final RunJobMessage m) throws IOException {
+        final JobInstance job = m.jobInstance;
+        msg.writeLong(m.jobId);
+        writeJobInstanceIdentifier(msg, table, job.jobInstance);
+        msg.writeInt(job.overallType.index);
+        msg.writeBoolean(job.overallType.unpredictable);
+        msg.writeBoolean(job.overallType.isAtomic);
+        msg.writeBoolean(job.overallType.blocking);
+        msg.writeInt(job.stageNumber);
+        msg.writeInt(job.priority);
+        msg.writeLong(job.deadline);
+        msg.writeBoolean(job.isOrphan());
+        final long start = msg.bytesWritten();
+        msg.writeObject(job.input);
+        job.setInputSize(msg.bytesWritten() - start);
+    }
+
+    private static RunJobMessage readRunJobMessage(final ReadMessage msg,
+            final ReceiveTable table) throws IOException,
+            ClassNotFoundException {
+        final long jobId = msg.readLong();
+        final JobInstanceIdentifier id = readJobInstanceIdentifier(msg, table);
+        final int typeIndex = msg.readInt();
+        final boolean unpredictable = msg.readBoolean();
+        final boolean isAtomic = msg.readBoolean();
+        final boolean blocking = msg.readBoolean();
+        final int stageNumber = msg.readInt();
+        final int priority = msg.readInt();
+        final long deadline = msg.readLong();
+        final boolean orphan = msg.readBoolean();
+        final Serializable input = (Serializable) msg.readObject();
+        final JobInstance job = new JobInstance(id, input, new JobType(
+                unpredictable, isAtomic, blocking, typeIndex), stageNumber, priority,
+                deadline);
+        if (orphan) {
+            job.setOrphan();
+        }
+        return new RunJobMessage(job, jobId);
+    }
+
+    /**
+     * Writes the given message to the given write message, for a connection
+     * that is only used for this message.
+     *
+     * @param msg
+     *            The write message to fill.
+     * @param message
+     *            The message to write.
+     * @throws IOException
+     *             Thrown if the message could not be written.
+     */
+    static void writeMessage(final WriteMessage msg, final Message message)
+            throws IOException {
+        writeMessage(msg, new SendTable(false), message);
+    }
+
+    /**
+     * Writes the given message to the given write message.
+     *
+     * @param msg
+     *            The write message to fill.
+     * @param table
+     *            The identifiers that were already sent over this connection.
+     * @param message
+     *            The message to write.
+     * @throws IOException
+     *             Thrown if the message could not be written.
+     */
+    @SuppressWarnings("synthetic-access")
+    static void writeMessage(final WriteMessage msg, final SendTable table,
+            final Message message) throws IOException {
+        if (!Settings.USE_MESSAGE_CODEC) {
+            msg.writeByte(OBJECT_MESSAGE);
+            msg.writeObject(message);
+            return;
+        }
+        if (message instanceof RunJobMessage) {
+            msg.writeByte(RUN_JOB_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            writeRunJobMessage(msg, table, (RunJobMessage) message);
+        } else if (message instanceof RunJobBatchMessage) {
+            final RunJobMessage l[] = ((RunJobBatchMessage) message).messages;
+            msg.writeByte(RUN_JOB_BATCH_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            msg.writeInt(l.length);
+            for (final RunJobMessage m : l) {
+                writeRunJobMessage(msg, table, m);
+            }
+        } else if (message instanceof JobReceivedMessage) {
+            msg.writeByte(JOB_RECEIVED_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            writeLongs(msg, ((JobReceivedMessage) message).jobIds);
+        } else if (message instanceof JobCompletedMessage) {
+            msg.writeByte(JOB_COMPLETED_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            msg.writeLong(((JobCompletedMessage) message).jobId);
+        } else if (message instanceof JobAcknowledgementsMessage) {
+            final JobAcknowledgementsMessage m = (JobAcknowledgementsMessage) message;
+            msg.writeByte(JOB_ACKNOWLEDGEMENTS_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            writeLongs(msg, m.receivedIds);
+            writeDoubles(msg, m.receivedDelays);
+            writeLongs(msg, m.completedIds);
+            writeDoubles(msg, m.completedDelays);
+        } else if (message instanceof JobResultMessage) {
+            final JobResultMessage m = (JobResultMessage) message;
+            msg.writeByte(JOB_RESULT_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            writeJobInstanceIdentifier(msg, table, m.job);
+            msg.writeObject(m.result);
+        } else if (message instanceof JobFailedMessage) {
+            msg.writeByte(JOB_FAILED_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            msg.writeLong(((JobFailedMessage) message).id);
+        } else if (message instanceof UpdateNodeMessage) {
+            msg.writeByte(UPDATE_NODE_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            writeNodePerformanceInfo(msg, table,
+                    ((UpdateNodeMessage) message).update);
+        } else if (message instanceof GossipMessage) {
+            final GossipMessage m = (GossipMessage) message;
+            msg.writeByte(GOSSIP_MESSAGE);
+            msg.writeBoolean(table.persistent);
+            msg.writeBoolean(m.needsReply);
+            msg.writeInt(m.gossip.length);
+            for (final NodePerformanceInfo i : m.gossip) {
+                writeNodePerformanceInfo(msg, table, i);
+            }
+        } else if (message instanceof StopNodeMessage) {
+            msg.writeByte(STOP_NODE_MESSAGE);
+            msg.writeBoolean(table.persistent);
+        } else {
+            msg.writeByte(OBJECT_MESSAGE);
+            msg.writeObject(message);
+        }
+    }
+
+    private static void writeNodePerformanceInfo(final WriteMessage msg,
+            final SendTable table, final NodePerformanceInfo info)
+            throws IOException {
+        writeIdentifier(msg, table, info.source);
+        info.writeFields(msg);
+    }
+
+    private static NodePerformanceInfo readNodePerformanceInfo(
+            final ReadMessage msg, final ReceiveTable table)
+            throws IOException, ClassNotFoundException {
+        final IbisIdentifier source = readIdentifier(msg, table);
+        return NodePerformanceInfo.readFields(msg, source);
+    }
+
+    /**
+     * Reads a message from the given read message.
+     *
+     * @param msg
+     *            The read message to read from.
+     * @param connectionTable
+     *            The identifiers that were already received over this
+     *            connection.
+     * @return The message.
+     * @throws IOException
+     *             Thrown if the message could not be read.
+     * @throws ClassNotFoundException
+     *             Thrown if the message contains an object of an unknown
+     *             class.
+     */
+    static Message readMessage(final ReadMessage msg,
+            final ReceiveTable connectionTable) throws IOException,
+            ClassNotFoundException {
+        final byte tag = msg.readByte();
+        if (tag == OBJECT_MESSAGE) {
+            return (Message) msg.readObject();
+        }
+        final boolean persistent = msg.readBoolean();
+        final ReceiveTable table = persistent ? connectionTable
+                : new ReceiveTable();
+        switch (tag) {
+        case RUN_JOB_MESSAGE:
+            return readRunJobMessage(msg, table);
+
+        case RUN_JOB_BATCH_MESSAGE: {
+            final RunJobMessage l[] = new RunJobMessage[msg.readInt()];
+            for (int i = 0; i < l.length; i++) {
+                l[i] = readRunJobMessage(msg, table);
+            }
+            return new RunJobBatchMessage(l);
+        }
+
+        case JOB_RECEIVED_MESSAGE:
+            return new JobReceivedMessage(readLongs(msg));
+
+        case JOB_COMPLETED_MESSAGE:
+            return new JobCompletedMessage(msg.readLong());
+
+        case JOB_ACKNOWLEDGEMENTS_MESSAGE: {
+            final long receivedIds[] = readLongs(msg);
+            final double receivedDelays[] = readDoubles(msg);
+            final long completedIds[] = readLongs(msg);
+            final double completedDelays[] = readDoubles(msg);
+            return new JobAcknowledgementsMessage(receivedIds, receivedDelays,
+                    completedIds, completedDelays);
+        }
+
+        case JOB_RESULT_MESSAGE: {
+            final JobInstanceIdentifier job = readJobInstanceIdentifier(msg,
+                    table);
+            final Serializable result = (Serializable) msg.readObject();
+            return new JobResultMessage(job, result);
+        }
+
+        case JOB_FAILED_MESSAGE:
+            return new JobFailedMessage(msg.readLong());
+
+        case UPDATE_NODE_MESSAGE:
+            return new UpdateNodeMessage(readNodePerformanceInfo(msg, table));
+
+        case GOSSIP_MESSAGE: {
+            final boolean needsReply = msg.readBoolean();
+            final NodePerformanceInfo l[] = new NodePerformanceInfo[msg
+                    .readInt()];
+            for (int i = 0; i < l.length; i++) {
+                l[i] = readNodePerformanceInfo(msg, table);
+            }
+            return new GossipMessage(null, l, needsReply);
+        }
+
+        case STOP_NODE_MESSAGE:
+            return new StopNodeMessage();
+
+        default:
+            throw new IOException("Unknown message tag " + tag);
+        }
+    }
+}
@@ -14,7 +14,11 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
 
 /**
  * A node in the Maestro dataflow network.
@@ -31,6 +35,15 @@ public final class Node extends Thread implements PacketReceiveListener {
 
     private final PacketUpcallReceivePort receivePort;
 
+    /** The receive port of the bulk lane, or <code>null</code> if not used. */
+    private final BulkReceivePort bulkReceivePort;
+
+    /** The data plane, or <code>null</code> if not used. */
+    private final DataPlane dataPlane;
+
+    /** The results of cacheable jobs, or <code>null</code> if not used. */
+    private final ResultCache resultCache;
+
     private final double startTime;
 
     private double stopTime = 0;
@@ -47,8 +60,13 @@ public final class Node extends Thread implements PacketReceiveListener {
 
     private final WorkThread workThreads[] = new WorkThread[workThreadCount];
 
+    private final SchedulerThread schedulerThreads[] = new SchedulerThread[getSchedulerThreadCount()];
+
+    /** Set when the scheduler threads should try to hand out jobs. */
+    private final Flag schedulingNeeded = new Flag(false);
+
     private final ParallelJobHandler parallelJobHandler = new ParallelJobHandler(
-            this);
+            new NodeSubjobExecutor());
 
     private final Terminator terminator;
 
@@ -78,19 +96,65 @@ public final class Node extends Thread implements PacketReceiveListener {
 
     private long nextJobId = 0;
 
+    /** The fair-share weight of this node as a submitter. */
+    private double share = 1.0;
+
     private final UpDownCounter idleProcessors = new UpDownCounter(
             -Settings.EXTRA_WORK_THREADS); // Yes, we start with a negative
 
     private final Counter submitMessageCount = new Counter();
 
+    private final Counter batchedJobCount = new Counter();
+
     private final Counter jobReceivedMessageCount = new Counter();
 
     private final Counter jobCompletedMessageCount = new Counter();
 
+    private final Counter acknowledgementsMessageCount = new Counter();
+
+    /** The job received and completed notifications we still must send. */
+    private final AcknowledgementAggregator acknowledgements = new AcknowledgementAggregator();
+
     private final Counter aggregateResultMessageCount = new Counter();
 
     private final Counter jobFailMessageCount = new Counter();
 
+    /** The number of jobs that had to wait for their input. */
+    private final Counter parkedJobCount = new Counter();
+
+    private final Counter hedgeCount = new Counter();
+
+    private final Counter cancelMessageCount = new Counter();
+
+    private final Counter cancelledJobCount = new Counter();
+
+    /** The number of speculative copies that have not been resolved yet. */
+    private final UpDownCounter outstandingHedges = new UpDownCounter(0);
+
+    private final Counter stealRequestCount = new Counter();
+
+    private final Counter stolenJobCount = new Counter();
+
+    private final Counter localSubjobCount = new Counter();
+
+    /** The earliest moment in ms we may send a new steal request. */
+    private long nextStealMoment = 0L;
+
+    /** The detector of nodes that have gone silent. */
+    private final PhiAccrualDetector failureDetector;
+
+    /** The earliest moment in ms we may check the failure detector again. */
+    private long nextFailureDetectionMoment = 0L;
+
+    /** The flow control of the submitters of this node. */
+    private final SubmitCredits submitCredits = new SubmitCredits();
+
+    /** Asynchronous submissions that are waiting for a submit credit. */
+    private final LinkedList<SubmittedJobInfo> pendingSubmissions = new LinkedList<SubmittedJobInfo>();
+
+    /** The jobs that were cancelled by their master before we got them. */
+    private final CancelledJobSet cancelledJobs = new CancelledJobSet();
+
     private long overheadDuration = 0L;
 
     private final Flag enableRegistration = new Flag(false);
@@ -99,23 +163,129 @@ public final class Node extends Thread implements PacketReceiveListener {
 
     private final UpDownCounter runningJobCount = new UpDownCounter(0);
 
+    private final UpDownCounter runningBlockingJobCount = new UpDownCounter(0);
+
+    private final BlockingJobPool blockingJobPool = new BlockingJobPool(this,
+            numberOfProcessors * Settings.BLOCKING_JOBS_PER_PROCESSOR);
+
     private final JobList jobs;
 
     private final Flag doUpdateRecentMasters = new Flag(false);
 
     private final Flag recomputeCompletionTimes = new Flag(false);
 
+    /** The view of the workers the master queue hands out jobs with. */
+    @SuppressWarnings("synthetic-access")
+    private final MasterQueue.Scheduler scheduler = new NodeScheduler();
+
+    private final RecentMasterList recentMasterList = new RecentMasterList();
+
     /**
-     * This object only exists to lock the critical section in drainMasterQueue,
-     * and prevent that two threads select the same next job to submit to a
-     * worker.
+     * Set when there may be administration to do. Only used with event-driven
+     * dispatch, where the node thread does the administration.
      */
-    private final Flag drainLock = new Flag(false);
+    private final Flag administrationNeeded = new Flag(false);
 
-    private final RecentMasterList recentMasterList = new RecentMasterList();
+    /**
+     * One permit for every job in the worker queue. Only used with
+     * event-driven dispatch.
+     */
+    private final Semaphore availableJobs = new Semaphore(0);
+
+    /**
+     * One permit for every processor that is not running a job. Only used with
+     * event-driven dispatch.
+     */
+    private final Semaphore idleProcessorSlots = new Semaphore(
+            numberOfProcessors);
 
     private final Counter updateMessageCount = new Counter();
 
+    /** Executes the sub-jobs of parallel jobs on this node. */
+    private final class NodeSubjobExecutor implements SubjobExecutor {
+        @Override
+        public boolean shouldRunSubjobLocally(final Job job) {
+            return Node.this.shouldRunSubjobLocally(job);
+        }
+
+        @Override
+        public void runSubjobLocally(final long prefix[],
+                final Serializable input, final Serializable userId,
+                final JobCompletionListener listener, final Job job,
+                final int priority, final long deadline) {
+            Node.this.runSubjobLocally(prefix, input, userId, listener, job,
+                    priority, deadline);
+        }
+
+        @Override
+        public void submitSubjob(final long prefix[],
+                final Serializable input, final Serializable userId,
+                final JobCompletionListener listener, final Job job,
+                final int priority, final long deadline) {
+            Node.this.submitSubjob(prefix, input, userId, listener, job,
+                    priority, deadline);
+        }
+    }
+
+    /** Submits the jobs of a result stream to this node. */
+    private final class StreamSubmitter implements JobSubmitter {
+        @Override
+        public void submitAsync(final Serializable input,
+                final Serializable userId,
+                final JobCompletionListener listener, final Job job) {
+            Node.this.submitAsync(input, userId, listener, job);
+        }
+    }
+
+    /**
+     * Hands out jobs from the master queue. Instead of a lock around the
+     * selection of a worker and the registration of the job on it, a worker
+     * slot is reserved against the live count of outstanding jobs on that
+     * worker, so that several threads can hand out jobs at the same time.
+     */
+    private final class NodeScheduler implements MasterQueue.Scheduler {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public NodePerformanceInfo[] getTables() {
+            return gossiper.getGossipCopy();
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public HashMap<IbisIdentifier, LocalNodeInfoList> getLocalNodeInfo() {
+            return nodes.getLocalNodeInfo();
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public boolean reserve(final Submission submission) {
+            final WorkerInfo worker = nodes.get(submission.worker);
+            if (worker == null) {
+                return false;
+            }
+            final long jobId = allocateJobId();
+            if (!worker.tryRegisterJobStart(jobs, submission.jobInstance,
+                    jobId, submission.predictedDuration, submission.capacity)) {
+                return false;
+            }
+            submission.jobId = jobId;
+            return true;
+        }
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void cancel(final Submission submission) {
+            final WorkerInfo worker = nodes.get(submission.worker);
+            if (worker != null) {
+                worker.retractJob(submission.jobId);
+            }
+        }
+    }
+
+    private synchronized long allocateJobId() {
+        return nextJobId++;
+    }
+
     private final class NodeRegistryEventHandler implements
             RegistryEventHandler {
         /**
@@ -215,7 +385,8 @@ public final class Node extends Thread implements PacketReceiveListener {
         registryEventHandler = new NodeRegistryEventHandler();
         Globals.localIbis = IbisFactory.createIbis(ibisCapabilities,
                 ibisProperties, true, registryEventHandler,
-                PacketSendPort.portType, PacketUpcallReceivePort.portType);
+                PacketSendPort.portType, PacketUpcallReceivePort.portType,
+                BulkLane.portType);
         final Ibis localIbis = Globals.localIbis;
         if (Settings.traceNodes) {
             Globals.log.reportProgress("Created ibis " + localIbis);
@@ -236,11 +407,28 @@ public final class Node extends Thread implements PacketReceiveListener {
         Globals.log.reportProgress("Started ibis " + myIbis + ": isMaestro="
                 + isMaestro);
         sendPort = new PacketSendPort(this, myIbis);
+        if (Settings.DATA_PLANE) {
+            dataPlane = new DataPlane(this, sendPort, myIbis);
+        } else {
+            dataPlane = null;
+        }
+        if (Settings.RESULT_CACHE_BUDGET > 0) {
+            resultCache = new ResultCache(Settings.RESULT_CACHE_BUDGET);
+        } else {
+            resultCache = null;
+        }
         terminator = buildTerminator();
         receivePort = new PacketUpcallReceivePort(localIbis,
                 Globals.receivePortName, this);
+        if (Settings.BULK_LANE) {
+            bulkReceivePort = new BulkReceivePort(localIbis,
+                    Globals.bulkReceivePortName, this);
+        } else {
+            bulkReceivePort = null;
+        }
         traceStats = System.getProperty("ibis.maestro.traceWorkerStatistics") != null;
         gossiper = new Gossiper(sendPort, isMaestro(), jobs, myIbis);
+        failureDetector = new PhiAccrualDetector(myIbis);
         recomputeCompletionTimes.set();
         startTime = Utils.getPreciseTime();
         recentMasterList.register(myIbis);
@@ -252,16 +440,47 @@ public final class Node extends Thread implements PacketReceiveListener {
 
     private void startThreads() {
         gossiper.start();
+        if (dataPlane != null) {
+            dataPlane.start();
+        }
         for (int i = 0; i < workThreads.length; i++) {
             final WorkThread t = new WorkThread(this);
             workThreads[i] = t;
             t.start();
         }
+        for (int i = 0; i < schedulerThreads.length; i++) {
+            final SchedulerThread t = new SchedulerThread(this);
+            schedulerThreads[i] = t;
+            t.start();
+        }
+        setName("Maestro administration thread");
+        setDaemon(true);
         start();
         final Registry registry = Globals.localIbis.registry();
         registry.enableEvents();
     }
 
+    /**
+     * Returns the number of threads that should hand out jobs from the master
+     * queue, as given by the <code>ibis.maestro.schedulerThreads</code>
+     * property, or else by {@link Settings#DEFAULT_SCHEDULER_THREADS}.
+     * 
+     * @return The number of scheduler threads.
+     */
+    private static int getSchedulerThreadCount() {
+        final String s = System.getProperty("ibis.maestro.schedulerThreads");
+        if (s == null) {
+            return Settings.DEFAULT_SCHEDULER_THREADS;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(s));
+        } catch (final NumberFormatException e) {
+            Globals.log.reportError("Bad number of scheduler threads '" + s
+                    + "'; using " + Settings.DEFAULT_SCHEDULER_THREADS);
+            return Settings.DEFAULT_SCHEDULER_THREADS;
+        }
+    }
+
     private Terminator buildTerminator() {
         if (!isMaestro) {
             // We only run a terminator on the maestro.
@@ -318,13 +537,30 @@ public final class Node extends Thread implements PacketReceiveListener {
     @Override
     public void start() {
         receivePort.enable(); // We're open for business.
+        if (bulkReceivePort != null) {
+            bulkReceivePort.enable();
+        }
         super.start(); // Start the thread
     }
 
+    /**
+     * Runs the administration of this node. With polling dispatch the work
+     * threads do the administration, and this thread does nothing. Do not
+     * invoke this method, it is invoked when the thread is started.
+     */
+    @Override
+    public void run() {
+        if (Settings.EVENT_DRIVEN_DISPATCH) {
+            runAdministrationThread();
+        }
+    }
+
     /**
      * Set this node to the stopped state. This does not mean that the node
      * stops immediately, but it does mean the master and worker try to wind
-     * down the work.
+     * down the work. Jobs that were submitted to this node but are not yet
+     * completed are abandoned: their futures are cancelled, and their result
+     * streams finish.
      */
     public void setStopped() {
         if (Settings.traceNodes) {
@@ -332,9 +568,32 @@ public final class Node extends Thread implements PacketReceiveListener {
         }
         stopped.set();
         masterQueue.clear();
-        runningJobList.clear();
+        final ArrayList<SubmittedJobInfo> abandoned;
+        synchronized (pendingSubmissions) {
+            abandoned = new ArrayList<SubmittedJobInfo>(pendingSubmissions);
+            pendingSubmissions.clear();
+        }
+        submitCredits.reset();
+        abandoned.addAll(runningJobList.clear());
         workerQueue.clear();
         kickAllWorkers();
+        for (final SubmittedJobInfo submission : abandoned) {
+            abandonSubmission(submission);
+        }
+    }
+
+    /**
+     * Tells the listener of the given submission, if it wants to know, that
+     * the job will never be completed.
+     * 
+     * @param submission
+     *            The abandoned submission.
+     */
+    private void abandonSubmission(final SubmittedJobInfo submission) {
+        if (submission.listener instanceof CancellableCompletionListener) {
+            ((CancellableCompletionListener) submission.listener)
+                    .jobCancelled(this, submission.identifier.userId);
+        }
     }
 
     /**
@@ -372,6 +631,27 @@ public final class Node extends Thread implements PacketReceiveListener {
 
     private synchronized void kickAllWorkers() {
         this.notifyAll();
+        if (Settings.EVENT_DRIVEN_DISPATCH) {
+            // Let every blocked work thread check whether it should stop.
+            availableJobs.release(workThreadCount);
+            administrationNeeded.set();
+        }
+        schedulingNeeded.set();
+    }
+
+    /**
+     * Tells the node there may be administration to do. With polling
+     * dispatch the work threads will get to it soon enough, otherwise wake the
+     * administration thread.
+     */
+    private void wakeAdministration() {
+        if (Settings.EVENT_DRIVEN_DISPATCH) {
+            administrationNeeded.set();
+        } else {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
     }
 
     /**
@@ -383,6 +663,7 @@ public final class Node extends Thread implements PacketReceiveListener {
      */
     protected void registerIbisLeft(final IbisIdentifier theIbis) {
         gossiper.removeNode(theIbis);
+        failureDetector.removeNode(theIbis);
         recentMasterList.remove(theIbis);
         if (terminator != null) {
             terminator.removeNode(theIbis);
@@ -403,6 +684,7 @@ public final class Node extends Thread implements PacketReceiveListener {
                 ti.setOrphan();
             }
             masterQueue.add(jobs, orphans);
+            wakeAdministration();
         }
     }
 
@@ -481,8 +763,34 @@ public final class Node extends Thread implements PacketReceiveListener {
         }
         drainCompletedJobList();
         drainOutgoingMessageQueue();
+        flushAcknowledgements(false);
         restartLateJobs();
-        drainMasterQueue();
+        launchHedges();
+        stealWork();
+        detectFailures();
+        if (schedulerThreads.length == 0) {
+            drainMasterQueue();
+        } else if (!masterQueue.isEmpty()) {
+            schedulingNeeded.set();
+        }
+        submitCredits.update(gossiper);
+        admitPendingSubmissions();
+        publishCachedResults();
+    }
+
+    /**
+     * Tells the gossiper about the current contents of the result cache, if
+     * they have changed, and not too often.
+     */
+    private void publishCachedResults() {
+        if (resultCache == null) {
+            return;
+        }
+        final long summary[] = resultCache.getNewSummary(System
+                .currentTimeMillis());
+        if (summary != null) {
+            gossiper.setCachedResults(summary);
+        }
     }
 
     /** Print some statistics about the entire worker run. */
@@ -492,21 +800,49 @@ public final class Node extends Thread implements PacketReceiveListener {
             stopTime = Utils.getPreciseTime();
         }
         s.printf("# work threads  = %5d\n", workThreads.length);
+        s.printf("# scheduler threads = %d\n", schedulerThreads.length);
         nodes.printStatistics(s);
         s.printf("submit       messages:   %5d sent\n",
                 submitMessageCount.get());
+        s.printf("jobs sent in batches:    %5d\n", batchedJobCount.get());
         s.printf("job received messages:   %5d sent\n",
                 jobReceivedMessageCount.get());
         s.printf("job completed messages:  %5d sent\n",
                 jobCompletedMessageCount.get());
+        s.printf("acknowledgements msgs:   %5d sent\n",
+                acknowledgementsMessageCount.get());
         s.printf("job result   messages:   %5d sent\n",
                 aggregateResultMessageCount.get());
         s.printf("job fail     messages:   %5d sent\n",
                 jobFailMessageCount.get());
+        s.printf("speculative copies:      %5d sent\n", hedgeCount.get());
+        s.printf("job cancel   messages:   %5d sent\n",
+                cancelMessageCount.get());
+        s.printf("cancelled jobs:          %5d not completed\n",
+                cancelledJobCount.get());
+        s.printf("steal requests:          %5d sent\n",
+                stealRequestCount.get());
+        s.printf("stolen jobs:             %5d handed to other workers\n",
+                stolenJobCount.get());
+        s.printf("local sub-jobs:          %5d run inline\n",
+                localSubjobCount.get());
+        s.printf("parked jobs:             %5d waited for their input\n",
+                parkedJobCount.get());
         if (terminator != null) {
             terminator.printStatistics(s);
         }
         sendPort.printStatistics(s, "send port");
+        if (dataPlane != null) {
+            dataPlane.printStatistics(s);
+        }
+        if (resultCache != null) {
+            resultCache.printStatistics(s);
+        }
+        submitCredits.printStatistics(s);
+        blockingJobPool.printStatistics(s);
+        if (Settings.PHI_ACCRUAL_FAILURE_DETECTION) {
+            failureDetector.printStatistics(s);
+        }
         final double activeTime = workerQueue.getActiveTime(startTime);
         final double workInterval = stopTime - activeTime;
         workerQueue.printStatistics(s, workInterval);
@@ -548,17 +884,26 @@ public final class Node extends Thread implements PacketReceiveListener {
     }
 
     /**
-     * Send a result message to the given port, using the given job identifier
-     * and the given result value.
+     * Queue a message to the given master, telling it that the jobs with the
+     * given identifiers have arrived.
      * 
-     * @param id
-     *            The job identifier.
-     * @param result
-     *            The result to send.
+     * @param master
+     *            The master that sent the jobs.
+     * @param ids
+     *            The identifiers of the jobs.
+     * @param arrivalMoment
+     *            The moment the jobs arrived.
      */
     private void postJobReceivedMessage(final IbisIdentifier master,
-            final long id) {
-        final Message msg = new JobReceivedMessage(id);
+            final long ids[], final double arrivalMoment) {
+        if (Settings.AGGREGATE_ACKNOWLEDGEMENTS
+                && !master.equals(Globals.localIbis.identifier())) {
+            if (acknowledgements.addReceived(master, ids, arrivalMoment)) {
+                wakeAdministration();
+            }
+            return;
+        }
+        final Message msg = new JobReceivedMessage(ids);
         jobReceivedMessageCount.add();
         synchronized (outgoingMessageQueue) {
             outgoingMessageQueue.add(master, msg);
@@ -583,6 +928,24 @@ public final class Node extends Thread implements PacketReceiveListener {
         return sendPort.send(ibis, msg);
     }
 
+    /**
+     * Tells the master of the given job that we could not get its input.
+     * 
+     * @param ibis
+     *            The master of the job.
+     * @param jobId
+     *            The identifier of the job.
+     * @return <code>true</code> if the message could be sent.
+     */
+    private boolean sendJobInputUnavailableMessage(final IbisIdentifier ibis,
+            final long jobId) {
+        if (deadNodes.contains(ibis)) {
+            return false;
+        }
+        jobFailMessageCount.add();
+        return sendPort.send(ibis, new JobInputUnavailableMessage(jobId));
+    }
+
     /**
      * A worker has sent use a completion message for a job. Process it.
      * 
@@ -594,14 +957,48 @@ public final class Node extends Thread implements PacketReceiveListener {
             Globals.log.reportProgress("Received a job completed message "
                     + result);
         }
+        registerArrival(result.source, false);
         final JobInstance job = nodes.registerJobCompleted(jobs, result);
         if (job != null) {
             // This was an outstanding job, remove it from our administration.
-            masterQueue.removeDuplicates(job);
+            masterQueue.removeDuplicates(jobs, job);
+            cancelCopies(job);
+            if (dataPlane != null) {
+                dataPlane.release(job);
+            }
         }
         doUpdateRecentMasters.set();
     }
 
+    /**
+     * A worker has sent us a message with a number of job received and job
+     * completed notifications. Process it.
+     * 
+     * @param msg
+     *            The message.
+     */
+    private void handleJobAcknowledgementsMessage(
+            final JobAcknowledgementsMessage msg) {
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Received a job acknowledgements message "
+                    + msg);
+        }
+        registerArrival(msg.source, false);
+        final ArrayList<JobInstance> completed = nodes
+                .registerJobAcknowledgements(jobs, msg);
+        for (final JobInstance job : completed) {
+            // This was an outstanding job, remove it from our administration.
+            masterQueue.removeDuplicates(jobs, job);
+            cancelCopies(job);
+            if (dataPlane != null) {
+                dataPlane.release(job);
+            }
+        }
+        if (msg.completedIds.length > 0) {
+            doUpdateRecentMasters.set();
+        }
+    }
+
     /**
      * A worker has sent use a received message for a job. Process it.
      * 
@@ -613,7 +1010,8 @@ public final class Node extends Thread implements PacketReceiveListener {
             Globals.log.reportProgress("Received a job received message "
                     + result);
         }
-        nodes.registerJobReceived(result);
+        registerArrival(result.source, false);
+        nodes.registerJobReceived(jobs, result);
     }
 
     /**
@@ -626,14 +1024,96 @@ public final class Node extends Thread implements PacketReceiveListener {
         if (Settings.traceNodeProgress) {
             Globals.log.reportProgress("Received a job failed message " + msg);
         }
-        final JobInstance failedJob = nodes.registerJobFailed(msg.source,
-                msg.id);
+        final JobInstance failedJob = nodes.registerJobFailed(jobs,
+                msg.source, msg.id);
         Globals.log.reportError("Node " + msg.source
                 + " failed to execute job with id " + msg.id
                 + "; node will no longer get jobs of this type");
         masterQueue.add(jobs, failedJob);
     }
 
+    /**
+     * A worker could not get the input of a job. Submit the job again if we
+     * still have its input, without holding it against the worker.
+     * 
+     * @param msg
+     *            The message.
+     */
+    private void handleJobInputUnavailableMessage(
+            final JobInputUnavailableMessage msg) {
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Received " + msg + " from "
+                    + msg.source);
+        }
+        registerArrival(msg.source, false);
+        final JobInstance job = nodes.retractJob(jobs, msg.source, msg.id);
+        if (job == null) {
+            // Already completed elsewhere, or already retracted.
+            return;
+        }
+        if (dataPlane != null && !dataPlane.isAvailable(job)) {
+            // The result of the previous stage is lost; the submitter still
+            // has the original input, so start the job all over again.
+            final JobInstanceIdentifier id = job.jobInstance;
+            if (id.resultNode.equals(Globals.localIbis.identifier())) {
+                restartSubmittedJob(id);
+            } else if (!sendJobRestartMessage(id)) {
+                Globals.log.reportError("Input of job " + job
+                        + " is no longer available, and its submitter "
+                        + id.resultNode + " cannot be reached; job dropped");
+            }
+            return;
+        }
+        masterQueue.add(jobs, job);
+    }
+
+    /**
+     * Asks the submitter of the given job to submit it again.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @return <code>true</code> if the message could be sent.
+     */
+    private boolean sendJobRestartMessage(final JobInstanceIdentifier id) {
+        if (deadNodes.contains(id.resultNode)) {
+            return false;
+        }
+        return sendPort.send(id.resultNode, new JobRestartMessage(id));
+    }
+
+    /**
+     * Submits the given job again from its first stage, if it is still
+     * running.
+     * 
+     * @param id
+     *            The identifier of the job.
+     */
+    private void restartSubmittedJob(final JobInstanceIdentifier id) {
+        final JobInstance job = runningJobList.restart(id);
+        if (job == null) {
+            // Already completed.
+            return;
+        }
+        Globals.log.reportProgress("Resubmitted job " + job
+                + " because an intermediate result was lost");
+        masterQueue.add(jobs, job);
+    }
+
+    /**
+     * A node has lost an intermediate result of a job we submitted. Submit
+     * the job again.
+     * 
+     * @param msg
+     *            The message.
+     */
+    private void handleJobRestartMessage(final JobRestartMessage msg) {
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Received " + msg + " from "
+                    + msg.source);
+        }
+        restartSubmittedJob(msg.job);
+    }
+
     /**
      * A worker has sent use a completion message for a job. Process it.
      * 
@@ -645,6 +1125,52 @@ public final class Node extends Thread implements PacketReceiveListener {
         System.exit(2);
     }
 
+    /**
+     * If the given completed job has a speculative copy, cancel the copies
+     * that are still outstanding.
+     * 
+     * @param job
+     *            The completed job.
+     */
+    private void cancelCopies(final JobInstance job) {
+        if (!job.resolveHedge()) {
+            return;
+        }
+        outstandingHedges.down();
+        final ArrayList<QueuedMessage> l = nodes.cancelCopies(job);
+        if (l.isEmpty()) {
+            return;
+        }
+        synchronized (outgoingMessageQueue) {
+            for (final QueuedMessage m : l) {
+                outgoingMessageQueue.add(m.destination, m.msg);
+            }
+        }
+        cancelMessageCount.add(l.size());
+    }
+
+    /**
+     * A master has sent us a message to cancel a job, since a copy of it
+     * completed elsewhere. Remove it from the worker queue, or remember it if
+     * it hasn't arrived yet, or is already running.
+     * 
+     * @param msg
+     *            The cancel message.
+     */
+    private void handleCancelJobMessage(final CancelJobMessage msg) {
+        final RunJobMessage m = workerQueue.cancel(jobs, msg.source, msg.jobId,
+                gossiper);
+        if (m == null) {
+            cancelledJobs.add(msg.source, msg.jobId);
+            return;
+        }
+        cancelledJobCount.add();
+        if (dataPlane != null) {
+            dataPlane.discard(m.jobInstance);
+        }
+        registerUnqueuedJob(m);
+    }
+
     private void handleJobResultMessage(final JobResultMessage m) {
         completedJobList.add(new CompletedJob(m.job, m.result));
     }
@@ -679,9 +1205,14 @@ public final class Node extends Thread implements PacketReceiveListener {
         if (!isDead && !source.equals(Globals.localIbis.identifier())) {
             recentMasterList.register(source);
         }
+        if (dataPlane != null) {
+            dataPlane.prefetch(msg.jobInstance);
+        }
         final JobType stageType = msg.jobInstance.getStageType(jobs);
-        final int length = workerQueue.add(stageType, msg);
-        postJobReceivedMessage(source, msg.jobId);
+        final int length = workerQueue.add(jobs, stageType, msg);
+        registerQueuedJobs(new RunJobMessage[] { msg });
+        postJobReceivedMessage(source, new long[] { msg.jobId },
+                msg.arrivalMoment);
         if (gossiper != null) {
             final boolean changed = gossiper.setWorkerQueueLength(stageType,
                     length);
@@ -692,35 +1223,368 @@ public final class Node extends Thread implements PacketReceiveListener {
     }
 
     /**
-     * A node has sent us a gossip message, handle it.
+     * Handle a message containing a batch of new jobs to run.
      * 
-     * @param m
-     *            The gossip message.
+     * @param msg
+     *            The message to handle.
      */
-    private void handleGossipMessage(final GossipMessage m) {
-        final boolean changed = gossiper.registerGossipMessage(m);
-        if (changed) {
-            recomputeCompletionTimes.set();
-            synchronized (this) {
-                this.notifyAll();
+    private void handleRunJobBatchMessage(final RunJobBatchMessage msg) {
+        final IbisIdentifier source = msg.source;
+        final boolean isDead = nodes.registerAsCommunicating(source);
+        if (!isDead && !source.equals(Globals.localIbis.identifier())) {
+            recentMasterList.register(source);
+        }
+        final RunJobMessage messages[] = msg.messages;
+        final long ids[] = new long[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            final RunJobMessage m = messages[i];
+            m.source = source;
+            m.arrivalMoment = msg.arrivalMoment;
+            ids[i] = m.jobId;
+            if (dataPlane != null) {
+                dataPlane.prefetch(m.jobInstance);
             }
         }
+        final int lengths[] = workerQueue.add(jobs, messages);
+        registerQueuedJobs(messages);
+        postJobReceivedMessage(source, ids, msg.arrivalMoment);
+        registerQueueLengths(messages, lengths);
     }
 
     /**
-     * Handles message <code>msg</code> from worker.
+     * Hands out the permits for the given jobs that were added to the worker
+     * queue: the blocking jobs are for the blocking job pool, the other jobs
+     * for the work threads.
      * 
-     * @param msg
-     *            The message we received.
+     * @param messages
+     *            The jobs that were added.
      */
-    @Override
-    public void messageReceived(final Message msg) {
-        handleMessage(msg);
+    private void registerQueuedJobs(final RunJobMessage messages[]) {
+        int blocking = 0;
+        for (final RunJobMessage m : messages) {
+            if (isBlockingJob(m)) {
+                blocking++;
+            }
+        }
+        if (blocking > 0) {
+            blockingJobPool.registerQueuedJobs(blocking);
+        }
+        if (Settings.EVENT_DRIVEN_DISPATCH) {
+            availableJobs.release(messages.length - blocking);
+        }
     }
 
-    /** Handle the given message. */
-    private void handleMessage(final Message msg) {
-        if (Settings.traceNodeProgress) {
+    /**
+     * Takes back the permit of a job that left the worker queue without being
+     * executed, to keep the permits in line with the queue length.
+     * 
+     * @param m
+     *            The job that left the queue.
+     */
+    private void registerUnqueuedJob(final RunJobMessage m) {
+        if (isBlockingJob(m)) {
+            blockingJobPool.registerUnqueuedJob();
+        } else if (Settings.EVENT_DRIVEN_DISPATCH) {
+            availableJobs.tryAcquire();
+        }
+    }
+
+    /**
+     * Removes the most urgent blocking job from the worker queue. Only
+     * invoked by a thread of the blocking job pool that has nothing to do.
+     * 
+     * @return The job, or <code>null</code> if there is none.
+     */
+    RunJobMessage takeBlockingJob() {
+        return workerQueue.remove(jobs, gossiper, true);
+    }
+
+    /**
+     * Puts the given jobs back in the worker queue, since the fetch of their
+     * input has completed, or has failed.
+     * 
+     * @param messages
+     *            The jobs that were parked by the data plane.
+     */
+    void requeueFetchedJobs(final RunJobMessage messages[]) {
+        final int lengths[] = workerQueue.add(jobs, messages);
+        registerQueuedJobs(messages);
+        registerQueueLengths(messages, lengths);
+        wakeAdministration();
+    }
+
+    /**
+     * Tells the gossiper the new worker queue lengths after the given jobs
+     * were added to the queue.
+     * 
+     * @param messages
+     *            The jobs that were added.
+     * @param lengths
+     *            For each job, the number of jobs of its type in the queue
+     *            after it was added.
+     */
+    private void registerQueueLengths(final RunJobMessage messages[],
+            final int lengths[]) {
+        if (gossiper == null) {
+            return;
+        }
+        boolean changed = false;
+        final boolean seen[] = new boolean[jobs.getTypeCount()];
+        // Walk backwards, so that we only report the final queue
+        // length of each type.
+        for (int i = messages.length - 1; i >= 0; i--) {
+            final JobType stageType = messages[i].jobInstance
+                    .getStageType(jobs);
+            if (!seen[stageType.index]) {
+                seen[stageType.index] = true;
+                changed |= gossiper.setWorkerQueueLength(stageType,
+                        lengths[i]);
+            }
+        }
+        if (changed) {
+            doUpdateRecentMasters.set();
+        }
+    }
+
+    /**
+     * An idle worker asks us for some of the jobs in our queue. Hand over the
+     * least urgent ones, if we can spare them.
+     * 
+     * @param msg
+     *            The steal request.
+     */
+    private void handleStealRequestMessage(final StealRequestMessage msg) {
+        final RunJobMessage messages[] = workerQueue.steal(jobs, msg.count,
+                gossiper);
+        if (messages.length == 0) {
+            return;
+        }
+        for (final RunJobMessage m : messages) {
+            registerUnqueuedJob(m);
+        }
+        final IbisIdentifier masters[] = new IbisIdentifier[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            masters[i] = messages[i].source;
+            if (dataPlane != null) {
+                // The thief fetches the input itself.
+                dataPlane.discard(messages[i].jobInstance);
+            }
+        }
+        stolenJobCount.add(messages.length);
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Handing " + messages.length
+                    + " jobs to idle worker " + msg.source);
+        }
+        synchronized (outgoingMessageQueue) {
+            outgoingMessageQueue.add(msg.source, new StolenJobsMessage(
+                    masters, messages));
+        }
+    }
+
+    /**
+     * A busy worker has handed us some of its jobs. Queue them as if their
+     * masters had sent them to us, and tell the masters about the transfer.
+     * 
+     * @param msg
+     *            The message with the stolen jobs.
+     */
+    private void handleStolenJobsMessage(final StolenJobsMessage msg) {
+        final RunJobMessage messages[] = msg.messages;
+        final HashMap<IbisIdentifier, ArrayList<RunJobMessage>> perMaster = new HashMap<IbisIdentifier, ArrayList<RunJobMessage>>();
+        for (int i = 0; i < messages.length; i++) {
+            final RunJobMessage m = messages[i];
+            m.source = msg.masters[i];
+            m.arrivalMoment = msg.arrivalMoment;
+            if (dataPlane != null) {
+                dataPlane.prefetch(m.jobInstance);
+            }
+            ArrayList<RunJobMessage> l = perMaster.get(m.source);
+            if (l == null) {
+                l = new ArrayList<RunJobMessage>();
+                perMaster.put(m.source, l);
+            }
+            l.add(m);
+        }
+        // Queue the adoption notices before the jobs can run, so that they
+        // don't trail the completions by more than necessary. A master
+        // still copes with a completion that overtakes its notice.
+        for (final Map.Entry<IbisIdentifier, ArrayList<RunJobMessage>> e : perMaster
+                .entrySet()) {
+            final ArrayList<RunJobMessage> l = e.getValue();
+            final long ids[] = new long[l.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = l.get(i).jobId;
+            }
+            synchronized (outgoingMessageQueue) {
+                outgoingMessageQueue.add(e.getKey(), new JobsAdoptedMessage(
+                        msg.source, ids));
+            }
+        }
+        final int lengths[] = workerQueue.add(jobs, messages);
+        registerQueuedJobs(messages);
+        registerQueueLengths(messages, lengths);
+    }
+
+    /**
+     * A worker has stolen some of our jobs from another worker. Update our
+     * administration.
+     * 
+     * @param msg
+     *            The message.
+     */
+    private void handleJobsAdoptedMessage(final JobsAdoptedMessage msg) {
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Received " + msg);
+        }
+        registerArrival(msg.source, false);
+        final ArrayList<JobInstance> completed = nodes.registerAdoptedJobs(
+                jobs, msg.source, msg.victim, msg.jobIds);
+        for (final JobInstance job : completed) {
+            masterQueue.removeDuplicates(jobs, job);
+            cancelCopies(job);
+            if (dataPlane != null) {
+                dataPlane.release(job);
+            }
+        }
+    }
+
+    /**
+     * If we have idle processors and nothing in our worker queue, ask the
+     * node with the longest worker queue to hand over some of its jobs.
+     */
+    private void stealWork() {
+        if (!Settings.WORK_STEALING || stopped.isSet()
+                || !workerQueue.isEmpty()) {
+            return;
+        }
+        final int idle = numberOfProcessors - runningJobCount.get();
+        if (idle <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now < nextStealMoment) {
+                return;
+            }
+            nextStealMoment = now + Settings.STEAL_INTERVAL;
+        }
+        final IbisIdentifier me = Globals.localIbis.identifier();
+        IbisIdentifier victim = null;
+        int longest = Settings.STEAL_MINIMAL_QUEUE_LENGTH - 1;
+        for (final NodePerformanceInfo info : gossiper.getGossipCopy()) {
+            // A cluster summary is not a node we can steal from: its queue
+            // length is that of the entire cluster.
+            if (info != null && !info.source.equals(me)
+                    && !info.isClusterSummary()) {
+                final int length = info.getQueueLength();
+                if (length > longest) {
+                    longest = length;
+                    victim = info.source;
+                }
+            }
+        }
+        if (victim == null) {
+            return;
+        }
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Asking " + victim + " with "
+                    + longest + " queued jobs for " + idle + " jobs");
+        }
+        stealRequestCount.add();
+        synchronized (outgoingMessageQueue) {
+            outgoingMessageQueue.add(victim, new StealRequestMessage(idle));
+        }
+    }
+
+    /**
+     * Registers the arrival of a gossip message or a job acknowledgement from
+     * the given node in the failure detector. If we suspected the node, it
+     * is a candidate for new jobs again.
+     * 
+     * @param source
+     *            The node the message came from.
+     * @param periodic
+     *            True iff this is a periodic message, such as gossip.
+     */
+    private void registerArrival(final IbisIdentifier source,
+            final boolean periodic) {
+        if (!Settings.PHI_ACCRUAL_FAILURE_DETECTION || source == null
+                || source.equals(Globals.localIbis.identifier())) {
+            return;
+        }
+        final boolean wasSuspected = failureDetector.registerArrival(source,
+                System.currentTimeMillis(), periodic);
+        if (wasSuspected && !deadNodes.contains(source)) {
+            Globals.log.reportProgress("Suspected node " + source
+                    + " is alive after all");
+            nodes.registerAsCommunicating(source);
+        }
+    }
+
+    /**
+     * Suspects the nodes that the failure detector considers to have failed.
+     * They get no new jobs, and their outstanding jobs are resubmitted, without
+     * waiting for the registry to declare them dead.
+     */
+    private void detectFailures() {
+        if (!Settings.PHI_ACCRUAL_FAILURE_DETECTION || stopped.isSet()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (now < nextFailureDetectionMoment) {
+                return;
+            }
+            nextFailureDetectionMoment = now
+                    + Settings.FAILURE_DETECTION_INTERVAL;
+        }
+        for (final IbisIdentifier ibis : failureDetector.getNewSuspects(now)) {
+            if (deadNodes.contains(ibis)) {
+                continue;
+            }
+            Globals.log.reportProgress("Node " + ibis
+                    + " is suspected to have failed; phi="
+                    + failureDetector.getPhi(ibis, now));
+            final ArrayList<JobInstance> orphans = nodes
+                    .withdrawActiveJobs(ibis);
+            if (orphans != null && !orphans.isEmpty()) {
+                for (final JobInstance ti : orphans) {
+                    ti.setOrphan();
+                }
+                masterQueue.add(jobs, orphans);
+            }
+        }
+    }
+
+    /**
+     * A node has sent us a gossip message, handle it.
+     * 
+     * @param m
+     *            The gossip message.
+     */
+    private void handleGossipMessage(final GossipMessage m) {
+        registerArrival(m.source, true);
+        final boolean changed = gossiper.registerGossipMessage(m);
+        if (changed) {
+            recomputeCompletionTimes.set();
+            wakeAdministration();
+        }
+    }
+
+    /**
+     * Handles message <code>msg</code> from worker.
+     * 
+     * @param msg
+     *            The message we received.
+     */
+    @Override
+    public void messageReceived(final Message msg) {
+        handleMessage(msg);
+    }
+
+    /** Handle the given message. */
+    private void handleMessage(final Message msg) {
+        if (Settings.traceNodeProgress) {
             Globals.log.reportProgress("Received message " + msg);
         }
         if (msg instanceof UpdateNodeMessage) {
@@ -731,21 +1595,83 @@ public final class Node extends Thread implements PacketReceiveListener {
             handleJobCompletedMessage((JobCompletedMessage) msg);
         } else if (msg instanceof JobReceivedMessage) {
             handleJobReceivedMessage((JobReceivedMessage) msg);
+        } else if (msg instanceof JobAcknowledgementsMessage) {
+            handleJobAcknowledgementsMessage((JobAcknowledgementsMessage) msg);
         } else if (msg instanceof JobResultMessage) {
             handleJobResultMessage((JobResultMessage) msg);
         } else if (msg instanceof RunJobMessage) {
             handleRunJobMessage((RunJobMessage) msg);
+        } else if (msg instanceof RunJobBatchMessage) {
+            handleRunJobBatchMessage((RunJobBatchMessage) msg);
         } else if (msg instanceof JobFailedMessage) {
             handleJobFailMessage((JobFailedMessage) msg);
+        } else if (msg instanceof JobInputUnavailableMessage) {
+            handleJobInputUnavailableMessage((JobInputUnavailableMessage) msg);
+        } else if (msg instanceof JobRestartMessage) {
+            handleJobRestartMessage((JobRestartMessage) msg);
         } else if (msg instanceof StopNodeMessage) {
             handleStopNodeMessage((StopNodeMessage) msg);
+        } else if (msg instanceof CancelJobMessage) {
+            handleCancelJobMessage((CancelJobMessage) msg);
+        } else if (msg instanceof StealRequestMessage) {
+            handleStealRequestMessage((StealRequestMessage) msg);
+        } else if (msg instanceof StolenJobsMessage) {
+            handleStolenJobsMessage((StolenJobsMessage) msg);
+        } else if (msg instanceof JobsAdoptedMessage) {
+            handleJobsAdoptedMessage((JobsAdoptedMessage) msg);
+        } else if (msg instanceof FetchDataMessage && dataPlane != null) {
+            dataPlane.handleFetchRequest((FetchDataMessage) msg);
+        } else if (msg instanceof DataReplyMessage && dataPlane != null) {
+            dataPlane.handleReply((DataReplyMessage) msg);
         } else {
             Globals.log
                     .reportInternalError("the node should handle message of type "
                             + msg.getClass());
         }
-        synchronized (this) {
-            this.notifyAll();
+        wakeAdministration();
+    }
+
+    /**
+     * Starts a speculative copy on another worker of jobs that are late,
+     * within the budget for speculative copies.
+     */
+    private void launchHedges() {
+        if (!Settings.SPECULATIVE_EXECUTION || stopped.isSet()) {
+            return;
+        }
+        final int max = Math.max(1,
+                (int) (Settings.SPECULATIVE_EXECUTION_BUDGET * nodes
+                        .getActiveJobCount()));
+        if (!outstandingHedges.isBelow(max)) {
+            return;
+        }
+        final ArrayList<JobInstance> stragglers = nodes.collectStragglers(
+                jobs, max - outstandingHedges.get());
+        for (final JobInstance job : stragglers) {
+            final Submission submission = masterQueue.getHedgeSubmission(jobs,
+                    scheduler.getLocalNodeInfo(), scheduler.getTables(), job);
+            if (submission == null || !scheduler.reserve(submission)) {
+                // No other worker is ready; try again later.
+                job.resolveHedge();
+                continue;
+            }
+            final IbisIdentifier node = submission.worker;
+            final long jobId = submission.jobId;
+            outstandingHedges.up();
+            if (Settings.traceMasterQueue || Settings.traceSubmissions) {
+                Globals.log.reportProgress("Submitting speculative copy of "
+                        + job + " to " + node);
+            }
+            if (sendPort.send(node, new RunJobMessage(job, jobId))) {
+                hedgeCount.add();
+                recomputeCompletionTimes.set();
+            } else {
+                // The original is still running, so just forget the copy.
+                nodes.get(node).retractJob(jobId);
+                if (job.resolveHedge()) {
+                    outstandingHedges.down();
+                }
+            }
         }
     }
 
@@ -767,6 +1693,9 @@ public final class Node extends Thread implements PacketReceiveListener {
         if (runningJobCount.isAbove(0)) {
             return true;
         }
+        if (!blockingJobPool.isIdle()) {
+            return true;
+        }
         return false;
     }
 
@@ -780,6 +1709,14 @@ public final class Node extends Thread implements PacketReceiveListener {
      */
     private void sendJobCompletedMessage(final IbisIdentifier master,
             final long jobId) {
+        if (Settings.AGGREGATE_ACKNOWLEDGEMENTS
+                && !master.equals(Globals.localIbis.identifier())) {
+            if (acknowledgements.addCompleted(master, jobId, Utils
+                    .getPreciseTime())) {
+                wakeAdministration();
+            }
+            return;
+        }
         final Message msg = new JobCompletedMessage(jobId);
         boolean ok = sendPort.send(master, msg);
 
@@ -804,6 +1741,34 @@ public final class Node extends Thread implements PacketReceiveListener {
         }
     }
 
+    /**
+     * Sends the aggregated job received and job completed notifications that
+     * are due.
+     * 
+     * @param force
+     *            If set, send all notifications, even if they could wait a
+     *            little longer.
+     */
+    private void flushAcknowledgements(final boolean force) {
+        for (final QueuedMessage m : acknowledgements.getDueMessages(force)) {
+            if (deadNodes.contains(m.destination)) {
+                continue;
+            }
+            boolean ok = sendPort.send(m.destination, m.msg);
+            if (!ok) {
+                // Simply try again.
+                ok = sendPort.send(m.destination, m.msg);
+            }
+            if (ok) {
+                acknowledgementsMessageCount.add();
+            } else {
+                Globals.log
+                        .reportError("Failed to send job acknowledgements message to "
+                                + m.destination);
+            }
+        }
+    }
+
     /**
      * @param message
      *            The job that was run.
@@ -814,14 +1779,38 @@ public final class Node extends Thread implements PacketReceiveListener {
      */
     protected void handleJobResult(final RunJobMessage message,
             final Serializable result, final double runMoment) {
+        handleJobResult(message, result, runMoment, true);
+    }
+
+    /**
+     * @param message
+     *            The job that was run.
+     * @param result
+     *            The result of the job.
+     * @param runMoment
+     *            The moment the job was started.
+     * @param countComputeTime
+     *            If set, the time since the run moment is registered as the
+     *            compute time of the job type. Not set if the result was
+     *            taken from the result cache.
+     */
+    private void handleJobResult(final RunJobMessage message,
+            final Serializable result, final double runMoment,
+            final boolean countComputeTime) {
         final double jobCompletionMoment = Utils.getPreciseTime();
         final JobInstance jobInstance = message.jobInstance;
         final JobType todoList[] = jobs.getTodoList(jobInstance.overallType);
         final int stage = jobInstance.stageNumber;
         final JobType completedStageType = todoList[stage];
         final int nextStageNumber = stage + 1;
-
-        if (nextStageNumber >= todoList.length) {
+        // If the master cancelled this job while it was running, a copy of
+        // it was completed elsewhere, and nobody needs the result.
+        final boolean cancelled = cancelledJobs.remove(message.source,
+                message.jobId);
+
+        if (cancelled) {
+            cancelledJobCount.add();
+        } else if (nextStageNumber >= todoList.length) {
             // This was the final step. Report back the result.
             final JobInstanceIdentifier identifier = jobInstance.jobInstance;
             boolean ok = sendJobResultMessage(identifier, result);
@@ -837,17 +1826,24 @@ public final class Node extends Thread implements PacketReceiveListener {
                 }
             }
         } else {
+            // With a data plane a large result stays here, and the next
+            // stage only gets a handle to it.
+            final Serializable nextInput = dataPlane == null ? result
+                    : dataPlane.store(result);
             final JobInstance nextJob = new JobInstance(
-                    jobInstance.jobInstance, result, jobInstance.overallType,
-                    nextStageNumber);
+                    jobInstance.jobInstance, nextInput,
+                    jobInstance.overallType, nextStageNumber,
+                    jobInstance.priority, jobInstance.deadline);
             masterQueue.add(jobs, nextJob);
         }
 
         // Update statistics.
-        final double computeInterval = jobCompletionMoment - runMoment;
-        final Estimate averageComputeTime = workerQueue.countJob(
-                completedStageType, computeInterval);
-        gossiper.setComputeTime(completedStageType, averageComputeTime);
+        if (countComputeTime) {
+            final double computeInterval = jobCompletionMoment - runMoment;
+            final Estimate averageComputeTime = workerQueue.countJob(
+                    completedStageType, computeInterval);
+            gossiper.setComputeTime(completedStageType, averageComputeTime);
+        }
         if (Settings.traceNodeProgress || Settings.traceRemainingJobTime) {
             final double queueInterval = runMoment - message.arrivalMoment;
             Globals.log.reportProgress("Completed " + jobInstance
@@ -862,7 +1858,7 @@ public final class Node extends Thread implements PacketReceiveListener {
                     + " " + now + " " + workerDwellTime);
         }
         final IbisIdentifier source = message.source;
-        if (!deadNodes.contains(source)
+        if (!cancelled && !deadNodes.contains(source)
                 && !jobs.isParallelJobType(completedStageType)) {
             // If the master node isn't dead, tell it this job
             // is completed.
@@ -876,8 +1872,30 @@ public final class Node extends Thread implements PacketReceiveListener {
             final Serializable input, final double runMoment) {
         if (job instanceof AtomicJob) {
             final AtomicJob at = (AtomicJob) job;
+            ResultCache.Key key = null;
+            if (resultCache != null && job instanceof CacheableJob) {
+                final JobType stageType = message.jobInstance
+                        .getStageType(jobs);
+                // The input in the message may be a handle to the real
+                // input, so the key must be computed from the resolved one.
+                if (input == message.jobInstance.input) {
+                    key = message.jobInstance.getCacheKey(stageType);
+                } else {
+                    key = ResultCache.computeKey(stageType, input);
+                }
+                if (key != null) {
+                    final Serializable result = resultCache.get(key);
+                    if (result != null) {
+                        handleJobResult(message, result, runMoment, false);
+                        return;
+                    }
+                }
+            }
             try {
                 final Serializable result = at.run(input);
+                if (key != null && result != null) {
+                    resultCache.put(key, result);
+                }
                 handleJobResult(message, result, runMoment);
             } catch (final JobFailedException x) {
                 failNode(message, x);
@@ -893,10 +1911,7 @@ public final class Node extends Thread implements PacketReceiveListener {
                         + message.jobInstance);
             }
             jobInstance.split(input, parallelJobHandler);
-            if (jobInstance.resultIsReady()) {
-                final Serializable result = jobInstance.getResult();
-                handleJobResult(message, result, runMoment);
-            }
+            parallelJobHandler.finishSplit(this, jobInstance);
             sendJobCompletedMessage(message.source, message.jobId);
         } else if (job instanceof SeriesJob) {
             Globals.log.reportInternalError("SeriesJob " + job
@@ -913,26 +1928,105 @@ public final class Node extends Thread implements PacketReceiveListener {
     }
 
     /**
-     * Wait until the master queue has drained to a reasonable level.
+     * Executes the job in the given message on the current thread.
+     * 
+     * @param workMessage
+     *            The message with the job to execute.
+     * @param counter
+     *            The counter of running jobs of this kind.
      */
-    private void waitForRoom() {
-        while (true) {
-            synchronized (this) {
-                if (masterQueue.hasRoom()) {
-                    return;
-                }
-                try {
-                    this.wait(Settings.ROOM_POLL_INTERVAL);
-                } catch (final InterruptedException e) {
-                    // Ignore
-                }
+    private void runJob(final RunJobMessage workMessage,
+            final UpDownCounter counter) {
+        if (dataPlane != null && dataPlane.park(workMessage)) {
+            // The input is still on its way; the data plane puts the job
+            // back in the queue once it has arrived.
+            parkedJobCount.add();
+            return;
+        }
+        final double runMoment = Utils.getPreciseTime();
+        final JobType stageType = workMessage.jobInstance.getStageType(jobs);
+        final Job job = jobs.getJob(stageType);
+
+        counter.up();
+        if (Settings.traceNodeProgress) {
+            final double queueInterval = runMoment - workMessage.arrivalMoment;
+            Globals.log.reportProgress("Worker: handed out job " + workMessage
+                    + " of type " + stageType + "; it was queued for "
+                    + Utils.formatSeconds(queueInterval) + "; there are now "
+                    + counter + " running jobs");
+        }
+        if (cancelledJobs.remove(workMessage.source, workMessage.jobId)) {
+            // A copy of this job was completed elsewhere.
+            cancelledJobCount.add();
+            if (dataPlane != null) {
+                dataPlane.discard(workMessage.jobInstance);
             }
+            counter.down();
+            return;
         }
+        final Serializable input;
+        if (dataPlane == null) {
+            input = workMessage.jobInstance.input;
+        } else {
+            input = dataPlane.resolve(workMessage.jobInstance);
+        }
+        if (input == null && workMessage.jobInstance.input != null) {
+            // The holder of the input is dead, or the job was already
+            // completed elsewhere. Let the master sort it out.
+            Globals.log.reportError("Input of job " + workMessage
+                    + " is not available; returned it to its master");
+            sendJobInputUnavailableMessage(workMessage.source,
+                    workMessage.jobId);
+        } else {
+            executeJob(workMessage, job, input, runMoment);
+        }
+        counter.down();
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Work thread: completed " + workMessage);
+        }
+    }
 
+    /**
+     * Executes the given blocking job on the current thread, which is one of
+     * the threads of the blocking job pool.
+     * 
+     * @param workMessage
+     *            The message with the job to execute.
+     */
+    void runBlockingJob(final RunJobMessage workMessage) {
+        runJob(workMessage, runningBlockingJobCount);
+        // The job may have produced new work for the master queue.
+        wakeAdministration();
+    }
+
+    /**
+     * Returns true iff the job in the given message is a blocking job, and
+     * should be run on the blocking job pool.
+     * 
+     * @param workMessage
+     *            The message with the job.
+     * @return True iff the job is a blocking job.
+     */
+    private boolean isBlockingJob(final RunJobMessage workMessage) {
+        return workMessage.jobInstance.getStageType(jobs).blocking;
     }
 
     /** Run a work thread. Only return when we want to shut down the node. */
     void runWorkThread() {
+        if (Settings.EVENT_DRIVEN_DISPATCH) {
+            runEventDrivenWorkThread();
+        } else {
+            runPollingWorkThread();
+        }
+        kickAllWorkers(); // We're about to end this thread. Wake all other
+        // threads.
+    }
+
+    /**
+     * Run a work thread that polls for new jobs, and does the node
+     * administration between jobs.
+     */
+    private void runPollingWorkThread() {
         double overheadStart = Utils.getPreciseTime();
         long threadOverhead = 0L;
         try {
@@ -943,7 +2037,7 @@ public final class Node extends Thread implements PacketReceiveListener {
                 if (runningJobCount.isBelow(numberOfProcessors)) {
                     // Only try to start a new job when there are idle
                     // processors.
-                    workMessage = workerQueue.remove(jobs, gossiper);
+                    workMessage = workerQueue.remove(jobs, gossiper, false);
                 }
                 if (workMessage == null) {
                     final long sleepTime = 20;
@@ -960,7 +2054,7 @@ public final class Node extends Thread implements PacketReceiveListener {
                             // Measure the time we spend in this wait,
                             // and add to idle time.
                             if (keepRunning()) {
-                                if (workerQueue.isEmpty()
+                                if (!workerQueue.hasJobs(jobs, false)
                                         || !runningJobCount
                                                 .isBelow(numberOfProcessors)) {
                                     this.wait(sleepTime);
@@ -975,31 +2069,9 @@ public final class Node extends Thread implements PacketReceiveListener {
                     idleProcessors.down();
                 } else {
                     // We have a job to execute.
-                    final double runMoment = Utils.getPreciseTime();
-                    final JobType stageType = workMessage.jobInstance
-                            .getStageType(jobs);
-                    final Job job = jobs.getJob(stageType);
-
-                    runningJobCount.up();
-                    if (Settings.traceNodeProgress) {
-                        final double queueInterval = runMoment
-                                - workMessage.arrivalMoment;
-                        Globals.log.reportProgress("Worker: handed out job "
-                                + workMessage + " of type " + stageType
-                                + "; it was queued for "
-                                + Utils.formatSeconds(queueInterval)
-                                + "; there are now " + runningJobCount
-                                + " running jobs");
-                    }
-                    final Serializable input = workMessage.jobInstance.input;
                     threadOverhead += Utils.getPreciseTime() - overheadStart;
-                    executeJob(workMessage, job, input, runMoment);
-                    runningJobCount.down();
+                    runJob(workMessage, runningJobCount);
                     overheadStart = Utils.getPreciseTime();
-                    if (Settings.traceNodeProgress) {
-                        Globals.log.reportProgress("Work thread: completed "
-                                + workMessage);
-                    }
                 }
             }
         } catch (final Throwable x) {
@@ -1010,8 +2082,88 @@ public final class Node extends Thread implements PacketReceiveListener {
         synchronized (this) {
             overheadDuration += threadOverhead;
         }
-        kickAllWorkers(); // We're about to end this thread. Wake all other
-        // threads.
+    }
+
+    /**
+     * Run a work thread that blocks until there is both an idle processor and
+     * a job in the worker queue. Every new job wakes exactly one thread. The
+     * administration is left to the administration thread.
+     */
+    private void runEventDrivenWorkThread() {
+        long threadOverhead = 0L;
+        try {
+            while (keepRunning()) {
+                idleProcessors.up();
+                if (Settings.traceWaits) {
+                    Globals.log.reportProgress("Waiting for new jobs in queue");
+                }
+                idleProcessorSlots.acquireUninterruptibly();
+                availableJobs.acquireUninterruptibly();
+                idleProcessors.down();
+                final double overheadStart = Utils.getPreciseTime();
+                final RunJobMessage workMessage = workerQueue.remove(jobs,
+                        gossiper, false);
+                if (workMessage == null) {
+                    // The queue was cleared, or somebody wants us to
+                    // look at keepRunning().
+                    idleProcessorSlots.release();
+                    continue;
+                }
+                threadOverhead += Utils.getPreciseTime() - overheadStart;
+                try {
+                    runJob(workMessage, runningJobCount);
+                } finally {
+                    idleProcessorSlots.release();
+                }
+                // The job may have produced new work for the master queue,
+                // or updates for recent masters.
+                administrationNeeded.set();
+            }
+        } catch (final Throwable x) {
+            Globals.log.reportError("Uncaught exception in worker thread: "
+                    + x.getLocalizedMessage());
+            x.printStackTrace(Globals.log.getPrintStream());
+        }
+        synchronized (this) {
+            overheadDuration += threadOverhead;
+        }
+    }
+
+    /**
+     * Hands out jobs from the master queue until the node stops. All scheduler
+     * threads are woken on a change, and drain the queue in parallel.
+     */
+    void runSchedulerThread() {
+        try {
+            while (keepRunning()) {
+                schedulingNeeded.waitAndReset(Settings.SCHEDULER_INTERVAL);
+                drainMasterQueue();
+            }
+        } catch (final Throwable x) {
+            Globals.log.reportError("Uncaught exception in scheduler thread: "
+                    + x.getLocalizedMessage());
+            x.printStackTrace(Globals.log.getPrintStream());
+        }
+    }
+
+    /**
+     * Runs the administration of the node until the node stops. Only used with
+     * event-driven dispatch.
+     */
+    private void runAdministrationThread() {
+        try {
+            while (keepRunning()) {
+                final long waitTime = Math.min(Settings.ADMINISTRATION_INTERVAL,
+                        acknowledgements.getWaitTimeInMilliseconds());
+                administrationNeeded.waitAndReset(waitTime);
+                updateAdministration();
+            }
+            flushAcknowledgements(true);
+        } catch (final Throwable x) {
+            Globals.log.reportError("Uncaught exception in administration thread: "
+                    + x.getLocalizedMessage());
+            x.printStackTrace(Globals.log.getPrintStream());
+        }
     }
 
     private void failNode(final RunJobMessage message, final Throwable t) {
@@ -1047,18 +2199,141 @@ public final class Node extends Thread implements PacketReceiveListener {
      * @param userId
      * @param listener
      * @param job
+     * @param priority
+     *            The priority class of the parallel job the subjob belongs
+     *            to.
+     * @param deadline
+     *            The scheduling deadline of the parallel job the subjob
+     *            belongs to.
      */
     void submitSubjob(final long prefix[], final Serializable input,
             final Serializable userId, final JobCompletionListener listener,
-            final Job job) {
+            final Job job, final int priority, final long deadline) {
         final JobInstanceIdentifier tii = new JobInstanceIdentifier(prefix,
-                userId, Globals.localIbis.identifier());
+                userId, Globals.localIbis.identifier(), getShare());
         final JobType overallType = jobs.getJobType(job);
         final JobInstance jobInstance = new JobInstance(tii, input,
-                overallType, 0);
+                overallType, 0, priority, deadline);
         runningJobList.add(new SubmittedJobInfo(tii, jobInstance, listener,
                 false));
         masterQueue.add(jobs, jobInstance);
+        wakeAdministration();
+    }
+
+    /**
+     * Returns true iff a sub-job of the given type should be run right away on
+     * the submitting thread, instead of being handed out by the master queue.
+     * That is the case if the master queue already holds more jobs than the
+     * workers can take, so that the sub-job would only wait there, or if it is
+     * an atomic job that takes so little time that handing it out costs more
+     * than running it, or that we can complete sooner than the best other
+     * worker.
+     * 
+     * @param job
+     *            The sub-job.
+     * @return True iff the sub-job should be run locally.
+     */
+    boolean shouldRunSubjobLocally(final Job job) {
+        if (!Settings.LOCAL_SUBJOBS || stopped.isSet()
+                || job instanceof BlockingJob) {
+            return false;
+        }
+        if (!(job instanceof AtomicJob || job instanceof ParallelJob)) {
+            return false;
+        }
+        if (masterQueue.size() >= submitCredits.getWindow()) {
+            return true;
+        }
+        if (job instanceof AtomicJob) {
+            final JobType type = jobs.getJobType(job);
+            final double localTime = workerQueue.getComputeTime(type)
+                    .getLikelyValue();
+            if (localTime < Settings.LOCAL_SUBJOB_GRANULARITY) {
+                return true;
+            }
+            return localTime < getBestRemoteCompletionTime(type);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the shortest time in which another worker is expected to
+     * complete a job of the given type, according to the gossip.
+     * 
+     * @param type
+     *            The type of the job.
+     * @return The completion time in seconds, or infinity if no other worker
+     *         can run the job.
+     */
+    private double getBestRemoteCompletionTime(final JobType type) {
+        final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap = nodes
+                .getLocalNodeInfo();
+        final IbisIdentifier localIbis = Globals.localIbis.identifier();
+        double best = Double.POSITIVE_INFINITY;
+        for (final NodePerformanceInfo info : gossiper.getGossipCopy()) {
+            if (info == null || info.source.equals(localIbis)) {
+                continue;
+            }
+            final Estimate est = info.estimateJobCompletion(localNodeInfoMap
+                    .get(info.source), type, 0, type,
+                    Settings.HARD_ALLOWANCES, -1);
+            if (est != null) {
+                best = Math.min(best, est.getLikelyValue());
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs the given sub-job of a parallel job on the current thread, and
+     * hands its result to the given listener. A parallel sub-job is split on
+     * the current thread, and its own sub-jobs are again either run locally or
+     * handed out.
+     * 
+     * @param prefix
+     *            The identifier prefix of the parallel job.
+     * @param input
+     *            The input of the sub-job.
+     * @param userId
+     *            The identifier to pass to the listener.
+     * @param listener
+     *            The listener to hand the result to.
+     * @param job
+     *            The sub-job to run.
+     * @param priority
+     *            The priority class of the parallel job.
+     * @param deadline
+     *            The scheduling deadline of the parallel job.
+     */
+    void runSubjobLocally(final long prefix[], final Serializable input,
+            final Serializable userId, final JobCompletionListener listener,
+            final Job job, final int priority, final long deadline) {
+        final double runMoment = Utils.getPreciseTime();
+        localSubjobCount.add();
+        if (job instanceof AtomicJob) {
+            final Serializable result;
+            try {
+                result = ((AtomicJob) job).run(input);
+            } catch (final JobFailedException x) {
+                // Let the master queue find a node that can run it.
+                submitSubjob(prefix, input, userId, listener, job, priority,
+                        deadline);
+                return;
+            }
+            final JobType type = jobs.getJobType(job);
+            final double computeInterval = Utils.getPreciseTime() - runMoment;
+            final Estimate computeTime = workerQueue.countJob(type,
+                    computeInterval);
+            gossiper.setComputeTime(type, computeTime);
+            listener.jobCompleted(this, userId, result);
+        } else {
+            final JobInstanceIdentifier tii = new JobInstanceIdentifier(
+                    prefix, userId, Globals.localIbis.identifier(), getShare());
+            final JobInstance jobInstance = new JobInstance(tii, input, jobs
+                    .getJobType(job), 0, priority, deadline);
+            parallelJobHandler.runLocally(this, (ParallelJob) job,
+                    jobInstance, runMoment, listener, userId);
+        }
     }
 
     /**
@@ -1077,15 +2352,202 @@ public final class Node extends Thread implements PacketReceiveListener {
      */
     public void submit(final Serializable input, final Serializable userId,
             final JobCompletionListener listener, final Job job) {
-        waitForRoom();
+        submit(input, userId, listener, job, JobPriority.NORMAL,
+                JobPriority.NO_DEADLINE);
+    }
+
+    /**
+     * Given an input and a job to execute, submit this input to the job, with
+     * the given priority class and deadline. All stages of the job are handed
+     * out in order of their scheduling deadline; see {@link JobPriority}.
+     * 
+     * @param input
+     *            The input of the job.
+     * @param userId
+     *            The user-supplied id of the job.
+     * @param listener
+     *            The completion listener for this job.
+     * @param job
+     *            The job to execute.
+     * @param priority
+     *            The priority class of the job, for example
+     *            {@link JobPriority#INTERACTIVE}.
+     * @param deadline
+     *            The moment in ms (as returned by
+     *            <code>System.currentTimeMillis()</code>) the job should be
+     *            completed, or {@link JobPriority#NO_DEADLINE}.
+     */
+    public void submit(final Serializable input, final Serializable userId,
+            final JobCompletionListener listener, final Job job,
+            final int priority, final long deadline) {
+        submitCredits.acquire();
+        admitSubmission(createSubmission(input, userId, listener, job,
+                priority, deadline));
+    }
+
+    private SubmittedJobInfo createSubmission(final Serializable input,
+            final Serializable userId, final JobCompletionListener listener,
+            final Job job, final int priority, final long deadline) {
         final JobInstanceIdentifier tii = new JobInstanceIdentifier(null,
-                userId, Globals.localIbis.identifier());
+                userId, Globals.localIbis.identifier(), getShare());
         final JobType overallType = jobs.getJobType(job);
         final JobInstance jobInstance = new JobInstance(tii, input,
-                overallType, 0);
-        runningJobList.add(new SubmittedJobInfo(tii, jobInstance, listener,
-                true));
-        masterQueue.add(jobs, jobInstance);
+                overallType, 0, priority, JobPriority.getSchedulingDeadline(
+                        priority, deadline));
+        jobInstance.setHoldsCredit();
+        return new SubmittedJobInfo(tii, jobInstance, listener, true);
+    }
+
+    /** Puts the given submission, which holds a credit, in the master queue. */
+    private void admitSubmission(final SubmittedJobInfo submission) {
+        runningJobList.add(submission);
+        if (stopped.isSet()
+                && runningJobList.remove(submission.identifier) != null) {
+            // We have been stopped, and missed the clean-up.
+            abandonSubmission(submission);
+            return;
+        }
+        masterQueue.add(jobs, submission.jobInstance);
+        wakeAdministration();
+    }
+
+    /** Admits the pending asynchronous submissions we have credits for. */
+    private void admitPendingSubmissions() {
+        while (true) {
+            final SubmittedJobInfo submission;
+            synchronized (pendingSubmissions) {
+                if (pendingSubmissions.isEmpty()
+                        || !submitCredits.tryAcquire()) {
+                    return;
+                }
+                submission = pendingSubmissions.removeFirst();
+            }
+            admitSubmission(submission);
+        }
+    }
+
+    /**
+     * Submits the given input to the given job without blocking. If there is
+     * no submit credit, the submission waits in the node until there is.
+     * 
+     * @param input
+     *            The input of the job.
+     * @param userId
+     *            The user-supplied id of the job.
+     * @param listener
+     *            The completion listener for this job.
+     * @param job
+     *            The job to execute.
+     * @param priority
+     *            The priority class of the job.
+     * @param deadline
+     *            The deadline of the job.
+     */
+    void submitAsync(final Serializable input, final Serializable userId,
+            final JobCompletionListener listener, final Job job,
+            final int priority, final long deadline) {
+        final SubmittedJobInfo submission = createSubmission(input, userId,
+                listener, job, priority, deadline);
+        final boolean isStopped;
+        synchronized (pendingSubmissions) {
+            isStopped = stopped.isSet();
+            // Don't overtake earlier pending submissions.
+            if (!isStopped
+                    && (!pendingSubmissions.isEmpty() || !submitCredits
+                            .tryAcquire())) {
+                pendingSubmissions.add(submission);
+                wakeAdministration();
+                return;
+            }
+        }
+        if (isStopped) {
+            abandonSubmission(submission);
+            return;
+        }
+        admitSubmission(submission);
+    }
+
+    void submitAsync(final Serializable input, final Serializable userId,
+            final JobCompletionListener listener, final Job job) {
+        submitAsync(input, userId, listener, job, JobPriority.NORMAL,
+                JobPriority.NO_DEADLINE);
+    }
+
+    /**
+     * Given an input and a job to execute, submit this input to the job
+     * without blocking, and return the future result of the job.
+     * 
+     * @param input
+     *            The input of the job.
+     * @param job
+     *            The job to execute.
+     * @return The future result of the job.
+     */
+    public JobFuture submitAsync(final Serializable input, final Job job) {
+        return submitAsync(input, job, JobPriority.NORMAL,
+                JobPriority.NO_DEADLINE);
+    }
+
+    /**
+     * Given an input and a job to execute, submit this input to the job
+     * without blocking, with the given priority class and deadline, and
+     * return the future result of the job.
+     * 
+     * @param input
+     *            The input of the job.
+     * @param job
+     *            The job to execute.
+     * @param priority
+     *            The priority class of the job.
+     * @param deadline
+     *            The moment in ms the job should be completed, or
+     *            {@link JobPriority#NO_DEADLINE}.
+     * @return The future result of the job.
+     */
+    public JobFuture submitAsync(final Serializable input, final Job job,
+            final int priority, final long deadline) {
+        final JobFuture future = new JobFuture();
+        submitAsync(input, null, future.getListener(), job, priority,
+                deadline);
+        return future;
+    }
+
+    /**
+     * Given a sequence of inputs and a job to execute, returns a stream of the
+     * results of the job for these inputs. Inputs are only taken from the
+     * sequence and submitted as the consumer of the stream requests results;
+     * see {@link JobResultStream}.
+     * 
+     * @param inputs
+     *            The inputs of the jobs.
+     * @param job
+     *            The job to execute.
+     * @return The stream of results.
+     */
+    public JobResultStream submitAll(
+            final Iterator<? extends Serializable> inputs, final Job job) {
+        return new JobResultStream(new StreamSubmitter(), inputs, job);
+    }
+
+    /**
+     * Sets the fair-share weight of this node as a submitter. When the queues
+     * of the nodes are contended, the jobs of a node with weight 2 are handed
+     * out twice as often as those of a node with weight 1. Only affects jobs
+     * that are submitted after this call.
+     * 
+     * @param share
+     *            The weight; must be positive.
+     */
+    public synchronized void setShare(final double share) {
+        if (!(share > 0)) {
+            Globals.log.reportError("Ignoring non-positive share " + share);
+            return;
+        }
+        this.share = share;
+    }
+
+    private synchronized double getShare() {
+        return share;
     }
 
     /**
@@ -1125,7 +2587,84 @@ public final class Node extends Thread implements PacketReceiveListener {
         }
     }
 
-    /** Try to send out as many jobs as we can. */
+    /**
+     * Given a worker and the predicted duration of a job on it, returns the
+     * maximal number of jobs we put in a single message to that worker. The
+     * shorter the jobs are compared to the cost of sending a message, the more
+     * jobs we put in a batch.
+     * 
+     * @param node
+     *            The worker.
+     * @param predictedDuration
+     *            The predicted duration in seconds of a job on this worker.
+     * @return The maximal batch size.
+     */
+    private int computeBatchLimit(final IbisIdentifier node,
+            final double predictedDuration) {
+        if (node.equals(Globals.localIbis.identifier())) {
+            // Local messages are free, there is nothing to gain.
+            return 1;
+        }
+        final double sendTime = sendPort.getAverageSendTime();
+        if (sendTime <= 0.0) {
+            // No measurements yet, don't take any risks.
+            return 1;
+        }
+        if (!(predictedDuration > 0.0)) {
+            return Settings.MAXIMAL_RUN_JOB_BATCH;
+        }
+        final double ratio = sendTime / predictedDuration;
+        if (ratio >= Settings.MAXIMAL_RUN_JOB_BATCH) {
+            return Settings.MAXIMAL_RUN_JOB_BATCH;
+        }
+        return 1 + (int) ratio;
+    }
+
+    /**
+     * Sends the given jobs to the given worker, as a single message if there
+     * is more than one job. If the message cannot be sent, the jobs are put
+     * back in the master queue.
+     * 
+     * @param node
+     *            The worker to send the jobs to.
+     * @param batch
+     *            The jobs to send.
+     */
+    private void sendRunJobMessages(final IbisIdentifier node,
+            final ArrayList<RunJobMessage> batch) {
+        Message msg;
+        if (batch.size() == 1) {
+            msg = batch.get(0);
+        } else {
+            msg = new RunJobBatchMessage(batch.toArray(new RunJobMessage[batch
+                    .size()]));
+        }
+        final boolean ok = sendPort.send(node, msg);
+        if (ok) {
+            for (final RunJobMessage m : batch) {
+                masterQueue.registerInputSize(jobs, m.jobInstance);
+            }
+            submitMessageCount.add();
+            if (batch.size() > 1) {
+                batchedJobCount.add(batch.size());
+            }
+        } else {
+            // Try to put the paste back in the tube.
+            // The send port has already registered the trouble.
+            final WorkerInfo worker = nodes.get(node);
+            for (final RunJobMessage m : batch) {
+                masterQueue.add(jobs, m.jobInstance);
+                worker.retractJob(m.jobId);
+            }
+        }
+    }
+
+    /**
+     * Try to send out as many jobs as we can. Jobs for the same worker are
+     * collected into batches, and a batch is sent as soon as it is full, or
+     * when there are no more jobs to submit. Several scheduler threads may do
+     * this at the same time.
+     */
     private void drainMasterQueue() {
         boolean changed = false;
 
@@ -1133,62 +2672,61 @@ public final class Node extends Thread implements PacketReceiveListener {
             // Nothing to do, don't bother with the gossip.
             return;
         }
+        final HashMap<IbisIdentifier, ArrayList<RunJobMessage>> batches = new HashMap<IbisIdentifier, ArrayList<RunJobMessage>>();
         while (true) {
-            WorkerInfo worker;
-            long jobId;
-            IbisIdentifier node;
-            JobInstance jobInstance;
-
-            synchronized (drainLock) {
-                // The entire operation
-                // - get a submission
-                // - register its start on the chosen worker
-                // must be atomic to avoid that multiple threads
-                // select the same worker for multiple instances of the
-                // same job type.
-                final NodePerformanceInfo[] tables = gossiper.getGossipCopy();
-                final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap = nodes
-                        .getLocalNodeInfo();
-                final Submission submission = masterQueue.getSubmission(jobs,
-                        localNodeInfoMap, tables);
-                if (submission == null) {
-                    break;
-                }
-                node = submission.worker;
-                jobInstance = submission.jobInstance;
-                worker = nodes.get(node);
-                jobId = nextJobId++;
-
-                worker.registerJobStart(jobs, jobInstance, jobId,
-                        submission.predictedDuration);
+            // The master queue reserves a slot on the selected worker,
+            // and registers the start of the job there.
+            final Submission submission = masterQueue.getSubmission(jobs,
+                    scheduler);
+            if (submission == null) {
+                break;
+            }
+            final IbisIdentifier node = submission.worker;
+            final JobInstance jobInstance = submission.jobInstance;
+            final double predictedDuration = submission.predictedDuration;
+            final long jobId = submission.jobId;
+            if (jobInstance.releaseCredit()) {
+                submitCredits.release();
             }
             if (Settings.traceMasterQueue || Settings.traceSubmissions) {
                 Globals.log.reportProgress("Submitting job " + jobInstance
                         + " to " + node);
             }
 
-            final RunJobMessage msg = new RunJobMessage(jobInstance, jobId);
-            final boolean ok = sendPort.send(node, msg);
-            if (ok) {
-                submitMessageCount.add();
-            } else {
-                // Try to put the paste back in the tube.
-                // The send port has already registered the trouble.
-                masterQueue.add(jobs, msg.jobInstance);
-                worker.retractJob(jobId);
+            ArrayList<RunJobMessage> batch = batches.get(node);
+            if (batch == null) {
+                batch = new ArrayList<RunJobMessage>();
+                batches.put(node, batch);
+            }
+            batch.add(new RunJobMessage(jobInstance, jobId));
+            if (batch.size() >= computeBatchLimit(node, predictedDuration)) {
+                batches.remove(node);
+                sendRunJobMessages(node, batch);
             }
             changed = true;
         }
+        for (final Map.Entry<IbisIdentifier, ArrayList<RunJobMessage>> entry : batches
+                .entrySet()) {
+            sendRunJobMessages(entry.getKey(), entry.getValue());
+        }
         if (changed) {
             recomputeCompletionTimes.set();
+            wakeAdministration();
         }
     }
 
     private void updateRecentMasters() {
         final NodePerformanceInfo update = gossiper.getLocalUpdate();
         final UpdateNodeMessage msg = new UpdateNodeMessage(update);
+        final IbisIdentifier localIbis = Globals.localIbis.identifier();
 
         for (final IbisIdentifier ibis : recentMasterList.getArray()) {
+            if (Settings.HIERARCHICAL_GOSSIP
+                    && !Utils.areInSameCluster(localIbis, ibis)) {
+                // Masters in other clusters only keep the summary of our
+                // cluster, and would drop our details.
+                continue;
+            }
             if (Settings.traceUpdateMessages) {
                 Globals.log.reportProgress("Sending " + msg + " to " + ibis);
             }
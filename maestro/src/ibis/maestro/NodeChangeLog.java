@@ -0,0 +1,100 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Keeps track of the nodes whose local information has changed. Workers
+ * report a change as soon as it happens; the changes are collected when a
+ * new snapshot of the local information is published, and are remembered in
+ * a bounded log, so that a user of a snapshot can find out which nodes have
+ * changed since the snapshot it saw before.
+ * 
+ * Reporting a change only takes the lock on this log, so it may be done
+ * while holding the lock on a worker.
+ * 
+ * @author Kees van Reeuwijk.
+ */
+final class NodeChangeLog {
+    /** The workers that have changed since the last snapshot. */
+    private final HashSet<WorkerInfo> changedWorkers = new HashSet<WorkerInfo>();
+
+    /** The most recent changed nodes, as a ring buffer. */
+    private final IbisIdentifier changes[] = new IbisIdentifier[Settings.NODE_CHANGE_LOG_SIZE];
+
+    /** The total number of changes that were ever logged. */
+    private long changeCount = 0;
+
+    /**
+     * Registers that the local information of the given worker has changed.
+     * 
+     * @param worker
+     *            The worker.
+     */
+    synchronized void registerChange(final WorkerInfo worker) {
+        changedWorkers.add(worker);
+    }
+
+    /**
+     * Returns the workers that have changed since the previous invocation.
+     * 
+     * @return The changed workers.
+     */
+    synchronized WorkerInfo[] takeChangedWorkers() {
+        final WorkerInfo res[] = changedWorkers
+                .toArray(new WorkerInfo[changedWorkers.size()]);
+        changedWorkers.clear();
+        return res;
+    }
+
+    /**
+     * Publishes a new snapshot that differs from the previous one in the
+     * given entries.
+     * 
+     * @param previous
+     *            The previous snapshot, or <code>null</code>.
+     * @param changed
+     *            The new entries of the nodes that have changed.
+     * @return The new snapshot.
+     */
+    LocalNodeInfoMap publish(final LocalNodeInfoMap previous,
+            final Map<IbisIdentifier, LocalNodeInfoList> changed) {
+        final long position;
+        synchronized (this) {
+            for (final IbisIdentifier ibis : changed.keySet()) {
+                changes[(int) (changeCount % changes.length)] = ibis;
+                changeCount++;
+            }
+            position = changeCount;
+        }
+        final LocalNodeInfoMap res = new LocalNodeInfoMap(this, position,
+                previous);
+        res.putAll(changed);
+        return res;
+    }
+
+    /**
+     * Returns the nodes that have changed between the two given snapshots.
+     * 
+     * @param from
+     *            The older snapshot.
+     * @param to
+     *            The newer snapshot.
+     * @return The nodes that have changed, possibly with duplicates, or
+     *         <code>null</code> if this log doesn't know.
+     */
+    synchronized IbisIdentifier[] getChanges(final LocalNodeInfoMap from,
+            final LocalNodeInfoMap to) {
+        if (from.log != this || to.log != this || to.position < from.position
+                || changeCount - from.position > changes.length) {
+            return null;
+        }
+        final IbisIdentifier res[] = new IbisIdentifier[(int) (to.position - from.position)];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = changes[(int) ((from.position + i) % changes.length)];
+        }
+        return res;
+    }
+}
@@ -31,6 +31,12 @@ final class NodeJobInfo {
 
     private final Counter missedRescheduleDeadlines = new Counter();
 
+    /** The local node info, or <code>null</code> if it must be recomputed. */
+    private LocalNodeInfo localNodeInfo = null;
+
+    /** The log to report every change of the local node info to. */
+    private final NodeChangeLog changeLog;
+
     /**
      * Constructs a new information class for a particular job type for a
      * particular worker.
@@ -41,11 +47,14 @@ final class NodeJobInfo {
      *            The worker we have administration for.
      * @param pingTime
      *            The ping time of this worker.
+     * @param changeLog
+     *            The log to report every change of the local node info to.
      */
     NodeJobInfo(final WorkerQueueJobInfo jobInfo, final WorkerInfo worker,
-            double pingTime) {
+            double pingTime, final NodeChangeLog changeLog) {
         this.jobInfo = jobInfo;
         nodeInfo = worker;
+        this.changeLog = changeLog;
 
         // Totally unfounded guesses, but we should learn soon enough what the
         // real values are...
@@ -79,6 +88,7 @@ final class NodeJobInfo {
      *            The total round-trip time of this job.
      */
     synchronized void registerJobCompleted(final double roundtripTime) {
+        invalidateLocalNodeInfo();
         executedJobs++;
         outstandingJobs--;
         roundtripEstimate.addSample(roundtripTime);
@@ -96,6 +106,7 @@ final class NodeJobInfo {
      *            The transmission time of this job.
      */
     synchronized void registerJobReceived(final double transmissionTime) {
+        invalidateLocalNodeInfo();
         transmissionEstimate.addSample(transmissionTime);
         if (Settings.traceNodeProgress || Settings.traceRemainingJobTime) {
             final String label = "job=" + jobInfo + " worker=" + nodeInfo;
@@ -104,7 +115,49 @@ final class NodeJobInfo {
         }
     }
 
+    /**
+     * Registers that a job on this worker was cancelled because a speculative
+     * copy on another worker completed first. The time the job has been
+     * outstanding is a lower bound of its round-trip time, and is registered
+     * as such, so that the worker gets less work.
+     * 
+     * @param outstandingTime
+     *            The time in seconds the job was outstanding.
+     */
+    synchronized void registerJobCancelled(final double outstandingTime) {
+        invalidateLocalNodeInfo();
+        outstandingJobs--;
+        roundtripEstimate.addSample(outstandingTime);
+    }
+
+    /**
+     * Registers that an outstanding job is no longer outstanding on this
+     * worker, because another worker stole it, or because it was never sent.
+     */
+    synchronized void registerJobWithdrawn() {
+        invalidateLocalNodeInfo();
+        outstandingJobs--;
+    }
+
+    /**
+     * Registers the submission of a job if fewer than the given number of
+     * jobs are outstanding on this worker.
+     * 
+     * @param capacity
+     *            The maximal number of outstanding jobs.
+     * @return True iff the submission was registered.
+     */
+    synchronized boolean reserveSlot(final int capacity) {
+        if (outstandingJobs >= capacity) {
+            return false;
+        }
+        invalidateLocalNodeInfo();
+        outstandingJobs++;
+        return true;
+    }
+
     synchronized void registerJobFailed() {
+        invalidateLocalNodeInfo();
         failed = true;
     }
 
@@ -118,6 +171,7 @@ final class NodeJobInfo {
 
     /** Register that there is a new outstanding job. */
     synchronized void registerJobSubmitted() {
+        invalidateLocalNodeInfo();
         outstandingJobs++;
     }
 
@@ -136,7 +190,21 @@ final class NodeJobInfo {
         }
     }
 
+    private void invalidateLocalNodeInfo() {
+        localNodeInfo = null;
+        changeLog.registerChange(nodeInfo);
+    }
+
+    /**
+     * Returns the local node info of this job type on this worker. The
+     * returned info is shared, and must not be modified.
+     * 
+     * @return The local node info.
+     */
     synchronized LocalNodeInfo getLocalNodeInfo() {
+        if (localNodeInfo != null) {
+            return localNodeInfo;
+        }
         final Estimate transmissionTime = transmissionEstimate.getEstimate();
         Estimate predictedDuration;
         if (failed) {
@@ -144,7 +212,8 @@ final class NodeJobInfo {
         } else {
             predictedDuration = roundtripEstimate.getEstimate();
         }
-        return new LocalNodeInfo(outstandingJobs, transmissionTime,
+        localNodeInfo = new LocalNodeInfo(outstandingJobs, transmissionTime,
                 predictedDuration);
+        return localNodeInfo;
     }
 }
@@ -18,6 +18,12 @@ final class NodeList {
 
     private final WorkerQueue workerQueue;
 
+    /** The nodes whose local info has changed. */
+    private final NodeChangeLog changeLog = new NodeChangeLog();
+
+    /** The most recent local node info table, or <code>null</code>. */
+    private LocalNodeInfoMap localNodeInfoSnapshot = null;
+
     NodeList(final WorkerQueue jobInfoList) {
         workerQueue = jobInfoList;
     }
@@ -62,7 +68,9 @@ final class NodeList {
         if (info != null) {
             return info;
         }
-        info = new WorkerInfo(theIbis, workerQueue, local, jobTypeCount);
+        info = new WorkerInfo(theIbis, workerQueue, local, jobTypeCount,
+                changeLog);
+        changeLog.registerChange(info);
         workerQueue.registerNode(info);
         ibisToNodeMap.put(theIbis, info);
         return info;
@@ -92,13 +100,40 @@ final class NodeList {
         return job;
     }
 
+    /**
+     * Register all job received and job completed notifications in the given
+     * message in the info of the worker that sent it.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param msg
+     *            The message.
+     * @return The job instances that were completed and may have duplicates.
+     */
+    ArrayList<JobInstance> registerJobAcknowledgements(final JobList jobs,
+            final JobAcknowledgementsMessage msg) {
+        final WorkerInfo node;
+        synchronized (this) {
+            node = ibisToNodeMap.get(msg.source);
+        }
+        if (node == null) {
+            Globals.log.reportError("Job acknowledgements message from unknown node "
+                    + msg.source);
+            return new ArrayList<JobInstance>();
+        }
+        node.registerAsCommunicating();
+        return node.registerJobAcknowledgements(jobs, msg);
+    }
+
     /**
      * Register the fact that the worker has received a job.
      * 
+     * @param jobs
+     *            Information about the different types of jobs.
      * @param msg
      *            The message.
      */
-    void registerJobReceived(final JobReceivedMessage msg) {
+    void registerJobReceived(final JobList jobs, final JobReceivedMessage msg) {
         final WorkerInfo node;
         synchronized (this) {
             node = ibisToNodeMap.get(msg.source);
@@ -116,13 +151,16 @@ final class NodeList {
     /**
      * Register that a jobed has failed.
      * 
+     * @param jobs
+     *            Information about the different types of jobs.
      * @param ibis
      *            The ibis that failed to execute the job.
      * @param jobId
      *            The id of the failed job.
      * @return The job instance that was executed.
      */
-    JobInstance registerJobFailed(final IbisIdentifier ibis, final long jobId) {
+    JobInstance registerJobFailed(final JobList jobs,
+            final IbisIdentifier ibis, final long jobId) {
         final WorkerInfo node;
         synchronized (this) {
             node = ibisToNodeMap.get(ibis);
@@ -136,6 +174,134 @@ final class NodeList {
         return node.registerJobFailed(jobId);
     }
 
+    /**
+     * A worker could not execute the given job, for reasons that have
+     * nothing to do with the worker itself. Retract the job from its
+     * administration.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param ibis
+     *            The worker that returned the job.
+     * @param jobId
+     *            The id of the job.
+     * @return The job instance, or <code>null</code> if the job wasn't
+     *         active on the worker.
+     */
+    JobInstance retractJob(final JobList jobs, final IbisIdentifier ibis,
+            final long jobId) {
+        final WorkerInfo node;
+        synchronized (this) {
+            node = ibisToNodeMap.get(ibis);
+        }
+        if (node == null) {
+            return null;
+        }
+        node.registerAsCommunicating();
+        return node.retractJob(jobId);
+    }
+
+    /**
+     * A worker has stolen the given jobs from another worker. Move them to
+     * the administration of the thief.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param thief
+     *            The worker that stole the jobs.
+     * @param victim
+     *            The worker the jobs were stolen from.
+     * @param ids
+     *            The identifiers of the jobs.
+     * @return The job instances that the thief completed before we heard of
+     *         the adoption, and that may have duplicates.
+     */
+    ArrayList<JobInstance> registerAdoptedJobs(final JobList jobs,
+            final IbisIdentifier thief, final IbisIdentifier victim,
+            final long ids[]) {
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        final WorkerInfo thiefInfo;
+        final WorkerInfo victimInfo;
+        synchronized (this) {
+            thiefInfo = ibisToNodeMap.get(thief);
+            victimInfo = ibisToNodeMap.get(victim);
+        }
+        if (thiefInfo == null || victimInfo == null) {
+            Globals.log.reportError("Jobs adopted message for unknown node "
+                    + (thiefInfo == null ? thief : victim));
+            return res;
+        }
+        thiefInfo.registerAsCommunicating();
+        for (final long id : ids) {
+            final ActiveJob job = victimInfo.extractStolenJob(id);
+            if (job != null) {
+                final JobInstance completed = thiefInfo.adoptStolenJob(jobs,
+                        job);
+                if (completed != null) {
+                    res.add(completed);
+                }
+            }
+        }
+        return res;
+    }
+
+    private synchronized WorkerInfo[] getWorkers() {
+        return ibisToNodeMap.values().toArray(
+                new WorkerInfo[ibisToNodeMap.size()]);
+    }
+
+    /**
+     * Returns the total number of outstanding jobs on all workers.
+     * 
+     * @return The number of outstanding jobs.
+     */
+    int getActiveJobCount() {
+        int res = 0;
+        for (final WorkerInfo wi : getWorkers()) {
+            res += wi.getActiveJobCount();
+        }
+        return res;
+    }
+
+    /**
+     * Returns at most <code>max</code> jobs that have passed their reschedule
+     * deadline, and marks them as having a speculative copy.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param max
+     *            The maximal number of jobs to return.
+     * @return The late jobs.
+     */
+    ArrayList<JobInstance> collectStragglers(final JobList jobs, final int max) {
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        final double now = Utils.getPreciseTime();
+        for (final WorkerInfo wi : getWorkers()) {
+            if (res.size() >= max) {
+                break;
+            }
+            wi.collectStragglers(jobs, now, res, max);
+        }
+        return res;
+    }
+
+    /**
+     * Removes all outstanding copies of the given job, and returns the
+     * messages to cancel them on their workers.
+     * 
+     * @param job
+     *            The job that was completed.
+     * @return The cancel messages to send.
+     */
+    ArrayList<QueuedMessage> cancelCopies(final JobInstance job) {
+        final ArrayList<QueuedMessage> res = new ArrayList<QueuedMessage>();
+        final double now = Utils.getPreciseTime();
+        for (final WorkerInfo wi : getWorkers()) {
+            wi.cancelCopies(job, now, res);
+        }
+        return res;
+    }
+
     /**
      * Given a print stream, print some statistics about the workers to this
      * stream.
@@ -153,6 +319,26 @@ final class NodeList {
         }
     }
 
+    /**
+     * The given ibis is suspected to have failed. Mark it as suspect, and
+     * return the jobs that were outstanding on it.
+     * 
+     * @param theIbis
+     *            The suspected ibis.
+     * @return The jobs that were outstanding on the ibis, or <code>null</code>
+     *         if we don't know the ibis.
+     */
+    ArrayList<JobInstance> withdrawActiveJobs(final IbisIdentifier theIbis) {
+        final WorkerInfo node;
+        synchronized (this) {
+            node = ibisToNodeMap.get(theIbis);
+        }
+        if (node == null) {
+            return null;
+        }
+        return node.withdrawActiveJobs();
+    }
+
     protected void setSuspect(final IbisIdentifier theIbis) {
         final WorkerInfo wi = get(theIbis);
 
@@ -187,16 +373,32 @@ final class NodeList {
     /**
      * Returns a table of local information for every known node.
      * 
+     * The table is shared with other callers and must not be modified. As long
+     * as none of the nodes changes, the same table is returned. Otherwise only
+     * the entries of the nodes that have changed are rebuilt.
+     * 
      * @return The information table.
      */
-    synchronized HashMap<IbisIdentifier, LocalNodeInfoList> getLocalNodeInfo() {
-        final HashMap<IbisIdentifier, LocalNodeInfoList> res = new HashMap<IbisIdentifier, LocalNodeInfoList>();
-        for (final Map.Entry<IbisIdentifier, WorkerInfo> entry : ibisToNodeMap
-                .entrySet()) {
-            final WorkerInfo nodeInfo = entry.getValue();
-
-            res.put(entry.getKey(), nodeInfo.getLocalInfo());
+    synchronized LocalNodeInfoMap getLocalNodeInfo() {
+        // Take the changed workers before we collect their info, so that any
+        // change while we're busy forces another rebuild next time.
+        final WorkerInfo changedWorkers[] = changeLog.takeChangedWorkers();
+        if (localNodeInfoSnapshot != null && changedWorkers.length == 0) {
+            return localNodeInfoSnapshot;
         }
-        return res;
+        final HashMap<IbisIdentifier, LocalNodeInfoList> changed = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+        for (final WorkerInfo nodeInfo : changedWorkers) {
+            final IbisIdentifier ibis = nodeInfo.getIbis();
+            final LocalNodeInfoList info = nodeInfo.getLocalInfo();
+            if (localNodeInfoSnapshot == null
+                    || localNodeInfoSnapshot.get(ibis) != info) {
+                changed.put(ibis, info);
+            }
+        }
+        if (localNodeInfoSnapshot == null || !changed.isEmpty()) {
+            localNodeInfoSnapshot = changeLog.publish(localNodeInfoSnapshot,
+                    changed);
+        }
+        return localNodeInfoSnapshot;
     }
 }
@@ -1,10 +1,13 @@
 package ibis.maestro;
 
 import ibis.ipl.IbisIdentifier;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
 import ibis.steel.ConstantEstimate;
 import ibis.steel.Estimate;
 import ibis.steel.InfiniteEstimate;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.Arrays;
@@ -37,6 +40,18 @@ class NodePerformanceInfo implements Serializable {
     /** The number of processors on this node. */
     private final int numberOfProcessors;
 
+    /**
+     * The summary of the result cache of this node, or <code>null</code> if it
+     * has none.
+     */
+    long cachedResults[] = null;
+
+    /**
+     * The number of nodes this info summarizes if it is the summary of a
+     * cluster, or <code>0</code> if it is the info of a single node.
+     */
+    int summarizedNodes = 0;
+
     NodePerformanceInfo(final Estimate[][] completionInfo,
             final WorkerQueueInfo[] workerQueueInfo,
             final IbisIdentifier source, final int numberOfProcessors,
@@ -48,6 +63,87 @@ class NodePerformanceInfo implements Serializable {
         this.timeStamp = timeStamp;
     }
 
+    /**
+     * Writes the fields of this info, except for the source node, to the given
+     * message.
+     * 
+     * @param msg
+     *            The message to write to.
+     * @throws IOException
+     *             Thrown if the fields could not be written.
+     */
+    void writeFields(final WriteMessage msg) throws IOException {
+        msg.writeLong(timeStamp);
+        msg.writeInt(numberOfProcessors);
+        msg.writeInt(completionInfo.length);
+        for (final Estimate l[] : completionInfo) {
+            msg.writeInt(l.length);
+            for (final Estimate e : l) {
+                MessageCodec.writeEstimate(msg, e);
+            }
+        }
+        msg.writeInt(workersQueueInfo.length);
+        for (final WorkerQueueInfo i : workersQueueInfo) {
+            msg.writeBoolean(i != null);
+            if (i != null) {
+                i.writeFields(msg);
+            }
+        }
+        if (cachedResults == null) {
+            msg.writeInt(0);
+        } else {
+            msg.writeInt(cachedResults.length);
+            msg.writeArray(cachedResults);
+        }
+        msg.writeInt(summarizedNodes);
+    }
+
+    /**
+     * Reads the fields written by {@link #writeFields(WriteMessage)} from the
+     * given message.
+     * 
+     * @param msg
+     *            The message to read from.
+     * @param source
+     *            The node the info is for.
+     * @return The node performance info.
+     * @throws IOException
+     *             Thrown if the fields could not be read.
+     * @throws ClassNotFoundException
+     *             Thrown if an estimate has an unknown class.
+     */
+    static NodePerformanceInfo readFields(final ReadMessage msg,
+            final IbisIdentifier source) throws IOException,
+            ClassNotFoundException {
+        final long timeStamp = msg.readLong();
+        final int numberOfProcessors = msg.readInt();
+        final Estimate completionInfo[][] = new Estimate[msg.readInt()][];
+        for (int i = 0; i < completionInfo.length; i++) {
+            final Estimate l[] = new Estimate[msg.readInt()];
+            for (int j = 0; j < l.length; j++) {
+                l[j] = MessageCodec.readEstimate(msg);
+            }
+            completionInfo[i] = l;
+        }
+        final WorkerQueueInfo workersQueueInfo[] = new WorkerQueueInfo[msg
+                .readInt()];
+        for (int i = 0; i < workersQueueInfo.length; i++) {
+            if (msg.readBoolean()) {
+                workersQueueInfo[i] = WorkerQueueInfo.readFields(msg);
+            }
+        }
+        final NodePerformanceInfo res = new NodePerformanceInfo(
+                completionInfo, workersQueueInfo, source, numberOfProcessors,
+                timeStamp);
+        final int n = msg.readInt();
+        if (n > 0) {
+            res.cachedResults = new long[n];
+            msg.readArray(res.cachedResults);
+        }
+        res.summarizedNodes = msg.readInt();
+        return res;
+    }
+
     NodePerformanceInfo getDeepCopy() {
         final Estimate completionInfoCopy[][] = new Estimate[completionInfo.length][];
 
@@ -57,8 +153,110 @@ class NodePerformanceInfo implements Serializable {
         }
         final WorkerQueueInfo workerQueueInfoCopy[] = Arrays.copyOf(
                 workersQueueInfo, workersQueueInfo.length);
-        return new NodePerformanceInfo(completionInfoCopy, workerQueueInfoCopy,
-                source, numberOfProcessors, timeStamp);
+        final NodePerformanceInfo res = new NodePerformanceInfo(
+                completionInfoCopy, workerQueueInfoCopy, source,
+                numberOfProcessors, timeStamp);
+        // The summary is replaced as a whole, never modified.
+        res.cachedResults = cachedResults;
+        res.summarizedNodes = summarizedNodes;
+        return res;
+    }
+
+    /**
+     * Returns true iff this info is the summary of a cluster, instead of the
+     * info of a single node.
+     * 
+     * @return True iff this is a cluster summary.
+     */
+    boolean isClusterSummary() {
+        return summarizedNodes > 0;
+    }
+
+    /**
+     * Returns the number of nodes this info describes.
+     * 
+     * @return The number of nodes.
+     */
+    int getNodeCount() {
+        return Math.max(1, summarizedNodes);
+    }
+
+    /**
+     * Builds a summary of the given nodes of a cluster. The summary presents
+     * the cluster as a single node with all the processors of its members,
+     * the best completion time of any member for each stage, and for each job
+     * type the execution time of the fastest member and the total queue
+     * length of all members. Jobs that are sent to the summary go to the
+     * given representative, and are spread over the cluster from there. The
+     * summary doesn't carry the cached results of the members, so masters in
+     * other clusters can't prefer a member that has cached the input of a
+     * job.
+     * 
+     * @param representative
+     *            The node that represents the cluster.
+     * @param members
+     *            The info of the members of the cluster.
+     * @param timeStamp
+     *            The time stamp of the summary.
+     * @return The summary.
+     */
+    static NodePerformanceInfo buildClusterSummary(
+            final IbisIdentifier representative,
+            final NodePerformanceInfo members[], final long timeStamp) {
+        final NodePerformanceInfo first = members[0];
+        final Estimate completionInfo[][] = new Estimate[first.completionInfo.length][];
+        for (int i = 0; i < completionInfo.length; i++) {
+            final Estimate l[] = new Estimate[first.completionInfo[i].length];
+            for (int j = 0; j < l.length; j++) {
+                Estimate best = InfiniteEstimate.INFINITE;
+                double bestValue = Double.POSITIVE_INFINITY;
+                for (final NodePerformanceInfo m : members) {
+                    final Estimate e = m.completionInfo[i][j];
+                    final double v = e.getLikelyValue();
+                    if (v < bestValue) {
+                        bestValue = v;
+                        best = e;
+                    }
+                }
+                l[j] = best;
+            }
+            completionInfo[i] = l;
+        }
+        final WorkerQueueInfo queueInfo[] = new WorkerQueueInfo[first.workersQueueInfo.length];
+        for (int i = 0; i < queueInfo.length; i++) {
+            WorkerQueueInfo fastest = null;
+            double fastestValue = Double.POSITIVE_INFINITY;
+            int queueLength = 0;
+            int supporters = 0;
+            for (final NodePerformanceInfo m : members) {
+                final WorkerQueueInfo info = m.workersQueueInfo[i];
+                if (info != null) {
+                    final double v = info.getExecutionTime().getLikelyValue();
+                    if (fastest == null || v < fastestValue) {
+                        fastestValue = v;
+                        fastest = info;
+                    }
+                    queueLength += info.getQueueLength();
+                    supporters++;
+                }
+            }
+            if (fastest != null) {
+                // The queued jobs are spread over all members that support
+                // the type.
+                queueInfo[i] = new WorkerQueueInfo(queueLength, 0, fastest
+                        .getDequeueTimePerJob().multiply(1.0 / supporters),
+                        fastest.getExecutionTime());
+            }
+        }
+        int processors = 0;
+        for (final NodePerformanceInfo m : members) {
+            processors += m.numberOfProcessors;
+        }
+        final NodePerformanceInfo res = new NodePerformanceInfo(
+                completionInfo, queueInfo, representative, processors,
+                timeStamp);
+        res.summarizedNodes = members.length;
+        return res;
     }
 
     private String buildCompletionString() {
@@ -88,9 +286,30 @@ class NodePerformanceInfo implements Serializable {
         return "Update @" + timeStamp + " " + workerQueue + " " + completion;
     }
 
+    /**
+     * Estimates the time it will take to complete the given stage of a job,
+     * and all stages after it, if it is sent to this node.
+     * 
+     * @param localNodeInfo
+     *            The local information about this node.
+     * @param seriesType
+     *            The overall type of the job.
+     * @param stage
+     *            The stage of the job.
+     * @param stageType
+     *            The type of the stage.
+     * @param ignoreBusyProcessors
+     *            If set, return <code>null</code> if this node has no idle
+     *            processors.
+     * @param payloadBytes
+     *            The size of the job input in bytes, or <code>-1</code> if
+     *            not known.
+     * @return The estimated completion time, or <code>null</code> if this
+     *         node cannot execute the job now.
+     */
     Estimate estimateJobCompletion(final LocalNodeInfoList localNodeInfo,
             final JobType seriesType, final int stage, final JobType stageType,
-            final boolean ignoreBusyProcessors) {
+            final boolean ignoreBusyProcessors, final long payloadBytes) {
         if (localNodeInfo == null) {
             if (Settings.traceRemainingJobTime) {
                 Globals.log.reportInternalError("No local node info");
@@ -130,11 +349,9 @@ class NodePerformanceInfo implements Serializable {
         // from the gossip is the most direct measure, but it might be stale.
         // We therefore also take our local count of outstanding jobs into
         // account.
-        final int maximalQueueLength = stageType.unpredictable ? 0
-                : Settings.MAXIMAL_QUEUE_FOR_PREDICTABLE;
+        final int slots = getSlots(stageType);
         if (ignoreBusyProcessors
-                && performanceInfo.currentJobs >= numberOfProcessors
-                        + maximalQueueLength) {
+                && performanceInfo.currentJobs >= getCapacity(stageType)) {
             // Don't submit jobs, there are no idle processors.
             if (Settings.traceRemainingJobTime) {
                 Globals.log.reportProgress("Node " + source
@@ -149,8 +366,10 @@ class NodePerformanceInfo implements Serializable {
         final Estimate executionTime = workerQueueInfo.getExecutionTime();
         final Estimate unpredictableOverhead = executionTime
                 .multiply(0.1 * currentJobs);
-        Estimate total = performanceInfo.transmissionTime;
-        final int waitingJobs = Math.max(0, currentJobs - numberOfProcessors);
+        final Estimate transmissionTime = localNodeInfo.getTransmissionTime(
+                stageType, payloadBytes);
+        Estimate total = transmissionTime;
+        final int waitingJobs = Math.max(0, currentJobs - slots);
         if (waitingJobs > 0) {
             final Estimate dequeueTimePerJob = workerQueueInfo
                     .getDequeueTimePerJob();
@@ -168,7 +387,7 @@ class NodePerformanceInfo implements Serializable {
         total = total.addIndependent(unpredictableOverhead);
         if (Settings.traceStochasticComputations) {
             Globals.log.reportProgress("transmissionTime="
-                    + performanceInfo.transmissionTime + " executionTime="
+                    + transmissionTime + " executionTime="
                     + executionTime + " completionInterval"
                     + completionInterval + " unpredictableOverhead="
                     + unpredictableOverhead + " total=" + total);
@@ -257,7 +476,11 @@ class NodePerformanceInfo implements Serializable {
             }
             s.print(']');
         }
-        s.println(source);
+        if (isClusterSummary()) {
+            s.println(source + " (cluster of " + summarizedNodes + " nodes)");
+        } else {
+            s.println(source);
+        }
     }
 
     static void printTopLabel(final PrintStream s, final JobList jobs) {
@@ -280,6 +503,90 @@ class NodePerformanceInfo implements Serializable {
         s.println();
     }
 
+    /**
+     * Returns the number of jobs of the given type this node can run at the
+     * same time.
+     * 
+     * @param stageType
+     *            The type of job.
+     * @return The number of slots.
+     */
+    private int getSlots(final JobType stageType) {
+        // Blocking jobs don't occupy a processor while they wait, so many
+        // more of them can run at the same time.
+        if (stageType.blocking) {
+            return numberOfProcessors * Settings.BLOCKING_JOBS_PER_PROCESSOR;
+        }
+        return numberOfProcessors;
+    }
+
+    /**
+     * Returns the maximal number of outstanding jobs of the given type a
+     * master should have on this node: its slots, plus a small queue if
+     * the execution time of the type is predictable.
+     * 
+     * @param stageType
+     *            The type of job.
+     * @return The capacity of this node for the type.
+     */
+    int getCapacity(final JobType stageType) {
+        final int maximalQueueLength = stageType.unpredictable ? 0
+                : Settings.MAXIMAL_QUEUE_FOR_PREDICTABLE;
+        return getSlots(stageType) + maximalQueueLength;
+    }
+
+    /**
+     * Returns the number of jobs this node can take before it has to queue
+     * them, according to the queue lengths it advertises.
+     * 
+     * @return The number of free job slots.
+     */
+    int getFreeSlots() {
+        return Math.max(0, numberOfProcessors
+                + Settings.MAXIMAL_QUEUE_FOR_PREDICTABLE - getQueueLength());
+    }
+
+    /**
+     * Returns the total number of jobs in the worker queue of this node,
+     * according to the queue lengths it advertises.
+     * 
+     * @return The number of queued jobs.
+     */
+    int getQueueLength() {
+        int queued = 0;
+        for (final WorkerQueueInfo info : workersQueueInfo) {
+            if (info != null) {
+                queued += info.getQueueLength();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Returns the execution time of the given type on this node.
+     * 
+     * @param type
+     *            The type of job.
+     * @return The execution time, or <code>null</code> if this node doesn't
+     *         support the type.
+     */
+    Estimate getExecutionTime(final JobType type) {
+        final WorkerQueueInfo info = workersQueueInfo[type.index];
+        return info == null ? null : info.getExecutionTime();
+    }
+
+    /**
+     * Returns the length of the worker queue of this node for the given type.
+     * 
+     * @param type
+     *            The type of job.
+     * @return The queue length.
+     */
+    int getQueueLength(final JobType type) {
+        final WorkerQueueInfo info = workersQueueInfo[type.index];
+        return info == null ? 0 : info.getQueueLength();
+    }
+
     void failJob(final JobType type) {
         final WorkerQueueInfo info = workersQueueInfo[type.index];
         if (info != null) {
@@ -305,6 +612,13 @@ class NodePerformanceInfo implements Serializable {
         }
     }
 
+    void setCachedResults(final long summary[]) {
+        if (!Arrays.equals(cachedResults, summary)) {
+            cachedResults = summary;
+            timeStamp = System.nanoTime();
+        }
+    }
+
     boolean setWorkerQueueLength(final JobType type, final int newQueueLength) {
         boolean changed = false;
         final WorkerQueueInfo info = workersQueueInfo[type.index];
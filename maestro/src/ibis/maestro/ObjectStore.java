@@ -0,0 +1,129 @@
+package ibis.maestro;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The objects a node holds for the data plane, within a byte budget.
+ *
+ * An object is pinned while a job that uses it is outstanding, and pinned
+ * objects are never evicted. Once released, an object stays available for
+ * duplicates of its job until it is evicted in least-recently-used order to
+ * make room for new objects. If there is no room even after eviction, the
+ * object is not stored, and the caller should pass it by value.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class ObjectStore {
+    private final long budget;
+
+    private long storedBytes = 0;
+
+    private long nextId = 0;
+
+    private int storeCount = 0;
+
+    private int refusedCount = 0;
+
+    private int evictionCount = 0;
+
+    private int hits = 0;
+
+    private int misses = 0;
+
+    private static final class Entry {
+        private final Serializable value;
+
+        private final long size;
+
+        private boolean pinned = true;
+
+        private Entry(final Serializable value, final long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /** The stored objects, in least-recently-used order. */
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(
+            16, 0.75f, true);
+
+    ObjectStore(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Stores the given object, pinned, and returns its identifier.
+     *
+     * @param value
+     *            The object to store.
+     * @param size
+     *            The estimated size in bytes of the object.
+     * @return The identifier of the object, or <code>-1</code> if there is
+     *         no room for it.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized long put(final Serializable value, final long size) {
+        if (storedBytes + size > budget) {
+            final Iterator<Entry> it = entries.values().iterator();
+            while (storedBytes + size > budget && it.hasNext()) {
+                final Entry e = it.next();
+                if (!e.pinned) {
+                    it.remove();
+                    storedBytes -= e.size;
+                    evictionCount++;
+                }
+            }
+            if (storedBytes + size > budget) {
+                refusedCount++;
+                return -1;
+            }
+        }
+        final long id = nextId++;
+        entries.put(id, new Entry(value, size));
+        storedBytes += size;
+        storeCount++;
+        return id;
+    }
+
+    /**
+     * Returns the object with the given identifier.
+     *
+     * @param id
+     *            The identifier of the object.
+     * @return The object, or <code>null</code> if it is no longer stored.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized Serializable get(final long id) {
+        final Entry e = entries.get(id);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.value;
+    }
+
+    /**
+     * Unpins the object with the given identifier, so that it may be evicted.
+     *
+     * @param id
+     *            The identifier of the object.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void release(final long id) {
+        final Entry e = entries.get(id);
+        if (e != null) {
+            e.pinned = false;
+        }
+    }
+
+    synchronized void printStatistics(final PrintStream s) {
+        s.println("object store: stored " + storeCount + " objects, refused "
+                + refusedCount + ", evicted " + evictionCount + "; " + hits
+                + " hits, " + misses + " misses; now holds "
+                + Utils.formatByteCount(storedBytes));
+    }
+}
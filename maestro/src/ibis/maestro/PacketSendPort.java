@@ -19,8 +19,8 @@ import java.util.Map;
 class PacketSendPort {
     static final PortType portType = new PortType(
             PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_OBJECT,
-            PortType.CONNECTION_MANY_TO_ONE, PortType.RECEIVE_AUTO_UPCALLS,
-            PortType.RECEIVE_EXPLICIT);
+            PortType.CONNECTION_MANY_TO_ONE, PortType.CONNECTION_UPCALLS,
+            PortType.RECEIVE_AUTO_UPCALLS, PortType.RECEIVE_EXPLICIT);
 
     private final Node node; // The node this runs on.
 
@@ -207,6 +207,19 @@ class PacketSendPort {
         return ok;
     }
 
+    /**
+     * Returns the average time in seconds it took to send an essential message
+     * to a remote node.
+     * 
+     * @return The average send time, or 0 if no messages were sent yet.
+     */
+    synchronized double getAverageSendTime() {
+        if (sentCount == 0) {
+            return 0.0;
+        }
+        return sendTime / sentCount;
+    }
+
     /**
      * Given a target and a message, send a message to this target if we have an
      * open connection to it. If not, don't bother.
@@ -5,8 +5,11 @@ import ibis.ipl.MessageUpcall;
 import ibis.ipl.PortType;
 import ibis.ipl.ReadMessage;
 import ibis.ipl.ReceivePort;
+import ibis.ipl.ReceivePortConnectUpcall;
+import ibis.ipl.SendPortIdentifier;
 
 import java.io.IOException;
+import java.util.HashMap;
 
 /**
  * A Receive port for packet reception.
@@ -14,16 +17,20 @@ import java.io.IOException;
  * @author Kees van Reeuwijk
  * 
  */
-class PacketUpcallReceivePort implements MessageUpcall {
+class PacketUpcallReceivePort implements MessageUpcall,
+        ReceivePortConnectUpcall {
     static final PortType portType = new PortType(
             PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_OBJECT,
-            PortType.CONNECTION_MANY_TO_ONE, PortType.RECEIVE_AUTO_UPCALLS,
-            PortType.RECEIVE_EXPLICIT);
+            PortType.CONNECTION_MANY_TO_ONE, PortType.CONNECTION_UPCALLS,
+            PortType.RECEIVE_AUTO_UPCALLS, PortType.RECEIVE_EXPLICIT);
 
     private final ReceivePort port;
 
     private final PacketReceiveListener listener;
 
+    /** For each connection, the node identifiers received over it. */
+    private final HashMap<SendPortIdentifier, MessageCodec.ReceiveTable> receiveTables = new HashMap<SendPortIdentifier, MessageCodec.ReceiveTable>();
+
     /**
      * Constructs a new PacketSendPort.
      * 
@@ -36,7 +43,17 @@ class PacketUpcallReceivePort implements MessageUpcall {
     PacketUpcallReceivePort(final Ibis ibis, final String name,
             final PacketReceiveListener listener) throws IOException {
         this.listener = listener;
-        port = ibis.createReceivePort(portType, name, this);
+        port = ibis.createReceivePort(portType, name, this, this, null);
+    }
+
+    private synchronized MessageCodec.ReceiveTable getReceiveTable(
+            final SendPortIdentifier origin) {
+        MessageCodec.ReceiveTable table = receiveTables.get(origin);
+        if (table == null) {
+            table = new MessageCodec.ReceiveTable();
+            receiveTables.put(origin, table);
+        }
+        return table;
     }
 
     /**
@@ -53,7 +70,7 @@ class PacketUpcallReceivePort implements MessageUpcall {
     public void upcall(final ReadMessage msg) throws IOException {
         Message data;
         try {
-            data = (Message) msg.readObject();
+            data = MessageCodec.readMessage(msg, getReceiveTable(msg.origin()));
             data.source = msg.origin().ibisIdentifier();
             data.arrivalMoment = Utils.getPreciseTime();
         } catch (final ClassNotFoundException e) {
@@ -66,6 +83,38 @@ class PacketUpcallReceivePort implements MessageUpcall {
         listener.messageReceived(data);
     }
 
+    /**
+     * Accept a new connection. Only public because the interface requires it.
+     * 
+     * @param receivePort
+     *            The port that is connected to.
+     * @param origin
+     *            The port that connects.
+     * @return Always <code>true</code>.
+     */
+    @Override
+    public boolean gotConnection(final ReceivePort receivePort,
+            final SendPortIdentifier origin) {
+        return true;
+    }
+
+    /**
+     * Forget the identifier table of a connection that was closed. Only public
+     * because the interface requires it.
+     * 
+     * @param receivePort
+     *            The port that was connected to.
+     * @param origin
+     *            The port that was connected.
+     * @param cause
+     *            The reason the connection was lost, if any.
+     */
+    @Override
+    public synchronized void lostConnection(final ReceivePort receivePort,
+            final SendPortIdentifier origin, final Throwable cause) {
+        receiveTables.remove(origin);
+    }
+
     /** Enable this port. */
     protected void enable() {
         port.enableMessageUpcalls();
@@ -1,5 +1,7 @@
 package ibis.maestro;
 
+import java.io.Serializable;
+
 /**
  * A class holding some administration stuff for parallel job instances.
  * 
@@ -10,9 +12,25 @@ public class ParallelJobContext {
     final RunJobMessage message;
     final double runMoment;
 
+    /**
+     * The listener to hand the result to if the instance runs as a local
+     * sub-job, or <code>null</code> if it was handed out by a master.
+     */
+    final JobCompletionListener listener;
+
+    /** The identifier to pass to the listener. */
+    final Serializable userId;
+
     ParallelJobContext(RunJobMessage message, double runMoment) {
+        this(message, runMoment, null, null);
+    }
+
+    ParallelJobContext(RunJobMessage message, double runMoment,
+            JobCompletionListener listener, Serializable userId) {
         this.message = message;
         this.runMoment = runMoment;
+        this.listener = listener;
+        this.userId = userId;
     }
 
     long [] getPrefix()
@@ -11,7 +11,7 @@ import java.util.HashMap;
  * 
  */
 public class ParallelJobHandler implements JobCompletionListener {
-    private final Node localNode;
+    private final SubjobExecutor executor;
 
     /** The next id to hand out. */
     private long nextHandlerId = 0;
@@ -24,11 +24,12 @@ public class ParallelJobHandler implements JobCompletionListener {
     private final HashMap<Long, ParallelJobInstance> runningInstance = new HashMap<Long, ParallelJobInstance>();
 
     /**
-     * @param localNode
-     *            The node we are running on.
+     * @param executor
+     *            The executor of the sub-jobs, normally the node we are
+     *            running on.
      */
-    ParallelJobHandler(Node localNode) {
-        this.localNode = localNode;
+    ParallelJobHandler(SubjobExecutor executor) {
+        this.executor = executor;
     }
 
     /**
@@ -62,7 +63,8 @@ public class ParallelJobHandler implements JobCompletionListener {
     /**
      * Submits a new job instance with the given input. Internally we keep track
      * of the number of submitted jobs so that we can wait for all of them to
-     * complete.
+     * complete. If distributing the job would not pay off, it is run right
+     * away on the current thread.
      * 
      * @param input
      *            Input for the job.
@@ -74,17 +76,91 @@ public class ParallelJobHandler implements JobCompletionListener {
      *            The job to submit to.
      */
     @SuppressWarnings("synthetic-access")
-    public synchronized void submit(Serializable input,
-            ParallelJobInstance jobInstance, Serializable userId, Job job) {
-        final long serial = nextHandlerId++;
-        final Serializable id = new Id(userId, serial);
-        runningInstance.put(serial, jobInstance);
+    public void submit(Serializable input, ParallelJobInstance jobInstance,
+            Serializable userId, Job job) {
+        final Serializable id;
+        synchronized (this) {
+            final long serial = nextHandlerId++;
+            id = new Id(userId, serial);
+            runningInstance.put(serial, jobInstance);
+        }
         if (Settings.traceParallelJobs) {
             Globals.log.reportProgress("ParallelJobHandler: Submitting " + id
                     + " to " + job);
         }
         final long prefix[] = jobInstance.getPrefix();
-        localNode.submitSubjob(prefix, input, id, this, job);
+        // Don't hold our lock here: a local sub-job completes before
+        // this call returns, and may be a parallel job itself.
+        if (executor.shouldRunSubjobLocally(job)) {
+            executor.runSubjobLocally(prefix, input, id, this, job,
+                    jobInstance.getPriority(), jobInstance.getDeadline());
+        } else {
+            executor.submitSubjob(prefix, input, id, this, job, jobInstance
+                    .getPriority(), jobInstance.getDeadline());
+        }
+    }
+
+    /**
+     * Runs the given parallel sub-job on the current thread: creates an
+     * instance of it, splits it, and hands on its result once it is ready.
+     * 
+     * @param node
+     *            The node we're running on.
+     * @param job
+     *            The parallel job.
+     * @param jobInstance
+     *            The sub-job to run.
+     * @param runMoment
+     *            The moment the sub-job was started.
+     * @param listener
+     *            The listener to hand the result to.
+     * @param userId
+     *            The identifier to pass to the listener.
+     */
+    void runLocally(final Node node, final ParallelJob job,
+            final JobInstance jobInstance, final double runMoment,
+            final JobCompletionListener listener, final Serializable userId) {
+        final ParallelJobContext context = new ParallelJobContext(
+                new RunJobMessage(jobInstance, -1), runMoment, listener,
+                userId);
+        final ParallelJobInstance instance = job.createInstance(context);
+        instance.split(jobInstance.input, this);
+        finishSplit(node, instance);
+    }
+
+    /**
+     * Returns true iff the result of the given instance should be handed on
+     * now: its split method has returned, all its results are merged, and
+     * the result was not handed on before.
+     */
+    private static boolean claimResult(final ParallelJobInstance instance) {
+        if (instance.splitDone && !instance.resultHandled
+                && instance.resultIsReady()) {
+            instance.resultHandled = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registers that the split method of the given instance has returned. The
+     * results of sub-jobs that completed during the split are only handed on
+     * from here, so that the result of the instance is handed on once.
+     * 
+     * @param node
+     *            The node we're running on.
+     * @param instance
+     *            The instance that was split.
+     */
+    void finishSplit(final Node node, final ParallelJobInstance instance) {
+        final boolean ready;
+        synchronized (this) {
+            instance.splitDone = true;
+            ready = claimResult(instance);
+        }
+        if (ready) {
+            instance.handleJobResult(node, instance.getResult());
+        }
     }
 
     /**
@@ -100,8 +176,7 @@ public class ParallelJobHandler implements JobCompletionListener {
      */
     @SuppressWarnings("synthetic-access")
     @Override
-    public synchronized void jobCompleted(Node node, Object userId,
-            Serializable result) {
+    public void jobCompleted(Node node, Object userId, Serializable result) {
         if (Settings.traceParallelJobs) {
             Globals.log
                     .reportProgress("ParallelJobHandler: got back " + userId);
@@ -113,16 +188,19 @@ public class ParallelJobHandler implements JobCompletionListener {
             return;
         }
         final Id id = (Id) userId;
-        final ParallelJobInstance instance = runningInstance.get(id.serial);
-
-        if (instance != null) {
-            runningInstance.remove(id.serial);
+        final ParallelJobInstance instance;
+        final Serializable mergedResult;
+        synchronized (this) {
+            instance = runningInstance.remove(id.serial);
+            if (instance == null) {
+                return;
+            }
             instance.merge(id.userID, result);
-
-            if (instance.resultIsReady()) {
-                final Serializable mergedResult = instance.getResult();
-                instance.handleJobResult(node, mergedResult);
+            if (!claimResult(instance)) {
+                return;
             }
+            mergedResult = instance.getResult();
         }
+        instance.handleJobResult(node, mergedResult);
     }
 }
@@ -11,6 +11,14 @@ import java.io.Serializable;
 public abstract class ParallelJobInstance {
     private final RunJobMessage message;
     private final double runMoment;
+    private final JobCompletionListener listener;
+    private final Serializable userId;
+
+    /** Set once the split method has returned. */
+    boolean splitDone = false;
+
+    /** Set once the result has been handed on. */
+    boolean resultHandled = false;
 
     /**
      * Constructs a new instance.
@@ -19,11 +27,18 @@ public abstract class ParallelJobInstance {
     public ParallelJobInstance(ParallelJobContext context) {
         this.message = context.message;
         this.runMoment = context.runMoment;
+        this.listener = context.listener;
+        this.userId = context.userId;
     }
 
     void handleJobResult(Node node,Serializable result)
     {
-        node.handleJobResult(message, result, runMoment);
+        if (listener != null) {
+            // We ran as a local sub-job.
+            listener.jobCompleted(node, userId, result);
+        } else {
+            node.handleJobResult(message, result, runMoment);
+        }
     }
 
     /**
@@ -68,4 +83,12 @@ public abstract class ParallelJobInstance {
 		return message.jobInstance.jobInstance.ids;
 	}
 
+	int getPriority() {
+		return message.jobInstance.priority;
+	}
+
+	long getDeadline() {
+		return message.jobInstance.deadline;
+	}
+
 }
@@ -0,0 +1,209 @@
+package ibis.maestro;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the serialized size of a job input or result by walking the
+ * object graph. Primitive arrays and strings are counted exactly, other
+ * objects are walked through their non-transient fields. The walk stops as
+ * soon as the given limit is reached, so that for large payloads only a small
+ * part of the object graph is inspected.
+ *
+ * The fields of every class are only inspected once. Fields we are not
+ * allowed to look into, such as the private fields of JDK classes on newer
+ * platforms, are counted as a single reference.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class PayloadSizeEstimator {
+    /** The maximal number of objects we inspect for one estimate. */
+    private static final int MAXIMAL_VISITS = 1000;
+
+    /** The assumed size of an object header or reference. */
+    private static final long OBJECT_OVERHEAD = 8;
+
+    /** For each class we have seen, the fields we walk. */
+    private static final ConcurrentHashMap<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<Class<?>, ClassLayout>();
+
+    /** The size of the fields of a class that we don't walk into. */
+    private static final class ClassLayout {
+        /** The size of the primitive and inaccessible fields. */
+        private final long fixedSize;
+
+        /** The accessible reference fields. */
+        private final Field references[];
+
+        private ClassLayout(final long fixedSize, final Field references[]) {
+            this.fixedSize = fixedSize;
+            this.references = references;
+        }
+    }
+
+    private final IdentityHashMap<Object, Object> visited = new IdentityHashMap<Object, Object>();
+
+    private final long limit;
+
+    private long size = 0;
+
+    private PayloadSizeEstimator(final long limit) {
+        this.limit = limit;
+    }
+
+    private static long getPrimitiveSize(final Class<?> c) {
+        if (c == byte.class || c == boolean.class) {
+            return 1;
+        }
+        if (c == short.class || c == char.class) {
+            return 2;
+        }
+        if (c == int.class || c == float.class) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private static boolean makeAccessible(final Field f) {
+        try {
+            f.setAccessible(true);
+            return true;
+        } catch (final RuntimeException x) {
+            // A SecurityException, or on newer platforms an
+            // InaccessibleObjectException for a field of a JDK class.
+            return false;
+        }
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private static ClassLayout getLayout(final Class<?> c) {
+        ClassLayout res = layouts.get(c);
+        if (res != null) {
+            return res;
+        }
+        long fixedSize = 0;
+        final ArrayList<Field> references = new ArrayList<Field>();
+        Class<?> cl = c;
+        while (cl != null && cl != Object.class) {
+            Field fields[];
+            try {
+                fields = cl.getDeclaredFields();
+            } catch (final SecurityException x) {
+                fields = new Field[0];
+                fixedSize += OBJECT_OVERHEAD;
+            }
+            for (final Field f : fields) {
+                final int mod = f.getModifiers();
+                if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) {
+                    continue;
+                }
+                final Class<?> t = f.getType();
+                if (t.isPrimitive()) {
+                    fixedSize += getPrimitiveSize(t);
+                } else if (makeAccessible(f)) {
+                    references.add(f);
+                } else {
+                    fixedSize += OBJECT_OVERHEAD;
+                }
+            }
+            cl = cl.getSuperclass();
+        }
+        res = new ClassLayout(fixedSize, references
+                .toArray(new Field[references.size()]));
+        layouts.putIfAbsent(c, res);
+        return res;
+    }
+
+    @SuppressWarnings("synthetic-access")
+    private void walk(final Object o) {
+        if (o == null || size >= limit || visited.size() >= MAXIMAL_VISITS
+                || visited.put(o, o) != null) {
+            return;
+        }
+        size += OBJECT_OVERHEAD;
+        final Class<?> c = o.getClass();
+        if (c.isArray()) {
+            final Class<?> elementType = c.getComponentType();
+            final int length = Array.getLength(o);
+            if (elementType.isPrimitive()) {
+                size += length * getPrimitiveSize(elementType);
+            } else {
+                final Object l[] = (Object[]) o;
+                for (final Object e : l) {
+                    walk(e);
+                    if (size >= limit) {
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+        if (o instanceof String) {
+            size += 2 * ((String) o).length();
+            return;
+        }
+        if (o instanceof Number || o instanceof Boolean
+                || o instanceof Character) {
+            size += 8;
+            return;
+        }
+        if (o instanceof Collection<?>) {
+            for (final Object e : (Collection<?>) o) {
+                walk(e);
+                if (size >= limit) {
+                    return;
+                }
+            }
+            return;
+        }
+        if (o instanceof Map<?, ?>) {
+            for (final Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+                walk(e.getKey());
+                walk(e.getValue());
+                if (size >= limit) {
+                    return;
+                }
+            }
+            return;
+        }
+        final ClassLayout layout = getLayout(c);
+        size += layout.fixedSize;
+        for (final Field f : layout.references) {
+            try {
+                walk(f.get(o));
+            } catch (final IllegalAccessException x) {
+                // We're not allowed to look inside; treat it as small.
+                size += OBJECT_OVERHEAD;
+            } catch (final RuntimeException x) {
+                // Idem.
+                size += OBJECT_OVERHEAD;
+            }
+            if (size >= limit) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns an estimate of the serialized size in bytes of the given
+     * object. Once the estimate reaches the given limit the walk stops, so for
+     * large objects the returned size is only known to be at least the limit.
+     * Object graphs with very many small objects are underestimated.
+     *
+     * @param o
+     *            The object to estimate the size of.
+     * @param limit
+     *            The size at which we stop estimating.
+     * @return The estimated size in bytes.
+     */
+    static long estimate(final Object o, final long limit) {
+        final PayloadSizeEstimator e = new PayloadSizeEstimator(limit);
+        e.walk(o);
+        return e.size;
+    }
+}
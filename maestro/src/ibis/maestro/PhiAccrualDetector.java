@@ -0,0 +1,287 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A phi-accrual failure detector. For every node we record the intervals
+ * between the periodic messages that arrive from it: its gossip. Other
+ * messages, such as job acknowledgements, arrive in bursts, and would spoil
+ * the distribution of the intervals; they only show that the node is still
+ * alive. From the mean and the standard deviation of the recent intervals,
+ * and the time since the last message of any kind, we compute how unlikely
+ * the current silence of a node is:
+ * <code>phi</code> is the negative base-10 logarithm of the probability that
+ * the next message still arrives. Once <code>phi</code> exceeds
+ * {@link Settings#PHI_SUSPICION_THRESHOLD} the node is suspected, without
+ * waiting for a send to it to fail.
+ *
+ * A node that is suspected, but then sends a message after all, was a false
+ * positive. The detector keeps statistics of these, and of the time between
+ * the last message of a node and the moment it was suspected.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class PhiAccrualDetector {
+    private final IbisIdentifier localIbis;
+
+    private final HashMap<IbisIdentifier, History> histories = new HashMap<IbisIdentifier, History>();
+
+    private long suspicions = 0;
+
+    private long falsePositives = 0;
+
+    private long confirmedFailures = 0;
+
+    /** The total time in ms between the last message and the suspicion. */
+    private long totalDetectionLatency = 0;
+
+    private long maximalDetectionLatency = 0;
+
+    /** The recent arrivals of a node. */
+    private static final class History {
+        /**
+         * The recent intervals between periodic arrivals in ms, a ring
+         * buffer.
+         */
+        private final long intervals[] = new long[Settings.PHI_WINDOW_SIZE];
+
+        private int count = 0;
+
+        private int next = 0;
+
+        private double sum = 0;
+
+        private double sumOfSquares = 0;
+
+        /** The moment in ms of the last arrival of any kind. */
+        private long lastArrival;
+
+        /**
+         * The moment in ms of the last periodic arrival, or <code>-1</code>
+         * if there wasn't one yet.
+         */
+        private long lastPeriodicArrival = -1;
+
+        /** The time in ms that is added to the mean interval. */
+        private final long allowance;
+
+        private boolean suspected = false;
+
+        private History(final long now, final long allowance) {
+            lastArrival = now;
+            this.allowance = allowance;
+        }
+
+        private void addInterval(final long interval) {
+            if (count == intervals.length) {
+                final long old = intervals[next];
+                sum -= old;
+                sumOfSquares -= (double) old * old;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        private double getPhi(final long now) {
+            if (count < Settings.PHI_MINIMAL_SAMPLES) {
+                return 0.0;
+            }
+            final double mean = sum / count;
+            final double variance = Math.max(0.0, sumOfSquares / count - mean
+                    * mean);
+            final double stdDeviation = Math.max(
+                    Settings.PHI_MINIMAL_STD_DEVIATION, Math.sqrt(variance));
+            return computePhi(now - lastArrival, mean + allowance,
+                    stdDeviation);
+        }
+    }
+
+    /**
+     * @param localIbis
+     *            The local node, or <code>null</code> if it isn't known.
+     */
+    PhiAccrualDetector(final IbisIdentifier localIbis) {
+        this.localIbis = localIbis;
+    }
+
+    /**
+     * Returns the time in ms that is added to the mean arrival interval of
+     * the given node. The gossip interval of a node may grow by
+     * {@link Settings#GOSSIP_INTERVAL_BACKOFF_LIMIT} in adaptive gossip, which
+     * would otherwise look like a failure; this also covers garbage
+     * collection pauses.
+     * 
+     * @param localIbis
+     *            The local node, or <code>null</code> if it isn't known.
+     * @param ibis
+     *            The node.
+     * @return The allowance in ms.
+     */
+    static long computeAllowance(final IbisIdentifier localIbis,
+            final IbisIdentifier ibis) {
+        final long interval;
+        if (localIbis == null || Utils.areInSameCluster(localIbis, ibis)) {
+            interval = Settings.GOSSIP_EXPIRATION_IN_CLUSTER;
+        } else {
+            interval = Settings.GOSSIP_EXPIRATION_BETWEEN_CLUSTERS;
+        }
+        if (Settings.ADAPTIVE_GOSSIP) {
+            return interval * Settings.GOSSIP_INTERVAL_BACKOFF_LIMIT;
+        }
+        return interval;
+    }
+
+    /**
+     * Computes phi for the given time since the last arrival, using a
+     * logistic approximation of the cumulative normal distribution.
+     *
+     * @param elapsed
+     *            The time since the last arrival.
+     * @param mean
+     *            The mean interval between arrivals.
+     * @param stdDeviation
+     *            The standard deviation of the intervals.
+     * @return The value of phi.
+     */
+    static double computePhi(final double elapsed, final double mean,
+            final double stdDeviation) {
+        final double y = (elapsed - mean) / stdDeviation;
+        final double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * Registers the arrival of a message from the given node.
+     *
+     * @param ibis
+     *            The node the message came from.
+     * @param now
+     *            The current time in ms.
+     * @param periodic
+     *            True iff this is a periodic message, such as gossip, whose
+     *            intervals are recorded.
+     * @return True iff the node was suspected.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized boolean registerArrival(final IbisIdentifier ibis,
+            final long now, final boolean periodic) {
+        History h = histories.get(ibis);
+        if (h == null) {
+            h = new History(now, computeAllowance(localIbis, ibis));
+            histories.put(ibis, h);
+        }
+        final boolean wasSuspected = h.suspected;
+        if (wasSuspected) {
+            // The node is still alive after all; the silence doesn't tell
+            // us anything about its normal intervals.
+            falsePositives++;
+            h.suspected = false;
+        } else if (periodic && h.lastPeriodicArrival >= 0) {
+            h.addInterval(now - h.lastPeriodicArrival);
+        }
+        if (periodic) {
+            h.lastPeriodicArrival = now;
+        }
+        h.lastArrival = Math.max(h.lastArrival, now);
+        return wasSuspected;
+    }
+
+    /**
+     * Returns the current value of phi for the given node.
+     *
+     * @param ibis
+     *            The node.
+     * @param now
+     *            The current time in ms.
+     * @return The value of phi, or <code>0</code> if we don't know enough
+     *         about the node.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized double getPhi(final IbisIdentifier ibis, final long now) {
+        final History h = histories.get(ibis);
+        if (h == null) {
+            return 0.0;
+        }
+        return h.getPhi(now);
+    }
+
+    /**
+     * Returns the nodes whose value of phi has exceeded the threshold since
+     * the previous invocation, and registers them as suspected.
+     *
+     * @param now
+     *            The current time in ms.
+     * @return The newly suspected nodes.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized ArrayList<IbisIdentifier> getNewSuspects(final long now) {
+        final ArrayList<IbisIdentifier> res = new ArrayList<IbisIdentifier>();
+        for (final Map.Entry<IbisIdentifier, History> e : histories.entrySet()) {
+            final History h = e.getValue();
+            if (!h.suspected
+                    && h.getPhi(now) > Settings.PHI_SUSPICION_THRESHOLD) {
+                h.suspected = true;
+                final long latency = now - h.lastArrival;
+                suspicions++;
+                totalDetectionLatency += latency;
+                maximalDetectionLatency = Math.max(maximalDetectionLatency,
+                        latency);
+                res.add(e.getKey());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Forgets the given node, since it has left the computation.
+     *
+     * @param ibis
+     *            The node that has left.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void removeNode(final IbisIdentifier ibis) {
+        final History h = histories.remove(ibis);
+        if (h != null && h.suspected) {
+            confirmedFailures++;
+        }
+    }
+
+    synchronized long getSuspicionCount() {
+        return suspicions;
+    }
+
+    synchronized long getFalsePositiveCount() {
+        return falsePositives;
+    }
+
+    /**
+     * Returns the average time between the last message of a node and the
+     * moment it was suspected.
+     *
+     * @return The average detection latency in ms.
+     */
+    synchronized double getAverageDetectionLatency() {
+        return suspicions == 0 ? 0.0 : (double) totalDetectionLatency
+                / suspicions;
+    }
+
+    synchronized void printStatistics(final PrintStream s) {
+        s.println("failure detector: " + suspicions + " suspicions, "
+                + falsePositives + " false positives, " + confirmedFailures
+                + " confirmed failures; detection latency average "
+                + String.format("%.0f", getAverageDetectionLatency())
+                + " ms, maximal " + maximalDetectionLatency + " ms");
+    }
+}
@@ -0,0 +1,269 @@
+package ibis.maestro;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The results of cacheable jobs that were executed on this node, keyed by job
+ * type and a content hash of the serialized input. The size of the cache is
+ * bounded by a byte budget; results are evicted in least-recently-used order.
+ *
+ * The contents of the cache are summarized in a Bloom filter that is sent
+ * along with the gossip, so that masters can send jobs with an input that has
+ * been seen before to a node that has the result. The filter is sized to the
+ * number of cached results, and is rebuilt at most once every
+ * {@link Settings#RESULT_CACHE_SUMMARY_INTERVAL} ms.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class ResultCache {
+    /** The number of bits we set in the summary for each key. */
+    private static final int SUMMARY_HASHES = 3;
+
+    private final long budget;
+
+    private long cachedBytes = 0;
+
+    private int hits = 0;
+
+    private int misses = 0;
+
+    private int evictions = 0;
+
+    /** The summary of the current contents, or <code>null</code> if stale. */
+    private long summary[] = null;
+
+    /** The moment in ms the summary was last published. */
+    private long summaryMoment = 0L;
+
+    /** True iff the contents have changed since the last publication. */
+    private boolean changed = false;
+
+    /** The key of a cached result. */
+    static final class Key {
+        private final int typeIndex;
+
+        private final byte digest[];
+
+        /** A 64-bit fingerprint of the key, used for the summary. */
+        final long fingerprint;
+
+        private Key(final int typeIndex, final byte digest[]) {
+            this.typeIndex = typeIndex;
+            this.digest = digest;
+            long v = 0;
+            for (int i = 0; i < 8 && i < digest.length; i++) {
+                v = (v << 8) | (digest[i] & 0xFF);
+            }
+            fingerprint = v ^ (typeIndex * 0x9E3779B97F4A7C15L);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fingerprint ^ (fingerprint >>> 32));
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return typeIndex == other.typeIndex
+                    && Arrays.equals(digest, other.digest);
+        }
+    }
+
+    private static final class Entry {
+        private final Serializable result;
+
+        private final long size;
+
+        private Entry(final Serializable result, final long size) {
+            this.result = result;
+            this.size = size;
+        }
+    }
+
+    /** Discards everything that is written to it. */
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) {
+            // Discard.
+        }
+
+        @Override
+        public void write(final byte b[], final int off, final int len) {
+            // Discard.
+        }
+    }
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+            16, 0.75f, true);
+
+    ResultCache(final long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Computes the cache key of a job of the given type with the given input.
+     *
+     * @param type
+     *            The type of the job.
+     * @param input
+     *            The input of the job.
+     * @return The key, or <code>null</code> if the input cannot be hashed.
+     */
+    @SuppressWarnings("synthetic-access")
+    static Key computeKey(final JobType type, final Serializable input) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final ObjectOutputStream out = new ObjectOutputStream(
+                    new DigestOutputStream(new NullOutputStream(), digest));
+            out.writeObject(input);
+            out.close();
+            return new Key(type.index, digest.digest());
+        } catch (final NoSuchAlgorithmException x) {
+            Globals.log.reportInternalError("No SHA-1 digest available: "
+                    + x.getLocalizedMessage());
+        } catch (final IOException x) {
+            // Not serializable after all, don't cache it.
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached result for the given key.
+     *
+     * @param key
+     *            The key to look up.
+     * @return The result, or <code>null</code> if it is not cached.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized Serializable get(final Key key) {
+        final Entry e = entries.get(key);
+        if (e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.result;
+    }
+
+    /**
+     * Adds the given result to the cache, evicting old results if necessary.
+     *
+     * @param key
+     *            The key of the result.
+     * @param result
+     *            The result.
+     */
+    @SuppressWarnings("synthetic-access")
+    synchronized void put(final Key key, final Serializable result) {
+        final long size = PayloadSizeEstimator.estimate(result, budget + 1);
+        if (size > budget || entries.containsKey(key)) {
+            return;
+        }
+        final Iterator<Entry> it = entries.values().iterator();
+        while (cachedBytes + size > budget && it.hasNext()) {
+            final Entry e = it.next();
+            it.remove();
+            cachedBytes -= e.size;
+            evictions++;
+        }
+        entries.put(key, new Entry(result, size));
+        cachedBytes += size;
+        summary = null;
+        changed = true;
+    }
+
+    private static int getSummaryBit(final long fingerprint, final int i,
+            final int bits) {
+        final long h = (fingerprint >>> 32) + i * (fingerprint & 0xFFFFFFFFL);
+        return (int) ((h & Long.MAX_VALUE) % bits);
+    }
+
+    /**
+     * Returns a summary of the current contents of the cache.
+     *
+     * @return The summary.
+     */
+    synchronized long[] getSummary() {
+        if (summary == null) {
+            final int words = (entries.size()
+                    * Settings.RESULT_CACHE_SUMMARY_BITS_PER_ENTRY + 63) / 64;
+            final int bits = words * 64;
+            final long res[] = new long[words];
+            for (final Key k : entries.keySet()) {
+                for (int i = 0; i < SUMMARY_HASHES; i++) {
+                    final int b = getSummaryBit(k.fingerprint, i, bits);
+                    res[b / 64] |= 1L << (b % 64);
+                }
+            }
+            summary = res;
+        }
+        return summary;
+    }
+
+    /**
+     * Returns the summary of the cache if it should be published: the
+     * contents have changed since the previous publication, and that was
+     * long enough ago.
+     *
+     * @param now
+     *            The current time in ms.
+     * @return The summary, or <code>null</code> if there is nothing to
+     *         publish.
+     */
+    synchronized long[] getNewSummary(final long now) {
+        if (!changed
+                || now - summaryMoment < Settings.RESULT_CACHE_SUMMARY_INTERVAL) {
+            return null;
+        }
+        changed = false;
+        summaryMoment = now;
+        return getSummary();
+    }
+
+    /**
+     * Returns true iff the cache with the given summary may contain the
+     * result for the given key.
+     *
+     * @param summary
+     *            The summary of a cache, or <code>null</code>.
+     * @param key
+     *            The key to look for.
+     * @return True iff the result may be in the cache.
+     */
+    static boolean mayContain(final long summary[], final Key key) {
+        if (summary == null || summary.length == 0) {
+            return false;
+        }
+        final int bits = summary.length * 64;
+        for (int i = 0; i < SUMMARY_HASHES; i++) {
+            final int b = getSummaryBit(key.fingerprint, i, bits);
+            if ((summary[b / 64] & (1L << (b % 64))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized void printStatistics(final PrintStream s) {
+        s.println("result cache: " + hits + " hits, " + misses + " misses, "
+                + evictions + " evictions; holds " + entries.size()
+                + " results, " + Utils.formatByteCount(cachedBytes));
+    }
+}
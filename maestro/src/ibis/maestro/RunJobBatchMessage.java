@@ -0,0 +1,36 @@
+package ibis.maestro;
+
+/**
+ * Tell the worker to execute all jobs contained in this message. A master
+ * uses this message instead of a series of <code>RunJobMessage</code>s when it
+ * has selected the same worker for a number of jobs.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class RunJobBatchMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The jobs to run, in the order they were selected by the master. */
+    final RunJobMessage messages[];
+
+    /**
+     * Given a list of job messages, constructs a new batch message.
+     * 
+     * @param messages
+     *            The jobs to run.
+     */
+    RunJobBatchMessage(final RunJobMessage messages[]) {
+        this.messages = messages;
+    }
+
+    /**
+     * Returns a string representation of this batch message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "Batch of " + messages.length + " job messages";
+    }
+}
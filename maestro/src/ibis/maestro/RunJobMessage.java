@@ -14,6 +14,9 @@ final class RunJobMessage extends Message {
 
     final long jobId;
 
+    /** The key of this job in the worker queue; see {@link FairShare}. */
+    transient long queueKey;
+
     /**
      * Given a job and its source, constructs a new RunJobMessage.
      * 
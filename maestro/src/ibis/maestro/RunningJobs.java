@@ -25,6 +25,25 @@ class RunningJobs {
         return null;
     }
 
+    /**
+     * Returns the submitted job with the given identifier, and restarts its
+     * late-job timer.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @return The job, or <code>null</code> if it is no longer running.
+     */
+    synchronized JobInstance restart(JobInstanceIdentifier id) {
+        for (int i = 0; i < runningJobs.size(); i++) {
+            final SubmittedJobInfo job = runningJobs.get(i);
+            if (job.identifier.equals(id)) {
+                job.startTime = Utils.getPreciseTime();
+                return job.jobInstance;
+            }
+        }
+        return null;
+    }
+
     /** Returns the earliest late job. */
     synchronized JobInstance getLateJob() {
         SubmittedJobInfo earliest = null;
@@ -45,7 +64,15 @@ class RunningJobs {
         return earliest.jobInstance;
     }
 
-    synchronized void clear() {
+    /**
+     * Removes all running jobs.
+     * 
+     * @return The jobs that were removed.
+     */
+    synchronized ArrayList<SubmittedJobInfo> clear() {
+        final ArrayList<SubmittedJobInfo> res = new ArrayList<SubmittedJobInfo>(
+                runningJobs);
         runningJobs.clear();
+        return res;
     }
 }
@@ -0,0 +1,33 @@
+package ibis.maestro;
+
+/**
+ * A thread that hands out jobs from the master queue of a Maestro node.
+ * 
+ * @author Kees van Reeuwijk.
+ */
+final class SchedulerThread extends Thread {
+    private final Node node;
+
+    /**
+     * Given a node, constructs a new scheduler thread for it.
+     * 
+     * @param node
+     *            The local node.
+     */
+    SchedulerThread(Node node) {
+        super("Scheduler thread");
+        setDaemon(true);
+        this.node = node;
+    }
+
+    /**
+     * Run this thread: keep handing out jobs until the node stops.
+     */
+    @Override
+    public void run() {
+        node.runSchedulerThread();
+        if (Settings.traceNodeProgress) {
+            Globals.log.reportProgress("Scheduler thread " + this + " ended");
+        }
+    }
+}
@@ -9,7 +9,7 @@ package ibis.maestro;
  */
 
 import ibis.ipl.IbisIdentifier;
-import ibis.ipl.SendPort;
+import ibis.ipl.PortType;
 
 import java.io.PrintStream;
 import java.util.LinkedHashMap;
@@ -38,6 +38,12 @@ class SendPortCache extends
 
     private int evictions = 0;
 
+    /** The type of the ports in this cache. */
+    private final PortType portType;
+
+    /** The name of the receive port the ports in this cache connect to. */
+    private final String portName;
+
     /**
      * Creates a new LRU cache.
      * 
@@ -46,12 +52,33 @@ class SendPortCache extends
      * @param theMaximalUnusedCount
      *            The maximal number of cache accesses this port is not used
      *            before it is evicted.
+     * @param portType
+     *            The type of the ports in this cache.
+     * @param portName
+     *            The name of the receive port to connect to.
      */
-    SendPortCache(final int cacheSize, final int theMaximalUnusedCount) {
+    SendPortCache(final int cacheSize, final int theMaximalUnusedCount,
+            final PortType portType, final String portName) {
         super((int) Math.ceil(cacheSize / hashTableLoadFactor) + 1,
                 hashTableLoadFactor, true);
         this.maximalUnusedCount = theMaximalUnusedCount;
         this.cacheSize = cacheSize;
+        this.portType = portType;
+        this.portName = portName;
+    }
+
+    /**
+     * Creates a new LRU cache for the normal ports of the nodes.
+     * 
+     * @param cacheSize
+     *            the maximum number of entries that will be kept in this cache.
+     * @param theMaximalUnusedCount
+     *            The maximal number of cache accesses this port is not used
+     *            before it is evicted.
+     */
+    SendPortCache(final int cacheSize, final int theMaximalUnusedCount) {
+        this(cacheSize, theMaximalUnusedCount, PacketSendPort.portType,
+                Globals.receivePortName);
     }
 
     @Override
@@ -76,28 +103,30 @@ class SendPortCache extends
     }
 
     /**
-     * Given an ibis identifier, return a SendPort for that ibis. The SendPort
-     * may exist already, or it may be newly created.
+     * Given an ibis identifier, return the connection info for that ibis. The
+     * SendPort in it may exist already, or it may be newly created.
      * 
      * @param ibis
      *            The ibis for which we want a SendPort
-     * @return The SendPort, or <code>null</code> if the ibis could not be
-     *         reached.
+     * @return The connection info; its send port is <code>null</code> if the
+     *         ibis could not be reached.
      */
-    synchronized SendPort getSendPort(IbisIdentifier ibis) {
+    synchronized SendPortCacheConnectionInfo getConnection(IbisIdentifier ibis) {
         SendPortCacheConnectionInfo info = get(ibis);
 
         if (info == null) {
-            info = new SendPortCacheConnectionInfo();
+            info = new SendPortCacheConnectionInfo(portType, portName);
             put(ibis, info);
             misses++;
         } else {
             hits++;
         }
-        return info.getPort(ibis, useCount++);
+        info.getPort(ibis, useCount++);
+        return info;
     }
 
-    synchronized SendPort getExistingSendPort(IbisIdentifier ibis) {
+    synchronized SendPortCacheConnectionInfo getExistingConnection(
+            IbisIdentifier ibis) {
         SendPortCacheConnectionInfo info;
 
         info = get(ibis);
@@ -106,7 +135,8 @@ class SendPortCache extends
             return null;
         }
         nonEssentialHits++;
-        return info.getPort(ibis, useCount++);
+        info.getPort(ibis, useCount++);
+        return info;
     }
 
     void closeSendPort(IbisIdentifier ibis) {
@@ -122,8 +152,8 @@ class SendPortCache extends
     synchronized void printStatistics(PrintStream s) {
         s
                 .printf(
-                        "sendport cache: %d hits, of which %d non-essential, %d misses, %d evictions\n",
-                        nonEssentialHits + hits, nonEssentialHits, misses,
+                        "sendport cache for %s: %d hits, of which %d non-essential, %d misses, %d evictions\n",
+                        portName, nonEssentialHits + hits, nonEssentialHits, misses,
                         evictions);
     }
 }
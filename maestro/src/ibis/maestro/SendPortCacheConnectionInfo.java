@@ -1,22 +1,36 @@
 package ibis.maestro;
 
 import ibis.ipl.IbisIdentifier;
+import ibis.ipl.PortType;
 import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
 
 import java.io.IOException;
 
 final class SendPortCacheConnectionInfo {
+    private final PortType portType;
+
+    private final String portName;
+
     private SendPort port;
 
     private int mostRecentUse = 0;
 
+    /** The node identifiers that were sent over the current port. */
+    private MessageCodec.SendTable sendTable = null;
+
+    SendPortCacheConnectionInfo(PortType portType, String portName) {
+        this.portType = portType;
+        this.portName = portName;
+    }
+
     synchronized SendPort getPort(IbisIdentifier ibis, int useCount) {
         if (port == null) {
             try {
-                port = Globals.localIbis
-                        .createSendPort(PacketSendPort.portType);
-                port.connect(ibis, Globals.receivePortName,
+                port = Globals.localIbis.createSendPort(portType);
+                port.connect(ibis, portName,
                         Settings.ESSENTIAL_COMMUNICATION_TIMEOUT, true);
+                sendTable = new MessageCodec.SendTable(true);
             } catch (IOException x) {
                 try {
                     if (port != null) {
@@ -32,6 +46,35 @@ final class SendPortCacheConnectionInfo {
         return port;
     }
 
+    synchronized SendPort getSendPort() {
+        return port;
+    }
+
+    /**
+     * Writes the given message to the given write message of the port of
+     * this connection, using the identifier table of this connection.
+     * 
+     * @param msg
+     *            The write message to fill.
+     * @param message
+     *            The message to write.
+     * @throws IOException
+     *             Thrown if the message could not be written.
+     */
+    void writeMessage(WriteMessage msg, Message message) throws IOException {
+        MessageCodec.SendTable table;
+        synchronized (this) {
+            table = sendTable;
+        }
+        if (table == null) {
+            // The port was closed under our feet; don't intern anything.
+            table = new MessageCodec.SendTable(false);
+        }
+        synchronized (table) {
+            MessageCodec.writeMessage(msg, table, message);
+        }
+    }
+
     synchronized void close() {
         if (port != null) {
             try {
@@ -40,6 +83,7 @@ final class SendPortCacheConnectionInfo {
                 // Nothing we can do.
             }
             port = null;
+            sendTable = null;
         }
     }
 
@@ -18,12 +18,80 @@ class Settings {
     /** Do we cache connections? */
     static final boolean CACHE_CONNECTIONS = true;
 
+    /**
+     * Do we write messages with their explicit binary layout, instead of with
+     * object serialization?
+     */
+    static final boolean USE_MESSAGE_CODEC = true;
+
     /** The number of connections we maximally keep open. */
     static final int CONNECTION_CACHE_SIZE = 200;
 
     /** How many cache accesses unused before the entry is evicted. */
     static final int CONNECTION_CACHE_MAXIMAL_UNUSED_COUNT = 200;
 
+    /**
+     * If set, messages with a large job input or result are sent over a
+     * separate connection, so that they don't delay the small control and
+     * gossip messages.
+     */
+    static final boolean BULK_LANE = true;
+
+    /**
+     * The estimated payload size in bytes from which a message is sent over the
+     * bulk lane.
+     */
+    static final long BULK_MESSAGE_THRESHOLD = 256 * 1024;
+
+    /**
+     * The size in bytes of the chunks in which a message is sent over the bulk
+     * lane. Other bulk messages to the same node can be interleaved between
+     * chunks.
+     */
+    static final int BULK_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * If set, large intermediate results of series jobs stay on the node that
+     * produced them, and the node that executes the next stage fetches them
+     * from there. Only a handle travels with the job.
+     */
+    static final boolean DATA_PLANE = false;
+
+    /**
+     * The estimated size in bytes from which an intermediate result is kept in
+     * the object store of the data plane.
+     */
+    static final long DATA_PLANE_THRESHOLD = 1024 * 1024;
+
+    /** The maximal number of bytes kept in the object store of a node. */
+    static final long DATA_PLANE_STORE_BUDGET = 256L * 1024 * 1024;
+
+    /** The time in ms we wait for the holder of an object to send it. */
+    static final long DATA_FETCH_TIMEOUT = 60000L;
+
+    /**
+     * The maximal estimated number of bytes of results of cacheable jobs kept
+     * on a node. Set to 0 to disable the result cache.
+     */
+    static final long RESULT_CACHE_BUDGET = 64L * 1024 * 1024;
+
+    /**
+     * The number of bits per cached result in the summary of the result cache
+     * of a node that is sent in the gossip. With 10 bits per result about 2%
+     * of the lookups in the summary are false positives.
+     */
+    static final int RESULT_CACHE_SUMMARY_BITS_PER_ENTRY = 10;
+
+    /** The minimal time in ms between two publications of the summary. */
+    static final long RESULT_CACHE_SUMMARY_INTERVAL = 1000L;
+
+    /**
+     * A worker that probably has the result of a cacheable job in its cache
+     * is preferred over the best other worker if its estimated completion
+     * time is at most this factor times that of the other worker.
+     */
+    static final double CACHED_RESULT_ADVANTAGE = 2.0;
+
     // Debugging flags.
 
     /** Trace the progress of the worker lists of masters. */
@@ -110,6 +178,54 @@ class Settings {
     /** Time in ms when gossip goes stale for nodes not in the same cluster. */
     static final long GOSSIP_EXPIRATION_BETWEEN_CLUSTERS = 5 * GOSSIP_EXPIRATION_IN_CLUSTER;
 
+    /**
+     * Do we only send the gossip entries that are newer than what the receiving
+     * node has already seen from us?
+     */
+    static final boolean DELTA_GOSSIP = true;
+
+    /**
+     * In delta gossip mode, every so many messages to the same node contain all
+     * our gossip, to repair the damage of lost messages.
+     */
+    static final int GOSSIP_FULL_REFRESH_COUNT = 8;
+
+    /**
+     * Do we gossip hierarchically? If so, nodes only gossip with the nodes in
+     * their own cluster, and only the representative of each cluster, the
+     * member with the lowest identifier, gossips with the representatives of
+     * the other clusters. Between clusters only a summary of each cluster is
+     * exchanged, so that every node only has detailed information about the
+     * nodes in its own cluster.
+     */
+    static final boolean HIERARCHICAL_GOSSIP = false;
+
+    /**
+     * Do we adapt the gossip interval of each node to the volatility of our
+     * state? If so, the interval is halved on a sharp change of our estimates
+     * or queue lengths, and doubled each time we gossip to a node while
+     * nothing has changed since the previous time.
+     */
+    static final boolean ADAPTIVE_GOSSIP = true;
+
+    /**
+     * In adaptive gossip, the shortest gossip interval is the normal interval
+     * divided by this factor.
+     */
+    static final long GOSSIP_INTERVAL_SPEEDUP_LIMIT = 4;
+
+    /**
+     * In adaptive gossip, the longest gossip interval is the normal interval
+     * multiplied by this factor.
+     */
+    static final long GOSSIP_INTERVAL_BACKOFF_LIMIT = 8;
+
+    /**
+     * A change of an estimate or a queue length by more than this fraction is
+     * a sharp change.
+     */
+    static final double GOSSIP_SHARP_CHANGE = 0.5;
+
     /**
      * This many nodes that recently sent a job will be kept directly up to date
      * with our state changes (instead of through the gossip system).
@@ -122,6 +238,40 @@ class Settings {
      */
     static final int EXTRA_WORK_THREADS = 2;
 
+    /**
+     * For each processor, this many jobs that implement {@link BlockingJob}
+     * may run at the same time. They run on a separate pool of threads, and
+     * do not occupy a processor slot while they wait.
+     */
+    static final int BLOCKING_JOBS_PER_PROCESSOR = 8;
+
+    /**
+     * If set, idle work threads block until a job is available for them, and
+     * the node administration is done by a separate thread. Otherwise the work
+     * threads poll for new jobs and do the administration themselves.
+     */
+    static final boolean EVENT_DRIVEN_DISPATCH = true;
+
+    /**
+     * The maximal time in ms the administration thread waits for an event
+     * before it does a round of administration anyway.
+     */
+    static final long ADMINISTRATION_INTERVAL = 50L;
+
+    /**
+     * The default number of threads that hand out jobs from the master queue
+     * in parallel; see the <code>ibis.maestro.schedulerThreads</code>
+     * property. With <code>0</code> the administration of the node hands out
+     * the jobs itself.
+     */
+    static final int DEFAULT_SCHEDULER_THREADS = 2;
+
+    /**
+     * The maximal time in ms a scheduler thread waits for a change in the
+     * master queue or the workers before it tries to hand out jobs anyway.
+     */
+    static final long SCHEDULER_INTERVAL = 100L;
+
     /** The default start quotum of the terminator. */
     static final double DEFAULT_TERMINATOR_START_QUOTUM = 0.5;
 
@@ -143,11 +293,49 @@ class Settings {
      */
     static final boolean HARD_ALLOWANCES = true;
 
-    /** Time in ms between polling attempts for free room in the master queue. */
-    static final long ROOM_POLL_INTERVAL = 10L;
+    /**
+     * Do we select workers with an index ordered by predicted completion time,
+     * instead of scanning all workers for every job? Only worth it for large
+     * numbers of workers.
+     */
+    static final boolean INDEXED_WORKER_SELECTION = false;
 
-    /** The number of jobs in the master queue before we start blocking. */
-    static final int MAESTRO_MASTER_ROOM = 25;
+    /**
+     * With indexed worker selection, the number of workers at the head of the
+     * index from whose estimates a likely value is drawn for every selection.
+     */
+    static final int INDEXED_SELECTION_CANDIDATES = 4;
+
+    /**
+     * The number of node changes that are remembered, so that an index of the
+     * workers only has to update the nodes that have changed. An index that
+     * falls further behind compares all nodes.
+     */
+    static final int NODE_CHANGE_LOG_SIZE = 1024;
+
+    /**
+     * The number of submitted jobs that may wait in the master queue before
+     * further submitters block, until we know more about the cluster.
+     */
+    static final int INITIAL_SUBMIT_WINDOW = 25;
+
+    /** The minimal number of submitted jobs that may wait in the master queue. */
+    static final int MINIMAL_SUBMIT_WINDOW = 4;
+
+    /** The maximal number of submitted jobs that may wait in the master queue. */
+    static final int MAXIMAL_SUBMIT_WINDOW = 10000;
+
+    /**
+     * The time the submitted jobs in the master queue should last at the
+     * measured throughput, on top of the free job slots of the workers.
+     */
+    static final double SUBMIT_WINDOW_QUEUE_TIME = 100 * Utils.MILLISECOND;
+
+    /** The minimal time between two recomputations of the submit window. */
+    static final double SUBMIT_WINDOW_UPDATE_INTERVAL = 100 * Utils.MILLISECOND;
+
+    /** The weight of a new throughput sample for the submit window. */
+    static final double SUBMIT_WINDOW_SAMPLE_WEIGHT = 0.3;
 
     /**
      * The minimal duration in ns of a running job before we consider submitting
@@ -156,4 +344,141 @@ class Settings {
     static final double LATE_JOB_DURATION = 300 * Utils.MILLISECOND;
 
     static final int MAXIMAL_QUEUE_FOR_PREDICTABLE = 1;
+
+    /**
+     * The time in ms a job without a deadline may wait for every priority
+     * class it is below the interactive class. After that it is handed out
+     * before newly submitted jobs of a higher class.
+     */
+    static final long PRIORITY_AGING_INTERVAL = 5000L;
+
+    /**
+     * Share the master and worker queues fairly among the submitting nodes
+     * and job types?
+     */
+    static final boolean FAIR_SHARE = true;
+
+    /**
+     * The time in ms a job of a tenant with weight 1 postpones the later jobs
+     * of the same tenant in a fairly shared queue.
+     */
+    static final long FAIR_SHARE_QUANTUM = 100L;
+
+    /**
+     * If set, a job that has passed its reschedule deadline gets a speculative
+     * copy on another worker. The first copy to complete wins, the others are
+     * cancelled.
+     */
+    static final boolean SPECULATIVE_EXECUTION = true;
+
+    /**
+     * The maximal number of outstanding speculative copies, as a fraction of
+     * the number of outstanding jobs. At least one speculative copy is always
+     * allowed.
+     */
+    static final double SPECULATIVE_EXECUTION_BUDGET = 0.1;
+
+    /**
+     * If set, a worker with idle processors and an empty queue asks the node
+     * with the longest worker queue for some of the jobs that have not
+     * started yet.
+     */
+    static final boolean WORK_STEALING = true;
+
+    /** The minimal time in ms between two steal requests of a worker. */
+    static final long STEAL_INTERVAL = 50L;
+
+    /**
+     * The minimal length of the worker queue of a node before we try to steal
+     * jobs from it.
+     */
+    static final int STEAL_MINIMAL_QUEUE_LENGTH = 2;
+
+    /**
+     * The number of completions of unknown jobs a master remembers per
+     * worker. A stolen job may complete before the master hears it was
+     * adopted, and then the adoption must not make it active again.
+     */
+    static final int MAXIMAL_EARLY_COMPLETIONS = 100;
+
+    /**
+     * Do we suspect nodes that have been silent for an unlikely long time,
+     * as judged by a phi-accrual failure detector on the intervals of the
+     * gossip they send us? Any other message, such as a job acknowledgement,
+     * also shows that a node is alive. A suspected node gets no new jobs, and
+     * its outstanding jobs are resubmitted, until it sends us a message again.
+     */
+    static final boolean PHI_ACCRUAL_FAILURE_DETECTION = true;
+
+    /** The value of phi above which a node is suspected. */
+    static final double PHI_SUSPICION_THRESHOLD = 8.0;
+
+    /** The number of recent arrival intervals the failure detector uses. */
+    static final int PHI_WINDOW_SIZE = 100;
+
+    /**
+     * The number of arrival intervals of a node we need before we suspect
+     * it.
+     */
+    static final int PHI_MINIMAL_SAMPLES = 3;
+
+    /**
+     * The minimal standard deviation in ms of the arrival intervals, so that
+     * a node with very regular messages isn't suspected on the first small
+     * delay.
+     */
+    static final double PHI_MINIMAL_STD_DEVIATION = 100.0;
+
+    /** The time in ms between two checks of the failure detector. */
+    static final long FAILURE_DETECTION_INTERVAL = 100L;
+
+    /**
+     * If set, the sub-jobs of a parallel job are run directly on the thread
+     * that submits them when distributing them would not pay off: when the
+     * master queue already holds more jobs than the workers can take, or when
+     * an atomic sub-job is cheaper than {@link #LOCAL_SUBJOB_GRANULARITY}.
+     */
+    static final boolean LOCAL_SUBJOBS = true;
+
+    /**
+     * Atomic sub-jobs with a measured local compute time in seconds below this
+     * value are always run locally.
+     */
+    static final double LOCAL_SUBJOB_GRANULARITY = 100 * Utils.MICROSECOND;
+
+    /** The maximal number of jobs in a single batch of run job messages. */
+    static final int MAXIMAL_RUN_JOB_BATCH = 16;
+
+    /**
+     * Do we predict the transmission time of a job from the size of its input,
+     * using a per-node model of latency and bandwidth?
+     */
+    static final boolean PAYLOAD_AWARE_TRANSMISSION = true;
+
+    /** The weight of a new sample in the transmission model of a node. */
+    static final double TRANSMISSION_MODEL_SAMPLE_WEIGHT = 0.1;
+
+    /**
+     * The number of samples the transmission model of a node needs before it
+     * is used for predictions.
+     */
+    static final int TRANSMISSION_MODEL_MINIMAL_SAMPLES = 4;
+
+    /**
+     * If set, job received and job completed notifications to a master are
+     * collected and sent together, otherwise each is sent in its own message.
+     */
+    static final boolean AGGREGATE_ACKNOWLEDGEMENTS = true;
+
+    /**
+     * The maximal time in seconds a job received or completed notification is
+     * held back to aggregate it with others.
+     */
+    static final double ACKNOWLEDGEMENT_WINDOW = 2 * Utils.MILLISECOND;
+
+    /**
+     * The number of aggregated notifications to a single master at which they
+     * are sent without waiting for the window to expire.
+     */
+    static final int MAXIMAL_ACKNOWLEDGEMENT_BATCH = 64;
 }
@@ -0,0 +1,35 @@
+package ibis.maestro;
+
+/**
+ * A message from an idle worker to a busy one, asking it to hand over some of
+ * the jobs in its worker queue.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class StealRequestMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** The number of jobs the idle worker can start right away. */
+    final int count;
+
+    /**
+     * Constructs a new steal request message.
+     * 
+     * @param count
+     *            The number of jobs the sender would like to have.
+     */
+    StealRequestMessage(final int count) {
+        this.count = count;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "steal request message for " + count + " jobs";
+    }
+}
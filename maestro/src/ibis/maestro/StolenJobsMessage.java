@@ -0,0 +1,46 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+/**
+ * The answer to a {@link StealRequestMessage}: the jobs that a worker has
+ * removed from its queue for the requesting worker. Since the jobs were not
+ * submitted by the sender of this message, the master of each job is sent
+ * along.
+ * 
+ * @author Kees van Reeuwijk
+ * 
+ */
+final class StolenJobsMessage extends Message {
+    private static final long serialVersionUID = 1L;
+
+    /** For each job, the master that submitted it. */
+    final IbisIdentifier masters[];
+
+    /** The jobs to run. */
+    final RunJobMessage messages[];
+
+    /**
+     * Constructs a new message with stolen jobs.
+     * 
+     * @param masters
+     *            For each job, the master that submitted it.
+     * @param messages
+     *            The jobs to run.
+     */
+    StolenJobsMessage(final IbisIdentifier masters[],
+            final RunJobMessage messages[]) {
+        this.masters = masters;
+        this.messages = messages;
+    }
+
+    /**
+     * Returns a string representation of this message.
+     * 
+     * @return The string representation.
+     */
+    @Override
+    public String toString() {
+        return "stolen jobs message with " + messages.length + " jobs";
+    }
+}
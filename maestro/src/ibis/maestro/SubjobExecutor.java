@@ -0,0 +1,66 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+
+/**
+ * The interface through which a {@link ParallelJobHandler} gets the sub-jobs
+ * of a parallel job executed, normally by the local node.
+ * 
+ * @author Kees van Reeuwijk
+ */
+interface SubjobExecutor {
+    /**
+     * Returns true iff the given sub-job should be run right away on the
+     * submitting thread.
+     * 
+     * @param job
+     *            The sub-job.
+     * @return True iff the sub-job should be run locally.
+     */
+    boolean shouldRunSubjobLocally(Job job);
+
+    /**
+     * Runs the given sub-job on the current thread, and hands its result to
+     * the given listener.
+     * 
+     * @param prefix
+     *            The identifier prefix of the parallel job.
+     * @param input
+     *            The input of the sub-job.
+     * @param userId
+     *            The identifier to pass to the listener.
+     * @param listener
+     *            The listener to hand the result to.
+     * @param job
+     *            The sub-job to run.
+     * @param priority
+     *            The priority class of the parallel job.
+     * @param deadline
+     *            The scheduling deadline of the parallel job.
+     */
+    void runSubjobLocally(long prefix[], Serializable input,
+            Serializable userId, JobCompletionListener listener, Job job,
+            int priority, long deadline);
+
+    /**
+     * Hands the given sub-job to the master queue.
+     * 
+     * @param prefix
+     *            The identifier prefix of the parallel job.
+     * @param input
+     *            The input of the sub-job.
+     * @param userId
+     *            The identifier to pass to the listener.
+     * @param listener
+     *            The listener to hand the result to.
+     * @param job
+     *            The sub-job to run.
+     * @param priority
+     *            The priority class of the parallel job.
+     * @param deadline
+     *            The scheduling deadline of the parallel job.
+     */
+    void submitSubjob(long prefix[], Serializable input, Serializable userId,
+            JobCompletionListener listener, Job job, int priority,
+            long deadline);
+}
@@ -15,14 +15,26 @@ class Submission {
 
     final double predictedDuration;
 
+    /**
+     * The maximal number of outstanding jobs of this type the worker may have
+     * when this job is started.
+     */
+    final int capacity;
+
+    /** The id given to the job once a slot is reserved for it. */
+    long jobId = -1;
+
     /**
      * @param job
      * @param worker
      * @param predictedDuration
+     * @param capacity
      */
-    Submission(JobInstance job, IbisIdentifier worker, double predictedDuration) {
+    Submission(JobInstance job, IbisIdentifier worker,
+            double predictedDuration, int capacity) {
         this.jobInstance = job;
         this.worker = worker;
         this.predictedDuration = predictedDuration;
+        this.capacity = capacity;
     }
 }
@@ -0,0 +1,160 @@
+package ibis.maestro;
+
+import java.io.PrintStream;
+
+/**
+ * Credit-based flow control for the submitters of a node. Every job that is
+ * submitted takes a credit, and returns it as soon as the master queue hands
+ * the job to a worker. A submitter that finds no credit blocks until one is
+ * returned, and is woken at that moment.
+ *
+ * The number of credits, the window, follows the capacity of the cluster: it
+ * is the number of free job slots the workers advertise in their gossip, plus
+ * the number of jobs the master queue hands out in
+ * {@link Settings#SUBMIT_WINDOW_QUEUE_TIME} at the measured throughput. The
+ * window therefore grows when the workers keep up, and shrinks when they
+ * don't.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class SubmitCredits {
+    private int window = Settings.INITIAL_SUBMIT_WINDOW;
+
+    /** The number of credits currently held by submitted jobs. */
+    private int used = 0;
+
+    /** The number of submitters waiting for a credit. */
+    private int waiters = 0;
+
+    /** The number of credits returned since the last throughput sample. */
+    private long returned = 0;
+
+    /** The moment of the last throughput sample, or 0 if none. */
+    private double sampleMoment = 0;
+
+    /** The decaying average of the number of jobs handed out per second. */
+    private double throughput = 0;
+
+    private long blockedSubmits = 0;
+
+    private double totalBlockedTime = 0;
+
+    private int maximalWindow = window;
+
+    /** Takes a credit, blocking until one is available. */
+    synchronized void acquire() {
+        if (used >= window) {
+            final double start = Utils.getPreciseTime();
+            blockedSubmits++;
+            waiters++;
+            while (used >= window) {
+                try {
+                    wait();
+                } catch (final InterruptedException e) {
+                    // Ignore.
+                }
+            }
+            waiters--;
+            totalBlockedTime += Utils.getPreciseTime() - start;
+        }
+        used++;
+    }
+
+    /**
+     * Takes a credit if one is available.
+     * 
+     * @return True iff a credit was taken.
+     */
+    synchronized boolean tryAcquire() {
+        if (used >= window) {
+            return false;
+        }
+        used++;
+        return true;
+    }
+
+    /**
+     * Returns the current window: the number of jobs the workers can take
+     * without making them wait in the master queue.
+     * 
+     * @return The current window.
+     */
+    synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * Returns a credit, and wakes a waiting submitter. A credit of a job that
+     * was submitted before a {@link #reset()} has already been returned.
+     */
+    synchronized void release() {
+        if (used > 0) {
+            used--;
+        }
+        returned++;
+        if (waiters > 0 && used < window) {
+            notify();
+        }
+    }
+
+    /**
+     * Returns all credits, for example because the master queue was cleared.
+     */
+    synchronized void reset() {
+        used = 0;
+        notifyAll();
+    }
+
+    /**
+     * Recomputes the window from the given gossip and the measured
+     * throughput.
+     *
+     * @param gossiper
+     *            The gossiper with the current information of all nodes.
+     */
+    synchronized void update(final Gossiper gossiper) {
+        final double now = Utils.getPreciseTime();
+        if (sampleMoment == 0) {
+            sampleMoment = now;
+            return;
+        }
+        final double interval = now - sampleMoment;
+        if (interval < Settings.SUBMIT_WINDOW_UPDATE_INTERVAL) {
+            return;
+        }
+        final double sample = returned / interval;
+        final double w = Settings.SUBMIT_WINDOW_SAMPLE_WEIGHT;
+        throughput = (1 - w) * throughput + w * sample;
+        returned = 0;
+        sampleMoment = now;
+        int freeSlots = 0;
+        for (final NodePerformanceInfo info : gossiper.getGossipCopy()) {
+            if (info != null) {
+                freeSlots += info.getFreeSlots();
+            }
+        }
+        final int pipeline = (int) Math.ceil(throughput
+                * Settings.SUBMIT_WINDOW_QUEUE_TIME);
+        final int newWindow = Math.min(Settings.MAXIMAL_SUBMIT_WINDOW, Math
+                .max(Settings.MINIMAL_SUBMIT_WINDOW, freeSlots + pipeline));
+        if (newWindow > window) {
+            // Hand out the new credits.
+            final int n = Math.min(waiters, newWindow - Math.max(used, window));
+            for (int i = 0; i < n; i++) {
+                notify();
+            }
+        }
+        window = newWindow;
+        if (window > maximalWindow) {
+            maximalWindow = window;
+        }
+    }
+
+    synchronized void printStatistics(final PrintStream s) {
+        s.println("submit credits: window " + window + " (maximal "
+                + maximalWindow + "); throughput "
+                + String.format("%.1f", throughput) + " jobs/s; "
+                + blockedSubmits + " submits blocked for a total of "
+                + Utils.formatSeconds(totalBlockedTime));
+    }
+}
@@ -54,7 +54,7 @@ class Terminator extends Thread {
                     Settings.ESSENTIAL_COMMUNICATION_TIMEOUT, true);
             final WriteMessage writeMessage = port.newMessage();
             try {
-                writeMessage.writeObject(msg);
+                MessageCodec.writeMessage(writeMessage, msg);
             } finally {
                 len = writeMessage.finish();
             }
@@ -0,0 +1,158 @@
+package ibis.maestro;
+
+import ibis.steel.Estimate;
+import ibis.steel.LogGaussianEstimate;
+
+/**
+ * A model of the transmission time of a job to a node, as a fixed latency plus
+ * a time per byte of job input. The parameters are fitted with an
+ * exponentially decaying least-squares fit over the observed pairs of payload
+ * size and transmission time. The spread of the observed times around the fit
+ * is tracked as a log-variance, so that predictions are stochastic estimates
+ * like all other time estimates.
+ *
+ * Instances are immutable; adding a sample returns a new model.
+ *
+ * @author Kees van Reeuwijk
+ */
+final class TransmissionModel {
+    /** The weight of the old samples when a new sample is added. */
+    private static final double DECAY = 1.0 - Settings.TRANSMISSION_MODEL_SAMPLE_WEIGHT;
+
+    /** The decayed sum of the sample weights. */
+    private final double weight;
+
+    private final double sumBytes;
+
+    private final double sumTime;
+
+    private final double sumBytesSquared;
+
+    private final double sumBytesTime;
+
+    /** The decayed mean of the squared log ratio of measured and fitted time. */
+    private final double logVariance;
+
+    /** The total number of samples. */
+    private final int sampleCount;
+
+    /** The fitted latency in seconds. */
+    final double latency;
+
+    /** The fitted transmission time in seconds per byte. */
+    final double secondsPerByte;
+
+    /** A model without any samples. */
+    static final TransmissionModel EMPTY = new TransmissionModel(0, 0, 0, 0,
+            0, 0, 0);
+
+    private TransmissionModel(final double weight, final double sumBytes,
+            final double sumTime, final double sumBytesSquared,
+            final double sumBytesTime, final double logVariance,
+            final int sampleCount) {
+        this.weight = weight;
+        this.sumBytes = sumBytes;
+        this.sumTime = sumTime;
+        this.sumBytesSquared = sumBytesSquared;
+        this.sumBytesTime = sumBytesTime;
+        this.logVariance = logVariance;
+        this.sampleCount = sampleCount;
+        if (weight <= 0) {
+            latency = 0;
+            secondsPerByte = 0;
+            return;
+        }
+        final double meanBytes = sumBytes / weight;
+        final double meanTime = sumTime / weight;
+        final double varBytes = sumBytesSquared / weight - meanBytes
+                * meanBytes;
+        double b = 0;
+        // Only fit a slope if the payload sizes differ enough; otherwise all
+        // of the time is attributed to latency.
+        if (varBytes > 1e-6 * meanBytes * meanBytes && varBytes > 0) {
+            b = (sumBytesTime / weight - meanBytes * meanTime) / varBytes;
+        }
+        if (b < 0) {
+            b = 0;
+        }
+        double a = meanTime - b * meanBytes;
+        if (a < 0) {
+            // Never predict a negative latency; attribute everything to
+            // bandwidth instead.
+            a = 0;
+            b = meanBytes > 0 ? meanTime / meanBytes : 0;
+        }
+        latency = a;
+        secondsPerByte = b;
+    }
+
+    /**
+     * Returns the predicted transmission time in seconds of a job with the
+     * given payload size.
+     *
+     * @param bytes
+     *            The size of the job input in bytes.
+     * @return The predicted transmission time.
+     */
+    double predictTime(final long bytes) {
+        return latency + secondsPerByte * bytes;
+    }
+
+    /**
+     * Returns true iff this model has seen enough samples to be used for
+     * predictions.
+     *
+     * @return True iff the model can be used.
+     */
+    boolean isUsable() {
+        return sampleCount >= Settings.TRANSMISSION_MODEL_MINIMAL_SAMPLES;
+    }
+
+    /**
+     * Returns a stochastic estimate of the transmission time of a job with the
+     * given payload size.
+     *
+     * @param bytes
+     *            The size of the job input in bytes.
+     * @return The estimated transmission time.
+     */
+    Estimate estimate(final long bytes) {
+        final double t = Math.max(1e-12, predictTime(bytes));
+        return new LogGaussianEstimate(Math.log(t), logVariance, sampleCount);
+    }
+
+    /**
+     * Returns a new model that also incorporates the given sample.
+     *
+     * @param bytes
+     *            The size of the job input in bytes.
+     * @param time
+     *            The transmission time of the job in seconds.
+     * @return The new model.
+     */
+    TransmissionModel addSample(final long bytes, final double time) {
+        if (time <= 0) {
+            return this;
+        }
+        double newLogVariance = logVariance;
+        if (weight > 0) {
+            final double predicted = predictTime(bytes);
+            if (predicted > 0) {
+                final double r = Math.log(time / predicted);
+                newLogVariance = DECAY * logVariance + (1 - DECAY) * r * r;
+            }
+        }
+        final double x = bytes;
+        return new TransmissionModel(DECAY * weight + 1, DECAY * sumBytes + x,
+                DECAY * sumTime + time, DECAY * sumBytesSquared + x * x, DECAY
+                        * sumBytesTime + x * time, newLogVariance,
+                sampleCount + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "(latency=" + Utils.formatSeconds(latency) + ",bandwidth="
+                + (secondsPerByte > 0 ? Utils.formatByteCount((long) (1.0 / secondsPerByte))
+                        + "/s" : "unknown") + ",samples=" + sampleCount + ")";
+    }
+}
@@ -27,7 +27,7 @@ class UpDownCounter {
         notifyAll();
     }
 
-    private synchronized int get() {
+    synchronized int get() {
         return value;
     }
 
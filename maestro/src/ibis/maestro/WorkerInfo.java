@@ -4,6 +4,7 @@ import ibis.ipl.IbisIdentifier;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -16,6 +17,13 @@ final class WorkerInfo {
     /** The active jobs of this worker. */
     private final List<ActiveJob> activeJobs = new ArrayList<ActiveJob>();
 
+    /**
+     * The ids of jobs this worker reported as completed while they were not
+     * in our list of active jobs, oldest first. A stolen job can complete
+     * before we hear that this worker adopted it.
+     */
+    private final ArrayList<Long> earlyCompletions = new ArrayList<Long>();
+
     /** Info about the jobs for this particular node. */
     private final NodeJobInfo nodeJobInfoList[];
 
@@ -36,6 +44,15 @@ final class WorkerInfo {
      */
     private final IbisIdentifier ibis;
 
+    /** The local info, or <code>null</code> if it must be recomputed. */
+    private LocalNodeInfoList localInfo = null;
+
+    /** The log to report every change of the local info to. */
+    private final NodeChangeLog changeLog;
+
+    /** The latency and bandwidth of the link to this node. */
+    private TransmissionModel transmissionModel = TransmissionModel.EMPTY;
+
     /**
      * Constructs a new NodeInfo.
      * 
@@ -46,12 +63,15 @@ final class WorkerInfo {
      *            for each type.
      * @param local
      *            Is this the local node?
+     * @param changeLog
+     *            The log to report every change of the local info to.
      */
     protected WorkerInfo(final IbisIdentifier ibis,
             final WorkerQueue workerQueue, final boolean local,
-            final int jobCount) {
+            final int jobCount, final NodeChangeLog changeLog) {
         this.ibis = ibis;
         this.local = local;
+        this.changeLog = changeLog;
         nodeJobInfoList = new NodeJobInfo[jobCount];
         // For non-local nodes, start with a rather pessimistic ping time.
         // This means that only if we really need another node, we use it.
@@ -68,7 +88,7 @@ final class WorkerInfo {
         for (int ix = 0; ix < jobCount; ix++) {
             final WorkerQueueJobInfo jobInfo = workerQueue.getJobInfo(ix);
             nodeJobInfoList[ix] = new NodeJobInfo(jobInfo, this,
-                    estimatedPingTime);
+                    estimatedPingTime, changeLog);
         }
     }
 
@@ -77,6 +97,10 @@ final class WorkerInfo {
         return ibis.toString();
     }
 
+    IbisIdentifier getIbis() {
+        return ibis;
+    }
+
     NodeJobInfo get(final JobType t) {
         return nodeJobInfoList[t.index];
     }
@@ -112,7 +136,7 @@ final class WorkerInfo {
     ArrayList<JobInstance> setDead() {
         final ArrayList<JobInstance> orphans = new ArrayList<JobInstance>();
         synchronized (this) {
-            suspect = true;
+            setSuspectFlag(true);
             dead = true;
             for (final ActiveJob t : activeJobs) {
                 orphans.add(t.jobInstance);
@@ -126,6 +150,32 @@ final class WorkerInfo {
         return orphans;
     }
 
+    /**
+     * Mark this worker as suspect, and return its active jobs so that they
+     * can be resubmitted. Unlike {@link #setDead()} the worker may still
+     * come back.
+     * 
+     * @return The list of job instances that were outstanding on this worker.
+     */
+    ArrayList<JobInstance> withdrawActiveJobs() {
+        final ArrayList<JobInstance> orphans = new ArrayList<JobInstance>();
+        synchronized (this) {
+            setSuspectFlag(true);
+            for (final ActiveJob t : activeJobs) {
+                if (t.nodeJobInfo != null) {
+                    t.nodeJobInfo.registerJobWithdrawn();
+                }
+                orphans.add(t.jobInstance);
+            }
+            activeJobs.clear();
+        }
+        if (!orphans.isEmpty()) {
+            Globals.log.reportProgress("Withdrew " + orphans.size()
+                    + " jobs from suspect worker " + ibis);
+        }
+        return orphans;
+    }
+
     /**
      * This worker is suspect because it got a communication timeout.
      */
@@ -137,11 +187,18 @@ final class WorkerInfo {
         } else {
             Globals.log.reportError("Cannot communicate with node " + ibis);
             synchronized (this) {
-                suspect = true;
+                setSuspectFlag(true);
             }
         }
     }
 
+    private synchronized void setSuspectFlag(final boolean val) {
+        if (suspect != val) {
+            suspect = val;
+            changeLog.registerChange(this);
+        }
+    }
+
     private synchronized ActiveJob extractActiveJob(final long id) {
         final int ix = searchActiveJob(id);
         if (ix < 0) {
@@ -156,11 +213,89 @@ final class WorkerInfo {
      * 
      * @param jobId
      *            The job to retract.
+     * @return The retracted job, or <code>null</code> if it wasn't active on
+     *         this worker.
+     */
+    JobInstance retractJob(final long jobId) {
+        // It doesn't really matter if the job was in our list of not.
+        final ActiveJob job = extractActiveJob(jobId);
+        if (job == null) {
+            return null;
+        }
+        if (job.nodeJobInfo != null) {
+            job.nodeJobInfo.registerJobWithdrawn();
+        }
+        return job.jobInstance;
+    }
+
+    /**
+     * Returns true iff the job with the given id is outstanding on this
+     * worker.
+     * 
+     * @param id
+     *            The identifier of the job.
+     * @return True iff the job is outstanding on this worker.
+     */
+    synchronized boolean hasActiveJob(final long id) {
+        return searchActiveJob(id) >= 0;
+    }
+
+    /**
+     * Removes the job with the given id from our list of active jobs, since
+     * another worker has stolen it.
+     * 
+     * @param id
+     *            The identifier of the stolen job.
+     * @return The entry of the stolen job, or <code>null</code> if we don't
+     *         have it.
      */
-    void retractJob(final long jobId) {
-        // We ignore the result of the extract: it doesn't really matter if the
-        // job was in our list of not.
-        extractActiveJob(jobId);
+    ActiveJob extractStolenJob(final long id) {
+        final ActiveJob job = extractActiveJob(id);
+        if (job != null && job.nodeJobInfo != null) {
+            job.nodeJobInfo.registerJobWithdrawn();
+        }
+        return job;
+    }
+
+    /**
+     * Adds a job that this worker has stolen from another worker to our list
+     * of active jobs.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs that are known.
+     * @param original
+     *            The entry of the job on the worker it was stolen from.
+     * @return The job instance if this worker already completed it and it
+     *         may have duplicates, or <code>null</code>.
+     */
+    JobInstance adoptStolenJob(final JobList jobs, final ActiveJob original) {
+        synchronized (this) {
+            if (earlyCompletions.remove(Long.valueOf(original.id))) {
+                // The completion overtook the adoption, so the job is done.
+                if (Settings.traceNodeProgress) {
+                    Globals.log.reportProgress("Master: stolen job "
+                            + original + " completed before its adoption");
+                }
+                if (original.jobInstance.isOrphan()
+                        || original.jobInstance.isHedged()) {
+                    return original.jobInstance;
+                }
+                return null;
+            }
+        }
+        final JobType stageType = original.jobInstance.getStageType(jobs);
+        final NodeJobInfo workerJobInfo = nodeJobInfoList[stageType.index];
+        if (workerJobInfo == null) {
+            Globals.log.reportInternalError("No worker job info for job type "
+                    + stageType);
+        } else {
+            workerJobInfo.registerJobSubmitted();
+        }
+        final ActiveJob j = new ActiveJob(original, workerJobInfo);
+        synchronized (this) {
+            activeJobs.add(j);
+        }
+        return null;
     }
 
     JobInstance registerJobFailed(final long id) {
@@ -188,13 +323,37 @@ final class WorkerInfo {
      */
     void registerJobStart(final JobList jobs, final JobInstance job,
             final long id, final double predictedDuration) {
+        tryRegisterJobStart(jobs, job, id, predictedDuration,
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Register the start of a new job, provided that fewer than the given
+     * number of jobs of its type are outstanding on this worker. The check
+     * and the registration are atomic, so that concurrent schedulers never
+     * claim more slots than the worker has.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs that are known.
+     * @param job
+     *            The job that was started.
+     * @param id
+     *            The id given to the job.
+     * @param predictedDuration
+     *            The predicted duration in seconds of the job.
+     * @param capacity
+     *            The maximal number of outstanding jobs of this type.
+     * @return True iff the start of the job was registered.
+     */
+    boolean tryRegisterJobStart(final JobList jobs, final JobInstance job,
+            final long id, final double predictedDuration, final int capacity) {
         final JobType stageType = job.getStageType(jobs);
         final NodeJobInfo workerJobInfo = nodeJobInfoList[stageType.index];
         if (workerJobInfo == null) {
             Globals.log.reportInternalError("No worker job info for job type "
                     + stageType);
-        } else {
-            workerJobInfo.registerJobSubmitted();
+        } else if (!workerJobInfo.reserveSlot(capacity)) {
+            return false;
         }
         final double now = Utils.getPreciseTime();
         final double allowanceDeadlineInterval = predictedDuration
@@ -210,19 +369,61 @@ final class WorkerInfo {
         synchronized (this) {
             activeJobs.add(j);
         }
+        return true;
     }
 
     /**
-     * Register a reception notification for a job.
+     * Register a reception notification for a number of jobs.
      * 
      * @param result
-     *            The job received message that tells about this job.
+     *            The job received message that tells about these jobs.
      */
     void registerJobReceived(final JobReceivedMessage result) {
+        for (final long id : result.jobIds) {
+            registerJobReceived(id, result.arrivalMoment);
+        }
+    }
+
+    /**
+     * Register all notifications in the given acknowledgements message.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs that are known.
+     * @param msg
+     *            The message with the notifications.
+     * @return The job instances that were completed and may have duplicates.
+     */
+    ArrayList<JobInstance> registerJobAcknowledgements(final JobList jobs,
+            final JobAcknowledgementsMessage msg) {
+        final ArrayList<JobInstance> res = new ArrayList<JobInstance>();
+        // The notifications were held back on the worker; the moment they
+        // would have arrived on their own is what we're interested in.
+        for (int i = 0; i < msg.receivedIds.length; i++) {
+            registerJobReceived(msg.receivedIds[i], msg.arrivalMoment
+                    - msg.receivedDelays[i]);
+        }
+        for (int i = 0; i < msg.completedIds.length; i++) {
+            final JobInstance job = registerJobCompleted(jobs,
+                    msg.completedIds[i], msg.arrivalMoment
+                            - msg.completedDelays[i]);
+            if (job != null) {
+                res.add(job);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Register a reception notification for a job.
+     * 
+     * @param id
+     *            The identifier of the job, as handed out by us.
+     * @param arrivalMoment
+     *            The moment the notification arrived.
+     */
+    private void registerJobReceived(final long id, final double arrivalMoment) {
         final ActiveJob job;
 
-        // The identifier of the job, as handed out by us.
-        final long id = result.jobId;
         synchronized (this) {
             final int ix = searchActiveJob(id);
 
@@ -234,10 +435,23 @@ final class WorkerInfo {
             }
             job = activeJobs.get(ix);
         }
+        if (job.stolen) {
+            // The job spent some time on another worker, so we can't
+            // tell the transmission time.
+            return;
+        }
         final double transmissionTime = local ? 1e-15
-                : (result.arrivalMoment - job.startTime);
+                : (arrivalMoment - job.startTime);
         final NodeJobInfo nodeJobInfo = job.nodeJobInfo;
         nodeJobInfo.registerJobReceived(transmissionTime);
+        final long inputSize = job.jobInstance.getInputSize();
+        if (!local && inputSize >= 0) {
+            synchronized (this) {
+                transmissionModel = transmissionModel.addSample(inputSize,
+                        transmissionTime);
+            }
+            changeLog.registerChange(this);
+        }
         if (Settings.traceNodeProgress) {
             Globals.log.reportProgress("Master: retired job " + job
                     + " transmissionTime="
@@ -255,20 +469,36 @@ final class WorkerInfo {
      */
     JobInstance registerJobCompleted(final JobList jobs,
             final JobCompletedMessage result) {
-        final long id = result.jobId; // The identifier of the job, as handed
-        // out by us.
+        return registerJobCompleted(jobs, result.jobId, result.arrivalMoment);
+    }
 
+    /**
+     * Register the completion of an outstanding job.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs that are known.
+     * @param id
+     *            The identifier of the job, as handed out by us.
+     * @param arrivalMoment
+     *            The moment the completion notification arrived.
+     * @return The job instance that was completed if it may have duplicates, or
+     *         <code>null</code>
+     */
+    private JobInstance registerJobCompleted(final JobList jobs, final long id,
+            final double arrivalMoment) {
         final ActiveJob job = extractActiveJob(id);
 
         if (job == null) {
             // Not in the list of active jobs, presumably because it was
-            // redundantly executed.
+            // redundantly executed, or because it was stolen and we haven't
+            // heard of the adoption yet.
+            registerEarlyCompletion(id);
             return null;
         }
-        final double roundtripTime = result.arrivalMoment - job.startTime;
+        final double roundtripTime = arrivalMoment - job.startTime;
         final NodeJobInfo nodeJobInfo = job.nodeJobInfo;
         final JobType stageType = job.jobInstance.getStageType(jobs);
-        if (job.allowanceDeadline < result.arrivalMoment) {
+        if (job.allowanceDeadline < arrivalMoment) {
             nodeJobInfo.registerMissedAllowanceDeadline();
             if (Settings.traceMissedDeadlines) {
                 Globals.log.reportProgress("Missed allowance deadline for "
@@ -281,7 +511,7 @@ final class WorkerInfo {
                         + Utils.formatSeconds(roundtripTime));
             }
         }
-        if (job.rescheduleDeadline < result.arrivalMoment) {
+        if (job.rescheduleDeadline < arrivalMoment) {
             if (Settings.traceMissedDeadlines) {
                 Globals.log.reportProgress("Missed reschedule deadline for "
                         + stageType
@@ -299,12 +529,82 @@ final class WorkerInfo {
             Globals.log.reportProgress("Master: retired job " + job
                     + " roundtripTime=" + Utils.formatSeconds(roundtripTime));
         }
-        if (job.jobInstance.isOrphan()) {
+        if (job.jobInstance.isOrphan() || job.jobInstance.isHedged()) {
             return job.jobInstance;
         }
         return null;
     }
 
+    private synchronized void registerEarlyCompletion(final long id) {
+        if (earlyCompletions.size() >= Settings.MAXIMAL_EARLY_COMPLETIONS) {
+            earlyCompletions.remove(0);
+        }
+        earlyCompletions.add(id);
+    }
+
+    synchronized int getActiveJobCount() {
+        return activeJobs.size();
+    }
+
+    /**
+     * Adds the jobs on this worker that have passed their reschedule deadline
+     * and don't have a speculative copy yet to the given list, and marks
+     * them as having a copy.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs that are known.
+     * @param now
+     *            The current time.
+     * @param res
+     *            The list to add the late jobs to.
+     * @param max
+     *            The maximal size of the list.
+     */
+    synchronized void collectStragglers(final JobList jobs, final double now,
+            final ArrayList<JobInstance> res, final int max) {
+        if (dead) {
+            return;
+        }
+        for (final ActiveJob job : activeJobs) {
+            if (res.size() >= max) {
+                return;
+            }
+            if (job.rescheduleDeadline < now
+                    && !jobs.isParallelJobType(job.jobInstance
+                            .getStageType(jobs))
+                    && job.jobInstance.startHedge(ibis)) {
+                res.add(job.jobInstance);
+            }
+        }
+    }
+
+    /**
+     * Removes all copies of the given job from the active jobs of this
+     * worker, and adds a cancel message for each of them to the given list.
+     * 
+     * @param job
+     *            The job that was completed elsewhere.
+     * @param now
+     *            The current time.
+     * @param res
+     *            The list to add the cancel messages to.
+     */
+    synchronized void cancelCopies(final JobInstance job, final double now,
+            final ArrayList<QueuedMessage> res) {
+        final Iterator<ActiveJob> it = activeJobs.iterator();
+        while (it.hasNext()) {
+            final ActiveJob e = it.next();
+            if (e.jobInstance == job) {
+                it.remove();
+                if (e.rescheduleDeadline < now) {
+                    e.nodeJobInfo.registerMissedRescheduleDeadline();
+                }
+                e.nodeJobInfo.registerJobCancelled(now - e.startTime);
+                res.add(new QueuedMessage(ibis, new CancelJobMessage(e.id)));
+            }
+        }
+    }
+
     /**
      * Given a print stream, print some statistics about this worker.
      * 
@@ -313,6 +613,9 @@ final class WorkerInfo {
      */
     synchronized void printStatistics(final PrintStream s) {
         s.println("Node " + ibis + (local ? " (local)" : ""));
+        if (!local) {
+            s.println("  link: " + transmissionModel);
+        }
 
         for (final NodeJobInfo info : nodeJobInfoList) {
             if (info != null) {
@@ -332,16 +635,33 @@ final class WorkerInfo {
         if (dead) {
             return true;
         }
-        suspect = false;
+        setSuspectFlag(false);
         return false;
     }
 
+    /**
+     * Returns the local info of this worker. The returned info is shared, and
+     * must not be modified. It is only rebuilt if some of the information in
+     * it has changed.
+     * 
+     * @return The local info.
+     */
     synchronized LocalNodeInfoList getLocalInfo() {
+        final TransmissionModel model = Settings.PAYLOAD_AWARE_TRANSMISSION
+                && transmissionModel.isUsable() ? transmissionModel : null;
+        boolean changed = localInfo == null || localInfo.suspect != suspect
+                || localInfo.transmissionModel != model;
         final LocalNodeInfo l[] = new LocalNodeInfo[nodeJobInfoList.length];
 
         for (int i = 0; i < nodeJobInfoList.length; i++) {
             l[i] = nodeJobInfoList[i].getLocalNodeInfo();
+            if (!changed && l[i] != localInfo.getLocalNodeInfo(i)) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            localInfo = new LocalNodeInfoList(suspect, l, model);
         }
-        return new LocalNodeInfoList(suspect, l);
+        return localInfo;
     }
 }
@@ -1,10 +1,12 @@
 package ibis.maestro;
 
+import ibis.ipl.IbisIdentifier;
 import ibis.steel.Estimate;
 import ibis.steel.LogGaussianEstimate;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * A class representing the master work queue.
@@ -23,6 +25,33 @@ final class WorkerQueue {
 
     private double activeTime = 0.0;
 
+    /** The fair sharing among tenants, or <code>null</code> if not used. */
+    @SuppressWarnings("synthetic-access")
+    private final FairShare<RunJobMessage> fairShare = Settings.FAIR_SHARE ? new FairShare<RunJobMessage>(
+            "worker queue", new MessageRekeyer())
+            : null;
+
+    /**
+     * Moves the jobs that got a new key from the fair sharing. Only invoked
+     * while a job is added, so with the lock on the queue held.
+     */
+    private final class MessageRekeyer implements
+            FairShare.Rekeyer<RunJobMessage> {
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public void rekey(final RunJobMessage msg, final JobType type,
+                final long key) {
+            for (int i = 0; i < queue.size(); i++) {
+                if (queue.get(i) == msg) {
+                    queue.remove(i);
+                    msg.queueKey = key;
+                    queue.add(findInsertionPoint(queue, msg), msg);
+                    return;
+                }
+            }
+        }
+    }
+
     /**
      * Given a list of supported types, constructs a new WorkerQueue.
      * 
@@ -63,6 +92,30 @@ final class WorkerQueue {
         return queue.isEmpty();
     }
 
+    /**
+     * Orders the jobs in the queue by their key, and jobs with the same key by
+     * their identifier.
+     */
+    private static int compareEntries(final RunJobMessage a,
+            final RunJobMessage b) {
+        if (a.queueKey < b.queueKey) {
+            return -1;
+        }
+        if (a.queueKey > b.queueKey) {
+            return 1;
+        }
+        return Utils.compareIds(a.jobInstance.jobInstance.ids,
+                b.jobInstance.jobInstance.ids);
+    }
+
+    private long computeKey(final JobList jobs, final JobType type,
+            final RunJobMessage msg) {
+        if (fairShare == null) {
+            return msg.jobInstance.deadline;
+        }
+        return fairShare.computeKey(jobs, msg.jobInstance, type, msg);
+    }
+
     private static int findInsertionPoint(final ArrayList<RunJobMessage> queue,
             final RunJobMessage msg) {
         // Good old binary search.
@@ -74,14 +127,12 @@ final class WorkerQueue {
             // it separately.
             return 0;
         }
-        final long ids[] = msg.jobInstance.jobInstance.ids;
         while (true) {
             final int mid = (start + end) / 2;
             if (mid == start) {
                 break;
             }
-            final long midIds[] = queue.get(mid).jobInstance.jobInstance.ids;
-            final int cmp = Utils.compareIds(midIds, ids);
+            final int cmp = compareEntries(queue.get(mid), msg);
             if (cmp < 0) {
                 // Mid should come before us.
                 start = mid;
@@ -92,8 +143,7 @@ final class WorkerQueue {
         }
         // This comparison is probably rarely necessary, but corner cases
         // are a pain, so I'm safe rather than sorry.
-        final long startIds[] = queue.get(start).jobInstance.jobInstance.ids;
-        final int cmp = Utils.compareIds(startIds, ids);
+        final int cmp = compareEntries(queue.get(start), msg);
         if (cmp < 0) {
             return end;
         }
@@ -113,10 +163,14 @@ final class WorkerQueue {
     /**
      * Add the given job to our queue.
      * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param type
+     *            The stage type of the job.
      * @param msg
      *            The job to add to the queue
      */
-    int add(final JobType type, final RunJobMessage msg) {
+    int add(final JobList jobs, final JobType type, final RunJobMessage msg) {
         final int length;
         final WorkerQueueJobInfo info = queueTypes[type.index];
         final int pos;
@@ -125,6 +179,7 @@ final class WorkerQueue {
                 activeTime = msg.arrivalMoment;
             }
             length = info.registerAdd();
+            msg.queueKey = computeKey(jobs, type, msg);
             pos = findInsertionPoint(queue, msg);
             queue.add(pos, msg);
         }
@@ -140,20 +195,100 @@ final class WorkerQueue {
         return length;
     }
 
-    RunJobMessage remove(final JobList jobs, final Gossiper gossiper) {
-        final RunJobMessage res;
+    /**
+     * Adds all the jobs of a batch to our queue in one step.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param messages
+     *            The jobs to add to the queue.
+     * @return For each added job, the number of jobs of its type in the queue
+     *         after it was added.
+     */
+    int[] add(final JobList jobs, final RunJobMessage messages[]) {
+        final int lengths[] = new int[messages.length];
+        synchronized (this) {
+            for (int i = 0; i < messages.length; i++) {
+                final RunJobMessage msg = messages[i];
+                final JobType type = msg.jobInstance.getStageType(jobs);
+                if (activeTime == 0.0) {
+                    activeTime = msg.arrivalMoment;
+                }
+                lengths[i] = queueTypes[type.index].registerAdd();
+                msg.queueKey = computeKey(jobs, type, msg);
+                queue.add(findInsertionPoint(queue, msg), msg);
+            }
+        }
+        if (Settings.traceQueuing) {
+            Globals.log.reportProgress("Added batch of " + messages.length
+                    + " jobs to worker queue; length is now " + queue.size());
+        }
+        if (Settings.dumpWorkerQueue) {
+            dumpQueue();
+        }
+        return lengths;
+    }
+
+    /**
+     * Returns true iff the queue contains a job that is blocking, or that is
+     * not blocking, as requested.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param blocking
+     *            True iff we look for a blocking job.
+     * @return True iff there is such a job in the queue.
+     */
+    synchronized boolean hasJobs(final JobList jobs, final boolean blocking) {
+        for (final RunJobMessage m : queue) {
+            if (m.jobInstance.getStageType(jobs).blocking == blocking) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the most urgent job that is blocking, or that is not blocking,
+     * as requested. Blocking jobs are taken by the threads of the blocking
+     * job pool, the other jobs by the work threads, so that a blocking job
+     * only leaves the queue once a thread is free to run it.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param gossiper
+     *            The gossiper to inform of the new queue length, or
+     *            <code>null</code>.
+     * @param blocking
+     *            True iff we want a blocking job.
+     * @return The removed job, or <code>null</code> if there is none.
+     */
+    RunJobMessage remove(final JobList jobs, final Gossiper gossiper,
+            final boolean blocking) {
+        RunJobMessage res = null;
         final int length;
         final WorkerQueueJobInfo info;
         final JobType type;
 
         synchronized (this) {
-            if (queue.isEmpty()) {
+            for (int i = 0; i < queue.size(); i++) {
+                final RunJobMessage m = queue.get(i);
+                if (m.jobInstance.getStageType(jobs).blocking == blocking) {
+                    res = queue.remove(i);
+                    break;
+                }
+            }
+            if (res == null) {
                 return null;
             }
-            res = queue.remove(0);
             type = res.jobInstance.getStageType(jobs);
             info = queueTypes[type.index];
             length = info.registerRemove();
+            if (fairShare != null) {
+                fairShare.registerRemove(res.jobInstance, type, res, Utils
+                        .getPreciseTime()
+                        - res.arrivalMoment);
+            }
         }
         if (Settings.traceQueuing) {
             Globals.log.reportProgress("Removing "
@@ -168,6 +303,113 @@ final class WorkerQueue {
         return res;
     }
 
+    /**
+     * Removes the given job from the queue, since its master no longer needs
+     * it.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param master
+     *            The master that submitted the job.
+     * @param jobId
+     *            The identifier the master gave to the job.
+     * @param gossiper
+     *            The gossiper to inform of the new queue length, or
+     *            <code>null</code>.
+     * @return The removed job, or <code>null</code> if the job is not in the
+     *         queue.
+     */
+    RunJobMessage cancel(final JobList jobs, final IbisIdentifier master,
+            final long jobId, final Gossiper gossiper) {
+        RunJobMessage res = null;
+        final int length;
+        final WorkerQueueJobInfo info;
+        final JobType type;
+
+        synchronized (this) {
+            for (int i = 0; i < queue.size(); i++) {
+                final RunJobMessage m = queue.get(i);
+                if (m.jobId == jobId && m.source.equals(master)) {
+                    res = queue.remove(i);
+                    break;
+                }
+            }
+            if (res == null) {
+                return null;
+            }
+            type = res.jobInstance.getStageType(jobs);
+            info = queueTypes[type.index];
+            length = info.registerDiscard();
+            if (fairShare != null) {
+                fairShare.registerDiscard(res.jobInstance, type, res);
+            }
+        }
+        if (Settings.traceQueuing) {
+            Globals.log.reportProgress("Cancelled "
+                    + res.jobInstance.formatJobAndType()
+                    + " in worker queue; length is now " + queue.size()
+                    + "; " + length + " of type " + type);
+        }
+        if (gossiper != null) {
+            final Estimate queueTimePerJob = info.getQueueTimePerJob();
+            gossiper.setWorkerQueueTimePerJob(type, queueTimePerJob, length);
+        }
+        return res;
+    }
+
+    /**
+     * Removes at most <code>max</code> jobs from the end of the queue, so that
+     * another worker can run them. At least half of the jobs are left in the
+     * queue.
+     * 
+     * @param jobs
+     *            Information about the different types of jobs.
+     * @param max
+     *            The maximal number of jobs to remove.
+     * @param gossiper
+     *            The gossiper to inform of the new queue lengths, or
+     *            <code>null</code>.
+     * @return The removed jobs.
+     */
+    RunJobMessage[] steal(final JobList jobs, final int max,
+            final Gossiper gossiper) {
+        final RunJobMessage res[];
+        final int remaining;
+        // The new queue length of each type we took jobs from, or -1.
+        final int lengths[] = new int[queueTypes.length];
+        Arrays.fill(lengths, -1);
+
+        synchronized (this) {
+            final int n = Math.min(max, queue.size() / 2);
+            res = new RunJobMessage[n];
+            for (int i = 0; i < n; i++) {
+                // Take the least urgent jobs.
+                res[i] = queue.remove(queue.size() - 1);
+                final JobType type = res[i].jobInstance.getStageType(jobs);
+                lengths[type.index] = queueTypes[type.index].registerDiscard();
+                if (fairShare != null) {
+                    fairShare.registerDiscard(res[i].jobInstance, type, res[i]);
+                }
+            }
+            remaining = queue.size();
+        }
+        if (Settings.traceQueuing) {
+            Globals.log.reportProgress("Handed " + res.length
+                    + " jobs to another worker; worker queue length is now "
+                    + remaining);
+        }
+        if (gossiper != null) {
+            for (final WorkerQueueJobInfo info : queueTypes) {
+                final int length = lengths[info.type.index];
+                if (length >= 0) {
+                    gossiper.setWorkerQueueTimePerJob(info.type, info
+                            .getQueueTimePerJob(), length);
+                }
+            }
+        }
+        return res;
+    }
+
     boolean failJob(final JobType type) {
         final WorkerQueueJobInfo info = queueTypes[type.index];
         info.failJob();
@@ -187,6 +429,18 @@ final class WorkerQueue {
         return info.countJob(computeInterval, type.unpredictable);
     }
 
+    /**
+     * Returns the estimated time it takes this node to execute a job of the
+     * given type.
+     * 
+     * @param type
+     *            The type of job.
+     * @return The estimated compute time.
+     */
+    Estimate getComputeTime(final JobType type) {
+        return queueTypes[type.index].getComputeTime();
+    }
+
     synchronized double getActiveTime(final double startTime) {
         if (activeTime < startTime) {
             Globals.log.reportProgress("Worker was not used");
@@ -202,6 +456,9 @@ final class WorkerQueue {
                 t.printStatistics(s, workInterval);
             }
         }
+        if (fairShare != null) {
+            fairShare.printStatistics(s);
+        }
     }
 
     void registerNode(final WorkerInfo nodeInfo) {
@@ -218,5 +475,8 @@ final class WorkerQueue {
 
     synchronized void clear() {
         queue.clear();
+        if (fairShare != null) {
+            fairShare.clear();
+        }
     }
 }
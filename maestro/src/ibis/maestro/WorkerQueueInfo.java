@@ -1,9 +1,12 @@
 package ibis.maestro;
 
+import ibis.ipl.ReadMessage;
+import ibis.ipl.WriteMessage;
 import ibis.steel.ConstantEstimate;
 import ibis.steel.Estimate;
 import ibis.steel.InfiniteEstimate;
 
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -46,6 +49,43 @@ class WorkerQueueInfo implements Serializable {
         assert dequeueTimePerJob != null;
     }
 
+    /**
+     * Writes the fields of this info to the given message.
+     * 
+     * @param msg
+     *            The message to write to.
+     * @throws IOException
+     *             Thrown if the fields could not be written.
+     */
+    synchronized void writeFields(final WriteMessage msg) throws IOException {
+        msg.writeInt(queueLength);
+        msg.writeInt(queueLengthSequenceNumber);
+        MessageCodec.writeEstimate(msg, dequeueTimePerJob);
+        MessageCodec.writeEstimate(msg, executionTime);
+    }
+
+    /**
+     * Reads the fields written by {@link #writeFields(WriteMessage)} from the
+     * given message.
+     * 
+     * @param msg
+     *            The message to read from.
+     * @return The worker queue info.
+     * @throws IOException
+     *             Thrown if the fields could not be read.
+     * @throws ClassNotFoundException
+     *             Thrown if an estimate has an unknown class.
+     */
+    static WorkerQueueInfo readFields(final ReadMessage msg)
+            throws IOException, ClassNotFoundException {
+        final int queueLength = msg.readInt();
+        final int queueLengthSequenceNumber = msg.readInt();
+        final Estimate dequeueTimePerJob = MessageCodec.readEstimate(msg);
+        final Estimate executionTime = MessageCodec.readEstimate(msg);
+        return new WorkerQueueInfo(queueLength, queueLengthSequenceNumber,
+                dequeueTimePerJob, executionTime);
+    }
+
     /**
      * Returns a string representation of this completion info. (Overrides
      * method in superclass.)
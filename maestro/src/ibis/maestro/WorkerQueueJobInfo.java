@@ -107,6 +107,24 @@ final class WorkerQueueJobInfo {
         return elements;
     }
 
+    /**
+     * Registers that a job of this type was removed from the queue without
+     * being executed. Since it did not reach the front of the queue in the
+     * normal way, it is not counted in the dequeue interval.
+     * 
+     * @return The number of elements of this type in the queue.
+     */
+    int registerDiscard() {
+        elements--;
+        sequenceNumber++;
+        if (elements < 0) {
+            Globals.log
+                    .reportInternalError("Number of elements in worker queue is now negative?? type="
+                            + type + " elements=" + elements);
+        }
+        return elements;
+    }
+
     /**
      * Registers the completion of a job of this particular type, with the given
      * queue interval and the given work interval.
@@ -127,6 +145,15 @@ final class WorkerQueueJobInfo {
         return averageComputeTime.getEstimate();
     }
 
+    /**
+     * Returns the estimated time it takes to execute a job of this type.
+     * 
+     * @return The estimated compute time.
+     */
+    synchronized Estimate getComputeTime() {
+        return averageComputeTime.getEstimate();
+    }
+
     /**
      * Registers that this node can no longer execute this type of job.
      */
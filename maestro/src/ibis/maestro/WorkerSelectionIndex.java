@@ -0,0 +1,389 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.steel.Estimate;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An index of the workers, ordered by the high estimate of their predicted
+ * completion time, for each combination of job type and stage. Estimates are
+ * only recomputed for nodes whose gossip or local info has changed.
+ *
+ * The gossip and local node info are shared snapshots that are replaced as a
+ * whole on a change, so a change is detected by comparing references. A new
+ * local node info snapshot, which is published whenever a slot on a worker
+ * is reserved, tells through its change log which nodes have changed, so
+ * only these nodes are compared and recomputed. Only a new gossip snapshot,
+ * or a local node info snapshot we can't relate to the previous one, makes
+ * us compare all nodes. Apart from that, selecting a worker costs
+ * logarithmic time in the number of workers.
+ *
+ * As in the linear search, a likely value is drawn from the estimate of each
+ * candidate for every selection, so that workers with uncertain performance
+ * also get a chance. Since the draws can't be kept in order, they are only
+ * made for the first {@link Settings#INDEXED_SELECTION_CANDIDATES} workers in
+ * the index.
+ *
+ * The workers of a stage are ordered for the typical input size of the
+ * stage, which only changes slowly. A job with a considerably different
+ * input size doesn't reorder the index; instead only the estimates of the
+ * first candidates are recomputed for the size of its input.
+ *
+ * An index is not thread-safe; every thread that selects workers keeps its
+ * own.
+ *
+ * @author Kees van Reeuwijk.
+ */
+final class WorkerSelectionIndex {
+    /** The gossip snapshot the index was last synchronized with. */
+    private NodePerformanceInfo tables[] = null;
+
+    /** The local node info snapshot the index was last synchronized with. */
+    private HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap = null;
+
+    /** The state of every node we know. */
+    private final HashMap<IbisIdentifier, NodeState> nodes = new HashMap<IbisIdentifier, NodeState>();
+
+    /** For each series type, for each stage, the ordered workers. */
+    private StageIndex stages[][] = new StageIndex[0][];
+
+    /** Used to give entries with the same score a random order. */
+    private long nextSerial = 0;
+
+    /** The information we used for a node. */
+    private static final class NodeState {
+        private NodePerformanceInfo info;
+
+        private LocalNodeInfoList localInfo;
+
+        private int generation;
+
+        private NodeState(final NodePerformanceInfo info,
+                final LocalNodeInfoList localInfo, final int generation) {
+            this.info = info;
+            this.localInfo = localInfo;
+            this.generation = generation;
+        }
+    }
+
+    /** The current generation of synchronization. */
+    private int generation = 0;
+
+    /** An entry for a worker in the index of a stage. */
+    private static final class Entry {
+        private final NodePerformanceInfo info;
+
+        /** The local info the estimate was computed with. */
+        private final LocalNodeInfoList localInfo;
+
+        /** The predicted completion time. */
+        private final Estimate estimate;
+
+        /** The high estimate of the predicted completion time. */
+        private final double score;
+
+        /** A random number to order entries with the same score. */
+        private final int tieBreaker;
+
+        /** A unique number to tell apart entries that are otherwise equal. */
+        private final long serial;
+
+        private Entry(final NodePerformanceInfo info,
+                final LocalNodeInfoList localInfo, final Estimate estimate,
+                final double score, final long serial) {
+            this.info = info;
+            this.localInfo = localInfo;
+            this.estimate = estimate;
+            this.score = score;
+            this.tieBreaker = Globals.rng.nextInt();
+            this.serial = serial;
+        }
+    }
+
+    /** Orders entries by increasing score, and randomly on equal scores. */
+    private static final class EntryComparator implements Comparator<Entry>,
+            Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @SuppressWarnings("synthetic-access")
+        @Override
+        public int compare(final Entry a, final Entry b) {
+            if (a.score < b.score) {
+                return -1;
+            }
+            if (a.score > b.score) {
+                return 1;
+            }
+            if (a.tieBreaker != b.tieBreaker) {
+                return a.tieBreaker < b.tieBreaker ? -1 : 1;
+            }
+            if (a.serial != b.serial) {
+                return a.serial < b.serial ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    /** The ordered workers for one stage of one series type. */
+    private static final class StageIndex {
+        private final JobType seriesType;
+
+        private final int stage;
+
+        private final JobType stageType;
+
+        /** The typical payload size the entries were computed for. */
+        private long payloadBytes = -1;
+
+        @SuppressWarnings("synthetic-access")
+        private final TreeSet<Entry> ordered = new TreeSet<Entry>(
+                new EntryComparator());
+
+        private final HashMap<IbisIdentifier, Entry> entries = new HashMap<IbisIdentifier, Entry>();
+
+        private StageIndex(final JobType seriesType, final int stage,
+                final JobType stageType) {
+            this.seriesType = seriesType;
+            this.stage = stage;
+            this.stageType = stageType;
+        }
+
+        private void remove(final IbisIdentifier node) {
+            final Entry e = entries.remove(node);
+            if (e != null) {
+                ordered.remove(e);
+            }
+        }
+    }
+
+    private void update(final StageIndex s, final NodeState state) {
+        final NodePerformanceInfo info = state.info;
+        s.remove(info.source);
+        final Estimate est = info.estimateJobCompletion(state.localInfo,
+                s.seriesType, s.stage, s.stageType, Settings.HARD_ALLOWANCES,
+                s.payloadBytes);
+        if (est == null) {
+            return;
+        }
+        // Order by a value that doesn't change between selections; the
+        // likely values are drawn at selection time.
+        final double score = est.getHighEstimate();
+        if (score == Double.POSITIVE_INFINITY || Double.isNaN(score)) {
+            return;
+        }
+        final Entry e = new Entry(info, state.localInfo, est, score,
+                nextSerial++);
+        s.entries.put(info.source, e);
+        s.ordered.add(e);
+    }
+
+    private void updateAllStages(final NodeState state) {
+        for (final StageIndex l[] : stages) {
+            if (l != null) {
+                for (final StageIndex s : l) {
+                    if (s != null) {
+                        update(s, state);
+                    }
+                }
+            }
+        }
+    }
+
+    private void removeFromAllStages(final IbisIdentifier node) {
+        for (final StageIndex l[] : stages) {
+            if (l != null) {
+                for (final StageIndex s : l) {
+                    if (s != null) {
+                        s.remove(node);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the nodes whose local info differs between the previous and
+     * the given snapshot, or <code>null</code> if we can't tell.
+     */
+    private IbisIdentifier[] getChangedNodes(
+            final HashMap<IbisIdentifier, LocalNodeInfoList> newLocalNodeInfoMap) {
+        if (!(localNodeInfoMap instanceof LocalNodeInfoMap)
+                || !(newLocalNodeInfoMap instanceof LocalNodeInfoMap)) {
+            return null;
+        }
+        final LocalNodeInfoMap from = (LocalNodeInfoMap) localNodeInfoMap;
+        final LocalNodeInfoMap to = (LocalNodeInfoMap) newLocalNodeInfoMap;
+        return from.log.getChanges(from, to);
+    }
+
+    /**
+     * Brings the index in line with the given snapshots. Only the nodes whose
+     * information has been replaced are recomputed.
+     */
+    private void synchronize(
+            final HashMap<IbisIdentifier, LocalNodeInfoList> newLocalNodeInfoMap,
+            final NodePerformanceInfo newTables[]) {
+        if (newTables == tables) {
+            if (newLocalNodeInfoMap == localNodeInfoMap) {
+                return;
+            }
+            final IbisIdentifier changed[] = getChangedNodes(newLocalNodeInfoMap);
+            if (changed != null) {
+                for (final IbisIdentifier ibis : changed) {
+                    final NodeState state = nodes.get(ibis);
+                    if (state != null) {
+                        final LocalNodeInfoList localInfo = newLocalNodeInfoMap
+                                .get(ibis);
+                        if (state.localInfo != localInfo) {
+                            state.localInfo = localInfo;
+                            updateAllStages(state);
+                        }
+                    }
+                }
+                localNodeInfoMap = newLocalNodeInfoMap;
+                return;
+            }
+        }
+        generation++;
+        for (final NodePerformanceInfo info : newTables) {
+            final LocalNodeInfoList localInfo = newLocalNodeInfoMap
+                    .get(info.source);
+            NodeState state = nodes.get(info.source);
+            if (state == null) {
+                state = new NodeState(info, localInfo, generation);
+                nodes.put(info.source, state);
+                updateAllStages(state);
+            } else {
+                state.generation = generation;
+                if (state.info != info || state.localInfo != localInfo) {
+                    state.info = info;
+                    state.localInfo = localInfo;
+                    updateAllStages(state);
+                }
+            }
+        }
+        // Forget nodes that are no longer in the gossip.
+        final Iterator<Map.Entry<IbisIdentifier, NodeState>> it = nodes
+                .entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<IbisIdentifier, NodeState> e = it.next();
+            if (e.getValue().generation != generation) {
+                removeFromAllStages(e.getKey());
+                it.remove();
+            }
+        }
+        tables = newTables;
+        localNodeInfoMap = newLocalNodeInfoMap;
+    }
+
+    private static boolean isDifferentSize(final long a, final long b) {
+        if (a < 0 || b < 0) {
+            return a != b;
+        }
+        return Math.abs(a - b) > 0.1 * Math.max(a, b);
+    }
+
+    private StageIndex getStageIndex(final JobType seriesType,
+            final int stage, final JobType stageType) {
+        final int ix = seriesType.index;
+        if (ix >= stages.length) {
+            final StageIndex l[][] = new StageIndex[ix + 1][];
+            System.arraycopy(stages, 0, l, 0, stages.length);
+            stages = l;
+        }
+        StageIndex row[] = stages[ix];
+        if (row == null || stage >= row.length) {
+            final StageIndex l[] = new StageIndex[stage + 1];
+            if (row != null) {
+                System.arraycopy(row, 0, l, 0, row.length);
+            }
+            row = l;
+            stages[ix] = row;
+        }
+        StageIndex res = row[stage];
+        if (res == null) {
+            res = new StageIndex(seriesType, stage, stageType);
+            row[stage] = res;
+            for (final NodeState state : nodes.values()) {
+                update(res, state);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Returns the best worker for the given job, or <code>null</code> if
+     * there is no worker that can execute it now.
+     *
+     * @param newLocalNodeInfoMap
+     *            The current local node info snapshot.
+     * @param newTables
+     *            The current gossip snapshot.
+     * @param job
+     *            The job to select a worker for.
+     * @param stageType
+     *            The type of the current stage of the job.
+     * @param typicalBytes
+     *            The typical input size in bytes of jobs of this stage type,
+     *            or <code>-1</code> if not known or not used.
+     * @param payloadBytes
+     *            The input size in bytes of the job, or <code>-1</code> if
+     *            not known or not used.
+     * @param avoid
+     *            The worker that should not be selected, or <code>null</code>.
+     * @return The performance info of the best worker, or <code>null</code>.
+     */
+    @SuppressWarnings("synthetic-access")
+    NodePerformanceInfo selectBestWorker(
+            final HashMap<IbisIdentifier, LocalNodeInfoList> newLocalNodeInfoMap,
+            final NodePerformanceInfo newTables[], final JobInstance job,
+            final JobType stageType, final long typicalBytes,
+            final long payloadBytes, final IbisIdentifier avoid) {
+        synchronize(newLocalNodeInfoMap, newTables);
+        final StageIndex s = getStageIndex(job.overallType, job.stageNumber,
+                stageType);
+        if (Settings.PAYLOAD_AWARE_TRANSMISSION
+                && isDifferentSize(s.payloadBytes, typicalBytes)) {
+            // The typical payload has changed considerably, recompute all
+            // entries of this stage.
+            s.payloadBytes = typicalBytes;
+            for (final NodeState state : nodes.values()) {
+                update(s, state);
+            }
+        }
+        final boolean reestimate = Settings.PAYLOAD_AWARE_TRANSMISSION
+                && isDifferentSize(s.payloadBytes, payloadBytes);
+        NodePerformanceInfo best = null;
+        double bestValue = Double.POSITIVE_INFINITY;
+        int candidates = 0;
+        for (final Entry e : s.ordered) {
+            if (candidates >= Settings.INDEXED_SELECTION_CANDIDATES) {
+                break;
+            }
+            if (!e.info.source.equals(avoid)) {
+                candidates++;
+                Estimate est = e.estimate;
+                if (reestimate) {
+                    est = e.info.estimateJobCompletion(e.localInfo,
+                            s.seriesType, s.stage, s.stageType,
+                            Settings.HARD_ALLOWANCES, payloadBytes);
+                    if (est == null) {
+                        continue;
+                    }
+                }
+                final double val = est.getLikelyValue();
+                if (best == null || val < bestValue) {
+                    bestValue = val;
+                    best = e.info;
+                }
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,138 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the aggregation of job received and job completed
+ * notifications.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class AcknowledgementAggregatorTest extends TestCase {
+    /** A moment so far in the future that its window never expires. */
+    private static final double FUTURE = Utils.getPreciseTime() + 1e6;
+
+    private static JobAcknowledgementsMessage getMessage(
+            ArrayList<QueuedMessage> l, IbisIdentifier master) {
+        for (final QueuedMessage m : l) {
+            if (m.destination.equals(master)) {
+                return (JobAcknowledgementsMessage) m.msg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests that notifications are held back until their window has passed,
+     * separately for each master.
+     */
+    @Test
+    public void testWindowFlush() {
+        final AcknowledgementAggregator aggregator = new AcknowledgementAggregator();
+        final IbisIdentifier early = new TestIbis("early");
+        final IbisIdentifier late = new TestIbis("late");
+        assertTrue(aggregator.getDueMessages(false).isEmpty());
+        assertEquals(Long.MAX_VALUE, aggregator.getWaitTimeInMilliseconds());
+        final double old = Utils.getPreciseTime() - 2
+                * Settings.ACKNOWLEDGEMENT_WINDOW;
+        assertFalse(aggregator.addReceived(early, new long[] { 1, 2 }, old));
+        assertFalse(aggregator.addCompleted(early, 1, old));
+        assertFalse(aggregator.addCompleted(late, 5, FUTURE));
+        assertEquals(1, aggregator.getWaitTimeInMilliseconds());
+
+        final ArrayList<QueuedMessage> due = aggregator.getDueMessages(false);
+        assertEquals(1, due.size());
+        final JobAcknowledgementsMessage m = getMessage(due, early);
+        assertTrue(Arrays.equals(new long[] { 1, 2 }, m.receivedIds));
+        assertTrue(Arrays.equals(new long[] { 1 }, m.completedIds));
+        assertTrue(aggregator.getDueMessages(false).isEmpty());
+        assertTrue(aggregator.getWaitTimeInMilliseconds() > 1000);
+
+        // A forced flush also sends what could still wait.
+        final ArrayList<QueuedMessage> forced = aggregator.getDueMessages(true);
+        assertEquals(1, forced.size());
+        assertTrue(Arrays.equals(new long[] { 5 },
+                getMessage(forced, late).completedIds));
+        assertEquals(Long.MAX_VALUE, aggregator.getWaitTimeInMilliseconds());
+    }
+
+    /**
+     * Tests that the notifications for a master are due as soon as there are
+     * enough of them, even if their window hasn't passed.
+     */
+    @Test
+    public void testSizeFlush() {
+        final AcknowledgementAggregator aggregator = new AcknowledgementAggregator();
+        final IbisIdentifier master = new TestIbis("master");
+        final int batch = Settings.MAXIMAL_ACKNOWLEDGEMENT_BATCH;
+        final long received[] = new long[batch / 2];
+        for (int i = 0; i < received.length; i++) {
+            received[i] = i;
+        }
+        assertFalse(aggregator.addReceived(master, received, FUTURE));
+        for (int i = received.length; i < batch - 1; i++) {
+            assertFalse(aggregator.addCompleted(master, i, FUTURE));
+        }
+        assertTrue(aggregator.getDueMessages(false).isEmpty());
+        assertTrue(aggregator.addCompleted(master, batch - 1, FUTURE));
+        final ArrayList<QueuedMessage> due = aggregator.getDueMessages(false);
+        assertEquals(1, due.size());
+        final JobAcknowledgementsMessage m = getMessage(due, master);
+        assertEquals(received.length, m.receivedIds.length);
+        assertEquals(batch - received.length, m.completedIds.length);
+        for (int i = 0; i < m.completedIds.length; i++) {
+            assertEquals(received.length + i, m.completedIds[i]);
+        }
+    }
+
+    /**
+     * Tests that the delays in a message let the master reconstruct the
+     * moments of the notifications the way
+     * {@link WorkerInfo#registerJobAcknowledgements} does: the arrival moment
+     * of the message minus the delay is the moment of the notification,
+     * shifted by the transmission time of the message.
+     */
+    @Test
+    public void testDelays() {
+        final AcknowledgementAggregator aggregator = new AcknowledgementAggregator();
+        final IbisIdentifier master = new TestIbis("master");
+        final double now = Utils.getPreciseTime();
+        final double moments[] = { now - 3e-3, now - 2e-3, now - 1e-3 };
+        aggregator.addReceived(master, new long[] { 10 }, moments[0]);
+        aggregator.addCompleted(master, 11, moments[1]);
+        aggregator.addCompleted(master, 12, moments[2]);
+        final double before = Utils.getPreciseTime();
+        final JobAcknowledgementsMessage m = getMessage(aggregator
+                .getDueMessages(true), master);
+        final double after = Utils.getPreciseTime();
+        assertEquals(1, m.receivedDelays.length);
+        assertEquals(2, m.completedDelays.length);
+        final double delays[] = { m.receivedDelays[0], m.completedDelays[0],
+                m.completedDelays[1] };
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(delays[i] >= before - moments[i]);
+            assertTrue(delays[i] <= after - moments[i]);
+        }
+        // On the master, with some transmission time.
+        final double transmission = 5e-3;
+        final double arrivalMoment = after + transmission;
+        for (int i = 0; i < delays.length; i++) {
+            final double reconstructed = arrivalMoment - delays[i];
+            assertTrue(reconstructed >= moments[i] + transmission - 1e-9);
+            assertTrue(reconstructed <= moments[i] + transmission
+                    + (after - before) + 1e-9);
+        }
+        // The intervals between the notifications are preserved exactly.
+        assertEquals(moments[2] - moments[1], m.completedDelays[0]
+                - m.completedDelays[1], 1e-9);
+        assertEquals(moments[1] - moments[0], m.receivedDelays[0]
+                - m.completedDelays[0], 1e-9);
+    }
+}
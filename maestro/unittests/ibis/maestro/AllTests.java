@@ -22,6 +22,24 @@ public class AllTests {
         suite.addTestSuite(JobListTest.class);
         suite.addTestSuite(GossipTest.class);
         suite.addTestSuite(LabelTrackerTest.class);
+        suite.addTestSuite(PhiAccrualDetectorTest.class);
+        suite.addTestSuite(TransmissionModelTest.class);
+        suite.addTestSuite(PayloadSizeEstimatorTest.class);
+        suite.addTestSuite(ResultCacheTest.class);
+        suite.addTestSuite(CancelledJobSetTest.class);
+        suite.addTestSuite(FairShareTest.class);
+        suite.addTestSuite(SubmitCreditsTest.class);
+        suite.addTestSuite(JobFutureTest.class);
+        suite.addTestSuite(JobResultStreamTest.class);
+        suite.addTestSuite(WorkerQueueTest.class);
+        suite.addTestSuite(NodeListTest.class);
+        suite.addTestSuite(ParallelJobHandlerTest.class);
+        suite.addTestSuite(GossiperTest.class);
+        suite.addTestSuite(GossipNodeListTest.class);
+        suite.addTestSuite(WorkerSelectionIndexTest.class);
+        suite.addTestSuite(MessageCodecTest.class);
+        suite.addTestSuite(BulkLaneTest.class);
+        suite.addTestSuite(AcknowledgementAggregatorTest.class);
                // $JUnit-END$
         return suite;
     }
@@ -0,0 +1,229 @@
+package ibis.maestro;
+
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.SendPortIdentifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
+/**
+ * A read message that reads what a {@link BufferWriteMessage} wrote.
+ *
+ * @author Kees van Reeuwijk.
+ */
+final class BufferReadMessage implements ReadMessage {
+    private final int size;
+
+    private final ObjectInputStream in;
+
+    BufferReadMessage(byte[] bytes) throws IOException {
+        size = bytes.length;
+        in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    @Override
+    public long finish() {
+        return size;
+    }
+
+    @Override
+    public void finish(IOException e) {
+        // Nothing to clean up.
+    }
+
+    @Override
+    public long bytesRead() {
+        return size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int remaining() throws IOException {
+        return in.available();
+    }
+
+    @Override
+    public ReceivePort localPort() {
+        return null;
+    }
+
+    @Override
+    public long sequenceNumber() {
+        return 0;
+    }
+
+    @Override
+    public SendPortIdentifier origin() {
+        return null;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return in.readBoolean();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return in.readByte();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return in.readChar();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return in.readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return in.readLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return in.readFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return in.readDouble();
+    }
+
+    @Override
+    public String readString() throws IOException {
+        try {
+            return (String) in.readObject();
+        } catch (final ClassNotFoundException x) {
+            throw new IOException(x.toString());
+        }
+    }
+
+    @Override
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return in.readObject();
+    }
+
+    @Override
+    public void readArray(boolean[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(byte[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(char[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(short[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(int[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(long[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(float[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(double[] a) throws IOException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(Object[] a) throws IOException,
+            ClassNotFoundException {
+        readArray(a, 0, a.length);
+    }
+
+    @Override
+    public void readArray(boolean[] a, int off, int len)
+            throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readBoolean();
+        }
+    }
+
+    @Override
+    public void readArray(byte[] a, int off, int len) throws IOException {
+        in.readFully(a, off, len);
+    }
+
+    @Override
+    public void readArray(char[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readChar();
+        }
+    }
+
+    @Override
+    public void readArray(short[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readShort();
+        }
+    }
+
+    @Override
+    public void readArray(int[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readInt();
+        }
+    }
+
+    @Override
+    public void readArray(long[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readLong();
+        }
+    }
+
+    @Override
+    public void readArray(float[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readFloat();
+        }
+    }
+
+    @Override
+    public void readArray(double[] a, int off, int len)
+            throws IOException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readDouble();
+        }
+    }
+
+    @Override
+    public void readArray(Object[] a, int off, int len)
+            throws IOException, ClassNotFoundException {
+        for (int i = off; i < off + len; i++) {
+            a[i] = in.readObject();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package ibis.maestro;
+
+import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * A write message that writes to a byte array, for tests that don't have a
+ * real connection. The bytes can be read back with a
+ * {@link BufferReadMessage}.
+ *
+ * @author Kees van Reeuwijk.
+ */
+final class BufferWriteMessage implements WriteMessage {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    private final ObjectOutputStream out;
+
+    BufferWriteMessage() throws IOException {
+        out = new ObjectOutputStream(bytes);
+    }
+
+    byte[] getBytes() throws IOException {
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public int send() {
+        return 0;
+    }
+
+    @Override
+    public void sync(int ticket) {
+        // Nothing to synchronize.
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void reset() throws IOException {
+        out.reset();
+    }
+
+    @Override
+    public long finish() throws IOException {
+        return bytesWritten();
+    }
+
+    @Override
+    public void finish(IOException e) {
+        // Nothing to clean up.
+    }
+
+    @Override
+    public long bytesWritten() throws IOException {
+        out.flush();
+        return bytes.size();
+    }
+
+    @Override
+    public int capacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int remaining() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public SendPort localPort() {
+        return null;
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        out.writeBoolean(v);
+    }
+
+    @Override
+    public void writeByte(byte v) throws IOException {
+        out.writeByte(v);
+    }
+
+    @Override
+    public void writeChar(char v) throws IOException {
+        out.writeChar(v);
+    }
+
+    @Override
+    public void writeShort(short v) throws IOException {
+        out.writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        out.writeInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        out.writeLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        out.writeFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        out.writeDouble(v);
+    }
+
+    @Override
+    public void writeString(String v) throws IOException {
+        out.writeObject(v);
+    }
+
+    @Override
+    public void writeObject(Object v) throws IOException {
+        out.writeObject(v);
+    }
+
+    @Override
+    public void writeArray(boolean[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(byte[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(char[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(short[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(int[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(long[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(float[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(double[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(Object[] a) throws IOException {
+        writeArray(a, 0, a.length);
+    }
+
+    @Override
+    public void writeArray(boolean[] a, int off, int len)
+            throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeBoolean(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(byte[] a, int off, int len) throws IOException {
+        out.write(a, off, len);
+    }
+
+    @Override
+    public void writeArray(char[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeChar(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(short[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeShort(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(int[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeInt(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(long[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeLong(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(float[] a, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeFloat(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(double[] a, int off, int len)
+            throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeDouble(a[i]);
+        }
+    }
+
+    @Override
+    public void writeArray(Object[] a, int off, int len)
+            throws IOException {
+        for (int i = off; i < off + len; i++) {
+            out.writeObject(a[i]);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ibis.maestro;
+
+import ibis.ipl.SendPort;
+import ibis.ipl.SendPortIdentifier;
+import ibis.ipl.impl.IbisIdentifier;
+import ibis.ipl.impl.Location;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the chunked transfers of the bulk lane.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class BulkLaneTest extends TestCase {
+    /** Records the chunks written to a send port. */
+    private static final class ChunkRecorder implements InvocationHandler {
+        final ArrayList<BufferWriteMessage> chunks = new ArrayList<BufferWriteMessage>();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            if (method.getName().equals("newMessage")) {
+                final BufferWriteMessage msg = new BufferWriteMessage();
+                chunks.add(msg);
+                return msg;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+        SendPort getPort() {
+            return (SendPort) Proxy.newProxyInstance(getClass()
+                    .getClassLoader(), new Class<?>[] { SendPort.class }, this);
+        }
+    }
+
+    private static SendPortIdentifier buildOrigin(String name) {
+        return new ibis.ipl.impl.SendPortIdentifier("bulk",
+                new IbisIdentifier(name, null, null, new Location(
+                        new String[] { name }), "test", null));
+    }
+
+    private static byte[] buildPayload(int length, int seed) {
+        final byte res[] = new byte[length];
+        for (int i = 0; i < length; i++) {
+            res[i] = (byte) (i * seed);
+        }
+        return res;
+    }
+
+    private static byte[] writeMalformedChunk(int totalLength, int offset,
+            int length) throws IOException {
+        final BufferWriteMessage msg = new BufferWriteMessage();
+        msg.writeLong(1);
+        msg.writeInt(totalLength);
+        msg.writeInt(offset);
+        msg.writeInt(length);
+        return msg.getBytes();
+    }
+
+    /**
+     * Tests that two transfers written with
+     * {@link BulkLane#writeChunks(SendPort, long, byte[])} are reassembled
+     * when their chunks arrive interleaved and out of order, also when a
+     * transfer with the same id arrives over another connection.
+     *
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testInterleavedChunks() throws Exception {
+        final int chunk = Settings.BULK_CHUNK_SIZE;
+        final JobResultMessage first = new JobResultMessage(
+                new JobInstanceIdentifier(1, null, null), buildPayload(
+                        5 * chunk / 2, 3));
+        final JobResultMessage second = new JobResultMessage(
+                new JobInstanceIdentifier(2, null, null), buildPayload(
+                        3 * chunk / 2, 7));
+        final byte firstData[] = BulkLane.serialize(first);
+        final byte secondData[] = BulkLane.serialize(second);
+        final ChunkRecorder firstChunks = new ChunkRecorder();
+        final ChunkRecorder secondChunks = new ChunkRecorder();
+        BulkLane.writeChunks(firstChunks.getPort(), 1, firstData);
+        BulkLane.writeChunks(secondChunks.getPort(), 2, secondData);
+        assertEquals(3, firstChunks.chunks.size());
+        assertEquals(2, secondChunks.chunks.size());
+
+        final SendPortIdentifier origin = buildOrigin("a");
+        final BulkTransfers transfers = new BulkTransfers();
+        final BufferWriteMessage order[] = { firstChunks.chunks.get(2),
+                secondChunks.chunks.get(1), firstChunks.chunks.get(0) };
+        for (final BufferWriteMessage m : order) {
+            assertNull(transfers.readChunk(origin, new BufferReadMessage(m
+                    .getBytes())));
+        }
+        // The same transfer id over another connection is another transfer.
+        final SendPortIdentifier other = buildOrigin("b");
+        assertNull(transfers.readChunk(other, new BufferReadMessage(
+                firstChunks.chunks.get(1).getBytes())));
+        final byte secondResult[] = transfers.readChunk(origin,
+                new BufferReadMessage(secondChunks.chunks.get(0).getBytes()));
+        assertTrue(Arrays.equals(secondData, secondResult));
+        final byte firstResult[] = transfers.readChunk(origin,
+                new BufferReadMessage(firstChunks.chunks.get(1).getBytes()));
+        assertTrue(Arrays.equals(firstData, firstResult));
+
+        final JobResultMessage m = (JobResultMessage) BulkLane
+                .deserialize(firstResult);
+        assertEquals(first.job, m.job);
+        assertTrue(Arrays.equals((byte[]) first.result, (byte[]) m.result));
+    }
+
+    /**
+     * Tests that chunks that don't fit in their transfer are rejected,
+     * including those where the end of the chunk overflows an int.
+     *
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testMalformedChunks() throws Exception {
+        final int cases[][] = { { 100, 90, 20 }, { 100, -1, 10 },
+                { 100, 10, -1 }, { -1, 0, 0 },
+                { 100, Integer.MAX_VALUE, 10 } };
+        for (final int c[] : cases) {
+            try {
+                BulkLane.readChunkHeader(new BufferReadMessage(
+                        writeMalformedChunk(c[0], c[1], c[2])));
+                fail("Accepted malformed chunk " + Arrays.toString(c));
+            } catch (final IOException x) {
+                // Expected.
+            }
+        }
+        final BulkTransfers transfers = new BulkTransfers();
+        final SendPortIdentifier origin = buildOrigin("a");
+        final BufferWriteMessage msg = new BufferWriteMessage();
+        msg.writeLong(1);
+        msg.writeInt(100);
+        msg.writeInt(0);
+        msg.writeInt(10);
+        msg.writeArray(new byte[10]);
+        assertNull(transfers.readChunk(origin, new BufferReadMessage(msg
+                .getBytes())));
+        // A chunk that claims another total length for the same transfer.
+        final BufferWriteMessage bad = new BufferWriteMessage();
+        bad.writeLong(1);
+        bad.writeInt(200);
+        bad.writeInt(150);
+        bad.writeInt(10);
+        bad.writeArray(new byte[10]);
+        try {
+            transfers.readChunk(origin, new BufferReadMessage(bad.getBytes()));
+            fail("Accepted a chunk beyond the end of its transfer");
+        } catch (final IOException x) {
+            // Expected.
+        }
+    }
+}
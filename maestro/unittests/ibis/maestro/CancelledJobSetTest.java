@@ -0,0 +1,46 @@
+package ibis.maestro;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the set of cancelled jobs.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class CancelledJobSetTest extends TestCase {
+    /**
+     * Tests that a cancellation is found exactly once, and only for the
+     * master that sent it.
+     */
+    @Test
+    public void testAddRemove() {
+        final CancelledJobSet s = new CancelledJobSet();
+        final TestIbis m1 = new TestIbis("m1");
+        final TestIbis m2 = new TestIbis("m2");
+        assertFalse(s.remove(m1, 1));
+        s.add(m1, 1);
+        s.add(m2, 2);
+        assertFalse(s.remove(m2, 1));
+        assertTrue(s.remove(m1, 1));
+        assertFalse(s.remove(m1, 1));
+        assertTrue(s.remove(m2, 2));
+    }
+
+    /**
+     * Tests that only the most recent cancellations are remembered.
+     */
+    @Test
+    public void testBounded() {
+        final CancelledJobSet s = new CancelledJobSet();
+        final TestIbis m = new TestIbis("m");
+        for (long id = 0; id < 2000; id++) {
+            s.add(m, id);
+        }
+        assertFalse(s.remove(m, 0));
+        assertFalse(s.remove(m, 999));
+        assertTrue(s.remove(m, 1000));
+        assertTrue(s.remove(m, 1999));
+    }
+}
@@ -0,0 +1,142 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the weighted fair sharing of queues.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class FairShareTest extends TestCase {
+    private static final int BURST = 10;
+
+    private static class J implements AtomicJob {
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+
+        @Override
+        public Serializable run(Serializable input) throws JobFailedException {
+            return input;
+        }
+    }
+
+    /** Records the keys of the entries, as a queue would. */
+    private static class Keys implements FairShare.Rekeyer<Object> {
+        private final HashMap<Object, Long> keys = new HashMap<Object, Long>();
+
+        private int rekeyed = 0;
+
+        @Override
+        public void rekey(final Object entry, final JobType type,
+                final long key) {
+            keys.put(entry, key);
+            rekeyed++;
+        }
+
+        private long add(final FairShare<Object> share, final JobList jobs,
+                final JobInstance job, final JobType type) {
+            final Object entry = new Object();
+            keys.put(entry, share.computeKey(jobs, job, type, entry));
+            return keys.get(entry);
+        }
+    }
+
+    private static long[] addBurst(final FairShare<Object> share,
+            final JobList jobs, final JobType type, final TestIbis submitter,
+            final double weight) {
+        final long keys[] = new long[BURST];
+        final Keys k = new Keys();
+        for (int i = 0; i < BURST; i++) {
+            final JobInstanceIdentifier jii = new JobInstanceIdentifier(
+                    null, Integer.valueOf(i), submitter, weight);
+            final JobInstance job = new JobInstance(jii, null, type, 0,
+                    JobPriority.NORMAL, 0L);
+            keys[i] = k.add(share, jobs, job, type);
+        }
+        return keys;
+    }
+
+    /**
+     * Tests that the jobs of a tenant are postponed in proportion to the
+     * inverse of its share.
+     */
+    @Test
+    public void testSubmitterShares() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J());
+        final FairShare<Object> share = new FairShare<Object>("test",
+                new Keys());
+        final long light[] = addBurst(share, jobs, type, new TestIbis("a"),
+                1.0);
+        final long heavy[] = addBurst(share, jobs, type, new TestIbis("b"),
+                4.0);
+        final long q = Settings.FAIR_SHARE_QUANTUM;
+        assertEquals((BURST - 1) * q, light[BURST - 1] - light[0], q / 2);
+        assertEquals((BURST - 1) * q / 4, heavy[BURST - 1] - heavy[0], q / 2);
+        // The second job of the light tenant comes after the first four of
+        // the heavy tenant.
+        assertTrue(light[1] > heavy[3]);
+    }
+
+    /**
+     * Tests that the weight of a job type counts, and that tenants of
+     * different types don't postpone each other.
+     */
+    @Test
+    public void testTypeWeights() {
+        final JobList jobs = new JobList();
+        final J j1 = new J();
+        final J j2 = new J();
+        final JobType t1 = jobs.registerJob(j1);
+        final JobType t2 = jobs.registerJob(j2);
+        jobs.setWeight(j2, 2.0);
+        final FairShare<Object> share = new FairShare<Object>("test",
+                new Keys());
+        final TestIbis submitter = new TestIbis("a");
+        final long k1[] = addBurst(share, jobs, t1, submitter, 1.0);
+        final long k2[] = addBurst(share, jobs, t2, submitter, 1.0);
+        final long q = Settings.FAIR_SHARE_QUANTUM;
+        assertTrue(k2[0] < k1[1]);
+        assertEquals((BURST - 1) * q / 2, k2[BURST - 1] - k2[0], q / 2);
+    }
+
+    /**
+     * Tests that the jobs of a single tenant stay in deadline order: a later
+     * job with a tighter deadline takes the shortest delay, and the queued
+     * jobs with a later deadline move to a later slot.
+     */
+    @Test
+    public void testDeadlineOrderWithinTenant() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J());
+        final Keys k = new Keys();
+        final FairShare<Object> share = new FairShare<Object>("test", k);
+        final TestIbis submitter = new TestIbis("a");
+        final long deadlines[] = { 3000L, 1000L, 2000L };
+        final Object entries[] = new Object[deadlines.length];
+        for (int i = 0; i < deadlines.length; i++) {
+            final JobInstanceIdentifier jii = new JobInstanceIdentifier(
+                    null, Integer.valueOf(i), submitter, 1.0);
+            final JobInstance job = new JobInstance(jii, null, type, 0,
+                    JobPriority.NORMAL, deadlines[i]);
+            entries[i] = new Object();
+            k.keys.put(entries[i], share.computeKey(jobs, job, type,
+                    entries[i]));
+        }
+        final long first = k.keys.get(entries[1]);
+        final long second = k.keys.get(entries[2]);
+        final long third = k.keys.get(entries[0]);
+        assertTrue(first < second);
+        assertTrue(second < third);
+        // The most urgent job is not postponed by the backlog of its tenant.
+        assertTrue(first < 1000L + Settings.FAIR_SHARE_QUANTUM);
+        assertTrue(k.rekeyed > 0);
+    }
+}
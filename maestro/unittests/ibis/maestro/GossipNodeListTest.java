@@ -0,0 +1,90 @@
+package ibis.maestro;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the list of nodes to gossip with.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class GossipNodeListTest extends TestCase {
+    private static final long NORMAL = Settings.GOSSIP_EXPIRATION_IN_CLUSTER;
+
+    private static final TestIbis local = new TestIbis("local", "c1");
+
+    private static final TestIbis peer = new TestIbis("peer", "c1");
+
+    /**
+     * Gossips to the peer once the given interval after the given moment
+     * has elapsed, and not before.
+     * 
+     * @return The moment of the update.
+     */
+    private static long expectUpdate(final GossipNodeList l, final long from,
+            final long interval) {
+        final long due = from + interval;
+        assertNull(l.getStaleNode(due - 1));
+        assertEquals(peer, l.getStaleNode(due));
+        return due;
+    }
+
+    /**
+     * Tests that the interval of a peer doubles while our state doesn't
+     * change, up to the backoff limit, and returns to normal on a change.
+     */
+    @Test
+    public void testBackoff() {
+        if (!Settings.ADAPTIVE_GOSSIP) {
+            return;
+        }
+        final GossipNodeList l = new GossipNodeList(local);
+        l.add(local);
+        l.add(peer);
+        assertEquals(1, l.size());
+        long now = 1000000L;
+        assertEquals(peer, l.getStaleNode(now));
+        long interval = NORMAL;
+        while (interval < NORMAL * Settings.GOSSIP_INTERVAL_BACKOFF_LIMIT) {
+            now = expectUpdate(l, now, interval);
+            interval *= 2;
+        }
+        assertEquals(NORMAL * Settings.GOSSIP_INTERVAL_BACKOFF_LIMIT, interval);
+        now = expectUpdate(l, now, interval);
+        // Capped at the limit.
+        now = expectUpdate(l, now, interval);
+
+        // A change that isn't sharp only resets the interval after the
+        // update that was already planned.
+        l.registerStateChange(false);
+        now = expectUpdate(l, now, interval);
+        now = expectUpdate(l, now, NORMAL);
+    }
+
+    /**
+     * Tests that a sharp change halves the interval, and moves the next
+     * update forward, down to the speedup limit.
+     */
+    @Test
+    public void testHalving() {
+        if (!Settings.ADAPTIVE_GOSSIP) {
+            return;
+        }
+        final GossipNodeList l = new GossipNodeList(local);
+        l.add(peer);
+        long now = 1000000L;
+        assertEquals(peer, l.getStaleNode(now));
+        l.registerStateChange(true);
+        now = expectUpdate(l, now, NORMAL / 2);
+        final long minimal = NORMAL / Settings.GOSSIP_INTERVAL_SPEEDUP_LIMIT;
+        for (int i = 0; i < 10; i++) {
+            l.registerStateChange(true);
+        }
+        now = expectUpdate(l, now, minimal);
+        // Once the change has been sent without further changes, the
+        // interval backs off again.
+        now = expectUpdate(l, now, minimal);
+        now = expectUpdate(l, now, 2 * minimal);
+    }
+}
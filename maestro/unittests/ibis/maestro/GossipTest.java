@@ -1,6 +1,7 @@
 package ibis.maestro;
 
 import ibis.ipl.IbisIdentifier;
+import ibis.steel.ConstantEstimate;
 import ibis.steel.Estimate;
 import ibis.steel.GaussianEstimate;
 
@@ -105,6 +106,213 @@ public class GossipTest extends TestCase {
         // FIXME: better gossip test.
     }
 
+    /**
+     * Tests the summary of a cluster of two nodes.
+     */
+    @Test
+    public void testClusterSummary() {
+        final JobList jobs = new JobList();
+        final Job j1 = new J1();
+        jobs.registerJob(j1);
+        final JobType tj1 = jobs.getJobType(j1);
+
+        final Gossip g1 = new Gossip(jobs, null);
+        g1.setLocalComputeTime(tj1, new GaussianEstimate(1.0, 0, 1));
+        g1.setWorkerQueueTimePerJob(tj1, new GaussianEstimate(0.1, 0, 1), 2);
+        final Gossip g2 = new Gossip(jobs, null);
+        g2.setLocalComputeTime(tj1, new GaussianEstimate(2.0, 0, 1));
+        g2.setWorkerQueueTimePerJob(tj1, new GaussianEstimate(0.2, 0, 1), 3);
+        final NodePerformanceInfo members[] = new NodePerformanceInfo[] {
+                g1.getLocalUpdate(), g2.getLocalUpdate() };
+        final NodePerformanceInfo summary = NodePerformanceInfo
+                .buildClusterSummary(null, members, 1L);
+        assertTrue(summary.isClusterSummary());
+        assertFalse(members[0].isClusterSummary());
+        assertEquals(2, summary.getNodeCount());
+        assertEquals(5, summary.getQueueLength());
+        assertEquals(summary.getNodeCount(), summary.getDeepCopy()
+                .getNodeCount());
+    }
+
+    /**
+     * Tests which gossip a node keeps in hierarchical gossip: details about
+     * its own cluster, and summaries of the other clusters.
+     */
+    @Test
+    public void testHierarchyFilter() {
+        final JobList jobs = new JobList();
+        jobs.registerJob(new J1());
+        final TestIbis local = new TestIbis("a", "c1");
+        final NodePerformanceInfo sameCluster = new Gossip(jobs, new TestIbis(
+                "b", "c1")).getLocalUpdate();
+        final NodePerformanceInfo otherCluster = new Gossip(jobs,
+                new TestIbis("c", "c2")).getLocalUpdate();
+        assertTrue(Gossip.isKeptInHierarchy(local, sameCluster));
+        assertFalse(Gossip.isKeptInHierarchy(local, otherCluster));
+        assertTrue(Gossip.isKeptInHierarchy(local, NodePerformanceInfo
+                .buildClusterSummary(otherCluster.source,
+                        new NodePerformanceInfo[] { otherCluster }, 1L)));
+        assertFalse(Gossip.isKeptInHierarchy(local, NodePerformanceInfo
+                .buildClusterSummary(sameCluster.source,
+                        new NodePerformanceInfo[] { sameCluster }, 1L)));
+    }
+
+    /**
+     * Tests that the summary of a newly elected representative replaces the
+     * summary of the previous representative of its cluster, and only that
+     * one.
+     */
+    @Test
+    public void testRemoveOtherSummaries() {
+        final JobList jobs = new JobList();
+        jobs.registerJob(new J1());
+        final Gossip gossip = new Gossip(jobs, new TestIbis("a", "c1"));
+        final TestIbis oldRepresentative = new TestIbis("b", "c2");
+        final TestIbis newRepresentative = new TestIbis("c", "c2");
+        final TestIbis otherRepresentative = new TestIbis("d", "c3");
+        final TestIbis representatives[] = new TestIbis[] { oldRepresentative,
+                otherRepresentative, newRepresentative };
+        for (final TestIbis r : representatives) {
+            final NodePerformanceInfo members[] = new NodePerformanceInfo[] { new Gossip(
+                    jobs, r).getLocalUpdate() };
+            assertTrue(gossip.register(NodePerformanceInfo.buildClusterSummary(
+                    r, members, 1L)));
+        }
+        assertEquals(4, gossip.getCopy().length);
+        gossip.removeOtherSummaries(newRepresentative);
+        final NodePerformanceInfo l[] = gossip.getCopy();
+        assertEquals(3, l.length);
+        for (final NodePerformanceInfo info : l) {
+            assertFalse(oldRepresentative.equals(info.source));
+        }
+    }
+
+    /**
+     * Tests that the staleness of a peer is only known once we know which of
+     * our information it has seen.
+     */
+    @Test
+    public void testPeerStaleness() {
+        final JobList jobs = new JobList();
+        jobs.registerJob(new J1());
+        final TestIbis local = new TestIbis("a");
+        final TestIbis peer = new TestIbis("b");
+        final Gossip gossip = new Gossip(jobs, local);
+        assertEquals(-1, gossip.getPeerStaleness(peer));
+        final NodePerformanceInfo info = gossip.getLocalUpdate();
+        gossip.registerPeerKnowledge(peer, info);
+        final long staleness = gossip.getPeerStaleness(peer);
+        assertTrue(staleness >= 0);
+        assertTrue(staleness <= (System.nanoTime() - info.timeStamp) / 1000000L);
+    }
+
+    /**
+     * Tests the detection of sharp changes in adaptive gossip.
+     */
+    @Test
+    public void testSharpChange() {
+        assertFalse(Gossip.isSharpChange(1.0, 1.2));
+        assertTrue(Gossip.isSharpChange(1.0, 3.0));
+        assertTrue(Gossip.isSharpChange(3.0, 1.0));
+        assertTrue(Gossip.isSharpChange(1.0, Double.POSITIVE_INFINITY));
+        assertFalse(Gossip.isSharpChange(Double.POSITIVE_INFINITY,
+                Double.POSITIVE_INFINITY));
+    }
+
+    private static void setLocalTimes(final Gossip g, final JobList jobs,
+            final double time) {
+        final JobType types[] = jobs.getAllTypes();
+        for (int i = 0; i < types.length; i++) {
+            g.setLocalComputeTime(types[i], new ConstantEstimate(time * (i + 1)));
+            g.setWorkerQueueTimePerJob(types[i], new ConstantEstimate(
+                    0.1 * time), 1);
+        }
+    }
+
+    /**
+     * Builds the gossip of a node with the given name that executes jobs of
+     * every type with the given speed.
+     */
+    private static NodePerformanceInfo buildNode(final JobList jobs,
+            final String name, final double time,
+            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap) {
+        final TestIbis ibis = new TestIbis(name);
+        final Gossip g = new Gossip(jobs, ibis);
+        setLocalTimes(g, jobs, time);
+        final LocalNodeInfo infoPerType[] = new LocalNodeInfo[jobs
+                .getTypeCount()];
+        for (int i = 0; i < infoPerType.length; i++) {
+            infoPerType[i] = new LocalNodeInfo(1, new ConstantEstimate(
+                    0.01 * (i + 1)), new ConstantEstimate(time));
+        }
+        final HashMap<IbisIdentifier, LocalNodeInfoList> m = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+        final LocalNodeInfoList info = new LocalNodeInfoList(false,
+                infoPerType);
+        m.put(ibis, info);
+        localNodeInfoMap.put(ibis, info);
+        g.recomputeCompletionTimes(null, jobs, m);
+        return g.getLocalUpdate();
+    }
+
+    /**
+     * Tests that recomputing the completion times incrementally, after some
+     * of the gossip has changed, gives the same result as a full
+     * recomputation from scratch.
+     */
+    @Test
+    public void testIncrementalRecomputation() {
+        final JobList jobs = new JobList();
+        final Job j1 = new J1();
+        final Job j2 = new J2();
+        jobs.registerJob(j1);
+        jobs.registerJob(j2);
+        jobs.registerJob(new SeriesJob(j1, j2));
+        final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+        final NodePerformanceInfo a = buildNode(jobs, "a", 1.0,
+                localNodeInfoMap);
+        final NodePerformanceInfo b = buildNode(jobs, "b", 2.0,
+                localNodeInfoMap);
+        final NodePerformanceInfo c = buildNode(jobs, "c", 3.0,
+                localNodeInfoMap);
+        final TestIbis local = new TestIbis("local");
+        buildNode(jobs, "local", 4.0, localNodeInfoMap);
+
+        // Only constant estimates, so that the likely values are the same
+        // in both computations.
+        final Gossip incremental = new Gossip(jobs, local);
+        setLocalTimes(incremental, jobs, 4.0);
+        incremental.register(a);
+        incremental.register(b);
+        incremental.register(c);
+        incremental.recomputeCompletionTimes(null, jobs, localNodeInfoMap);
+        incremental.recomputeCompletionTimes(null, jobs, localNodeInfoMap);
+        final NodePerformanceInfo fast = buildNode(jobs, "c", 0.5,
+                localNodeInfoMap);
+        assertTrue(incremental.register(fast));
+        incremental.recomputeCompletionTimes(null, jobs, localNodeInfoMap);
+        incremental.recomputeCompletionTimes(null, jobs, localNodeInfoMap);
+
+        final Gossip full = new Gossip(jobs, local);
+        setLocalTimes(full, jobs, 4.0);
+        full.register(a);
+        full.register(b);
+        full.register(fast);
+        full.recomputeCompletionTimes(null, jobs, localNodeInfoMap);
+
+        final Estimate expected[][] = full.getLocalUpdate().completionInfo;
+        final Estimate actual[][] = incremental.getLocalUpdate().completionInfo;
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].length, actual[i].length);
+            for (int j = 0; j < expected[i].length; j++) {
+                assertEquals(expected[i][j].getLikelyValue(), actual[i][j]
+                        .getLikelyValue(), 1e-9);
+                assertEquals(expected[i][j].getHighEstimate(), actual[i][j]
+                        .getHighEstimate(), 1e-9);
+            }
+        }
+    }
+
     private LocalNodeInfo[] buildLocalNodeInfoList(final int[] queueLengths,
             final double[] transmissionTimes, final double[] completionTimes) {
         final LocalNodeInfo res[] = new LocalNodeInfo[queueLengths.length];
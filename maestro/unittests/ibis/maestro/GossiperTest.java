@@ -0,0 +1,70 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the gossiper.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class GossiperTest extends TestCase {
+    private static final TestIbis a = new TestIbis("a", "c1");
+
+    private static final TestIbis b = new TestIbis("b", "c1");
+
+    private static final TestIbis c = new TestIbis("c", "c1");
+
+    private static final TestIbis d = new TestIbis("d", "c2");
+
+    private static final TestIbis e = new TestIbis("e", "c2");
+
+    private static final TestIbis f = new TestIbis("f", "c3");
+
+    /**
+     * Tests that every cluster elects its member with the lowest identifier
+     * as representative, whatever the order in which the nodes are known.
+     */
+    @Test
+    public void testRepresentativeElection() {
+        final ArrayList<IbisIdentifier> l = Gossiper.electRepresentatives(b,
+                Arrays.<IbisIdentifier> asList(e, c, f, a, d));
+        assertEquals(3, l.size());
+        assertTrue(l.contains(a));
+        assertTrue(l.contains(d));
+        assertTrue(l.contains(f));
+        assertFalse(l.contains(b));
+
+        final ArrayList<IbisIdentifier> l2 = Gossiper.electRepresentatives(e,
+                Arrays.<IbisIdentifier> asList(b));
+        assertEquals(2, l2.size());
+        assertTrue(l2.contains(e));
+        assertTrue(l2.contains(b));
+    }
+
+    /**
+     * Tests that a node gossips with its own cluster, and only a
+     * representative gossips with the representatives of other clusters.
+     */
+    @Test
+    public void testGossipTargets() {
+        final ArrayList<IbisIdentifier> known = new ArrayList<IbisIdentifier>(
+                Arrays.<IbisIdentifier> asList(a, c, d, e, f));
+        final ArrayList<IbisIdentifier> representatives = Gossiper
+                .electRepresentatives(b, known);
+        assertTrue(Gossiper.isGossipTarget(b, a, representatives));
+        assertTrue(Gossiper.isGossipTarget(b, c, representatives));
+        assertFalse(Gossiper.isGossipTarget(b, d, representatives));
+        assertFalse(Gossiper.isGossipTarget(b, f, representatives));
+
+        assertTrue(Gossiper.isGossipTarget(a, d, representatives));
+        assertTrue(Gossiper.isGossipTarget(a, f, representatives));
+        assertFalse(Gossiper.isGossipTarget(a, e, representatives));
+    }
+}
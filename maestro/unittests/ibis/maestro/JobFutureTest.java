@@ -0,0 +1,109 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the future result of a job.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class JobFutureTest extends TestCase {
+    private static class RecordingListener implements JobCompletionListener {
+        final ArrayList<Serializable> results = new ArrayList<Serializable>();
+
+        Object id = null;
+
+        @Override
+        public void jobCompleted(final Node node, final Object jobId,
+                final Serializable result) {
+            id = jobId;
+            results.add(result);
+        }
+    }
+
+    /**
+     * Tests that the result is delivered once to listeners registered before
+     * and after the completion, and to waiters.
+     * 
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testListeners() throws Exception {
+        final JobFuture future = new JobFuture();
+        final RecordingListener early = new RecordingListener();
+        future.addListener(early);
+        try {
+            future.get(1, TimeUnit.MILLISECONDS);
+            fail("Expected a timeout");
+        } catch (final TimeoutException x) {
+            // Expected.
+        }
+        final JobCompletionListener completion = future.getListener();
+        completion.jobCompleted(null, null, "result");
+        // A second completion, for example of a speculative copy, is ignored.
+        completion.jobCompleted(null, null, "other");
+        assertTrue(future.isDone());
+        assertEquals("result", future.get());
+        assertEquals(1, early.results.size());
+        assertEquals("result", early.results.get(0));
+        assertSame(future, early.id);
+        final RecordingListener late = new RecordingListener();
+        future.addListener(late);
+        assertEquals(1, late.results.size());
+        assertEquals("result", late.results.get(0));
+    }
+
+    /**
+     * Tests that a cancelled future never delivers its result.
+     * 
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testCancel() throws Exception {
+        final JobFuture future = new JobFuture();
+        final RecordingListener listener = new RecordingListener();
+        future.addListener(listener);
+        assertTrue(future.cancel(false));
+        future.getListener().jobCompleted(null, null, "result");
+        assertTrue(future.isCancelled());
+        assertTrue(listener.results.isEmpty());
+        try {
+            future.get();
+            fail("Expected a cancellation");
+        } catch (final CancellationException x) {
+            // Expected.
+        }
+        assertFalse(future.cancel(false));
+    }
+
+    /**
+     * Tests that a future whose job is abandoned because the node stopped
+     * is cancelled, so that waiters don't block forever.
+     * 
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testNodeStopped() throws Exception {
+        final JobFuture future = new JobFuture();
+        ((CancellableCompletionListener) future.getListener()).jobCancelled(
+                null, null);
+        assertTrue(future.isCancelled());
+        try {
+            future.get();
+            fail("Expected a cancellation");
+        } catch (final CancellationException x) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the demand-driven stream of job results.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class JobResultStreamTest extends TestCase {
+    /** Records the submissions, so that the test can complete them. */
+    private static class TestSubmitter implements JobSubmitter {
+        final ArrayList<Serializable> inputs = new ArrayList<Serializable>();
+
+        final ArrayList<Serializable> ids = new ArrayList<Serializable>();
+
+        final ArrayList<JobCompletionListener> listeners = new ArrayList<JobCompletionListener>();
+
+        @Override
+        public void submitAsync(final Serializable input,
+                final Serializable userId,
+                final JobCompletionListener listener, final Job job) {
+            inputs.add(input);
+            ids.add(userId);
+            listeners.add(listener);
+        }
+
+        void complete(final int i) {
+            listeners.get(i).jobCompleted(null, ids.get(i), "r" + inputs.get(i));
+        }
+    }
+
+    private static Iterator<Integer> range(final int n) {
+        final Integer l[] = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            l[i] = Integer.valueOf(i);
+        }
+        return Arrays.asList(l).iterator();
+    }
+
+    /**
+     * Tests that inputs are only submitted on demand, and that results are
+     * delivered in completion order with the index of their input.
+     * 
+     * @throws InterruptedException
+     *             Thrown if the test is interrupted.
+     */
+    @Test
+    public void testDemand() throws InterruptedException {
+        final TestSubmitter submitter = new TestSubmitter();
+        final JobResultStream stream = new JobResultStream(submitter,
+                range(5), null);
+        assertNull(stream.take());
+        stream.request(3);
+        assertEquals(3, submitter.inputs.size());
+        assertNull(stream.poll());
+        submitter.complete(2);
+        submitter.complete(0);
+        JobResultStream.Result r = stream.take();
+        assertEquals(2, r.index);
+        assertEquals("r2", r.result);
+        r = stream.take();
+        assertEquals(0, r.index);
+        stream.request(10);
+        assertEquals(5, submitter.inputs.size());
+        assertFalse(stream.isFinished());
+        submitter.complete(1);
+        submitter.complete(3);
+        submitter.complete(4);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(stream.take());
+        }
+        assertTrue(stream.isFinished());
+        assertNull(stream.take());
+    }
+
+    /**
+     * Tests that a cancelled stream submits nothing more, and drops the
+     * results of jobs in flight.
+     * 
+     * @throws InterruptedException
+     *             Thrown if the test is interrupted.
+     */
+    @Test
+    public void testCancel() throws InterruptedException {
+        final TestSubmitter submitter = new TestSubmitter();
+        final JobResultStream stream = new JobResultStream(submitter,
+                range(5), null);
+        stream.request(2);
+        stream.cancel();
+        stream.request(2);
+        assertEquals(2, submitter.inputs.size());
+        submitter.complete(0);
+        assertNull(stream.poll());
+        assertNull(stream.take());
+        assertTrue(stream.isFinished());
+    }
+
+    /**
+     * Tests that a stream whose jobs are abandoned because the node stopped
+     * still delivers the results it has, and then finishes instead of
+     * waiting forever.
+     * 
+     * @throws InterruptedException
+     *             Thrown if the test is interrupted.
+     */
+    @Test
+    public void testNodeStopped() throws InterruptedException {
+        final TestSubmitter submitter = new TestSubmitter();
+        final JobResultStream stream = new JobResultStream(submitter,
+                range(5), null);
+        stream.request(2);
+        submitter.complete(0);
+        ((CancellableCompletionListener) submitter.listeners.get(1))
+                .jobCancelled(null, submitter.ids.get(1));
+        stream.request(2);
+        assertEquals(2, submitter.inputs.size());
+        assertEquals(0, stream.take().index);
+        assertNull(stream.take());
+        assertTrue(stream.isFinished());
+    }
+}
@@ -0,0 +1,151 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the master queue with the sorted list it replaced. Run it as a
+ * plain program; it reports the time per operation for a range of queue sizes,
+ * and the rate at which several threads together hand out jobs.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class MasterQueueBenchmark {
+    private static final int SIZES[] = { 1000, 10000, 100000 };
+
+    private static final int TYPES = 4;
+
+    private static final int REPEATS = 5;
+
+    private static class J1 implements AtomicJob {
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+
+        @Override
+        public Serializable run(Serializable input) throws JobFailedException {
+            return input;
+        }
+    }
+
+    /** The old implementation: one list, kept sorted with a binary search. */
+    private static class SortedListQueue {
+        private final ArrayList<JobInstance> queue = new ArrayList<JobInstance>();
+
+        void add(JobInstance e) {
+            int start = 0;
+            int end = queue.size();
+            final long ids[] = e.jobInstance.ids;
+            while (start < end) {
+                final int mid = (start + end) / 2;
+                if (Utils.compareIds(queue.get(mid).jobInstance.ids, ids) < 0) {
+                    start = mid + 1;
+                } else {
+                    end = mid;
+                }
+            }
+            queue.add(start, e);
+        }
+
+        void removeDuplicates(JobInstance job) {
+            while (queue.remove(job)) {
+                // Repeat until all have been removed.
+            }
+        }
+
+        JobInstance remove() {
+            if (queue.isEmpty()) {
+                return null;
+            }
+            return queue.remove(0);
+        }
+    }
+
+    private static JobInstance[] buildJobs(JobType types[], int n, Random rng) {
+        final JobInstance res[] = new JobInstance[n];
+        for (int i = 0; i < n; i++) {
+            final long id = rng.nextInt(Integer.MAX_VALUE);
+            final JobInstanceIdentifier jii = new JobInstanceIdentifier(id, id,
+                    null);
+            res[i] = new JobInstance(jii, 0, types[i % types.length], 0);
+        }
+        return res;
+    }
+
+    private static double runList(JobInstance l[]) {
+        final double start = Utils.getPreciseTime();
+        final SortedListQueue q = new SortedListQueue();
+        for (final JobInstance e : l) {
+            q.add(e);
+        }
+        for (int i = 0; i < l.length; i += 2) {
+            q.removeDuplicates(l[i]);
+        }
+        while (q.remove() != null) {
+            // Drain the queue.
+        }
+        return Utils.getPreciseTime() - start;
+    }
+
+    private static double runMasterQueue(JobList jobs, JobInstance l[]) {
+        final double start = Utils.getPreciseTime();
+        final MasterQueue q = new MasterQueue(jobs.getAllTypes());
+        for (final JobInstance e : l) {
+            q.add(jobs, e);
+        }
+        for (int i = 0; i < l.length; i += 2) {
+            q.removeDuplicates(jobs, l[i]);
+        }
+        while (q.remove() != null) {
+            // Drain the queue.
+        }
+        return Utils.getPreciseTime() - start;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            Ignored.
+     */
+    public static void main(String args[]) {
+        final JobList jobs = new JobList();
+        final JobType types[] = new JobType[TYPES];
+        for (int i = 0; i < TYPES; i++) {
+            types[i] = jobs.registerJob(new J1());
+        }
+        final Random rng = new Random(12345L);
+        for (final int n : SIZES) {
+            final JobInstance l[] = buildJobs(types, n, rng);
+            double bestList = Double.POSITIVE_INFINITY;
+            double bestQueue = Double.POSITIVE_INFINITY;
+            for (int r = 0; r < REPEATS; r++) {
+                bestList = Math.min(bestList, runList(l));
+                bestQueue = Math.min(bestQueue, runMasterQueue(jobs, l));
+            }
+            // Each entry is added once, half of them are removed as
+            // duplicates, and the rest is drained.
+            final int operations = 2 * n;
+            System.out.println(String.format(
+                    "%7d entries: sorted list %10s/op, master queue %10s/op",
+                    n, Utils.formatSeconds(bestList / operations),
+                    Utils.formatSeconds(bestQueue / operations)));
+        }
+        try {
+            // Warm up, so that the first measurement isn't dominated by the
+            // compiler.
+            MasterQueueTest.drainInParallel(1);
+            for (int threads = 1; threads <= 4; threads *= 2) {
+                final double throughput = MasterQueueTest
+                        .drainInParallel(threads);
+                System.out.println(String.format(
+                        "%d thread(s) hand out %.0f jobs/s", threads,
+                        throughput));
+            }
+        } catch (final Exception x) {
+            System.err.println("Parallel drain failed: " + x);
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package ibis.maestro;
 
+import ibis.ipl.IbisIdentifier;
+import ibis.steel.ConstantEstimate;
+import ibis.steel.Estimate;
+import ibis.steel.GaussianEstimate;
+
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.TestCase;
 
@@ -79,4 +87,259 @@ public class MasterQueueTest extends TestCase {
         }
     }
 
+    /** */
+    @SuppressWarnings("synthetic-access")
+    @Test
+    public void testMixedTypes() {
+        JobList jobs = new JobList();
+        JobType t1 = jobs.registerJob(new J1());
+        JobType t2 = jobs.registerJob(new J1());
+        JobType l[] = jobs.getAllTypes();
+        MasterQueue queue = new MasterQueue(l);
+
+        addToQueue(jobs, t1, queue, 5, 1, 7);
+        addToQueue(jobs, t2, queue, 6, 0, 2);
+        removeFromQueue(queue, 0, 1, 2, 5, 6, 7);
+        if (!queue.isEmpty()) {
+            fail("Queue should be empty");
+        }
+    }
+
+    /** */
+    @SuppressWarnings("synthetic-access")
+    @Test
+    public void testRemoveDuplicates() {
+        JobList jobs = new JobList();
+        JobType type = jobs.registerJob(new J1());
+        JobType l[] = jobs.getAllTypes();
+        MasterQueue queue = new MasterQueue(l);
+
+        JobInstanceIdentifier jii = new JobInstanceIdentifier(3, 3, null);
+        JobInstance ti = new JobInstance(jii, 0, type, 0);
+        JobInstance other = new JobInstance(jii, 0, type, 0);
+        addToQueue(jobs, type, queue, 4, 2);
+        queue.add(jobs, ti);
+        queue.add(jobs, other);
+        queue.add(jobs, ti);
+        queue.removeDuplicates(jobs, ti);
+        removeFromQueue(queue, 2, 3, 4);
+        if (!queue.isEmpty()) {
+            fail("Queue should be empty");
+        }
+    }
+
+    /** */
+    @SuppressWarnings("synthetic-access")
+    @Test
+    public void testDeadlines() {
+        JobList jobs = new JobList();
+        JobType t1 = jobs.registerJob(new J1());
+        JobType t2 = jobs.registerJob(new J1());
+        JobType l[] = jobs.getAllTypes();
+        MasterQueue queue = new MasterQueue(l);
+
+        addToQueue(jobs, t1, queue, 0, 1);
+        long deadlines[] = { 300L, 100L, 200L };
+        for (int i = 0; i < deadlines.length; i++) {
+            JobInstanceIdentifier jii = new JobInstanceIdentifier(2 + i,
+                    2 + i, null);
+            queue.add(jobs, new JobInstance(jii, 0, t2, 0,
+                    JobPriority.NORMAL, deadlines[i]));
+        }
+        removeFromQueue(queue, 3, 4, 2, 0, 1);
+        if (!queue.isEmpty()) {
+            fail("Queue should be empty");
+        }
+    }
+
+    /** */
+    @SuppressWarnings("synthetic-access")
+    @Test
+    public void testFairShare() {
+        JobList jobs = new JobList();
+        JobType t1 = jobs.registerJob(new J1());
+        JobType t2 = jobs.registerJob(new J1());
+        JobType l[] = jobs.getAllTypes();
+        MasterQueue queue = new MasterQueue(l);
+
+        // A burst of jobs of one type should not hold up a later job of
+        // another type with the same deadline.
+        for (int i = 0; i < 6; i++) {
+            JobInstanceIdentifier jii = new JobInstanceIdentifier(i, i, null);
+            queue.add(jobs, new JobInstance(jii, 0, i < 5 ? t1 : t2, 0,
+                    JobPriority.NORMAL, 1000L));
+        }
+        if (Settings.FAIR_SHARE) {
+            removeFromQueue(queue, 0, 5, 1, 2, 3, 4);
+        } else {
+            removeFromQueue(queue, 0, 1, 2, 3, 4, 5);
+        }
+        if (!queue.isEmpty()) {
+            fail("Queue should be empty");
+        }
+    }
+
+    /**
+     * A scheduler for a number of identical workers with more capacity than
+     * the jobs in the queue.
+     */
+    private static final class TestScheduler implements MasterQueue.Scheduler {
+        private final NodePerformanceInfo tables[];
+
+        private final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+
+        private final AtomicLong nextJobId = new AtomicLong();
+
+        TestScheduler(int workers, int typeCount) {
+            tables = new NodePerformanceInfo[workers];
+            for (int i = 0; i < workers; i++) {
+                IbisIdentifier ibis = new TestIbis("worker" + i);
+                Estimate completionInfo[][] = new Estimate[typeCount][];
+                WorkerQueueInfo queueInfo[] = new WorkerQueueInfo[typeCount];
+                LocalNodeInfo localInfo[] = new LocalNodeInfo[typeCount];
+                for (int t = 0; t < typeCount; t++) {
+                    Estimate executionTime = new GaussianEstimate(0.01,
+                            1e-6, 10);
+                    completionInfo[t] = new Estimate[] { ConstantEstimate.ZERO };
+                    queueInfo[t] = new WorkerQueueInfo(0, 0,
+                            ConstantEstimate.ZERO, executionTime);
+                    localInfo[t] = new LocalNodeInfo(0,
+                            ConstantEstimate.ZERO, executionTime);
+                }
+                tables[i] = new NodePerformanceInfo(completionInfo, queueInfo,
+                        ibis, 1000000, 0L);
+                localNodeInfoMap.put(ibis, new LocalNodeInfoList(false,
+                        localInfo));
+            }
+        }
+
+        @Override
+        public NodePerformanceInfo[] getTables() {
+            return tables;
+        }
+
+        @Override
+        public HashMap<IbisIdentifier, LocalNodeInfoList> getLocalNodeInfo() {
+            return localNodeInfoMap;
+        }
+
+        @Override
+        public boolean reserve(Submission submission) {
+            submission.jobId = nextJobId.getAndIncrement();
+            return true;
+        }
+
+        @Override
+        public void cancel(Submission submission) {
+            // Nothing to release.
+        }
+    }
+
+    /**
+     * Drains a queue with jobs of many types with the given number of
+     * threads, and returns the throughput. Also used by
+     * {@link MasterQueueBenchmark}.
+     */
+    static double drainInParallel(int threadCount) throws Exception {
+        final int typeCount = 64;
+        final int jobCount = 20000;
+        final JobList jobs = new JobList();
+        JobType types[] = new JobType[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            types[i] = jobs.registerJob(new J1());
+        }
+        final MasterQueue queue = new MasterQueue(jobs.getAllTypes());
+        for (int i = 0; i < jobCount; i++) {
+            JobInstanceIdentifier jii = new JobInstanceIdentifier(i, i, null);
+            queue.add(jobs, new JobInstance(jii, 0, types[i % typeCount], 0));
+        }
+        final TestScheduler scheduler = new TestScheduler(16, typeCount);
+        final HashSet<JobInstance> handedOut = new HashSet<JobInstance>();
+        final int duplicates[] = new int[1];
+        Thread threads[] = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    while (true) {
+                        Submission sub = queue.getSubmission(jobs, scheduler);
+                        if (sub == null) {
+                            break;
+                        }
+                        synchronized (handedOut) {
+                            if (!handedOut.add(sub.jobInstance)) {
+                                duplicates[0]++;
+                            }
+                        }
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double duration = (System.nanoTime() - start) * 1e-9;
+        assertTrue(queue.isEmpty());
+        assertEquals(0, duplicates[0]);
+        assertEquals(jobCount, handedOut.size());
+        return jobCount / duration;
+    }
+
+    /**
+     * Drains a queue with jobs of many types with 1, 2 and 4 threads. Every
+     * job must be handed out exactly once.
+     * 
+     * @throws Exception
+     *             Thrown if a thread is interrupted.
+     */
+    @Test
+    public void testParallelDrain() throws Exception {
+        for (int threads = 1; threads <= 4; threads *= 2) {
+            drainInParallel(threads);
+        }
+    }
+
+    /**
+     * Tests that a job whose type is claimed by a thread that is looking for
+     * a worker is still removed, and that the claiming thread then doesn't
+     * hand it out.
+     */
+    @Test
+    public void testRemoveClaimed() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J1());
+        final MasterQueue queue = new MasterQueue(jobs.getAllTypes());
+        addToQueue(jobs, type, queue, 1);
+        final TestScheduler workers = new TestScheduler(1, 1);
+        final JobInstance removed[] = new JobInstance[1];
+        final MasterQueue.Scheduler scheduler = new MasterQueue.Scheduler() {
+            @Override
+            public NodePerformanceInfo[] getTables() {
+                return workers.getTables();
+            }
+
+            @Override
+            public HashMap<IbisIdentifier, LocalNodeInfoList> getLocalNodeInfo() {
+                return workers.getLocalNodeInfo();
+            }
+
+            @Override
+            public boolean reserve(Submission submission) {
+                removed[0] = queue.remove();
+                return workers.reserve(submission);
+            }
+
+            @Override
+            public void cancel(Submission submission) {
+                workers.cancel(submission);
+            }
+        };
+        assertNull(queue.getSubmission(jobs, scheduler));
+        assertNotNull(removed[0]);
+        assertTrue(queue.isEmpty());
+    }
 }
@@ -0,0 +1,243 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.steel.ConstantEstimate;
+import ibis.steel.Estimate;
+import ibis.steel.InfiniteEstimate;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests that every message survives a round trip through the message codec.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class MessageCodecTest extends TestCase {
+    /** The two ends of one connection. */
+    private static final class Connection {
+        final MessageCodec.SendTable sendTable = new MessageCodec.SendTable(
+                true);
+
+        final MessageCodec.ReceiveTable receiveTable = new MessageCodec.ReceiveTable();
+
+        /** The size in bytes of the last message that was sent. */
+        int lastSize = 0;
+
+        Message send(Message message) throws Exception {
+            final BufferWriteMessage w = new BufferWriteMessage();
+            MessageCodec.writeMessage(w, sendTable, message);
+            final byte bytes[] = w.getBytes();
+            lastSize = bytes.length;
+            return MessageCodec.readMessage(new BufferReadMessage(bytes),
+                    receiveTable);
+        }
+    }
+
+    private static Message roundTrip(Message message) throws Exception {
+        return new Connection().send(message);
+    }
+
+    private static JobInstance buildJob(long id, IbisIdentifier resultNode) {
+        final JobType type = new JobType(false, true, true, 3);
+        final JobInstance job = new JobInstance(new JobInstanceIdentifier(id,
+                "user" + id, resultNode), "input" + id, type, 2,
+                JobPriority.INTERACTIVE, 123456789L);
+        job.setOrphan();
+        return job;
+    }
+
+    private static void assertSameJob(JobInstance expected, JobInstance actual) {
+        assertEquals(expected.jobInstance, actual.jobInstance);
+        assertEquals(expected.jobInstance.userId, actual.jobInstance.userId);
+        assertEquals(expected.jobInstance.resultNode,
+                actual.jobInstance.resultNode);
+        assertEquals(expected.jobInstance.share, actual.jobInstance.share);
+        assertEquals(expected.input, actual.input);
+        assertEquals(expected.overallType, actual.overallType);
+        assertEquals(expected.overallType.isAtomic,
+                actual.overallType.isAtomic);
+        assertEquals(expected.overallType.blocking,
+                actual.overallType.blocking);
+        assertEquals(expected.overallType.unpredictable,
+                actual.overallType.unpredictable);
+        assertEquals(expected.stageNumber, actual.stageNumber);
+        assertEquals(expected.priority, actual.priority);
+        assertEquals(expected.deadline, actual.deadline);
+        assertEquals(expected.isOrphan(), actual.isOrphan());
+    }
+
+    private static NodePerformanceInfo buildPerformanceInfo(
+            IbisIdentifier source) {
+        final Estimate completionInfo[][] = new Estimate[][] {
+                { ConstantEstimate.ZERO, new ConstantEstimate(2.5) },
+                { InfiniteEstimate.INFINITE } };
+        final WorkerQueueInfo queueInfo[] = new WorkerQueueInfo[] {
+                new WorkerQueueInfo(4, 7, new ConstantEstimate(0.5),
+                        new ConstantEstimate(1.5)), null };
+        final NodePerformanceInfo res = new NodePerformanceInfo(
+                completionInfo, queueInfo, source, 8, 42L);
+        res.cachedResults = new long[] { 1L, -1L };
+        res.summarizedNodes = 3;
+        return res;
+    }
+
+    private static void assertSamePerformanceInfo(
+            NodePerformanceInfo expected, NodePerformanceInfo actual) {
+        assertEquals(expected.source, actual.source);
+        assertEquals(expected.timeStamp, actual.timeStamp);
+        // The string representation covers the completion and queue info.
+        assertEquals(expected.toString(), actual.toString());
+        final JobType type = new JobType(false, true, false, 0);
+        assertEquals(expected.getCapacity(type), actual.getCapacity(type));
+        assertEquals(expected.getQueueLength(), actual.getQueueLength());
+        assertEquals(expected.getExecutionTime(type).getLikelyValue(), actual
+                .getExecutionTime(type).getLikelyValue());
+        assertTrue(Arrays.equals(expected.cachedResults,
+                actual.cachedResults));
+        assertEquals(expected.summarizedNodes, actual.summarizedNodes);
+    }
+
+    /**
+     * Tests the round trip of the messages about individual jobs, including
+     * a job with a priority, a deadline, and the orphan and blocking flags.
+     *
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testJobMessages() throws Exception {
+        final IbisIdentifier master = new TestIbis("master");
+        final JobInstance job = buildJob(12, master);
+        final RunJobMessage run = (RunJobMessage) roundTrip(new RunJobMessage(
+                job, 77));
+        assertEquals(77, run.jobId);
+        assertSameJob(job, run.jobInstance);
+
+        final JobInstance other = new JobInstance(new JobInstanceIdentifier(
+                13, null, null), Integer.valueOf(13), new JobType(true, false,
+                false, 0), 0);
+        final RunJobBatchMessage batch = (RunJobBatchMessage) roundTrip(new RunJobBatchMessage(
+                new RunJobMessage[] { new RunJobMessage(job, 1),
+                        new RunJobMessage(other, 2) }));
+        assertEquals(2, batch.messages.length);
+        assertEquals(1, batch.messages[0].jobId);
+        assertSameJob(job, batch.messages[0].jobInstance);
+        assertEquals(2, batch.messages[1].jobId);
+        assertSameJob(other, batch.messages[1].jobInstance);
+
+        final JobResultMessage result = (JobResultMessage) roundTrip(new JobResultMessage(
+                job.jobInstance, "result"));
+        assertEquals(job.jobInstance, result.job);
+        assertEquals(master, result.job.resultNode);
+        assertEquals("result", result.result);
+    }
+
+    /**
+     * Tests the round trip of the small status messages.
+     *
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testStatusMessages() throws Exception {
+        final JobReceivedMessage received = (JobReceivedMessage) roundTrip(new JobReceivedMessage(
+                new long[] { 3, 5, 8 }));
+        assertTrue(Arrays.equals(new long[] { 3, 5, 8 }, received.jobIds));
+        assertEquals(9, ((JobCompletedMessage) roundTrip(new JobCompletedMessage(
+                9))).jobId);
+        assertEquals(10, ((JobFailedMessage) roundTrip(new JobFailedMessage(
+                10))).id);
+        final JobAcknowledgementsMessage acks = (JobAcknowledgementsMessage) roundTrip(new JobAcknowledgementsMessage(
+                new long[] { 1, 2 }, new double[] { 0.5, 0.25 },
+                new long[] { 3 }, new double[] { 1.5 }));
+        assertTrue(Arrays.equals(new long[] { 1, 2 }, acks.receivedIds));
+        assertTrue(Arrays.equals(new double[] { 0.5, 0.25 },
+                acks.receivedDelays));
+        assertTrue(Arrays.equals(new long[] { 3 }, acks.completedIds));
+        assertTrue(Arrays.equals(new double[] { 1.5 }, acks.completedDelays));
+        assertTrue(roundTrip(new StopNodeMessage()) instanceof StopNodeMessage);
+        // A message without an explicit layout is serialized.
+        assertEquals(11, ((CancelJobMessage) roundTrip(new CancelJobMessage(
+                11))).jobId);
+    }
+
+    /**
+     * Tests the round trip of the messages with node performance info.
+     *
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testPerformanceMessages() throws Exception {
+        final NodePerformanceInfo a = buildPerformanceInfo(new TestIbis("a"));
+        final NodePerformanceInfo b = buildPerformanceInfo(new TestIbis("b"));
+        final UpdateNodeMessage update = (UpdateNodeMessage) roundTrip(new UpdateNodeMessage(
+                a));
+        assertSamePerformanceInfo(a, update.update);
+        final GossipMessage gossip = (GossipMessage) roundTrip(new GossipMessage(
+                null, new NodePerformanceInfo[] { a, b, a }, true));
+        assertTrue(gossip.needsReply);
+        assertEquals(3, gossip.gossip.length);
+        assertSamePerformanceInfo(a, gossip.gossip[0]);
+        assertSamePerformanceInfo(b, gossip.gossip[1]);
+        assertSamePerformanceInfo(a, gossip.gossip[2]);
+    }
+
+    /**
+     * Tests that a node identifier is only sent in full the first time it is
+     * sent over a connection, and that later messages on the same connection
+     * still decode to the same identifier.
+     *
+     * @throws Exception
+     *             Thrown if the test fails unexpectedly.
+     */
+    @Test
+    public void testIdentifierInterning() throws Exception {
+        final IbisIdentifier master = new TestIbis("master");
+        final Connection connection = new Connection();
+        final JobResultMessage first = (JobResultMessage) connection
+                .send(new JobResultMessage(new JobInstanceIdentifier(1, null,
+                        master), null));
+        final int firstSize = connection.lastSize;
+        final JobResultMessage second = (JobResultMessage) connection
+                .send(new JobResultMessage(new JobInstanceIdentifier(2, null,
+                        master), null));
+        final int secondSize = connection.lastSize;
+        assertEquals(master, first.job.resultNode);
+        assertEquals(master, second.job.resultNode);
+        assertTrue("Interned message has " + secondSize + " bytes, first "
+                + firstSize, secondSize < firstSize);
+
+        // A new identifier is added to the table of the connection, and
+        // both identifiers are still decoded correctly afterwards.
+        final IbisIdentifier worker = new TestIbis("worker");
+        final UpdateNodeMessage update = (UpdateNodeMessage) connection
+                .send(new UpdateNodeMessage(buildPerformanceInfo(worker)));
+        assertEquals(worker, update.update.source);
+        final GossipMessage gossip = (GossipMessage) connection
+                .send(new GossipMessage(null, new NodePerformanceInfo[] {
+                        buildPerformanceInfo(master),
+                        buildPerformanceInfo(worker) }, false));
+        assertEquals(master, gossip.gossip[0].source);
+        assertEquals(worker, gossip.gossip[1].source);
+
+        // Without the table of the connection the interned identifiers
+        // can't be decoded.
+        final BufferWriteMessage w = new BufferWriteMessage();
+        MessageCodec.writeMessage(w, connection.sendTable,
+                new JobResultMessage(new JobInstanceIdentifier(3, null,
+                        master), null));
+        try {
+            MessageCodec.readMessage(new BufferReadMessage(w.getBytes()),
+                    new MessageCodec.ReceiveTable());
+            fail("Expected an unknown identifier index");
+        } catch (final IOException x) {
+            // Expected.
+        }
+    }
+}
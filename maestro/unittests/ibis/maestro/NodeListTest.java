@@ -0,0 +1,102 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the list of workers of a master.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class NodeListTest extends TestCase {
+    private static class J implements AtomicJob {
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+
+        @Override
+        public Serializable run(Serializable input) throws JobFailedException {
+            return input;
+        }
+    }
+
+    private static int getOutstandingJobs(final WorkerInfo worker,
+            final JobType type) {
+        return worker.get(type).getLocalNodeInfo().currentJobs;
+    }
+
+    /**
+     * Tests that a stolen job moves, with its outstanding count, from the
+     * victim to the thief.
+     */
+    @Test
+    public void testAdoptStolenJobs() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J());
+        final NodeList nodes = new NodeList(new WorkerQueue(jobs));
+        final TestIbis victimIbis = new TestIbis("victim");
+        final TestIbis thiefIbis = new TestIbis("thief");
+        final WorkerInfo victim = nodes.registerNode(victimIbis, true, jobs
+                .getTypeCount());
+        final WorkerInfo thief = nodes.registerNode(thiefIbis, true, jobs
+                .getTypeCount());
+        for (long id = 1; id <= 3; id++) {
+            final JobInstance job = new JobInstance(new JobInstanceIdentifier(
+                    id, id, null), null, type, 0);
+            victim.registerJobStart(jobs, job, id, 0.1);
+        }
+        assertEquals(3, getOutstandingJobs(victim, type));
+        nodes.registerAdoptedJobs(jobs, thiefIbis, victimIbis, new long[] {
+                2, 3, 42 });
+        assertTrue(victim.hasActiveJob(1));
+        assertFalse(victim.hasActiveJob(2));
+        assertFalse(victim.hasActiveJob(3));
+        assertTrue(thief.hasActiveJob(2));
+        assertTrue(thief.hasActiveJob(3));
+        assertFalse(thief.hasActiveJob(42));
+        assertEquals(1, getOutstandingJobs(victim, type));
+        assertEquals(2, getOutstandingJobs(thief, type));
+    }
+
+    /**
+     * Tests that a stolen job that the thief completes before the master hears
+     * of the adoption is not made active again by the late adoption.
+     */
+    @Test
+    public void testCompletionBeforeAdoption() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J());
+        final NodeList nodes = new NodeList(new WorkerQueue(jobs));
+        final TestIbis victimIbis = new TestIbis("victim");
+        final TestIbis thiefIbis = new TestIbis("thief");
+        final WorkerInfo victim = nodes.registerNode(victimIbis, true, jobs
+                .getTypeCount());
+        final WorkerInfo thief = nodes.registerNode(thiefIbis, true, jobs
+                .getTypeCount());
+        for (long id = 1; id <= 2; id++) {
+            final JobInstance job = new JobInstance(new JobInstanceIdentifier(
+                    id, id, null), null, type, 0);
+            victim.registerJobStart(jobs, job, id, 0.1);
+        }
+        final JobCompletedMessage msg = new JobCompletedMessage(2);
+        msg.source = thiefIbis;
+        msg.arrivalMoment = Utils.getPreciseTime();
+        assertNull(nodes.registerJobCompleted(jobs, msg));
+        final ArrayList<JobInstance> completed = nodes
+                .registerAdoptedJobs(jobs, thiefIbis, victimIbis,
+                        new long[] { 1, 2 });
+        assertTrue(completed.isEmpty());
+        assertFalse(victim.hasActiveJob(2));
+        assertFalse(thief.hasActiveJob(2));
+        assertTrue(thief.hasActiveJob(1));
+        assertEquals(0, getOutstandingJobs(victim, type));
+        assertEquals(1, getOutstandingJobs(thief, type));
+        assertEquals(1, thief.getActiveJobCount());
+        assertEquals(1, nodes.getActiveJobCount());
+    }
+}
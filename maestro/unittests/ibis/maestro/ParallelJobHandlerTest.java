@@ -0,0 +1,145 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the handler of parallel jobs.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class ParallelJobHandlerTest extends TestCase {
+    private static final TestIbis LOCAL = new TestIbis("local");
+
+    private static class RecordingListener implements JobCompletionListener {
+        final ArrayList<Serializable> results = new ArrayList<Serializable>();
+
+        @Override
+        public void jobCompleted(final Node node, final Object jobId,
+                final Serializable result) {
+            results.add(result);
+        }
+    }
+
+    /** A sub-job that was handed to the master queue. */
+    private static final class Subjob {
+        final long prefix[];
+
+        final Serializable input;
+
+        final Serializable userId;
+
+        final JobCompletionListener listener;
+
+        final Job job;
+
+        Subjob(final long prefix[], final Serializable input,
+                final Serializable userId,
+                final JobCompletionListener listener, final Job job) {
+            this.prefix = prefix;
+            this.input = input;
+            this.userId = userId;
+            this.listener = listener;
+            this.job = job;
+        }
+    }
+
+    /**
+     * Runs sub-jobs on the current thread through the inline path, or queues
+     * every other one to be run later, as if a worker had run it.
+     */
+    private static final class TestExecutor implements SubjobExecutor {
+        final JobList jobs = new JobList();
+
+        final JobType type = jobs.registerJob(Fibonacci.jobType);
+
+        final ParallelJobHandler handler = new ParallelJobHandler(this);
+
+        final ArrayList<Subjob> queue = new ArrayList<Subjob>();
+
+        final boolean alwaysLocal;
+
+        int localCount = 0;
+
+        private boolean runNext = false;
+
+        TestExecutor(final boolean alwaysLocal) {
+            this.alwaysLocal = alwaysLocal;
+        }
+
+        @Override
+        public boolean shouldRunSubjobLocally(final Job job) {
+            runNext = !runNext;
+            return alwaysLocal || runNext;
+        }
+
+        @Override
+        public void runSubjobLocally(final long prefix[],
+                final Serializable input, final Serializable userId,
+                final JobCompletionListener listener, final Job job,
+                final int priority, final long deadline) {
+            localCount++;
+            final JobInstanceIdentifier id = new JobInstanceIdentifier(
+                    prefix, userId, LOCAL, 1.0);
+            handler.runLocally(null, (ParallelJob) job, new JobInstance(id,
+                    input, type, 0, priority, deadline), 0.0, listener,
+                    userId);
+        }
+
+        @Override
+        public void submitSubjob(final long prefix[],
+                final Serializable input, final Serializable userId,
+                final JobCompletionListener listener, final Job job,
+                final int priority, final long deadline) {
+            queue.add(new Subjob(prefix, input, userId, listener, job));
+        }
+
+        void run(final int n, final JobCompletionListener listener) {
+            runSubjobLocally(null, n, "top", listener, Fibonacci.jobType, 0,
+                    Long.MAX_VALUE);
+            while (!queue.isEmpty()) {
+                final Subjob s = queue.remove(queue.size() - 1);
+                runSubjobLocally(s.prefix, s.input, s.userId, s.listener,
+                        s.job, 0, Long.MAX_VALUE);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        Fibonacci.jobType = new Fibonacci();
+    }
+
+    /**
+     * Tests that a recursion that runs entirely through the inline path
+     * merges the right result, and hands it on exactly once.
+     */
+    @Test
+    public void testInlineRecursion() {
+        final TestExecutor executor = new TestExecutor(true);
+        final RecordingListener listener = new RecordingListener();
+        executor.run(10, listener);
+        assertEquals(1, listener.results.size());
+        assertEquals(55, listener.results.get(0));
+        // One run for every call of fib(n), including the top-level one.
+        assertEquals(109, executor.localCount);
+    }
+
+    /**
+     * Tests that a recursion of which half of the sub-jobs only completes
+     * after the split of their parent has returned still hands on the result
+     * exactly once.
+     */
+    @Test
+    public void testMixedRecursion() {
+        final TestExecutor executor = new TestExecutor(false);
+        final RecordingListener listener = new RecordingListener();
+        executor.run(10, listener);
+        assertEquals(1, listener.results.size());
+        assertEquals(55, listener.results.get(0));
+    }
+}
@@ -0,0 +1,53 @@
+package ibis.maestro;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the payload size estimator.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class PayloadSizeEstimatorTest extends TestCase {
+    private static class Payload implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long value = 42;
+
+        private final byte data[] = new byte[1000];
+
+        private final File file = new File("/tmp/payload");
+    }
+
+    /**
+     * Tests that primitive arrays are counted exactly, and that the walk
+     * stops at the limit.
+     */
+    @Test
+    public void testArrays() {
+        final long sz = PayloadSizeEstimator.estimate(new byte[1000], 1000000);
+        assertTrue(sz >= 1000 && sz < 1100);
+        final ArrayList<int[]> l = new ArrayList<int[]>();
+        for (int i = 0; i < 100; i++) {
+            l.add(new int[1000]);
+        }
+        final long limited = PayloadSizeEstimator.estimate(l, 10000);
+        assertTrue(limited >= 10000 && limited < 20000);
+    }
+
+    /**
+     * Tests that a payload with a field of a JDK class whose fields we may
+     * not look into is still estimated, also when the class is seen again.
+     */
+    @Test
+    public void testInaccessibleFields() {
+        final long sz = PayloadSizeEstimator.estimate(new Payload(), 1000000);
+        assertTrue(sz >= 1008);
+        assertEquals(sz, PayloadSizeEstimator.estimate(new Payload(), 1000000));
+    }
+}
@@ -0,0 +1,144 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the phi-accrual failure detector.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class PhiAccrualDetectorTest extends TestCase {
+    private static final long HEARTBEAT_INTERVAL = 200;
+
+    private static final TestIbis local = new TestIbis("local", "c1");
+
+    /**
+     * Tests the value of phi for a few known cases.
+     */
+    @Test
+    public void testComputePhi() {
+        final double atMean = PhiAccrualDetector.computePhi(100, 100, 10);
+        assertEquals(Math.log10(2), atMean, 0.01);
+        final double late = PhiAccrualDetector.computePhi(200, 100, 10);
+        assertTrue(late > Settings.PHI_SUSPICION_THRESHOLD);
+        final double early = PhiAccrualDetector.computePhi(50, 100, 10);
+        assertTrue(early < atMean);
+    }
+
+    /**
+     * Tests that the allowance covers the backed-off gossip interval, and is
+     * larger between clusters.
+     */
+    @Test
+    public void testAllowance() {
+        final long inCluster = PhiAccrualDetector.computeAllowance(local,
+                new TestIbis("a", "c1"));
+        final long betweenClusters = PhiAccrualDetector.computeAllowance(
+                local, new TestIbis("b", "c2"));
+        if (Settings.ADAPTIVE_GOSSIP) {
+            assertEquals(Settings.GOSSIP_EXPIRATION_IN_CLUSTER
+                    * Settings.GOSSIP_INTERVAL_BACKOFF_LIMIT, inCluster);
+        }
+        assertTrue(betweenClusters > inCluster);
+    }
+
+    /**
+     * Simulates a number of nodes that send regular messages with some
+     * jitter, of which one stops after a while. Only the node that stopped
+     * should be suspected, and within a bounded time.
+     */
+    @Test
+    public void testDetection() {
+        final PhiAccrualDetector detector = new PhiAccrualDetector(local);
+        final Random rng = new Random(42);
+        final TestIbis nodes[] = new TestIbis[4];
+        final long nextArrival[] = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new TestIbis("node" + i, "c1");
+        }
+        final TestIbis hung = nodes[0];
+        final long allowance = PhiAccrualDetector.computeAllowance(local, hung);
+        final long hangMoment = 10000;
+        long detectionMoment = -1;
+        for (long now = 0; now < 20000; now += 10) {
+            for (int i = 0; i < nodes.length; i++) {
+                if (now >= nextArrival[i]
+                        && (nodes[i] != hung || now < hangMoment)) {
+                    detector.registerArrival(nodes[i], now, true);
+                    nextArrival[i] = now + HEARTBEAT_INTERVAL
+                            + rng.nextInt(50);
+                }
+            }
+            final ArrayList<IbisIdentifier> suspects = detector
+                    .getNewSuspects(now);
+            for (final IbisIdentifier ibis : suspects) {
+                assertEquals(hung, ibis);
+                detectionMoment = now;
+            }
+        }
+        assertTrue(detectionMoment > hangMoment);
+        final long detectionLatency = detectionMoment - hangMoment;
+        assertTrue("Detection latency " + detectionLatency + " ms",
+                detectionLatency < allowance + 10 * HEARTBEAT_INTERVAL);
+        assertEquals(1, detector.getSuspicionCount());
+        assertEquals(0, detector.getFalsePositiveCount());
+
+        // The hung node comes back: a false positive.
+        assertTrue(detector.registerArrival(hung, 20000, true));
+        assertEquals(1, detector.getFalsePositiveCount());
+    }
+
+    /**
+     * Simulates a node that sends periodic gossip, and acknowledgements in
+     * bursts with long silences in between. The bursts should neither make
+     * the node suspect while it gossips, nor delay its detection once it
+     * stops.
+     */
+    @Test
+    public void testMixedArrivals() {
+        final PhiAccrualDetector detector = new PhiAccrualDetector(local);
+        final Random rng = new Random(7);
+        final TestIbis node = new TestIbis("node", "c1");
+        final long gossipInterval = Settings.GOSSIP_EXPIRATION_IN_CLUSTER;
+        final long allowance = PhiAccrualDetector.computeAllowance(local, node);
+        final long hangMoment = 60000;
+        long nextGossip = 0;
+        long nextBurst = 0;
+        int burstRemaining = 0;
+        long detectionMoment = -1;
+        for (long now = 0; now < 80000; now += 10) {
+            if (now < hangMoment) {
+                if (now >= nextGossip) {
+                    detector.registerArrival(node, now, true);
+                    nextGossip = now + gossipInterval + rng.nextInt(100);
+                }
+                if (now >= nextBurst) {
+                    burstRemaining = 1 + rng.nextInt(30);
+                    nextBurst = now + rng.nextInt(5000);
+                }
+                if (burstRemaining > 0) {
+                    detector.registerArrival(node, now, false);
+                    burstRemaining--;
+                }
+            }
+            for (final IbisIdentifier ibis : detector.getNewSuspects(now)) {
+                assertEquals(node, ibis);
+                assertTrue("Suspected at " + now + " ms while alive",
+                        now >= hangMoment);
+                detectionMoment = now;
+            }
+        }
+        assertTrue(detectionMoment > hangMoment);
+        final long detectionLatency = detectionMoment - hangMoment;
+        assertTrue("Detection latency " + detectionLatency + " ms",
+                detectionLatency < allowance + 4 * gossipInterval);
+        assertEquals(0, detector.getFalsePositiveCount());
+    }
+}
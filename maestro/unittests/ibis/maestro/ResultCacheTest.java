@@ -0,0 +1,100 @@
+package ibis.maestro;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the result cache and its summary.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class ResultCacheTest extends TestCase {
+    private static final JobType TYPE = new JobType(false, true, false, 0);
+
+    /**
+     * Tests that cached results are found, and that the summary contains
+     * every cached key and grows with the number of entries.
+     */
+    @Test
+    public void testSummary() {
+        final ResultCache cache = new ResultCache(1024 * 1024);
+        assertEquals(0, cache.getSummary().length);
+        final ResultCache.Key keys[] = new ResultCache.Key[200];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ResultCache.computeKey(TYPE, Integer.valueOf(i));
+            cache.put(keys[i], "result" + i);
+        }
+        final long summary[] = cache.getSummary();
+        assertEquals((keys.length
+                * Settings.RESULT_CACHE_SUMMARY_BITS_PER_ENTRY + 63) / 64,
+                summary.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals("result" + i, cache.get(keys[i]));
+            assertTrue(ResultCache.mayContain(summary, keys[i]));
+        }
+        int falsePositives = 0;
+        for (int i = keys.length; i < keys.length + 1000; i++) {
+            if (ResultCache.mayContain(summary, ResultCache.computeKey(TYPE,
+                    Integer.valueOf(i)))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 60);
+        assertNull(cache.get(ResultCache.computeKey(TYPE, Integer
+                .valueOf(-1))));
+    }
+
+    /**
+     * Tests that the summary is only published after a change, and not more
+     * often than the publication interval.
+     */
+    @Test
+    public void testPublication() {
+        final ResultCache cache = new ResultCache(1024 * 1024);
+        final long now = 100000L;
+        assertNull(cache.getNewSummary(now));
+        cache.put(ResultCache.computeKey(TYPE, "a"), "A");
+        assertNotNull(cache.getNewSummary(now));
+        assertNull(cache.getNewSummary(now + 1));
+        cache.put(ResultCache.computeKey(TYPE, "b"), "B");
+        assertNull(cache.getNewSummary(now + 1));
+        final long summary[] = cache.getNewSummary(now
+                + Settings.RESULT_CACHE_SUMMARY_INTERVAL);
+        assertNotNull(summary);
+        assertTrue(ResultCache.mayContain(summary, ResultCache.computeKey(
+                TYPE, "b")));
+    }
+
+    /**
+     * Tests that old results are evicted when the budget is exceeded.
+     */
+    @Test
+    public void testEviction() {
+        final ResultCache cache = new ResultCache(2000);
+        final ResultCache.Key first = ResultCache.computeKey(TYPE, "first");
+        cache.put(first, new byte[800]);
+        for (int i = 0; i < 10; i++) {
+            cache.put(ResultCache.computeKey(TYPE, Integer.valueOf(i)),
+                    new byte[800]);
+        }
+        assertNull(cache.get(first));
+    }
+
+    /**
+     * Tests that a job whose input is a data plane handle has no cache key,
+     * since two handles to identical inputs are never equal.
+     */
+    @Test
+    public void testHandleHasNoKey() {
+        final DataHandle handle = new DataHandle(new TestIbis("holder"), 1,
+                1000000);
+        final JobInstance handleJob = new JobInstance(
+                new JobInstanceIdentifier(1, 1, null), handle, TYPE, 0);
+        assertNull(handleJob.getCacheKey(TYPE));
+        final JobInstance plainJob = new JobInstance(
+                new JobInstanceIdentifier(2, 2, null), "input", TYPE, 0);
+        assertEquals(ResultCache.computeKey(TYPE, "input"), plainJob
+                .getCacheKey(TYPE));
+    }
+}
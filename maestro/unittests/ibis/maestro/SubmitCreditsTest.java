@@ -0,0 +1,73 @@
+package ibis.maestro;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the credit-based flow control of submitters.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class SubmitCreditsTest extends TestCase {
+    private static int takeAll(final SubmitCredits credits) {
+        int n = 0;
+        while (credits.tryAcquire()) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Tests that no more credits than the window are handed out, and that a
+     * returned credit can be taken again.
+     */
+    @Test
+    public void testWindow() {
+        final SubmitCredits credits = new SubmitCredits();
+        final int window = credits.getWindow();
+        assertEquals(window, takeAll(credits));
+        credits.release();
+        assertEquals(1, takeAll(credits));
+    }
+
+    /**
+     * Tests that credits returned after a reset don't create extra credits.
+     */
+    @Test
+    public void testReset() {
+        final SubmitCredits credits = new SubmitCredits();
+        final int window = credits.getWindow();
+        takeAll(credits);
+        credits.reset();
+        for (int i = 0; i < window; i++) {
+            credits.release();
+        }
+        assertEquals(window, takeAll(credits));
+    }
+
+    /**
+     * Tests that a blocked submitter is woken when a credit is returned.
+     * 
+     * @throws InterruptedException
+     *             Thrown if the test is interrupted.
+     */
+    @Test
+    public void testBlockedAcquire() throws InterruptedException {
+        final SubmitCredits credits = new SubmitCredits();
+        takeAll(credits);
+        final Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                credits.acquire();
+            }
+        };
+        submitter.start();
+        submitter.join(100);
+        assertTrue(submitter.isAlive());
+        credits.release();
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        assertEquals(0, takeAll(credits));
+    }
+}
@@ -0,0 +1,80 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.Location;
+
+/**
+ * A stand-in for the identifier of an ibis, for tests that need nodes without
+ * starting an ibis. Two stand-ins are equal iff they have the same name; the
+ * cluster, if given, is the second level of their location, as the failure
+ * detector and the gossip hierarchy expect.
+ *
+ * @author Kees van Reeuwijk.
+ */
+final class TestIbis implements IbisIdentifier {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    private final Location location;
+
+    TestIbis(final String name) {
+        this.name = name;
+        this.location = null;
+    }
+
+    /**
+     * Constructs an identifier with a location: the node with the given name
+     * in the given cluster.
+     */
+    TestIbis(final String name, final String cluster) {
+        this.name = name;
+        this.location = new ibis.ipl.impl.Location(new String[] { name,
+                cluster });
+    }
+
+    @Override
+    public Location location() {
+        return location;
+    }
+
+    @Override
+    public String poolName() {
+        return "test";
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String tagAsString() {
+        return null;
+    }
+
+    @Override
+    public byte[] tag() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof TestIbis && name.equals(((TestIbis) obj).name);
+    }
+
+    @Override
+    public int compareTo(final IbisIdentifier o) {
+        return name.compareTo(o.name());
+    }
+}
@@ -0,0 +1,61 @@
+package ibis.maestro;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the transmission time model.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class TransmissionModelTest extends TestCase {
+    private static final double LATENCY = 1e-3;
+
+    private static final double SECONDS_PER_BYTE = 1e-8;
+
+    /**
+     * Tests that the model fits latency and bandwidth from exact samples.
+     */
+    @Test
+    public void testFit() {
+        TransmissionModel m = TransmissionModel.EMPTY;
+        assertFalse(m.isUsable());
+        final long sizes[] = new long[] { 100, 10000, 1000000, 5000, 200000 };
+        for (int i = 0; i < 20; i++) {
+            final long bytes = sizes[i % sizes.length];
+            m = m.addSample(bytes, LATENCY + SECONDS_PER_BYTE * bytes);
+        }
+        assertTrue(m.isUsable());
+        assertEquals(LATENCY, m.latency, 1e-6);
+        assertEquals(SECONDS_PER_BYTE, m.secondsPerByte, 1e-11);
+        assertEquals(LATENCY + SECONDS_PER_BYTE * 3000000, m
+                .predictTime(3000000), 1e-4);
+    }
+
+    /**
+     * Tests that samples of a single size are attributed to latency.
+     */
+    @Test
+    public void testSingleSize() {
+        TransmissionModel m = TransmissionModel.EMPTY;
+        for (int i = 0; i < 10; i++) {
+            m = m.addSample(1000, 0.002);
+        }
+        assertEquals(0.002, m.latency, 1e-9);
+        assertEquals(0.0, m.secondsPerByte, 0.0);
+    }
+
+    /**
+     * Tests that a model is immutable, and ignores non-positive times.
+     */
+    @Test
+    public void testImmutable() {
+        final TransmissionModel m = TransmissionModel.EMPTY.addSample(100,
+                0.001);
+        final TransmissionModel m2 = m.addSample(100, 0.005);
+        assertNotSame(m, m2);
+        assertEquals(0.001, m.latency, 1e-9);
+        assertSame(m2, m2.addSample(100, 0.0));
+    }
+}
@@ -0,0 +1,94 @@
+package ibis.maestro;
+
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the worker queue.
+ *
+ * @author Kees van Reeuwijk.
+ */
+public class WorkerQueueTest extends TestCase {
+    private static final TestIbis MASTER = new TestIbis("master");
+
+    private static class J implements AtomicJob {
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+
+        @Override
+        public Serializable run(Serializable input) throws JobFailedException {
+            return input;
+        }
+    }
+
+    private static class B extends J implements BlockingJob {
+        // Nothing to add.
+    }
+
+    private static RunJobMessage add(final WorkerQueue queue,
+            final JobList jobs, final JobType type, final long id) {
+        final JobInstanceIdentifier jii = new JobInstanceIdentifier(id, id,
+                MASTER);
+        final JobInstance job = new JobInstance(jii, null, type, 0,
+                JobPriority.NORMAL, id);
+        final RunJobMessage msg = new RunJobMessage(job, id);
+        msg.source = MASTER;
+        queue.add(jobs, type, msg);
+        return msg;
+    }
+
+    /**
+     * Tests that blocking and other jobs are each taken in order of urgency,
+     * without taking jobs of the other kind.
+     */
+    @Test
+    public void testRemoveBlocking() {
+        final JobList jobs = new JobList();
+        final JobType normal = jobs.registerJob(new J());
+        final JobType blocking = jobs.registerJob(new B());
+        final WorkerQueue queue = new WorkerQueue(jobs);
+        final RunJobMessage b1 = add(queue, jobs, blocking, 1);
+        final RunJobMessage n2 = add(queue, jobs, normal, 2);
+        final RunJobMessage b3 = add(queue, jobs, blocking, 3);
+        assertTrue(queue.hasJobs(jobs, false));
+        assertSame(n2, queue.remove(jobs, null, false));
+        assertFalse(queue.hasJobs(jobs, false));
+        assertNull(queue.remove(jobs, null, false));
+        assertTrue(queue.hasJobs(jobs, true));
+        assertSame(b1, queue.remove(jobs, null, true));
+        assertSame(b3, queue.remove(jobs, null, true));
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Tests that stealing takes the least urgent jobs, and leaves at least
+     * half of the queue.
+     */
+    @Test
+    public void testSteal() {
+        final JobList jobs = new JobList();
+        final JobType normal = jobs.registerJob(new J());
+        final WorkerQueue queue = new WorkerQueue(jobs);
+        final RunJobMessage msgs[] = new RunJobMessage[9];
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = add(queue, jobs, normal, i);
+        }
+        final RunJobMessage stolen[] = queue.steal(jobs, 100, null);
+        assertEquals(4, stolen.length);
+        for (int i = 0; i < stolen.length; i++) {
+            assertSame(msgs[msgs.length - 1 - i], stolen[i]);
+        }
+        assertEquals(2, queue.steal(jobs, 2, null).length);
+        for (int i = 0; i < 3; i++) {
+            assertSame(msgs[i], queue.remove(jobs, null, false));
+        }
+        assertTrue(queue.isEmpty());
+        add(queue, jobs, normal, 100);
+        assertEquals(0, queue.steal(jobs, 100, null).length);
+    }
+}
@@ -0,0 +1,178 @@
+package ibis.maestro;
+
+import ibis.ipl.IbisIdentifier;
+import ibis.steel.ConstantEstimate;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+/**
+ * Tests for the index of workers by predicted completion time.
+ * 
+ * @author Kees van Reeuwijk.
+ */
+public class WorkerSelectionIndexTest extends TestCase {
+    private static final int NODES = 20;
+
+    private static class J implements AtomicJob {
+        @Override
+        public Serializable run(final Serializable input)
+                throws JobFailedException {
+            return input;
+        }
+
+        @Override
+        public boolean isSupported() {
+            return true;
+        }
+    }
+
+    private static LocalNodeInfoList buildLocalInfo(final JobList jobs,
+            final int currentJobs, final double time) {
+        return buildLocalInfo(jobs, currentJobs, time, null);
+    }
+
+    private static LocalNodeInfoList buildLocalInfo(final JobList jobs,
+            final int currentJobs, final double time,
+            final TransmissionModel model) {
+        final LocalNodeInfo infoPerType[] = new LocalNodeInfo[jobs
+                .getTypeCount()];
+        for (int i = 0; i < infoPerType.length; i++) {
+            infoPerType[i] = new LocalNodeInfo(currentJobs,
+                    new ConstantEstimate(0.01 * (i + 1)), new ConstantEstimate(
+                            time));
+        }
+        return new LocalNodeInfoList(false, infoPerType, model);
+    }
+
+    private static TransmissionModel buildModel(final double secondsPerByte) {
+        TransmissionModel m = TransmissionModel.EMPTY;
+        for (int i = 0; i < 20; i++) {
+            final long bytes = (i % 2 == 0) ? 1 : 100000000;
+            m = m.addSample(bytes, 1e-3 + secondsPerByte * bytes);
+        }
+        return m;
+    }
+
+    /**
+     * Builds the gossip of the given node, which executes jobs of every type
+     * with the given speed. Only constant estimates are used, so that the
+     * likely values that are drawn are the same for both kinds of selection.
+     */
+    private static NodePerformanceInfo buildNode(final JobList jobs,
+            final TestIbis ibis, final double time) {
+        final Gossip g = new Gossip(jobs, ibis);
+        final JobType types[] = jobs.getAllTypes();
+        for (int i = 0; i < types.length; i++) {
+            g.setLocalComputeTime(types[i], new ConstantEstimate(time * (i + 1)));
+            g.setWorkerQueueTimePerJob(types[i], new ConstantEstimate(
+                    0.1 * time), 1);
+        }
+        final HashMap<IbisIdentifier, LocalNodeInfoList> m = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+        m.put(ibis, buildLocalInfo(jobs, 0, time));
+        g.recomputeCompletionTimes(null, jobs, m);
+        return g.getLocalUpdate();
+    }
+
+    private static void assertSameChoice(final WorkerSelectionIndex index,
+            final HashMap<IbisIdentifier, LocalNodeInfoList> localNodeInfoMap,
+            final NodePerformanceInfo tables[], final JobInstance job,
+            final JobType type) {
+        final NodePerformanceInfo expected = MasterQueue.scanForBestWorker(
+                localNodeInfoMap, tables, job, type, -1, null);
+        final NodePerformanceInfo actual = index.selectBestWorker(
+                localNodeInfoMap, tables, job, type, -1, -1, null);
+        assertSame(expected, actual);
+    }
+
+    /**
+     * Tests that the index picks the same worker as a scan of all workers,
+     * while the local info of single workers changes as it does when slots
+     * are reserved, and after the index has fallen too far behind the log of
+     * changes.
+     */
+    @Test
+    public void testSameChoiceAsScan() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J());
+        final TestIbis ibises[] = new TestIbis[NODES];
+        final double times[] = new double[NODES];
+        final int currentJobs[] = new int[NODES];
+        final NodePerformanceInfo tables[] = new NodePerformanceInfo[NODES];
+        final HashMap<IbisIdentifier, LocalNodeInfoList> initial = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+        for (int i = 0; i < NODES; i++) {
+            ibises[i] = new TestIbis("node" + i);
+            times[i] = 1.0 + 0.3713 * ((7 * i) % NODES);
+            tables[i] = buildNode(jobs, ibises[i], times[i]);
+            initial.put(ibises[i], buildLocalInfo(jobs, 0, times[i]));
+        }
+        final NodeChangeLog log = new NodeChangeLog();
+        LocalNodeInfoMap map = log.publish(null, initial);
+        final WorkerSelectionIndex index = new WorkerSelectionIndex();
+        final JobInstance job = new JobInstance(new JobInstanceIdentifier(1,
+                1, null), null, type, 0);
+        final Random rng = new Random(42);
+        assertSameChoice(index, map, tables, job, type);
+        for (int step = 0; step < 500; step++) {
+            final int n = rng.nextInt(NODES);
+            currentJobs[n] = rng.nextInt(4);
+            final HashMap<IbisIdentifier, LocalNodeInfoList> changed = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+            changed.put(ibises[n], buildLocalInfo(jobs, currentJobs[n],
+                    times[n]));
+            map = log.publish(map, changed);
+            assertSameChoice(index, map, tables, job, type);
+        }
+        // Let the index fall behind by more than the log remembers.
+        for (int step = 0; step <= Settings.NODE_CHANGE_LOG_SIZE; step++) {
+            final int n = step % NODES;
+            currentJobs[n] = (currentJobs[n] + 1) % 4;
+            final HashMap<IbisIdentifier, LocalNodeInfoList> changed = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+            changed.put(ibises[n], buildLocalInfo(jobs, currentJobs[n],
+                    times[n]));
+            map = log.publish(map, changed);
+        }
+        assertSameChoice(index, map, tables, job, type);
+    }
+
+    /**
+     * Tests that jobs with an input size far from the typical one are placed
+     * by their own size, without reordering the index for every job.
+     */
+    @Test
+    public void testMixedPayloads() {
+        final JobList jobs = new JobList();
+        final JobType type = jobs.registerJob(new J());
+        // A fast worker behind a slow link, a slower worker behind a fast
+        // link, and a very slow one. The differences are large enough to
+        // survive the spread of the likely values.
+        final double times[] = { 1.0, 5000.0, 5000000.0 };
+        final double secondsPerByte[] = { 1e-1, 1e-8, 1e-8 };
+        final NodePerformanceInfo tables[] = new NodePerformanceInfo[times.length];
+        final HashMap<IbisIdentifier, LocalNodeInfoList> infos = new HashMap<IbisIdentifier, LocalNodeInfoList>();
+        for (int i = 0; i < times.length; i++) {
+            final TestIbis ibis = new TestIbis("node" + i);
+            tables[i] = buildNode(jobs, ibis, times[i]);
+            infos.put(ibis, buildLocalInfo(jobs, 0, times[i],
+                    buildModel(secondsPerByte[i])));
+        }
+        final LocalNodeInfoMap map = new NodeChangeLog().publish(null, infos);
+        final WorkerSelectionIndex index = new WorkerSelectionIndex();
+        final JobInstance job = new JobInstance(new JobInstanceIdentifier(1,
+                1, null), null, type, 0);
+        final long typical = 1;
+        for (int i = 0; i < 20; i++) {
+            final long payload = (i % 2 == 0) ? typical : 100000000;
+            final NodePerformanceInfo expected = MasterQueue
+                    .scanForBestWorker(map, tables, job, type, payload, null);
+            final NodePerformanceInfo actual = index.selectBestWorker(map,
+                    tables, job, type, typical, payload, null);
+            assertSame(expected, actual);
+            assertSame(payload == typical ? tables[0] : tables[1], actual);
+        }
+    }
+}